@@ -20,13 +20,16 @@
 package com.freedomotic.api;
 
 import com.freedomotic.rules.Payload;
-import com.freedomotic.rules.Statement;
+import com.freedomotic.rules.PayloadMatcher;
 import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.List;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
 import java.util.Locale;
 import java.util.UUID;
 import org.slf4j.Logger;
@@ -36,7 +39,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Enrico Nicoletti
  */
-public class EventTemplate implements Serializable {
+public class EventTemplate implements Serializable, Cloneable {
 
     private static final long serialVersionUID = -6726283450243677665L;
     protected String eventName;
@@ -44,11 +47,26 @@ public class EventTemplate implements Serializable {
     protected Payload payload = new Payload();
     protected boolean isValid;
     private long creation;
+    // the date and time statements are added on first access to the payload
+    private volatile boolean dateFilled;
     private final String uuid = UUID.randomUUID().toString();
     private static final String type = "event";
 
     @XStreamOmitField
     private static final Logger LOG = LoggerFactory.getLogger(EventTemplate.class.getName());
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HHmmss");
+    private static final String[] DAY_NAMES = new String[DayOfWeek.values().length];
+    private static final String[] MONTH_NAMES = new String[Month.values().length];
+
+    static {
+        for (DayOfWeek day : DayOfWeek.values()) {
+            DAY_NAMES[day.ordinal()] = day.getDisplayName(TextStyle.FULL, Locale.UK);
+        }
+        for (Month month : Month.values()) {
+            MONTH_NAMES[month.ordinal()] = month.getDisplayName(TextStyle.FULL, Locale.UK);
+        }
+    }
 
     /**
      *
@@ -108,15 +126,10 @@ public class EventTemplate implements Serializable {
      * @return
      */
     public String getProperty(String key) {
-        synchronized (payload) {
-            List<Statement> statements = payload.getStatements(key);
-
-            if (statements.isEmpty()) {
-                return "";
-            } else {
-                return statements.get(0).getValue();
-            }
+        if (PayloadMatcher.isDateAttribute(key)) {
+            fillPayloadWithDate();
         }
+        return payload.getStatementValue(key);
     }
 
     /**
@@ -133,32 +146,6 @@ public class EventTemplate implements Serializable {
         init();
 
         try {
-            Calendar rightNow = Calendar.getInstance();
-            //adding date and time data
-            payload.addStatement("date.day.name",
-                    rightNow.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.UK));
-            payload.addStatement("date.day",
-                    rightNow.get(Calendar.DAY_OF_MONTH));
-            payload.addStatement("date.month.name",
-                    rightNow.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.UK));
-            payload.addStatement("date.month", rightNow.get(Calendar.MONTH) + 1);
-            payload.addStatement("date.year",
-                    rightNow.get(Calendar.YEAR));
-            payload.addStatement("date.dow",
-                    rightNow.get(Calendar.DAY_OF_WEEK));
-            payload.addStatement("time.hour",
-                    rightNow.get(Calendar.HOUR_OF_DAY));
-            payload.addStatement("time.minute",
-                    rightNow.get(Calendar.MINUTE));
-            payload.addStatement("time.second",
-                    rightNow.get(Calendar.SECOND));
-
-            DateFormat datefmt = new SimpleDateFormat("yyyyMMdd");
-            DateFormat timefmt = new SimpleDateFormat("HHmmss");
-            payload.addStatement("time",
-                    timefmt.format(rightNow.getTime()));
-            payload.addStatement("date",
-                    datefmt.format(rightNow.getTime()));
             //adding event.sender to event payload. So it can be used by trigger
             payload.addStatement("sender", getSender());
             payload.addStatement("uuid", this.uuid);
@@ -168,6 +155,42 @@ public class EventTemplate implements Serializable {
         }
     }
 
+    /**
+     * Adds the date and time of the event creation to the payload, if not
+     * already done. Most events are never inspected by date, so this is
+     * deferred until the payload is read, a date or time property is
+     * requested or the event is serialized by the bus.
+     */
+    private void fillPayloadWithDate() {
+        if (dateFilled) {
+            return;
+        }
+        synchronized (payload) {
+            if (dateFilled) {
+                return;
+            }
+            try {
+                LocalDateTime rightNow = LocalDateTime.ofInstant(Instant.ofEpochMilli(creation), ZoneId.systemDefault());
+                //adding date and time data
+                payload.addStatement("date.day.name", DAY_NAMES[rightNow.getDayOfWeek().ordinal()]);
+                payload.addStatement("date.day", rightNow.getDayOfMonth());
+                payload.addStatement("date.month.name", MONTH_NAMES[rightNow.getMonth().ordinal()]);
+                payload.addStatement("date.month", rightNow.getMonthValue());
+                payload.addStatement("date.year", rightNow.getYear());
+                // same numbering of Calendar.DAY_OF_WEEK, starting from sunday
+                payload.addStatement("date.dow", (rightNow.getDayOfWeek().getValue() % 7) + 1);
+                payload.addStatement("time.hour", rightNow.getHour());
+                payload.addStatement("time.minute", rightNow.getMinute());
+                payload.addStatement("time.second", rightNow.getSecond());
+                payload.addStatement("time", TIME_FORMAT.format(rightNow));
+                payload.addStatement("date", DATE_FORMAT.format(rightNow));
+            } catch (Exception e) {
+                LOG.error("Error while generating default data for event", e);
+            }
+            dateFilled = true;
+        }
+    }
+
     /**
      *
      *
@@ -202,9 +225,44 @@ public class EventTemplate implements Serializable {
      * @return
      */
     public Payload getPayload() {
+        return getPayload(true);
+    }
+
+    /**
+     * Gets the event payload, adding the date and time statements only if
+     * requested. Readers which don't need them, like the trigger indexes,
+     * avoid the cost of filling them on every event.
+     *
+     * @param withDate true to add the date and time statements if missing
+     * @return the event payload
+     */
+    public Payload getPayload(boolean withDate) {
+        if (withDate) {
+            fillPayloadWithDate();
+        }
         return payload;
     }
 
+    /**
+     * Creates a copy of this event with its own payload, so that the copy can
+     * be changed without affecting this event. The other fields are shallow
+     * copied.
+     *
+     * @return the copy, with the same uuid
+     */
+    public EventTemplate copy() {
+        try {
+            EventTemplate copy = (EventTemplate) super.clone();
+            synchronized (payload) {
+                copy.payload = payload.copy();
+                copy.dateFilled = dateFilled;
+            }
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public String toString() {
         return getEventName();
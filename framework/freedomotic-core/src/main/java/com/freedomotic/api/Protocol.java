@@ -19,12 +19,14 @@
  */
 package com.freedomotic.api;
 
+import com.freedomotic.core.PollingScheduler;
 import com.freedomotic.exceptions.PluginRuntimeException;
 import com.freedomotic.events.PluginHasChanged;
 import com.freedomotic.exceptions.PluginShutdownException;
 import com.freedomotic.exceptions.PluginStartupException;
 import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.reactions.Command;
+import com.google.inject.Inject;
 import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,7 +43,11 @@ public abstract class Protocol extends Plugin {
     private static final Logger LOG = LoggerFactory.getLogger(Protocol.class.getName());
     private int pollingWaitTime = -1;
     private Protocol.SensorThread sensorThread;
-    private volatile Destination lastDestination;
+    private volatile PollingScheduler.Poll poll;
+    private volatile ProtocolExecutor executor;
+    private final Object executorLock = new Object();
+    @Inject
+    private PollingScheduler pollingScheduler;
 
     /**
      *
@@ -140,8 +146,7 @@ public abstract class Protocol extends Plugin {
                             notifyCriticalError(startupEx.getMessage(), startupEx);
                             return; //stop the plugin startup
                         }
-                        sensorThread = new Protocol.SensorThread();
-                        sensorThread.start();
+                        startSensor();
                         setStatus(PluginStatus.RUNNING);
                         PluginHasChanged event = new PluginHasChanged(this, getName(), PluginHasChanged.PluginActions.START);
                         event.getPayload().addStatement("plugin.status", getStatus());
@@ -179,7 +184,8 @@ public abstract class Protocol extends Plugin {
                         } catch (PluginShutdownException shutdownEx) {
                             notifyError(shutdownEx.getMessage());
                         }
-                        sensorThread = null;
+                        stopSensor();
+                        shutdownExecutor();
                         setStatus(PluginStatus.STOPPED);
                         PluginHasChanged event = new PluginHasChanged(this, getName(), PluginHasChanged.PluginActions.STOP);
                         event.getPayload().addStatement("plugin.status", getStatus());
@@ -218,6 +224,89 @@ public abstract class Protocol extends Plugin {
         return pollingWaitTime > 0;
     }
 
+    /**
+     * Gets the statistics of the polls of this sensor.
+     *
+     * @return the polls, null if the plugin is not a running polling sensor
+     */
+    public PollingScheduler.Poll getPolling() {
+        return poll;
+    }
+
+    /**
+     * Polling sensors call onRun() periodically on the shared polling
+     * scheduler, the others call it once on their own thread.
+     */
+    private void startSensor() {
+        if (isPollingSensor()) {
+            // the plugin privileges are bound once and reused by every poll
+            Runnable task = getApi().getAuth().pluginBindRunnablePrivileges(this, this::poll);
+            poll = pollingScheduler.schedule(getName(), this::getScheduleRate,
+                    pollingScheduler.getMode(getConfiguration().getStringProperty("polling-mode", null)), task);
+        } else {
+            sensorThread = new Protocol.SensorThread();
+            sensorThread.start();
+        }
+    }
+
+    private void stopSensor() {
+        PollingScheduler.Poll current = poll;
+        if (current != null) {
+            current.cancel();
+            poll = null;
+        }
+        sensorThread = null;
+    }
+
+    private void poll() {
+        if (!isRunning()) {
+            return;
+        }
+        try {
+            onRun();
+        } catch (Exception e) {
+            PollingScheduler.Poll current = poll;
+            if (current != null) {
+                current.cancel();
+            }
+            notifyCriticalError(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the executor running the commands and the events received by this
+     * plugin, configured in the plugin manifest.
+     *
+     * @return the executor, null if the plugin has not received messages
+     * since it was started
+     */
+    public ProtocolExecutor getExecutor() {
+        return executor;
+    }
+
+    private ProtocolExecutor executor() {
+        ProtocolExecutor current = executor;
+        if (current == null || current.isShutdown()) {
+            synchronized (executorLock) {
+                current = executor;
+                if (current == null || current.isShutdown()) {
+                    current = ProtocolExecutor.fromConfig(getName(), getConfiguration());
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private void shutdownExecutor() {
+        synchronized (executorLock) {
+            if (executor != null) {
+                // the messages already received are still executed
+                executor.shutdown();
+            }
+        }
+    }
+
     @Override
     public final void onMessage(final ObjectMessage message) {
         if (!isRunning()) {
@@ -234,19 +323,20 @@ public abstract class Protocol extends Plugin {
                 final Command command = (Command) payload;
                 LOG.info("Plugin \"{}\" receives command [{}] with parameters '{''{'{}'}''}'", new Object[]{this.getName(), command.getName(), command.getProperties()});
 
-                Protocol.ActuatorOnCommandRunnable action;
-                lastDestination = message.getJMSReplyTo();
+                final Protocol.ActuatorOnCommandRunnable action;
+                // the plugin may reply later, from another thread or after other commands
+                command.setReplyTo(message.getJMSReplyTo(), message.getJMSCorrelationID());
                 action = new Protocol.ActuatorOnCommandRunnable(command,
                         message.getJMSReplyTo(),
                         message.getJMSCorrelationID());
-                Protocol.ActuatorPerforms task = new Protocol.ActuatorPerforms(getApi().getAuth().pluginBindRunnablePrivileges(this, action));
-                task.start();
+                executor().execute(new Protocol.ActuatorPerforms(getApi().getAuth().pluginBindRunnablePrivileges(this, action), action::rejected));
             } else {
                 if (payload instanceof EventTemplate) {
                     final EventTemplate event = (EventTemplate) payload;
                     Protocol.ActuatorOnEventRunnable r = new Protocol.ActuatorOnEventRunnable(event);
-                    Protocol.ActuatorPerforms task = new Protocol.ActuatorPerforms(getApi().getAuth().pluginBindRunnablePrivileges(this, r));
-                    task.start();
+                    executor().execute(new Protocol.ActuatorPerforms(getApi().getAuth().pluginBindRunnablePrivileges(this, r), () -> {
+                        LOG.debug("Plugin \"{}\" discards event \"{}\"", getName(), event.getEventName());
+                    }));
                 }
             }
         } catch (JMSException ex) {
@@ -266,22 +356,40 @@ public abstract class Protocol extends Plugin {
     }
 
     /**
+     * Sends back a received command to its sender, marked as executed or not.
      *
-     * @param command
+     * @param command the received command, or a clone of it
      */
     public void reply(Command command) {
-        // sends back the command
-        final String defaultCorrelationID = "-1";
-        getBusService().reply(command, lastDestination, defaultCorrelationID);
-
+        if (command.getReplyTo() == null) {
+            LOG.warn("Plugin \"{}\" cannot reply to command \"{}\", its sender is not waiting for a reply",
+                    getName(), command.getName());
+            return;
+        }
+        // the correlation ID routes the reply to the waiting sender
+        final String correlationID = (command.getCorrelationID() != null) ? command.getCorrelationID() : "-1";
+        getBusService().reply(command, command.getReplyTo(), correlationID);
     }
 
-    private class ActuatorPerforms extends Thread {
+    private static class ActuatorPerforms implements ProtocolExecutor.Task {
+
+        private final Runnable target;
+        private final Runnable onRejected;
 
-        public ActuatorPerforms(Runnable target) {
-            super(target, "freedomotic-protocol-executor");
+        ActuatorPerforms(Runnable target, Runnable onRejected) {
+            this.target = target;
+            this.onRejected = onRejected;
         }
 
+        @Override
+        public void run() {
+            target.run();
+        }
+
+        @Override
+        public void rejected() {
+            onRejected.run();
+        }
     }
 
     public class ActuatorOnEventRunnable implements Runnable {
@@ -338,6 +446,18 @@ public abstract class Protocol extends Plugin {
                 getBusService().reply(command, reply, correlationID); //sends back the command marked as executed or not
             }
         }
+
+        /**
+         * Replies the command as not executed when the plugin is too busy to
+         * run it, so the sender doesn't wait for the reply timeout.
+         */
+        void rejected() {
+            command.setExecuted(false);
+            LOG.debug("Plugin \"{}\" is too busy to execute command [{}]", getName(), command.getName());
+            if (command.getReplyTimeout() > 0) {
+                getBusService().reply(command, reply, correlationID);
+            }
+        }
     }
 
     private class SensorThread
@@ -346,26 +466,8 @@ public abstract class Protocol extends Plugin {
         @Override
         public void run() {
             try {
-                if (isPollingSensor()) {
-                    Thread thisThread = Thread.currentThread();
-                    while (sensorThread == thisThread) {
-                        try {
-                            Thread.sleep(pollingWaitTime);
-                            synchronized (this) {
-                                while (!isRunning() && (sensorThread == thisThread)) {
-                                    wait();
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            LOG.warn("Interrupted exception: ", e);
-                            Thread.currentThread().interrupt();
-                        }
-                        onRun();
-                    }
-                } else {
-                    if (isRunning()) {
-                        onRun();
-                    }
+                if (isRunning()) {
+                    onRun();
                 }
             } catch (Exception e) {
                 notifyCriticalError(e.getMessage(), e);
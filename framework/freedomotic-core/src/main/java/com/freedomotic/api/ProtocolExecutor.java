@@ -0,0 +1,392 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.api;
+
+import com.freedomotic.model.ds.Config;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the commands and the events received by a protocol plugin.
+ * <p>
+ * The execution model is read from the plugin manifest:
+ * </p>
+ * <ul>
+ * <li>executor: <i>serial</i> runs one message at a time in arrival order,
+ * <i>pool</i> (the default) runs them on a bounded pool of threads,
+ * <i>virtual</i> runs each of them on a virtual thread if the JVM supports
+ * them, otherwise falls back to the pool</li>
+ * <li>executor-threads: the size of the pool, default 8</li>
+ * <li>executor-queue-size: the maximum number of messages waiting to run,
+ * default 1000. With virtual threads it limits the messages in progress</li>
+ * <li>executor-rejection-policy: what to do with a message when the queue is
+ * full. <i>caller-runs</i> (the default) runs it on the thread receiving from
+ * the bus, slowing down the delivery to this plugin only, <i>reject</i>
+ * discards it, <i>discard-oldest</i> discards the message waiting since
+ * longer</li>
+ * </ul>
+ * <p>
+ * A discarded message is notified to its task, so a command can be replied
+ * as not executed instead of letting the sender wait for its timeout.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class ProtocolExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProtocolExecutor.class.getName());
+    private static final long STATS_INTERVAL = 60000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private final String pluginName;
+    private final Mode mode;
+    private final RejectionPolicy rejectionPolicy;
+    private final int queueSize;
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualThreads;
+    // messages submitted and not yet completed
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong windowExecuted = new AtomicLong();
+    private final AtomicLong rejectedAtWindowStart = new AtomicLong();
+    private volatile double throughput;
+
+    /**
+     * How the messages of a plugin are executed.
+     */
+    public enum Mode {
+
+        SERIAL, POOL, VIRTUAL
+    }
+
+    /**
+     * What to do when a message is received and the queue is full.
+     */
+    public enum RejectionPolicy {
+
+        CALLER_RUNS, REJECT, DISCARD_OLDEST
+    }
+
+    /**
+     * A message to execute, which is told when it is discarded.
+     */
+    public interface Task extends Runnable {
+
+        /**
+         * Called instead of run() when the message is discarded because the
+         * queue is full.
+         */
+        void rejected();
+    }
+
+    /**
+     *
+     * @param pluginName the name of the plugin, used to name the threads
+     * @param mode the execution model
+     * @param threads the number of threads of the pool, ignored by the serial
+     * mode
+     * @param queueSize the maximum number of messages waiting to run
+     * @param rejectionPolicy what to do when the queue is full
+     */
+    ProtocolExecutor(String pluginName, Mode mode, int threads, int queueSize, RejectionPolicy rejectionPolicy) {
+        this.pluginName = pluginName;
+        this.queueSize = Math.max(1, queueSize);
+        this.rejectionPolicy = rejectionPolicy;
+        ExecutorService virtual = (mode == Mode.VIRTUAL) ? newVirtualThreadExecutor() : null;
+        if (mode == Mode.VIRTUAL && virtual == null) {
+            LOG.info("Virtual threads are not supported by this JVM, plugin \"{}\" uses a pool of threads", pluginName);
+            mode = Mode.POOL;
+        }
+        this.mode = mode;
+        this.virtualThreads = virtual;
+        if (virtual == null) {
+            int size = (mode == Mode.SERIAL) ? 1 : Math.max(1, threads);
+            AtomicInteger counter = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(this.queueSize),
+                    (Runnable runnable) -> {
+                        Thread worker = new Thread(runnable, pluginName + "-executor-" + counter.incrementAndGet());
+                        worker.setDaemon(true);
+                        return worker;
+                    },
+                    (Runnable runnable, ThreadPoolExecutor executor) -> overflow((Timed) runnable));
+            // plugins receiving few messages don't keep idle threads around
+            this.pool.allowCoreThreadTimeOut(true);
+        } else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Creates the executor configured in the plugin manifest.
+     *
+     * @param pluginName the name of the plugin
+     * @param configuration the plugin configuration
+     * @return the executor
+     */
+    static ProtocolExecutor fromConfig(String pluginName, Config configuration) {
+        return new ProtocolExecutor(pluginName,
+                parse(Mode.class, configuration.getStringProperty("executor", Mode.POOL.name()), Mode.POOL),
+                configuration.getIntProperty("executor-threads", DEFAULT_THREADS),
+                configuration.getIntProperty("executor-queue-size", DEFAULT_QUEUE_SIZE),
+                parse(RejectionPolicy.class, configuration.getStringProperty("executor-rejection-policy",
+                        RejectionPolicy.CALLER_RUNS.name()), RejectionPolicy.CALLER_RUNS));
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> type, String value, E defaultValue) {
+        try {
+            return Enum.valueOf(type, value.trim().replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.warn("Unknown executor setting \"{}\", using {}", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor(), which exists
+     * only on recent JVMs.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @param task runs the message
+     */
+    public void execute(Task task) {
+        Timed timed = new Timed(task);
+        if (pool != null) {
+            // a full or shut down pool hands the message to overflow()
+            pool.execute(timed);
+            return;
+        }
+        // the new message is already counted
+        if (inProgress.get() > queueSize) {
+            overflow(timed);
+            return;
+        }
+        try {
+            virtualThreads.execute(timed);
+        } catch (RejectedExecutionException ex) {
+            reject(timed);
+        }
+    }
+
+    /**
+     * Applies the rejection policy to a message which doesn't fit in the
+     * queue.
+     */
+    private void overflow(Timed timed) {
+        if (isShutdown()) {
+            reject(timed);
+            return;
+        }
+        switch (rejectionPolicy) {
+            case CALLER_RUNS:
+                timed.run();
+                break;
+            case DISCARD_OLDEST:
+                // virtual threads have no queue to drop from, the new message is discarded
+                Runnable oldest = (pool != null) ? pool.getQueue().poll() : null;
+                if (oldest != null) {
+                    reject((Timed) oldest);
+                    pool.execute(timed);
+                } else {
+                    reject(timed);
+                }
+                break;
+            default:
+                reject(timed);
+        }
+    }
+
+    private void reject(Timed timed) {
+        inProgress.decrementAndGet();
+        long count = rejected.incrementAndGet();
+        // a flooded plugin logs only a sample of the discarded messages
+        if ((count % 100) == 1) {
+            LOG.warn("Plugin \"{}\" cannot keep up with its messages ({} waiting), a message is discarded, {} discarded so far",
+                    pluginName, getQueueDepth(), count);
+        }
+        try {
+            timed.task.rejected();
+        } catch (RuntimeException ex) {
+            LOG.error("Error while discarding a message of plugin \"{}\"", pluginName, ex);
+        }
+    }
+
+    /**
+     * Stops accepting messages, the ones already queued are still executed.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        } else {
+            virtualThreads.shutdown();
+        }
+    }
+
+    /**
+     *
+     * @return true if the executor doesn't accept messages anymore
+     */
+    public boolean isShutdown() {
+        return (pool != null) ? pool.isShutdown() : virtualThreads.isShutdown();
+    }
+
+    /**
+     * Gets the execution model in use, which can differ from the configured
+     * one if virtual threads are not supported.
+     *
+     * @return the execution model
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the number of messages waiting to run.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return (pool != null) ? pool.getQueue().size() : inProgress.get();
+    }
+
+    /**
+     * Gets the number of messages executed per second, measured on the last
+     * minute.
+     *
+     * @return the messages per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Gets the average time spent by the messages in the queue.
+     *
+     * @return the average wait time in milliseconds
+     */
+    public double getAverageWaitTime() {
+        long count = executed.get();
+        return (count > 0) ? (waitNanos.get() / 1000000.0) / count : 0;
+    }
+
+    /**
+     * Gets the average time spent by the plugin in onCommand() and onEvent().
+     *
+     * @return the average execution time in milliseconds
+     */
+    public double getAverageRunTime() {
+        long count = executed.get();
+        return (count > 0) ? (runNanos.get() / 1000000.0) / count : 0;
+    }
+
+    /**
+     * Gets the number of messages executed.
+     *
+     * @return the executed messages
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * Gets the number of messages discarded because the queue was full.
+     *
+     * @return the discarded messages
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void updateStats(long waitTime, long runTime) {
+        executed.incrementAndGet();
+        waitNanos.addAndGet(waitTime);
+        runNanos.addAndGet(runTime);
+        windowExecuted.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if ((now - start) >= STATS_INTERVAL && windowStart.compareAndSet(start, now)) {
+            throughput = windowExecuted.getAndSet(0) * 1000.0 / (now - start);
+            long discarded = getRejected();
+            int waiting = getQueueDepth();
+            // a healthy plugin logs its stats only at debug level
+            boolean congested = (discarded > rejectedAtWindowStart.getAndSet(discarded)) || (waiting >= queueSize / 2);
+            if (congested || LOG.isDebugEnabled()) {
+                String stats = String.format("Plugin \"%s\" executor: %.2f messages/s, %d waiting, %.2f ms average wait, "
+                        + "%.2f ms average execution, %d discarded", pluginName, throughput, waiting,
+                        getAverageWaitTime(), getAverageRunTime(), discarded);
+                if (congested) {
+                    LOG.info(stats);
+                } else {
+                    LOG.debug(stats);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures the queue wait and the execution time of a message.
+     */
+    private final class Timed implements Runnable {
+
+        private final Task task;
+        private final long submitted = System.nanoTime();
+
+        Timed(Task task) {
+            this.task = task;
+            inProgress.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOG.error("Error while executing a message of plugin \"{}\"", pluginName, ex);
+            } finally {
+                inProgress.decrementAndGet();
+                updateStats(start - submitted, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -61,7 +61,6 @@ public class ConfigPersistence {
         LOG.info("Deserializing plugin manifest file from \"{}\"", file.getAbsolutePath());
 
         XStream xstream = FreedomXStream.getXstream();
-        xstream.autodetectAnnotations(true);
 
         String line;
         StringBuilder xml = new StringBuilder();
@@ -27,6 +27,7 @@ import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import javax.jms.JMSException;
@@ -57,11 +58,15 @@ import com.freedomotic.events.PluginHasChanged.PluginActions;
 import com.freedomotic.exceptions.FreedomoticException;
 import com.freedomotic.exceptions.PluginLoadingException;
 import com.freedomotic.exceptions.RepositoryException;
+import com.freedomotic.helpers.HttpClientService;
+import com.freedomotic.helpers.NioTransport;
 import com.freedomotic.i18n.I18n;
 import com.freedomotic.marketplace.ClassPathUpdater;
 import com.freedomotic.marketplace.IPluginCategory;
 import com.freedomotic.marketplace.MarketPlaceService;
 import com.freedomotic.nlp.CommandsNlpService;
+import com.freedomotic.persistence.DataLoader;
+import com.freedomotic.persistence.StateJournal;
 import com.freedomotic.plugins.ClientStorage;
 import com.freedomotic.plugins.PluginsManager;
 import com.freedomotic.reactions.Command;
@@ -113,6 +118,8 @@ public class Freedomotic implements BusConsumer {
     private final ThingRepository thingsRepository;
     private final CommandsNlpService commandsNlpService;
     private final Autodiscovery autodiscovery;
+    private final StateJournal stateJournal;
+    private final DataLoader dataLoader;
     private String savedDataRoot;
     private static final String LOG_PATH = Info.PATHS.PATH_WORKDIR + "/log/freedomotic.log";
     private static final double MB = 1024.0 * 1024.0;
@@ -134,6 +141,8 @@ public class Freedomotic implements BusConsumer {
      * @param topologyManager topology manager
      * @param synchManager Sync Manager
      * @param autodiscovery auto discovery
+     * @param stateJournal journal of behavior values and trigger counters
+     * @param dataLoader loader of the data files
      */
     @Inject
     public Freedomotic(
@@ -151,7 +160,9 @@ public class Freedomotic implements BusConsumer {
             TopologyManager topologyManager,
             Auth auth,
             SynchManager synchManager,
-            Autodiscovery autodiscovery) {
+            Autodiscovery autodiscovery,
+            StateJournal stateJournal,
+            DataLoader dataLoader) {
         this.pluginsManager = pluginsLoader;
         this.environmentRepository = environmentRepository;
         this.thingsRepository = thingsRepository;
@@ -167,6 +178,8 @@ public class Freedomotic implements BusConsumer {
         this.i18n = i18n;
         this.auth = auth;
         this.autodiscovery = autodiscovery;
+        this.stateJournal = stateJournal;
+        this.dataLoader = dataLoader;
     }
 
     /**
@@ -255,11 +268,13 @@ public class Freedomotic implements BusConsumer {
          * Dynamically load all plugins
          * *****************************************************************
          */
+        long phaseStart = System.currentTimeMillis();
         try {
             pluginsManager.loadAllPlugins();
         } catch (PluginLoadingException ex) {
             LOG.warn("Error while loading all plugins. Impossible to load \"{}\" due to \"{}\"", ex.getPluginName(), Freedomotic.getStackTraceInfo(ex));
         }
+        dataLoader.recordPhase("plugins loading", System.currentTimeMillis() - phaseStart);
 
         /**
          * ******************************************************************
@@ -291,14 +306,33 @@ public class Freedomotic implements BusConsumer {
         // Bootstrap Things in the environments
         // This should be done after loading all Things plugins otherwise
         // its java class will not be recognized by the system
+        phaseStart = System.currentTimeMillis();
+        try {
+            stateJournal.open(new File(Info.PATHS.PATH_DATA_FOLDER, "state"));
+        } catch (IOException ex) {
+            LOG.error("Cannot open the state journal, runtime state will not be recovered", ex);
+        }
         environmentRepository.initFromDefaultFolder();
+        // Brings back the behavior values changed after the last save
+        stateJournal.restoreThings(thingsRepository);
+        dataLoader.recordPhase("environments and things", System.currentTimeMillis() - phaseStart);
 
         // Loads the entire Reactions system (Trigger + Commands + Reactions)
-        triggerRepository.loadTriggers(new File(Info.PATHS.PATH_DATA_FOLDER + "/trg/"));
+        // triggers and commands don't depend on each other, reactions depend on both
+        phaseStart = System.currentTimeMillis();
+        CompletableFuture<Void> triggersLoading = CompletableFuture.runAsync(() -> {
+            triggerRepository.loadTriggers(new File(Info.PATHS.PATH_DATA_FOLDER + "/trg/"));
+            stateJournal.restoreTriggers(triggerRepository);
+        });
         commandRepository.loadCommands(new File(Info.PATHS.PATH_DATA_FOLDER + "/cmd/"));
+        triggersLoading.join();
+        dataLoader.recordPhase("triggers and commands", System.currentTimeMillis() - phaseStart);
+        phaseStart = System.currentTimeMillis();
         reactionRepository.loadReactions(new File(Info.PATHS.PATH_DATA_FOLDER + "/rea/"));
+        dataLoader.recordPhase("reactions", System.currentTimeMillis() - phaseStart);
 
         // Starting plugins
+        phaseStart = System.currentTimeMillis();
         for (Client plugin : clientStorage.getClients()) {
             String startupTime = plugin.getConfiguration().getStringProperty("startup-time", "undefined");
 
@@ -312,6 +346,9 @@ public class Freedomotic implements BusConsumer {
             }
         }
 
+        dataLoader.recordPhase("plugins startup", System.currentTimeMillis() - phaseStart);
+        dataLoader.logReport();
+
         Runtime runtime = Runtime.getRuntime();
         LOG.info("Used Memory: {}", (runtime.totalMemory() - runtime.freeMemory()) / MB);
         LOG.info("Freedomotic startup completed");
@@ -347,6 +384,7 @@ public class Freedomotic implements BusConsumer {
             int executionInterval = Integer.parseInt(config.getProperty("KEY_DATA_SAVING_INTERVAL"));
             final PeriodicSave periodicSave = new PeriodicSave(savedDataRoot, executionInterval);
             periodicSave.delegateRepositories(triggerRepository, commandRepository, reactionRepository);
+            periodicSave.delegateDataLoader(dataLoader);
             periodicSave.startExecutorService();
         }
     }
@@ -480,6 +518,14 @@ public class Freedomotic implements BusConsumer {
         LogManager.getLogManager().getLogger("").setLevel(Level.ALL);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangingEvents() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -532,6 +578,11 @@ public class Freedomotic implements BusConsumer {
             LOG.error("Cannot save environment to folder \"{}\" due to \"{}\"", folder, Freedomotic.getStackTraceInfo(ex));
         }
 
+        stateJournal.close();
+        dataLoader.saveSnapshot();
+        HttpClientService.shutdownDefault();
+        NioTransport.shutdownDefault();
+
         LOG.info("Freedomotic instance ID \"{}\" is shutting down. See you!", KEY_INSTANCE_ID);
         System.exit(0);
     }
@@ -0,0 +1,107 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends events and commands as {@link BytesMessage} in the compact
+ * {@link BinaryFormat}, instead of Java serialization. The objects which have
+ * no {@link BinarySchema}, for instance plugin events holding other objects,
+ * are sent with Java serialization.
+ * <p>
+ * The binary messages are marked with the {@link #FORMAT_PROPERTY} property,
+ * so any message can be decoded whatever is the codec used by the sender.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class BinaryBusCodec implements BusCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryBusCodec.class.getName());
+    static final String NAME = "binary";
+    static final String FORMAT_PROPERTY = "freedomotic.format";
+    private final JavaBusCodec fallback = new JavaBusCodec();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    @Override
+    public Message encode(Session session, Serializable object) throws JMSException {
+        byte[] data;
+        try {
+            data = BinaryFormat.write(object);
+        } catch (BinaryFormat.UnsupportedObjectException ex) {
+            if (fallbacks.incrementAndGet() % 1000 == 1) {
+                LOG.debug("Sending {} with Java serialization: {}", object.getClass().getName(), ex.getMessage());
+            }
+            return fallback.encode(session, object);
+        }
+        BytesMessage msg = session.createBytesMessage();
+        msg.setIntProperty(FORMAT_PROPERTY, BinaryFormat.VERSION);
+        msg.writeBytes(data);
+        return msg;
+    }
+
+    @Override
+    public Serializable decode(Message message) throws JMSException {
+        if (!isBinary(message)) {
+            return fallback.decode(message);
+        }
+        BytesMessage bytes = (BytesMessage) message;
+        byte[] data = new byte[(int) bytes.getBodyLength()];
+        bytes.reset();
+        bytes.readBytes(data);
+        try {
+            return BinaryFormat.read(data, 0, data.length);
+        } catch (IOException ex) {
+            MessageFormatException error = new MessageFormatException("Cannot decode binary message: " + ex.getMessage());
+            error.initCause(ex);
+            throw error;
+        }
+    }
+
+    /**
+     * Tells if a message was created by this codec.
+     *
+     * @param message the received message
+     * @return true if it holds an object in binary format
+     * @throws JMSException
+     */
+    static boolean isBinary(Message message) throws JMSException {
+        return (message instanceof BytesMessage) && message.propertyExists(FORMAT_PROPERTY);
+    }
+
+    /**
+     * Gets the number of objects sent with Java serialization because they
+     * have no binary schema.
+     *
+     * @return the number of fallbacks
+     */
+    long getFallbacks() {
+        return fallbacks.get();
+    }
+}
@@ -0,0 +1,541 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.model.ds.Config;
+import com.freedomotic.model.ds.Tuples;
+import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.Statement;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Compact binary encoding of events and commands.
+ * <p>
+ * A message is made of the format version, the class name, the
+ * {@link BinarySchema} fingerprint and the fields in schema order. Numbers are
+ * written as variable length integers. Strings are written once per message
+ * and then referenced by index, the most common attribute names, operands and
+ * values are known in advance and never written at all.
+ * </p>
+ * <p>
+ * The known strings are part of the format: changing them requires a new
+ * {@link #VERSION}.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class BinaryFormat {
+
+    static final int VERSION = 1;
+    private static final int NULL = 0;
+    private static final int LITERAL = 1;
+    private static final int FIRST_REFERENCE = 2;
+    private static final String[] KNOWN_STRINGS = {
+        // statements
+        Statement.AND, Statement.OR, Statement.NOT, Statement.SET, Statement.ANY, Statement.EQUALS,
+        Statement.REGEX, Statement.GREATER_THAN, Statement.GREATER_EQUAL_THAN, Statement.LESS_THAN,
+        Statement.LESS_EQUAL_THAN, Statement.BETWEEN_TIME,
+        // default event payload
+        "date.day.name", "date.day", "date.month.name", "date.month", "date.year", "date.dow",
+        "time.hour", "time.minute", "time.second", "time", "date", "sender", "uuid", "type",
+        "event", "command", "UnknownSender",
+        "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday",
+        "January", "February", "March", "April", "May", "June", "July", "August", "September",
+        "October", "November", "December",
+        // common properties
+        "object.name", "object.class", "object.address", "object.protocol", "object.environment",
+        "object.zone", "object.includetags", "object.excludetags", "object", "behavior", "behaviorValue",
+        "behavior.name", "behavior.value", "protocol", "address", "value", "result", "message.text",
+        "message.type", "message.level", "callout", "true", "false", "",
+        // core classes
+        "com.freedomotic.api.EventTemplate", "com.freedomotic.reactions.Command",
+        "com.freedomotic.events.GenericEvent", "com.freedomotic.events.MessageEvent",
+        "com.freedomotic.events.ObjectHasChangedBehavior", "com.freedomotic.events.ObjectReceiveClick",
+        "com.freedomotic.events.ScheduledEvent", "com.freedomotic.events.ProtocolRead",
+        "GenericEvent", "MessageEvent", "ObjectHasChangedBehavior", "ObjectReceiveClick", "ScheduledEvent",
+        "ProtocolRead"
+    };
+    private static final Map<String, Integer> KNOWN_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < KNOWN_STRINGS.length; i++) {
+            KNOWN_INDEX.put(KNOWN_STRINGS[i], i);
+        }
+    }
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Thrown when an object can't be written in binary format, it must be sent
+     * with Java serialization.
+     */
+    static final class UnsupportedObjectException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedObjectException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Encodes an event or a command.
+     *
+     * @param object the object to encode
+     * @return the encoded object
+     * @throws UnsupportedObjectException if the object has no
+     * {@link BinarySchema} or holds values which can't be encoded
+     */
+    static byte[] write(Serializable object) throws UnsupportedObjectException {
+        BinarySchema schema = BinarySchema.of(object.getClass());
+        if (schema == null) {
+            throw new UnsupportedObjectException("No binary schema for " + object.getClass().getName());
+        }
+        Writer out = new Writer();
+        out.writeVarInt(VERSION);
+        out.writeString(schema.getType().getName());
+        out.writeInt(schema.getFingerprint());
+        try {
+            for (int i = 0; i < schema.size(); i++) {
+                writeField(out, schema.getKind(i), schema.getField(i).get(object));
+            }
+        } catch (IllegalAccessException ex) {
+            throw new UnsupportedObjectException(ex.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes an event or a command.
+     *
+     * @param data the encoded object
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @return the decoded object
+     * @throws IOException if the data is not valid or the class is not
+     * available
+     */
+    static Serializable read(byte[] data, int offset, int length) throws IOException {
+        Reader in = new Reader(data, offset, length);
+        int version = in.readVarInt();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported binary format version " + version);
+        }
+        String className = in.readString();
+        BinarySchema schema = BinarySchema.forName(className);
+        if (schema == null) {
+            throw new StreamCorruptedException("No binary schema for " + className);
+        }
+        if (in.readInt() != schema.getFingerprint()) {
+            throw new StreamCorruptedException("Incompatible version of " + className);
+        }
+        Object object = schema.newInstance();
+        try {
+            for (int i = 0; i < schema.size(); i++) {
+                readField(in, schema.getKind(i), schema.getField(i), object);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new StreamCorruptedException(ex.getMessage());
+        }
+        return (Serializable) object;
+    }
+
+    private static void writeField(Writer out, BinarySchema.Kind kind, Object value) throws UnsupportedObjectException {
+        switch (kind) {
+            case BOOLEAN:
+                out.writeVarInt(((Boolean) value) ? 1 : 0);
+                break;
+            case INT:
+                out.writeVarLong((Integer) value);
+                break;
+            case LONG:
+                out.writeVarLong((Long) value);
+                break;
+            case DOUBLE:
+                out.writeLong(Double.doubleToRawLongBits((Double) value));
+                break;
+            case STRING:
+                out.writeString((String) value);
+                break;
+            case PAYLOAD:
+                writePayload(out, (Payload) value);
+                break;
+            case CONFIG:
+                writeConfig(out, (Config) value);
+                break;
+            default:
+                writeStringSet(out, (Set<?>) value);
+        }
+    }
+
+    private static void readField(Reader in, BinarySchema.Kind kind, Field field, Object object) throws IOException, IllegalAccessException {
+        switch (kind) {
+            case BOOLEAN:
+                field.setBoolean(object, in.readVarInt() != 0);
+                break;
+            case INT:
+                field.setInt(object, (int) in.readVarLong());
+                break;
+            case LONG:
+                field.setLong(object, in.readVarLong());
+                break;
+            case DOUBLE:
+                field.setDouble(object, Double.longBitsToDouble(in.readLong()));
+                break;
+            case STRING:
+                field.set(object, in.readString());
+                break;
+            case PAYLOAD:
+                field.set(object, readPayload(in));
+                break;
+            case CONFIG:
+                field.set(object, readConfig(in));
+                break;
+            default:
+                field.set(object, readStringSet(in));
+        }
+    }
+
+    private static void writePayload(Writer out, Payload payload) {
+        if (payload == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(payload.getStatementsSnapshot().size() + 1);
+        for (Statement statement : payload.getStatementsSnapshot()) {
+            out.writeString(statement.getLogical());
+            out.writeString(statement.getAttribute());
+            out.writeString(statement.getOperand());
+            out.writeString(statement.getValue());
+        }
+    }
+
+    private static Payload readPayload(Reader in) throws IOException {
+        int size = in.readVarInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        Payload payload = new Payload();
+        for (int i = 0; i < size; i++) {
+            Statement statement = new Statement();
+            statement.setLogical(in.readString());
+            statement.setAttribute(in.readString());
+            statement.setOperand(in.readString());
+            statement.setValue(in.readString());
+            payload.enqueueStatement(statement);
+        }
+        return payload;
+    }
+
+    private static void writeConfig(Writer out, Config config) throws UnsupportedObjectException {
+        if (config == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        if (config.getClass() != Config.class) {
+            throw new UnsupportedObjectException("Unsupported config " + config.getClass().getName());
+        }
+        out.writeVarInt(1);
+        out.writeString(config.getXmlFile());
+        Properties properties = config.getProperties();
+        synchronized (properties) {
+            out.writeVarInt(properties.size());
+            for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+                if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+                    throw new UnsupportedObjectException("Config property " + entry.getKey() + " is not a string");
+                }
+                out.writeString((String) entry.getKey());
+                out.writeString((String) entry.getValue());
+            }
+        }
+        Tuples tuples = config.getTuples();
+        out.writeVarInt(tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            Map<String, String> tuple = tuples.getTuple(i);
+            if ((tuple == null) || (tuple.getClass() != HashMap.class)) {
+                throw new UnsupportedObjectException("Unsupported config tuple");
+            }
+            out.writeVarInt(tuple.size());
+            for (Map.Entry<String, String> entry : tuple.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeString(entry.getValue());
+            }
+        }
+    }
+
+    private static Config readConfig(Reader in) throws IOException {
+        if (in.readVarInt() == 0) {
+            return null;
+        }
+        Config config = new Config();
+        config.setXmlFile(in.readString());
+        int properties = in.readVarInt();
+        for (int i = 0; i < properties; i++) {
+            config.put(in.readString(), in.readString());
+        }
+        int tuples = in.readVarInt();
+        for (int i = 0; i < tuples; i++) {
+            int size = in.readVarInt();
+            HashMap<String, String> tuple = new HashMap<>(Math.max(4, size * 2));
+            for (int j = 0; j < size; j++) {
+                tuple.put(in.readString(), in.readString());
+            }
+            config.getTuples().add(tuple);
+        }
+        return config;
+    }
+
+    private static void writeStringSet(Writer out, Set<?> set) throws UnsupportedObjectException {
+        if (set == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        if (set.getClass() != HashSet.class) {
+            throw new UnsupportedObjectException("Unsupported set " + set.getClass().getName());
+        }
+        out.writeVarInt(set.size() + 1);
+        for (Object element : set) {
+            if ((element != null) && !(element instanceof String)) {
+                throw new UnsupportedObjectException("Set element " + element + " is not a string");
+            }
+            out.writeString((String) element);
+        }
+    }
+
+    private static HashSet<String> readStringSet(Reader in) throws IOException {
+        int size = in.readVarInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        HashSet<String> set = new HashSet<>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            set.add(in.readString());
+        }
+        return set;
+    }
+
+    private static final class Writer {
+
+        private byte[] buffer = new byte[256];
+        private int position;
+        // strings already written in this message
+        private Map<String, Integer> written;
+
+        void writeByte(int b) {
+            if (position == buffer.length) {
+                grow(1);
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeVarLong(long value) {
+            // zig-zag, so that small negative numbers are short too
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                writeByte((int) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            writeByte((int) zigzag);
+        }
+
+        void writeInt(int value) {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(NULL);
+                return;
+            }
+            Integer index = KNOWN_INDEX.get(value);
+            if ((index == null) && (written != null)) {
+                index = written.get(value);
+            }
+            if (index != null) {
+                writeVarInt(FIRST_REFERENCE + index);
+                return;
+            }
+            if (written == null) {
+                written = new HashMap<>();
+            }
+            written.put(value, KNOWN_STRINGS.length + written.size());
+            writeVarInt(LITERAL);
+            writeChars(value);
+        }
+
+        /**
+         * Writes the length, shifted left by one, followed by the characters.
+         * The lowest bit of the length tells if the characters are ASCII (one
+         * byte each) or UTF-8.
+         */
+        private void writeChars(String value) {
+            int length = value.length();
+            int start = position;
+            writeVarInt(length << 1);
+            if (buffer.length - position < length) {
+                grow(length);
+            }
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    position = start;
+                    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                    writeVarInt((utf8.length << 1) | 1);
+                    if (buffer.length - position < utf8.length) {
+                        grow(utf8.length);
+                    }
+                    System.arraycopy(utf8, 0, buffer, position, utf8.length);
+                    position += utf8.length;
+                    return;
+                }
+                buffer[position + i] = (byte) c;
+            }
+            position += length;
+        }
+
+        private void grow(int needed) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, buffer.length + needed)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[position];
+            System.arraycopy(buffer, 0, result, 0, position);
+            return result;
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] buffer;
+        private final int limit;
+        private int position;
+        // strings read in this message
+        private List<String> read;
+
+        Reader(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new StreamCorruptedException("Unexpected end of binary message");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable length integer");
+        }
+
+        long readVarLong() throws IOException {
+            long zigzag = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable length integer");
+        }
+
+        int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        String readString() throws IOException {
+            int code = readVarInt();
+            if (code == NULL) {
+                return null;
+            }
+            if (code != LITERAL) {
+                int index = code - FIRST_REFERENCE;
+                if (index < KNOWN_STRINGS.length) {
+                    return KNOWN_STRINGS[index];
+                }
+                index -= KNOWN_STRINGS.length;
+                if ((read == null) || (index >= read.size())) {
+                    throw new StreamCorruptedException("Invalid string reference " + code);
+                }
+                return read.get(index);
+            }
+            int header = readVarInt();
+            int length = header >>> 1;
+            checkAvailable(length);
+            String value = new String(buffer, position, length,
+                    ((header & 1) == 0) ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            position += length;
+            if (read == null) {
+                read = new ArrayList<>();
+            }
+            read.add(value);
+            return value;
+        }
+
+        private void checkAvailable(int length) throws IOException {
+            if (length > limit - position) {
+                throw new StreamCorruptedException("Invalid string length " + length);
+            }
+        }
+    }
+}
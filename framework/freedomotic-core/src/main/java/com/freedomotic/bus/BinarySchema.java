@@ -0,0 +1,256 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.api.EventTemplate;
+import com.freedomotic.model.ds.Config;
+import com.freedomotic.reactions.Command;
+import com.freedomotic.rules.Payload;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.core.JVM;
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The layout of a class in the binary bus format.
+ * <p>
+ * A schema lists the fields which Java serialization would write, ordered from
+ * the topmost superclass. Only events and commands whose fields are all
+ * primitives, strings, payloads, configs or sets of strings have a schema,
+ * the others are sent with Java serialization. Like Java serialization, the
+ * objects are instantiated without calling their constructors, so transient
+ * fields are left to their default values.
+ * </p>
+ * <p>
+ * The schemas are computed on first use and registered by class name, so that
+ * the classes of the plugins are found when decoding even if they are not
+ * visible to the core class loader.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class BinarySchema {
+
+    /**
+     * The kind of values a field can hold.
+     */
+    enum Kind {
+        BOOLEAN, INT, LONG, DOUBLE, STRING, PAYLOAD, CONFIG, STRING_SET
+    }
+
+    private static final ReflectionProvider INSTANTIATOR = JVM.newReflectionProvider();
+    private static final Map<String, BinarySchema> BY_NAME = new ConcurrentHashMap<>();
+    private static final ClassValue<BinarySchema> BY_CLASS = new ClassValue<BinarySchema>() {
+        @Override
+        protected BinarySchema computeValue(Class<?> type) {
+            BinarySchema schema = create(type);
+            if (schema != null) {
+                BY_NAME.putIfAbsent(type.getName(), schema);
+            }
+            return schema;
+        }
+    };
+    private final Class<?> type;
+    private final Field[] fields;
+    private final Kind[] kinds;
+    private final int fingerprint;
+
+    private BinarySchema(Class<?> type, List<Field> fields, List<Kind> kinds) {
+        this.type = type;
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.kinds = kinds.toArray(new Kind[kinds.size()]);
+        StringBuilder layout = new StringBuilder(type.getName());
+        for (int i = 0; i < this.fields.length; i++) {
+            layout.append(';').append(this.fields[i].getName()).append(':').append(this.kinds[i]);
+        }
+        this.fingerprint = layout.toString().hashCode();
+    }
+
+    /**
+     * Gets the schema of a class.
+     *
+     * @param type the class of the object to send
+     * @return the schema or null if the objects of this class must be sent
+     * with Java serialization
+     */
+    static BinarySchema of(Class<?> type) {
+        return BY_CLASS.get(type);
+    }
+
+    /**
+     * Gets the schema of a class, by name.
+     *
+     * @param className the class name, as written in the message
+     * @return the schema or null if the class is not found or has no schema
+     */
+    static BinarySchema forName(String className) {
+        BinarySchema schema = BY_NAME.get(className);
+        if (schema == null) {
+            Class<?> type = load(className);
+            if (type != null) {
+                schema = of(type);
+            }
+        }
+        return schema;
+    }
+
+    private static Class<?> load(String className) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            return Class.forName(className, false, (loader != null) ? loader : BinarySchema.class.getClassLoader());
+        } catch (ClassNotFoundException ex) {
+            try {
+                return Class.forName(className, false, BinarySchema.class.getClassLoader());
+            } catch (ClassNotFoundException notFound) {
+                return null;
+            }
+        }
+    }
+
+    private static BinarySchema create(Class<?> type) {
+        if (!(EventTemplate.class.isAssignableFrom(type) || Command.class.isAssignableFrom(type))
+                || Externalizable.class.isAssignableFrom(type)
+                || Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; (c != null) && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            if (hasCustomSerialization(c)) {
+                return null;
+            }
+            hierarchy.add(c);
+        }
+        Collections.reverse(hierarchy);
+
+        List<Field> fields = new ArrayList<>();
+        List<Kind> kinds = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            List<Field> declared = new ArrayList<>();
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    declared.add(field);
+                }
+            }
+            // the same order on every JVM
+            declared.sort((a, b) -> a.getName().compareTo(b.getName()));
+            for (Field field : declared) {
+                Kind kind = kindOf(field);
+                if (kind == null) {
+                    return null;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+                kinds.add(kind);
+            }
+        }
+        return new BinarySchema(type, fields, kinds);
+    }
+
+    private static boolean hasCustomSerialization(Class<?> c) {
+        return hasMethod(c, "writeObject", ObjectOutputStream.class)
+                || hasMethod(c, "readObject", ObjectInputStream.class)
+                || hasMethod(c, "writeReplace")
+                || hasMethod(c, "readResolve");
+    }
+
+    private static boolean hasMethod(Class<?> c, String name, Class<?>... parameters) {
+        try {
+            c.getDeclaredMethod(name, parameters);
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    private static Kind kindOf(Field field) {
+        Class<?> fieldType = field.getType();
+        if (fieldType == boolean.class) {
+            return Kind.BOOLEAN;
+        } else if (fieldType == int.class) {
+            return Kind.INT;
+        } else if (fieldType == long.class) {
+            return Kind.LONG;
+        } else if (fieldType == double.class) {
+            return Kind.DOUBLE;
+        } else if (fieldType == String.class) {
+            return Kind.STRING;
+        } else if (fieldType == Payload.class) {
+            return Kind.PAYLOAD;
+        } else if (fieldType == Config.class) {
+            return Kind.CONFIG;
+        } else if ((fieldType == HashSet.class) || (fieldType == Set.class)) {
+            Type generic = field.getGenericType();
+            if ((generic instanceof ParameterizedType)
+                    && (((ParameterizedType) generic).getActualTypeArguments()[0] == String.class)) {
+                return Kind.STRING_SET;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates an instance without calling its constructors, as Java
+     * serialization does.
+     *
+     * @return the new instance, with all the fields to their default values
+     */
+    Object newInstance() {
+        return INSTANTIATOR.newInstance(type);
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    int size() {
+        return fields.length;
+    }
+
+    Field getField(int i) {
+        return fields[i];
+    }
+
+    Kind getKind(int i) {
+        return kinds[i];
+    }
+
+    /**
+     * A hash of the class name and fields, to detect different versions of the
+     * same class on the two sides of the bus.
+     *
+     * @return the fingerprint
+     */
+    int getFingerprint() {
+        return fingerprint;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import java.io.Serializable;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * Converts the objects travelling on the bus (events and commands) to JMS
+ * messages and back.
+ *
+ * @author Freedomotic Team
+ */
+public interface BusCodec {
+
+    /**
+     * Creates the message carrying an object.
+     *
+     * @param session the session used to create the message
+     * @param object the event or command to send
+     * @return the message, ready to be sent
+     * @throws JMSException
+     */
+    Message encode(Session session, Serializable object) throws JMSException;
+
+    /**
+     * Extracts the object carried by a message.
+     *
+     * @param message a message created by any of the available codecs
+     * @return the event or command
+     * @throws JMSException if the message content can't be read
+     */
+    Serializable decode(Message message) throws JMSException;
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import java.io.Serializable;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Creates the {@link BusCodec} chosen in the configuration.
+ *
+ * @author Freedomotic Team
+ */
+final class BusCodecs {
+
+    /**
+     * Configuration key of the codec used to send messages, "binary" or
+     * "java".
+     */
+    static final String KEY_BUS_CODEC = "KEY_BUS_CODEC";
+    // it decodes both binary and Java serialized messages
+    private static final BusCodec DECODER = new BinaryBusCodec();
+
+    private BusCodecs() {
+    }
+
+    /**
+     * Gets a codec by name.
+     *
+     * @param name "binary" or "java", case insensitive
+     * @return the codec, the binary one if the name is unknown
+     */
+    static BusCodec forName(String name) {
+        if (JavaBusCodec.NAME.equalsIgnoreCase(name)) {
+            return new JavaBusCodec();
+        }
+        return new BinaryBusCodec();
+    }
+
+    /**
+     * Decodes a message whatever is the codec used by the sender.
+     *
+     * @param message the received message
+     * @return the event or command
+     * @throws JMSException
+     */
+    static Serializable decode(Message message) throws JMSException {
+        return DECODER.decode(message);
+    }
+}
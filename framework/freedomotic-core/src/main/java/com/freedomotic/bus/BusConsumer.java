@@ -35,4 +35,15 @@ public interface BusConsumer {
      * @param message
      */
     public void onMessage(ObjectMessage message);
+
+    /**
+     * Tells if the consumer changes the events it receives. The events sent
+     * in this JVM are shared among the consumers which only read them, the
+     * others get their own copy.
+     *
+     * @return false if the received events are only read
+     */
+    default boolean isChangingEvents() {
+        return true;
+    }
 }
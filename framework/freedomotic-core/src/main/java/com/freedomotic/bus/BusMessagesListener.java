@@ -59,6 +59,8 @@ public class BusMessagesListener implements MessageListener {
 
     // A listener can consume from multiple sources
     private List<MessageConsumer> consumers = new ArrayList<>();
+    // receives the events published in this JVM, when the local bus is enabled
+    private LocalEventBus.Mailbox mailbox;
 
     /**
      * Constructor.
@@ -99,6 +101,13 @@ public class BusMessagesListener implements MessageListener {
         if (message instanceof ObjectMessage) {
             final ObjectMessage objectMessage = (ObjectMessage) message;
             messageHandler.onMessage(objectMessage);
+        } else if (isBinary(message)) {
+            // consumers always receive an object message, whatever is the wire format
+            try {
+                messageHandler.onMessage(new DecodedObjectMessage(message, BusCodecs.decode(message)));
+            } catch (JMSException ex) {
+                LOG.error("Cannot decode message received by " + messageHandler.getClass().getSimpleName(), ex);
+            }
         } else {
 
             LOG.error("Message received by " + this.getClass().getSimpleName()
@@ -115,6 +124,14 @@ public class BusMessagesListener implements MessageListener {
         }
     }
 
+    private static boolean isBinary(Message message) {
+        try {
+            return BinaryBusCodec.isBinary(message);
+        } catch (JMSException ex) {
+            return false;
+        }
+    }
+
     /**
      * Registers on a command queue.
      *
@@ -138,6 +155,18 @@ public class BusMessagesListener implements MessageListener {
      * @param topicName
      */
     public void consumeEventFrom(String topicName) {
+        String selector = null;
+        LocalEventBus localBus = busService.getLocalEventBus();
+        if (localBus != null) {
+            if (mailbox == null) {
+                mailbox = localBus.createMailbox(messageHandler.getClass().getSimpleName(), this,
+                        messageHandler.isChangingEvents());
+            }
+            mailbox.subscribe(topicName);
+            // the events sent by this instance are delivered by the local bus,
+            // the broker still brings those of remote instances and external clients
+            selector = notFromThisInstance();
+        }
         try {
 
             final String virtualTopicName
@@ -145,7 +174,7 @@ public class BusMessagesListener implements MessageListener {
                     + topicName;
 
             Queue queue = busService.getReceiveSession().createQueue(virtualTopicName);
-            MessageConsumer consumer = session.createConsumer(queue);
+            MessageConsumer consumer = session.createConsumer(queue, selector);
             consumers.add(consumer);
             consumer.setMessageListener(this);
         } catch (JMSException e) {
@@ -153,6 +182,17 @@ public class BusMessagesListener implements MessageListener {
         }
     }
 
+    /**
+     * Creates a JMS selector matching the messages which were not sent by this
+     * instance.
+     *
+     * @return the message selector
+     */
+    static String notFromThisInstance() {
+        return "provenance IS NULL OR provenance <> '"
+                + String.valueOf(Freedomotic.getInstanceID()).replace("'", "''") + "'";
+    }
+
     /**
      * Subscribes a messaging topic. The message will be received by ALL the
      * subscribers. It's not a virtual topic as in consumeEventFrom(). DO NOT
@@ -188,6 +228,10 @@ public class BusMessagesListener implements MessageListener {
                 it.remove();
             }
             consumers.clear();
+            if (mailbox != null) {
+                mailbox.close();
+                mailbox = null;
+            }
             session.close();
         } catch (JMSException ex) {
             LOG.error(ex.getMessage());
@@ -20,6 +20,7 @@ package com.freedomotic.bus;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.reactions.Command;
+import java.util.concurrent.CompletableFuture;
 import javax.jms.Destination;
 import javax.jms.Session;
 
@@ -42,6 +43,21 @@ public interface BusService {
      */
     Command send(final Command command);
 
+    /**
+     * Sends a command to the bus without waiting for its reply. The returned
+     * future is completed with the reply, or with the original command marked
+     * as not executed if the reply doesn't arrive within the command reply
+     * timeout. Commands without a reply timeout complete immediately.
+     * <p>
+     * The future is completed on a bus thread, so long running dependent
+     * actions should use the async variants of the completion methods.
+     * </p>
+     *
+     * @param command The command to send
+     * @return the future reply
+     */
+    CompletableFuture<Command> sendAsync(final Command command);
+
     /**
      * Sends a command reply to the bus
      *
@@ -124,4 +140,12 @@ public interface BusService {
      * @throws java.lang.Exception
      */
     Session createSession() throws Exception;
+
+    /**
+     * Convenience method used by {@link BusMessagesListener}
+     *
+     * @return the bus delivering the events inside this JVM, null if the
+     * events are delivered only through the broker
+     */
+    LocalEventBus getLocalEventBus();
 }
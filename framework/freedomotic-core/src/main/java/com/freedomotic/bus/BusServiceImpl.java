@@ -24,6 +24,15 @@ import com.freedomotic.app.Freedomotic;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.settings.AppConfig;
 import com.google.inject.Injector;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
@@ -51,13 +60,32 @@ import org.apache.activemq.command.ActiveMQQueue;
 final class BusServiceImpl extends LifeCycle implements BusService {
 
     private static final Logger LOG = LoggerFactory.getLogger(BusServiceImpl.class.getName());
+    private static final long REPLY_TIMEOUT_TICK = 50;
+    private static final int REPLY_TIMEOUT_TICKS_PER_WHEEL = 512;
+    private static final String KEY_LOCAL_BUS = "KEY_LOCAL_BUS";
+    private static final String KEY_LOCAL_BUS_CAPACITY = "KEY_LOCAL_BUS_CAPACITY";
+    private static final String KEY_LOCAL_BUS_FORWARD = "KEY_LOCAL_BUS_FORWARD";
+    private static final String KEY_LOCAL_BUS_OFFER_TIMEOUT = "KEY_LOCAL_BUS_OFFER_TIMEOUT";
+    private static final int DEFAULT_LOCAL_BUS_CAPACITY = 1000;
+    private static final int DEFAULT_LOCAL_BUS_OFFER_TIMEOUT = 100;
     private BusBroker brokerHolder;
     private BusConnection connectionHolder;
     private AppConfig conf;
     private Session receiveSession;
     private Session sendSession;
     private Session unlistenedSession;
+    private Session replySession;
+    private TemporaryQueue replyQueue;
+    private MessageConsumer replyConsumer;
+    private TimeoutWheel replyTimeouts;
+    // completes the replies, so that the callers can't block the reply listener or the timeout wheel
+    private ExecutorService replyDispatcher;
+    // commands waiting for a reply, by JMS correlation ID
+    private final Map<String, PendingReply> pendingReplies = new ConcurrentHashMap<>();
     private Injector injector;
+    private BusCodec codec;
+    private LocalEventBus localEventBus;
+    private boolean forwardToBroker;
     protected MessageProducer messageProducer;
 
     @Inject
@@ -95,9 +123,30 @@ final class BusServiceImpl extends LifeCycle implements BusService {
         unlistenedSession = createSession();
 
         sendSession = createSession();
+        codec = BusCodecs.forName(conf.getStringProperty(BusCodecs.KEY_BUS_CODEC, BinaryBusCodec.NAME));
+        if (conf.getBooleanProperty(KEY_LOCAL_BUS, false)) {
+            localEventBus = new LocalEventBus(conf.getIntProperty(KEY_LOCAL_BUS_CAPACITY, DEFAULT_LOCAL_BUS_CAPACITY),
+                    conf.getIntProperty(KEY_LOCAL_BUS_OFFER_TIMEOUT, DEFAULT_LOCAL_BUS_OFFER_TIMEOUT));
+            // cross instance subscribers and external clients are reachable only through the broker
+            forwardToBroker = conf.getBooleanProperty(KEY_LOCAL_BUS_FORWARD, true);
+            LOG.info("Local event bus enabled, events are {}forwarded to the broker", forwardToBroker ? "" : "not ");
+        }
         // null parameter creates a producer with no specified destination
         messageProducer = createMessageProducer();
 
+        // all the replies are received on a single queue and dispatched by correlation ID
+        replyTimeouts = new TimeoutWheel("BusReplyTimeouts", REPLY_TIMEOUT_TICK, REPLY_TIMEOUT_TICKS_PER_WHEEL);
+        final AtomicInteger dispatcherThreads = new AtomicInteger();
+        replyDispatcher = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "BusReplyDispatcher-" + dispatcherThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        replySession = createSession();
+        replyQueue = replySession.createTemporaryQueue();
+        replyConsumer = replySession.createConsumer(replyQueue);
+        replyConsumer.setMessageListener(this::onReply);
+
         BootStatus.setCurrentStatus(BootStatus.STARTED);
     }
 
@@ -127,6 +176,17 @@ final class BusServiceImpl extends LifeCycle implements BusService {
 
         BootStatus.setCurrentStatus(BootStatus.STOPPING);
 
+        if (localEventBus != null) {
+            localEventBus.stop();
+        }
+        replyConsumer.close();
+        closeSession(replySession);
+        replyTimeouts.stop();
+        for (String correlationID : pendingReplies.keySet()) {
+            expireReply(correlationID);
+        }
+        replyDispatcher.shutdown();
+
         messageProducer.close();
         closeSession(sendSession);
 
@@ -208,8 +268,18 @@ final class BusServiceImpl extends LifeCycle implements BusService {
         return unlistenedSession;
     }
 
-    private ObjectMessage createObjectMessage() throws JMSException {
-        return getSendSession().createObjectMessage();
+    /**
+     * {@inheritDoc}
+     *
+     * @return
+     */
+    @Override
+    public LocalEventBus getLocalEventBus() {
+        return localEventBus;
+    }
+
+    private Message createMessage(Serializable object) throws JMSException {
+        return codec.encode(getSendSession(), object);
     }
 
     /**
@@ -223,8 +293,7 @@ final class BusServiceImpl extends LifeCycle implements BusService {
                     + "(reply timeout: " + command.getReplyTimeout() + ")");
         }
         try {
-            ObjectMessage msg = createObjectMessage();
-            msg.setObject(command);
+            Message msg = createMessage(command);
             msg.setJMSDestination(destination);
             msg.setJMSCorrelationID(correlationID);
             msg.setStringProperty("provenance", Freedomotic.getInstanceID());
@@ -240,6 +309,25 @@ final class BusServiceImpl extends LifeCycle implements BusService {
      */
     @Override
     public Command send(final Command command) {
+        CompletableFuture<Command> reply = sendAsync(command);
+        try {
+            //blocking wait until executed or timed out
+            return reply.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting the reply to command \"{}\"", command.getName());
+        } catch (ExecutionException ex) {
+            LOG.error(Freedomotic.getStackTraceInfo(ex.getCause()));
+        }
+        command.setExecuted(false);
+        return command;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Command> sendAsync(final Command command) {
         if (command == null) {
             throw new IllegalArgumentException("Cannot send a null command");
         }
@@ -250,20 +338,19 @@ final class BusServiceImpl extends LifeCycle implements BusService {
         LOG.info("Sending command \"{}\" to destination \"{}\" with reply timeout {}", new Object[]{command.getName(), command.getReceiver(), command.getReplyTimeout()});
 
         try {
-            ObjectMessage msg = createObjectMessage();
-            msg.setObject(command);
+            Message msg = createMessage(command);
             msg.setStringProperty("provenance", Freedomotic.getInstanceID());
 
             Queue currDestination = new ActiveMQQueue(command.getReceiver());
             if (command.getReplyTimeout() > 0) {
                 return sendAndWaitReply(command, currDestination, msg);
             } else {
-                return sendAndForget(command, currDestination, msg);
+                return CompletableFuture.completedFuture(sendAndForget(command, currDestination, msg));
             }
         } catch (JMSException ex) {
             LOG.error(Freedomotic.getStackTraceInfo(ex));
             command.setExecuted(false);
-            return command;
+            return CompletableFuture.completedFuture(command);
         }
     }
 
@@ -276,7 +363,7 @@ final class BusServiceImpl extends LifeCycle implements BusService {
      * @return
      * @throws JMSException
      */
-    private Command sendAndForget(final Command command, Queue currDestination, ObjectMessage msg) throws JMSException {
+    private Command sendAndForget(final Command command, Queue currDestination, Message msg) throws JMSException {
         // send the message immediately without creating temporary
         // queues and consumers on it
         // this increments perfornances if no reply is expected
@@ -291,70 +378,73 @@ final class BusServiceImpl extends LifeCycle implements BusService {
     }
 
     /**
-     *
+     * Sends a command asking the reply on the shared reply queue. The reply is
+     * matched to the command by the JMS correlation ID.
      *
      * @param command
      * @param currDestination
      * @param msg
-     * @return
+     * @return the future reply
      * @throws JMSException
      */
-    private Command sendAndWaitReply(final Command command, Queue currDestination, ObjectMessage msg) throws JMSException {
+    private CompletableFuture<Command> sendAndWaitReply(final Command command, Queue currDestination, Message msg) throws JMSException {
         // we have to wait an execution reply for an hardware device or
         // an external client
-        final Session currUnlistenedSession = this.getUnlistenedSession();
-        TemporaryQueue temporaryQueue = currUnlistenedSession
-                .createTemporaryQueue();
-
-        msg.setJMSReplyTo(temporaryQueue);
+        final String correlationID = UUID.randomUUID().toString();
+        final PendingReply pending = new PendingReply(command);
+        msg.setJMSReplyTo(replyQueue);
+        msg.setJMSCorrelationID(correlationID);
+        pendingReplies.put(correlationID, pending);
 
-        // a temporary consumer on a temporary queue
-        MessageConsumer temporaryConsumer = currUnlistenedSession
-                .createConsumer(temporaryQueue);
-
-        final MessageProducer currMessageProducer = this.getMessageProducer();
-        currMessageProducer.send(currDestination, msg);
+        try {
+            getMessageProducer().send(currDestination, msg);
+        } catch (JMSException ex) {
+            pendingReplies.remove(correlationID);
+            throw ex;
+        }
+        replyTimeouts.schedule(() -> expireReply(correlationID), command.getReplyTimeout());
 
-        // the receive() call is blocking
         LOG.info("Send and await reply to command \"{}\" for {} ms",
                 command.getName(), command.getReplyTimeout());
+        return pending.future;
+    }
 
-        Message jmsResponse = temporaryConsumer.receive(command.getReplyTimeout());
-
-        //cleanup after receiving
-        //temporaryConsumer.close();
-        //temporaryQueue.delete();
-        //TODO: commented as sometimes generates a "cannot publish on deleted queue" exception
-        //check n the documentation if a temporary queue with no consumers
-        //is automatically deleted
-        if (jmsResponse != null) {
-            // TODO unchecked cast!
-            ObjectMessage objMessage = (ObjectMessage) jmsResponse;
-
+    /**
+     * Receives the replies to all the commands sent by this instance.
+     *
+     * @param jmsResponse the reply
+     */
+    private void onReply(Message jmsResponse) {
+        try {
+            PendingReply pending = pendingReplies.remove(String.valueOf(jmsResponse.getJMSCorrelationID()));
+            if (pending == null) {
+                LOG.debug("Discarding reply with correlation ID {}, its command has already timed out", jmsResponse.getJMSCorrelationID());
+                return;
+            }
             // a command is sent, we expect a command as reply
             // TODO unchecked cast!
-            Command reply = (Command) objMessage.getObject();
+            Command reply = (Command) BusCodecs.decode(jmsResponse);
 
             LOG.info("Reply to command \""
-                    + command.getName() + "\" is received. Result property inside this command is "
+                    + pending.command.getName() + "\" is received. Result property inside this command is "
                     + reply.getProperty("result")
                     + ". It is used to pass data to the next command, can be empty or even null.");
+            replyDispatcher.execute(() -> pending.future.complete(reply));
+        } catch (JMSException | RuntimeException ex) {
+            LOG.error("Error while receiving a command reply", ex);
+        }
+    }
 
-            return reply;
-
-        } else {
-
-            LOG.info("Command \"" + command.getName()
-                    + "\" timed out after " + command.getReplyTimeout()
+    private void expireReply(String correlationID) {
+        PendingReply pending = pendingReplies.remove(correlationID);
+        if (pending != null) {
+            LOG.info("Command \"" + pending.command.getName()
+                    + "\" timed out after " + pending.command.getReplyTimeout()
                     + "ms");
-
+            // mark as failed and return back the original inaltered command
+            pending.command.setExecuted(false);
+            replyDispatcher.execute(() -> pending.future.complete(pending.command));
         }
-
-        // mark as failed
-        command.setExecuted(false);
-
-        // returns back the original inaltered command
-        return command;
     }
 
     /**
@@ -375,10 +465,19 @@ final class BusServiceImpl extends LifeCycle implements BusService {
         }
 
         try {
+            if (localEventBus != null) {
+                // the consumers of this JVM receive a copy of the event, serialization is deferred until needed
+                // the copy is taken now, as the sender is free to change the event once sent
+                ObjectMessage local = getSendSession().createObjectMessage();
+                local.setObject(ev.copy());
+                local.setStringProperty("provenance", Freedomotic.getInstanceID());
+                localEventBus.publish(to, local);
+                if (!forwardToBroker) {
+                    return;
+                }
+            }
 
-            ObjectMessage msg = createObjectMessage();
-
-            msg.setObject(ev);
+            Message msg = createMessage(ev);
             msg.setStringProperty("provenance", Freedomotic.getInstanceID());
 
             // Generate a new topic if not already exists, otherwise returns the old topic instance
@@ -390,4 +489,17 @@ final class BusServiceImpl extends LifeCycle implements BusService {
             LOG.error(Freedomotic.getStackTraceInfo(ex));
         }
     }
+
+    /**
+     * A command waiting for its reply.
+     */
+    private static final class PendingReply {
+
+        private final Command command;
+        private final CompletableFuture<Command> future = new CompletableFuture<>();
+
+        PendingReply(Command command) {
+            this.command = command;
+        }
+    }
 }
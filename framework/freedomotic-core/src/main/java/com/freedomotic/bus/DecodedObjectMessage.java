@@ -0,0 +1,286 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import java.io.Serializable;
+import java.util.Enumeration;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+
+/**
+ * An {@link ObjectMessage} view of a message decoded by a {@link BusCodec},
+ * so that the {@link BusConsumer} receive the same kind of message whatever
+ * is the wire format. Headers and properties are those of the received
+ * message.
+ *
+ * @author Freedomotic Team
+ */
+final class DecodedObjectMessage implements ObjectMessage {
+
+    private final Message message;
+    private Serializable object;
+
+    /**
+     *
+     * @param message the received message
+     * @param object the object decoded from the message
+     */
+    DecodedObjectMessage(Message message, Serializable object) {
+        this.message = message;
+        this.object = object;
+    }
+
+    @Override
+    public void setObject(Serializable object) throws JMSException {
+        this.object = object;
+    }
+
+    @Override
+    public Serializable getObject() throws JMSException {
+        return object;
+    }
+
+    @Override
+    public String getJMSMessageID() throws JMSException {
+        return message.getJMSMessageID();
+    }
+
+    @Override
+    public void setJMSMessageID(String id) throws JMSException {
+        message.setJMSMessageID(id);
+    }
+
+    @Override
+    public long getJMSTimestamp() throws JMSException {
+        return message.getJMSTimestamp();
+    }
+
+    @Override
+    public void setJMSTimestamp(long timestamp) throws JMSException {
+        message.setJMSTimestamp(timestamp);
+    }
+
+    @Override
+    public byte[] getJMSCorrelationIDAsBytes() throws JMSException {
+        return message.getJMSCorrelationIDAsBytes();
+    }
+
+    @Override
+    public void setJMSCorrelationIDAsBytes(byte[] correlationID) throws JMSException {
+        message.setJMSCorrelationIDAsBytes(correlationID);
+    }
+
+    @Override
+    public void setJMSCorrelationID(String correlationID) throws JMSException {
+        message.setJMSCorrelationID(correlationID);
+    }
+
+    @Override
+    public String getJMSCorrelationID() throws JMSException {
+        return message.getJMSCorrelationID();
+    }
+
+    @Override
+    public Destination getJMSReplyTo() throws JMSException {
+        return message.getJMSReplyTo();
+    }
+
+    @Override
+    public void setJMSReplyTo(Destination replyTo) throws JMSException {
+        message.setJMSReplyTo(replyTo);
+    }
+
+    @Override
+    public Destination getJMSDestination() throws JMSException {
+        return message.getJMSDestination();
+    }
+
+    @Override
+    public void setJMSDestination(Destination destination) throws JMSException {
+        message.setJMSDestination(destination);
+    }
+
+    @Override
+    public int getJMSDeliveryMode() throws JMSException {
+        return message.getJMSDeliveryMode();
+    }
+
+    @Override
+    public void setJMSDeliveryMode(int deliveryMode) throws JMSException {
+        message.setJMSDeliveryMode(deliveryMode);
+    }
+
+    @Override
+    public boolean getJMSRedelivered() throws JMSException {
+        return message.getJMSRedelivered();
+    }
+
+    @Override
+    public void setJMSRedelivered(boolean redelivered) throws JMSException {
+        message.setJMSRedelivered(redelivered);
+    }
+
+    @Override
+    public String getJMSType() throws JMSException {
+        return message.getJMSType();
+    }
+
+    @Override
+    public void setJMSType(String type) throws JMSException {
+        message.setJMSType(type);
+    }
+
+    @Override
+    public long getJMSExpiration() throws JMSException {
+        return message.getJMSExpiration();
+    }
+
+    @Override
+    public void setJMSExpiration(long expiration) throws JMSException {
+        message.setJMSExpiration(expiration);
+    }
+
+    @Override
+    public int getJMSPriority() throws JMSException {
+        return message.getJMSPriority();
+    }
+
+    @Override
+    public void setJMSPriority(int priority) throws JMSException {
+        message.setJMSPriority(priority);
+    }
+
+    @Override
+    public void clearProperties() throws JMSException {
+        message.clearProperties();
+    }
+
+    @Override
+    public boolean propertyExists(String name) throws JMSException {
+        return message.propertyExists(name);
+    }
+
+    @Override
+    public boolean getBooleanProperty(String name) throws JMSException {
+        return message.getBooleanProperty(name);
+    }
+
+    @Override
+    public byte getByteProperty(String name) throws JMSException {
+        return message.getByteProperty(name);
+    }
+
+    @Override
+    public short getShortProperty(String name) throws JMSException {
+        return message.getShortProperty(name);
+    }
+
+    @Override
+    public int getIntProperty(String name) throws JMSException {
+        return message.getIntProperty(name);
+    }
+
+    @Override
+    public long getLongProperty(String name) throws JMSException {
+        return message.getLongProperty(name);
+    }
+
+    @Override
+    public float getFloatProperty(String name) throws JMSException {
+        return message.getFloatProperty(name);
+    }
+
+    @Override
+    public double getDoubleProperty(String name) throws JMSException {
+        return message.getDoubleProperty(name);
+    }
+
+    @Override
+    public String getStringProperty(String name) throws JMSException {
+        return message.getStringProperty(name);
+    }
+
+    @Override
+    public Object getObjectProperty(String name) throws JMSException {
+        return message.getObjectProperty(name);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Enumeration getPropertyNames() throws JMSException {
+        return message.getPropertyNames();
+    }
+
+    @Override
+    public void setBooleanProperty(String name, boolean value) throws JMSException {
+        message.setBooleanProperty(name, value);
+    }
+
+    @Override
+    public void setByteProperty(String name, byte value) throws JMSException {
+        message.setByteProperty(name, value);
+    }
+
+    @Override
+    public void setShortProperty(String name, short value) throws JMSException {
+        message.setShortProperty(name, value);
+    }
+
+    @Override
+    public void setIntProperty(String name, int value) throws JMSException {
+        message.setIntProperty(name, value);
+    }
+
+    @Override
+    public void setLongProperty(String name, long value) throws JMSException {
+        message.setLongProperty(name, value);
+    }
+
+    @Override
+    public void setFloatProperty(String name, float value) throws JMSException {
+        message.setFloatProperty(name, value);
+    }
+
+    @Override
+    public void setDoubleProperty(String name, double value) throws JMSException {
+        message.setDoubleProperty(name, value);
+    }
+
+    @Override
+    public void setStringProperty(String name, String value) throws JMSException {
+        message.setStringProperty(name, value);
+    }
+
+    @Override
+    public void setObjectProperty(String name, Object value) throws JMSException {
+        message.setObjectProperty(name, value);
+    }
+
+    @Override
+    public void acknowledge() throws JMSException {
+        message.acknowledge();
+    }
+
+    @Override
+    public void clearBody() throws JMSException {
+        object = null;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.api.EventTemplate;
+import java.io.Serializable;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Sends the objects as {@link ObjectMessage}, using the Java serialization.
+ *
+ * @author Freedomotic Team
+ */
+final class JavaBusCodec implements BusCodec {
+
+    static final String NAME = "java";
+
+    @Override
+    public Message encode(Session session, Serializable object) throws JMSException {
+        if (object instanceof EventTemplate) {
+            // object messages can be read by external clients, which expect the date
+            // and time statements the event adds on first access to its payload
+            ((EventTemplate) object).getPayload();
+        }
+        ObjectMessage msg = session.createObjectMessage();
+        msg.setObject(object);
+        return msg;
+    }
+
+    @Override
+    public Serializable decode(Message message) throws JMSException {
+        if (!(message instanceof ObjectMessage)) {
+            throw new MessageFormatException("Unsupported message " + message.getClass().getCanonicalName());
+        }
+        return ((ObjectMessage) message).getObject();
+    }
+}
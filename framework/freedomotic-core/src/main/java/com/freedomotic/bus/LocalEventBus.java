@@ -0,0 +1,298 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.api.EventTemplate;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.filter.DestinationFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events to the consumers living in this JVM without going
+ * through the broker.
+ * <p>
+ * Every {@link BusMessagesListener} gets a {@link Mailbox}: a bounded ring
+ * buffer drained by its own thread, as a JMS session would do, so events are
+ * received in order and a slow consumer doesn't block the other consumers.
+ * When a mailbox is full the sender waits for a bounded time, then the event
+ * is discarded for that consumer, logged and counted. The consumers which
+ * change the events receive their own copy, as if it was deserialized from the
+ * broker, the others share the sent one. Topic names follow the ActiveMQ
+ * wildcards syntax.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class LocalEventBus {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalEventBus.class.getName());
+    private static final long STATS_INTERVAL = 60000;
+    private final int capacity;
+    private final long offerTimeout;
+    private final List<Mailbox> mailboxes = new CopyOnWriteArrayList<>();
+    // subscribers by topic, replaced when the subscriptions change
+    private volatile Map<String, List<Mailbox>> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger mailboxCounter = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     *
+     * @param capacity the number of events each consumer can have waiting
+     * @param offerTimeout the milliseconds the sender waits for room in a full
+     * mailbox before discarding the event
+     */
+    LocalEventBus(int capacity, long offerTimeout) {
+        this.capacity = capacity;
+        this.offerTimeout = offerTimeout;
+    }
+
+    /**
+     * Creates the mailbox of a consumer which can change the received events.
+     *
+     * @param name the consumer name, used for the delivery thread
+     * @param listener receives the events
+     * @return the mailbox, with no subscriptions
+     */
+    public Mailbox createMailbox(String name, MessageListener listener) {
+        return createMailbox(name, listener, true);
+    }
+
+    /**
+     * Creates the mailbox of a consumer.
+     *
+     * @param name the consumer name, used for the delivery thread
+     * @param listener receives the events
+     * @param copyEvents true if the consumer changes the received events, so
+     * that it needs its own copy
+     * @return the mailbox, with no subscriptions
+     */
+    public Mailbox createMailbox(String name, MessageListener listener, boolean copyEvents) {
+        Mailbox mailbox = new Mailbox(name, listener, copyEvents);
+        mailboxes.add(mailbox);
+        return mailbox;
+    }
+
+    /**
+     * Delivers an event message to the local subscribers of a topic.
+     *
+     * @param topic the topic, without the VirtualTopic prefix
+     * @param message the message holding the event
+     * @return the number of subscribers which have received the message
+     */
+    int publish(String topic, Message message) {
+        Map<String, List<Mailbox>> current = routes;
+        List<Mailbox> subscribers = current.get(topic);
+        if (subscribers == null) {
+            subscribers = route(topic);
+            current.put(topic, subscribers);
+        }
+        int count = 0;
+        for (Mailbox mailbox : subscribers) {
+            if (mailbox.offer(message)) {
+                count++;
+            }
+        }
+        published.incrementAndGet();
+        updateStats();
+        return count;
+    }
+
+    private List<Mailbox> route(String topic) {
+        ActiveMQTopic destination = new ActiveMQTopic(topic);
+        List<Mailbox> subscribers = new ArrayList<>();
+        for (Mailbox mailbox : mailboxes) {
+            if (mailbox.isSubscribed(destination)) {
+                subscribers.add(mailbox);
+            }
+        }
+        return Collections.unmodifiableList(subscribers);
+    }
+
+    private void updateStats() {
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if ((now - start) >= STATS_INTERVAL && windowStart.compareAndSet(start, now)) {
+            LOG.info("Local event bus: {} events published, {} deliveries, {} dropped, {} consumers",
+                    published.get(), delivered.get(), dropped.get(), mailboxes.size());
+        }
+    }
+
+    /**
+     * Gets the number of events published since the start.
+     *
+     * @return the number of events
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * Gets the number of events received by the consumers.
+     *
+     * @return the number of deliveries
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Gets the number of events discarded because a consumer was not keeping
+     * up.
+     *
+     * @return the number of discarded events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops all the delivery threads.
+     */
+    void stop() {
+        for (Mailbox mailbox : mailboxes) {
+            mailbox.close();
+        }
+    }
+
+    /**
+     * The events waiting to be received by a consumer.
+     */
+    public final class Mailbox {
+
+        private final MessageListener listener;
+        private final boolean copyEvents;
+        private final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(capacity);
+        private final AtomicLong discarded = new AtomicLong();
+        private final List<DestinationFilter> subscriptions = new CopyOnWriteArrayList<>();
+        private final Thread worker;
+        private volatile boolean running = true;
+
+        private Mailbox(String name, MessageListener listener, boolean copyEvents) {
+            this.listener = listener;
+            this.copyEvents = copyEvents;
+            this.worker = new Thread(this::deliver, "LocalEventBus-" + name + "-" + mailboxCounter.incrementAndGet());
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        /**
+         * Receives the events published on a topic.
+         *
+         * @param topic the topic name, can contain wildcards
+         */
+        public void subscribe(String topic) {
+            subscriptions.add(DestinationFilter.parseFilter(new ActiveMQTopic(topic)));
+            routes = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Removes all the subscriptions and stops the delivery thread. Events
+         * already in the mailbox are discarded.
+         */
+        public void close() {
+            running = false;
+            mailboxes.remove(this);
+            routes = new ConcurrentHashMap<>();
+            worker.interrupt();
+        }
+
+        /**
+         * Gets the number of events discarded for this consumer.
+         *
+         * @return the number of discarded events
+         */
+        public long getDropped() {
+            return discarded.get();
+        }
+
+        private boolean isSubscribed(ActiveMQTopic destination) {
+            for (DestinationFilter filter : subscriptions) {
+                if (filter.matches(destination)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean offer(Message message) {
+            // a burst is absorbed by waiting a little, a stuck consumer blocks the sender at most offerTimeout
+            try {
+                if (queue.offer(message) || queue.offer(message, offerTimeout, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            dropped.incrementAndGet();
+            long count = discarded.incrementAndGet();
+            if (count % 100 == 1) {
+                LOG.warn("Consumer \"{}\" is not keeping up with the events, {} events discarded so far",
+                        worker.getName(), count);
+            }
+            return false;
+        }
+
+        private void deliver() {
+            while (running) {
+                Message message;
+                try {
+                    message = queue.take();
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+                try {
+                    listener.onMessage(copyEvents ? copyOf(message) : message);
+                    delivered.incrementAndGet();
+                } catch (RuntimeException | JMSException ex) {
+                    LOG.error("Error while delivering an event to \"{}\"", worker.getName(), ex);
+                }
+            }
+        }
+
+        private Message copyOf(Message message) throws JMSException {
+            if (message instanceof ObjectMessage) {
+                Serializable object = ((ObjectMessage) message).getObject();
+                if (object instanceof EventTemplate) {
+                    return new DecodedObjectMessage(message, ((EventTemplate) object).copy());
+                }
+            }
+            return message;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General License for more details.
+ *
+ * You should have received a copy of the GNU General License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel for the command reply timeouts.
+ * <p>
+ * Timeouts are spread in buckets, one per tick, and a single thread advances
+ * the wheel executing the expired ones. Adding a timeout costs O(1)
+ * regardless of how many commands are waiting for a reply. Timeouts are not
+ * cancelled: the task is expected to do nothing if the reply has already been
+ * received. The precision is one tick.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class TimeoutWheel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeoutWheel.class.getName());
+    private final long tickNanos;
+    private final Queue<Timeout>[] buckets;
+    private final int mask;
+    // timeouts added since the last tick, moved to the buckets by the wheel thread
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime = System.nanoTime();
+    private volatile boolean running = true;
+
+    /**
+     *
+     * @param name the name of the wheel thread
+     * @param tickMillis the duration of a tick in milliseconds
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    TimeoutWheel(String name, long tickMillis, int ticksPerWheel) {
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task the task to execute when the delay expires
+     * @param delayMillis the delay in milliseconds
+     */
+    void schedule(Runnable task, long delayMillis) {
+        long deadline = (System.nanoTime() - startTime) + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        incoming.add(new Timeout(task, deadline));
+    }
+
+    /**
+     * Stops the wheel, pending timeouts are not executed.
+     */
+    void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long nextTick = (tick + 1) * tickNanos;
+            long sleep = nextTick - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            tick++;
+            transferIncoming(tick);
+            expire(buckets[(int) (tick & mask)], tick);
+        }
+    }
+
+    private void transferIncoming(long currentTick) {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            // round up, a timeout never expires early. Late additions go to the current tick
+            long deadlineTick = Math.max(currentTick, (timeout.deadline + tickNanos - 1) / tickNanos);
+            timeout.deadlineTick = deadlineTick;
+            buckets[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket, long currentTick) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            // timeouts further than a wheel rotation wait for the next rounds
+            if (timeout.deadlineTick <= currentTick) {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException ex) {
+                    LOG.error("Error while executing timeout task", ex);
+                }
+            }
+        }
+    }
+
+    private static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long deadlineTick;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
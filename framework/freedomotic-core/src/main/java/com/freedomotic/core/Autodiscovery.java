@@ -166,8 +166,7 @@ public final class Autodiscovery extends AbstractConsumer {
         }
 
         loaded = thingsRepository.copy(loaded);
-        loaded.getPojo().setProtocol(protocol);
-        loaded.getPojo().setPhisicalAddress(address);
+        loaded.setAddress(protocol, address);
         // Remove the 'virtual' tag and any other actAs configuration.
         // TODO: it would be better to remove the actAs property and manage all
         // with tags
@@ -0,0 +1,380 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.settings.AppConfig;
+import com.google.inject.Inject;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the automations started by the triggers on a bounded pool of worker
+ * threads.
+ * <p>
+ * Automations wait in a queue ordered by trigger priority (higher values run
+ * first) and then by arrival. The automations of the same trigger never run
+ * concurrently and keep their arrival order, since they usually change the
+ * state of the same things. When the queue is full the overflow policy
+ * decides which automation is discarded:
+ * </p>
+ * <ul>
+ * <li>DROP_OLDEST: the automation waiting since longer is discarded</li>
+ * <li>COALESCE: the new automation replaces the last one of the same trigger
+ * still waiting, if any, otherwise the oldest one is discarded</li>
+ * <li>REJECT: the new automation is discarded</li>
+ * </ul>
+ *
+ * @author Freedomotic Team
+ */
+public class AutomationExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AutomationExecutor.class.getName());
+    private static final long STATS_INTERVAL = 60000;
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // automations which can start now, at most one for each trigger
+    private final PriorityQueue<Automation> ready = new PriorityQueue<>(16, new PriorityComparator());
+    // automations waiting for the previous one of the same trigger, keyed by trigger. A key is present while its trigger has an automation ready or running
+    private final Map<String, Deque<Automation>> waiting = new HashMap<>();
+    // all the automations not yet started, in arrival order
+    private final TreeSet<Automation> pending = new TreeSet<>(new ArrivalComparator());
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+    private final int queueSize;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * What to do when an automation is submitted and the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        DROP_OLDEST, COALESCE, REJECT
+    }
+
+    @Inject
+    AutomationExecutor(AppConfig config) {
+        this(config.getIntProperty("KEY_AUTOMATION_THREADS", DEFAULT_THREADS),
+                config.getIntProperty("KEY_AUTOMATION_QUEUE_SIZE", DEFAULT_QUEUE_SIZE),
+                parsePolicy(config.getStringProperty("KEY_AUTOMATION_OVERFLOW_POLICY", OverflowPolicy.DROP_OLDEST.name())));
+    }
+
+    /**
+     *
+     * @param threads the number of worker threads
+     * @param queueSize the maximum number of automations waiting to start
+     * @param overflowPolicy what to do when the queue is full
+     */
+    AutomationExecutor(int threads, int queueSize, OverflowPolicy overflowPolicy) {
+        this.queueSize = Math.max(1, queueSize);
+        this.overflowPolicy = overflowPolicy;
+        for (int i = 1; i <= Math.max(1, threads); i++) {
+            Thread worker = new Thread(this::work, "AutomationExecutor-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private static OverflowPolicy parsePolicy(String policy) {
+        try {
+            return OverflowPolicy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.warn("Unknown automation overflow policy \"{}\", using {}", policy, OverflowPolicy.DROP_OLDEST);
+            return OverflowPolicy.DROP_OLDEST;
+        }
+    }
+
+    /**
+     * Queues an automation.
+     *
+     * @param trigger the identifier of the trigger which has started the
+     * automation, automations of the same trigger are run one at a time
+     * @param priority the trigger priority, higher values run first
+     * @param automation the automation to run
+     * @return false if the automation has been rejected because the queue is
+     * full
+     */
+    public boolean execute(String trigger, int priority, final Runnable automation) {
+        return executeAsync(trigger, priority, () -> {
+            automation.run();
+            return COMPLETED;
+        });
+    }
+
+    /**
+     * Queues an automation which completes asynchronously, for instance when
+     * the replies to the commands it has sent are received. The worker thread
+     * is released as soon as the automation returns its completion stage, but
+     * the next automation of the same trigger waits for the stage to
+     * complete.
+     *
+     * @param trigger the identifier of the trigger which has started the
+     * automation, automations of the same trigger are run one at a time
+     * @param priority the trigger priority, higher values run first
+     * @param automation starts the automation and returns its completion
+     * @return false if the automation has been rejected because the queue is
+     * full
+     */
+    public boolean executeAsync(String trigger, int priority, Supplier<? extends CompletionStage<?>> automation) {
+        Automation submitted = new Automation(trigger, priority, automation, sequence.incrementAndGet());
+        lock.lock();
+        try {
+            if (pending.size() >= queueSize) {
+                switch (overflowPolicy) {
+                    case REJECT:
+                        discard(submitted);
+                        return false;
+                    case COALESCE:
+                        if (coalesce(submitted)) {
+                            return true;
+                        }
+                        discard(pending.first());
+                        break;
+                    default:
+                        discard(pending.first());
+                }
+            }
+            pending.add(submitted);
+            Deque<Automation> queue = waiting.get(trigger);
+            if (queue == null) {
+                waiting.put(trigger, new ArrayDeque<Automation>());
+                ready.add(submitted);
+                notEmpty.signal();
+            } else {
+                queue.addLast(submitted);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the last automation of the same trigger still waiting to start.
+     */
+    private boolean coalesce(Automation submitted) {
+        Deque<Automation> queue = waiting.get(submitted.trigger);
+        Automation replaced = (queue != null) ? queue.peekLast() : null;
+        if (replaced == null) {
+            for (Automation candidate : ready) {
+                if (candidate.trigger.equals(submitted.trigger)) {
+                    replaced = candidate;
+                    break;
+                }
+            }
+        }
+        if (replaced == null) {
+            return false;
+        }
+        // the newer automation takes the place of the older one in the queue
+        replaced.task = submitted.task;
+        discarded.incrementAndGet();
+        LOG.debug("Automation of trigger \"{}\" coalesced with the waiting one", submitted.trigger);
+        return true;
+    }
+
+    private void discard(Automation automation) {
+        if (pending.remove(automation)) {
+            if (ready.remove(automation)) {
+                promoteNext(automation.trigger);
+            } else {
+                waiting.get(automation.trigger).remove(automation);
+            }
+        }
+        long count = discarded.incrementAndGet();
+        // during an event storm only a sample of the discarded automations is logged
+        if ((count % 100) == 1) {
+            LOG.warn("Automation queue is full ({} waiting), an automation of trigger \"{}\" is discarded, {} discarded so far",
+                    queueSize, automation.trigger, count);
+        }
+    }
+
+    /**
+     * Makes the next automation of the trigger ready to run, if any. Must be
+     * called holding the lock.
+     */
+    private void promoteNext(String trigger) {
+        Automation next = waiting.get(trigger).pollFirst();
+        if (next != null) {
+            ready.add(next);
+            notEmpty.signal();
+        } else {
+            waiting.remove(trigger);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Automation automation;
+            lock.lock();
+            try {
+                while (ready.isEmpty()) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                automation = ready.poll();
+                pending.remove(automation);
+            } finally {
+                lock.unlock();
+            }
+
+            final Automation running = automation;
+            final long start = System.nanoTime();
+            CompletionStage<?> completion;
+            try {
+                completion = running.task.get();
+                if (completion == null) {
+                    completion = COMPLETED;
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("Error while executing automation of trigger \"{}\"", running.trigger, ex);
+                completion = COMPLETED;
+            }
+            completion.whenComplete((result, error) -> {
+                if (error != null) {
+                    LOG.error("Error while executing automation of trigger \"{}\"", running.trigger, error);
+                }
+                complete(running, start);
+            });
+        }
+    }
+
+    private void complete(Automation automation, long start) {
+        long end = System.nanoTime();
+        lock.lock();
+        try {
+            promoteNext(automation.trigger);
+        } finally {
+            lock.unlock();
+        }
+        updateStats(start - automation.submitted, end - start);
+    }
+
+    private void updateStats(long waitTime, long runTime) {
+        executed.incrementAndGet();
+        waitNanos.addAndGet(waitTime);
+        runNanos.addAndGet(runTime);
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if ((now - start) >= STATS_INTERVAL && windowStart.compareAndSet(start, now)) {
+            LOG.info("Automation executor: {} automations waiting, {} ms average wait, {} ms average run, {} discarded",
+                    getQueueDepth(), String.format("%.2f", getAverageWaitTime()),
+                    String.format("%.2f", getAverageRunTime()), getDiscarded());
+        }
+    }
+
+    /**
+     * Gets the number of automations waiting to start.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the average time spent by the automations in the queue.
+     *
+     * @return the average wait time in milliseconds
+     */
+    public double getAverageWaitTime() {
+        long count = executed.get();
+        return (count > 0) ? (waitNanos.get() / 1000000.0) / count : 0;
+    }
+
+    /**
+     * Gets the average execution time of the automations, until their
+     * completion.
+     *
+     * @return the average run time in milliseconds
+     */
+    public double getAverageRunTime() {
+        long count = executed.get();
+        return (count > 0) ? (runNanos.get() / 1000000.0) / count : 0;
+    }
+
+    /**
+     * Gets the number of automations discarded, rejected or coalesced because
+     * the queue was full.
+     *
+     * @return the discarded automations
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    private static final class Automation {
+
+        private final String trigger;
+        private final int priority;
+        private final long sequence;
+        private final long submitted = System.nanoTime();
+        private Supplier<? extends CompletionStage<?>> task;
+
+        Automation(String trigger, int priority, Supplier<? extends CompletionStage<?>> task, long sequence) {
+            this.trigger = trigger;
+            this.priority = priority;
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class PriorityComparator implements Comparator<Automation> {
+
+        @Override
+        public int compare(Automation a, Automation b) {
+            if (a.priority != b.priority) {
+                return (a.priority > b.priority) ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    }
+
+    private static final class ArrivalComparator implements Comparator<Automation> {
+
+        @Override
+        public int compare(Automation a, Automation b) {
+            return Long.compare(a.sequence, b.sequence);
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package com.freedomotic.core;
 
 import com.freedomotic.events.ProtocolRead;
+import com.freedomotic.helpers.HttpClientService;
 import com.google.inject.AbstractModule;
 import com.google.inject.Singleton;
 
@@ -37,7 +38,13 @@ public class InjectorFeatures extends AbstractModule {
         bind(TopologyManager.class).in(Singleton.class);
         bind(JoinPlugin.class).in(Singleton.class);
         bind(TriggerCheck.class).in(Singleton.class);
+        bind(AutomationExecutor.class).in(Singleton.class);
+        bind(PollingScheduler.class).in(Singleton.class);
+        bind(TriggerDispatcher.class).in(Singleton.class);
         bind(BehaviorManager.class).in(Singleton.class);
+        bind(ScriptEvaluator.class).in(Singleton.class);
+        requestStaticInjection(Resolver.class);
+        requestStaticInjection(HttpClientService.class);
         //TODO: bind(ResourcesManager.class).in(Singleton.class);
 
         // The ProcolRead event now needs the TriggerCheck class
@@ -0,0 +1,327 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.settings.AppConfig;
+import com.google.inject.Inject;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the periodic polls of the sensors.
+ * <p>
+ * A single timer thread decides when every poll is due and hands it to a pool
+ * of worker threads, which grows only while polls overlap and shrinks when
+ * they are idle. A poll is never run concurrently with itself: the next one is
+ * scheduled when the previous one completes.
+ * </p>
+ * <ul>
+ * <li>FIXED_DELAY: the period is waited after the end of every poll, like a
+ * loop sleeping between the polls</li>
+ * <li>FIXED_RATE: polls start at multiples of the period, so their timing
+ * doesn't drift by the poll duration. A poll taking longer than the period
+ * skips the slots it has overrun instead of running the missed polls back to
+ * back</li>
+ * </ul>
+ * <p>
+ * The first poll is delayed by the period plus a random jitter, a percentage
+ * of the period, which spreads the polls of sensors started together.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public class PollingScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PollingScheduler.class.getName());
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    // upper bounds of the poll duration histogram buckets, the last bucket has no bound
+    private static final long[] BUCKETS = {10, 50, 100, 500, 1000, 5000};
+    private final ScheduledExecutorService timer;
+    private final ThreadPoolExecutor workers;
+    private final Mode defaultMode;
+    private final int jitterPercent;
+
+    /**
+     * How the polls are spaced.
+     */
+    public enum Mode {
+
+        FIXED_DELAY, FIXED_RATE
+    }
+
+    @Inject
+    PollingScheduler(AppConfig config) {
+        this(parseMode(config.getStringProperty("KEY_POLLING_MODE", Mode.FIXED_DELAY.name()), Mode.FIXED_DELAY),
+                config.getIntProperty("KEY_POLLING_JITTER", 0));
+    }
+
+    /**
+     *
+     * @param defaultMode the mode of the polls not asking for a specific one
+     * @param jitterPercent the maximum random delay of the first poll, as a
+     * percentage of the period
+     */
+    PollingScheduler(Mode defaultMode, int jitterPercent) {
+        this.defaultMode = defaultMode;
+        this.jitterPercent = Math.max(0, jitterPercent);
+        ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(1, (Runnable task) -> {
+            Thread thread = new Thread(task, "PollingScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // stopped sensors don't leave their next poll in the queue
+        scheduled.setRemoveOnCancelPolicy(true);
+        this.timer = scheduled;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), (Runnable task) -> {
+                    Thread worker = new Thread(task, "PollingScheduler-" + counter.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+    }
+
+    private static Mode parseMode(String mode, Mode defaultMode) {
+        if (mode == null || mode.trim().isEmpty()) {
+            return defaultMode;
+        }
+        try {
+            return Mode.valueOf(mode.trim().replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.warn("Unknown polling mode \"{}\", using {}", mode, defaultMode);
+            return defaultMode;
+        }
+    }
+
+    /**
+     * Parses a polling mode, as written in a plugin manifest.
+     *
+     * @param mode fixed-delay or fixed-rate, can be null
+     * @return the mode, the default one if the given mode is missing or
+     * unknown
+     */
+    public Mode getMode(String mode) {
+        return parseMode(mode, defaultMode);
+    }
+
+    /**
+     * Starts polling.
+     *
+     * @param name the name of the sensor, used in the logs
+     * @param period supplies the period in milliseconds, read again before
+     * every poll so it can be changed while polling
+     * @param mode how the polls are spaced
+     * @param task the poll
+     * @return the handle to stop polling and to read the statistics
+     */
+    public Poll schedule(String name, IntSupplier period, Mode mode, Runnable task) {
+        Poll poll = new Poll(name, period, mode, task);
+        long periodMillis = poll.period();
+        long jitter = (jitterPercent > 0) ? ThreadLocalRandom.current().nextLong(periodMillis * jitterPercent / 100 + 1) : 0;
+        poll.next = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(periodMillis + jitter);
+        poll.scheduleNext();
+        return poll;
+    }
+
+    /**
+     * A sensor polled periodically, with its statistics.
+     */
+    public final class Poll {
+
+        private final String name;
+        private final IntSupplier period;
+        private final Mode mode;
+        private final Runnable task;
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+        private final AtomicLong polls = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong overruns = new AtomicLong();
+        private final AtomicLong durationNanos = new AtomicLong();
+        private final Runnable start = this::start;
+        private final Runnable run = this::run;
+        // when the next poll is due, in System.nanoTime() scale
+        private long next;
+        private volatile ScheduledFuture<?> pending;
+        private volatile boolean cancelled;
+
+        private Poll(String name, IntSupplier period, Mode mode, Runnable task) {
+            this.name = name;
+            this.period = period;
+            this.mode = (mode != null) ? mode : defaultMode;
+            this.task = task;
+        }
+
+        private long period() {
+            return Math.max(1, period.getAsInt());
+        }
+
+        private synchronized void scheduleNext() {
+            if (!cancelled) {
+                pending = timer.schedule(start, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void start() {
+            if (!cancelled) {
+                workers.execute(run);
+            }
+        }
+
+        private void run() {
+            long begin = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOG.error("Error while polling \"{}\"", name, ex);
+            }
+            long end = System.nanoTime();
+            record(end - begin);
+            long periodNanos = TimeUnit.MILLISECONDS.toNanos(period());
+            if (mode == Mode.FIXED_RATE) {
+                next += periodNanos;
+                if (next <= end) {
+                    // overrun: skip to the first slot still in the future
+                    long missed = (end - next) / periodNanos + 1;
+                    next += missed * periodNanos;
+                    skipped.addAndGet(missed);
+                    // a slow sensor logs only a sample of its overruns
+                    if ((overruns.incrementAndGet() % 100) == 1) {
+                        LOG.warn("Polling \"{}\" takes longer than its period of {} ms, {} polls skipped so far",
+                                name, period(), getSkipped());
+                    }
+                }
+            } else {
+                next = end + periodNanos;
+            }
+            scheduleNext();
+        }
+
+        private void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            polls.incrementAndGet();
+            durationNanos.addAndGet(nanos);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis >= BUCKETS[bucket]) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+        }
+
+        /**
+         * Stops polling. A poll in progress is completed.
+         */
+        public synchronized void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                if (polls.get() > 0) {
+                    LOG.info("Stopped polling \"{}\": {} polls, {} ms average duration, {} skipped, durations {}",
+                            name, getPolls(), String.format("%.2f", getAverageDuration()), getSkipped(), describeHistogram());
+                }
+            }
+        }
+
+        /**
+         *
+         * @return true if polling has been stopped
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         *
+         * @return the polling mode
+         */
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * Gets the number of completed polls.
+         *
+         * @return the completed polls
+         */
+        public long getPolls() {
+            return polls.get();
+        }
+
+        /**
+         * Gets the number of polls skipped because the previous one was
+         * still running.
+         *
+         * @return the skipped polls
+         */
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * Gets the average poll duration.
+         *
+         * @return the average duration in milliseconds
+         */
+        public double getAverageDuration() {
+            long count = polls.get();
+            return (count > 0) ? (durationNanos.get() / 1000000.0) / count : 0;
+        }
+
+        /**
+         * Gets the poll duration histogram: the number of polls taking less
+         * than 10, 50, 100, 500, 1000 and 5000 ms, and the number of the
+         * longer ones.
+         *
+         * @return the number of polls in each bucket
+         */
+        public long[] getHistogram() {
+            long[] counts = new long[histogram.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.get(i);
+            }
+            return counts;
+        }
+
+        private String describeHistogram() {
+            StringBuilder description = new StringBuilder();
+            long[] counts = getHistogram();
+            for (int i = 0; i < counts.length; i++) {
+                if (i > 0) {
+                    description.append(", ");
+                }
+                description.append((i < BUCKETS.length) ? "<" + BUCKETS[i] : ">=" + BUCKETS[BUCKETS.length - 1])
+                        .append("ms: ").append(counts[i]);
+            }
+            return description.toString();
+        }
+    }
+}
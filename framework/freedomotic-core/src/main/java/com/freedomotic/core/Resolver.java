@@ -23,9 +23,11 @@ import com.freedomotic.exceptions.VariableResolutionException;
 import com.freedomotic.model.ds.Config;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.PayloadIndex;
 import com.freedomotic.reactions.Reaction;
 import com.freedomotic.rules.Statement;
 import com.freedomotic.reactions.Trigger;
+import com.google.inject.Inject;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -34,11 +36,6 @@ import java.util.Map.Entry;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
 
 /**
  * Resolves command values using an event as the context of resolution eg: param
@@ -62,6 +59,8 @@ import javax.script.ScriptException;
 public final class Resolver {
 
     private static final Logger LOG = LoggerFactory.getLogger(Resolver.class.getName());
+    @Inject
+    private static ScriptEvaluator scriptEvaluator;
     private List<String> namespaces = new ArrayList<>();
     private Payload context;
 
@@ -163,43 +162,24 @@ public final class Resolver {
      *
      * @param command
      */
-    private void performSubstitutionInCommand(Command command) throws VariableResolutionException {
+    private void performSubstitutionInCommand(final Command command) throws VariableResolutionException {
+        //the context is already merged into the command properties
+        ResolverTemplate.Context commandContext = reference -> {
+            String replacer = command.getProperty(reference);
+            if ((replacer == null) || replacer.isEmpty()) {
+                throw new VariableResolutionException("Variable '" + reference
+                        + "' cannot be resolved in command '" + command.getName() + "'.\n"
+                        + "Availabe tokens are: " + context.toString());
+            }
+            return replacer;
+        };
+
         for (Map.Entry aProperty : command.getProperties().entrySet()) {
             String key = (String) aProperty.getKey();
-            String propertyValue = (String) aProperty.getValue();
-
-            for (final String namespace : namespaces) {
-                String regex = "@" + namespace + "[.A-Za-z0-9_-]*\\b(#)?";
-                Pattern pattern = Pattern.compile(regex);
-                Matcher matcher = pattern.matcher(propertyValue);
-
-                while (matcher.find()) {
-                    String occurrence = matcher.group();
-                    //re-read the property each loop because is possible the previous loop has already replaced something
-                    propertyValue = (String) aProperty.getValue();
-
-                    String referenceToResolve = occurrence;
-
-                    if (occurrence.endsWith("#")) {
-                        //cutting out the optional last '#'
-                        referenceToResolve = referenceToResolve.substring(0, referenceToResolve.length() - 1);
-                    }
-
-                    //cutting out the first char '@'
-                    referenceToResolve
-                            = referenceToResolve.substring(1,
-                                    referenceToResolve.length());
-
-                    String replacer = command.getProperty(referenceToResolve);
-                    if (((replacer != null) && !replacer.isEmpty())) {
-                        String propertyValueResolved = propertyValue.replaceFirst(occurrence, replacer);
-                        aProperty.setValue(propertyValueResolved);
-                    } else {
-                        throw new VariableResolutionException("Variable '" + referenceToResolve
-                                + "' cannot be resolved in command '" + command.getName() + "'.\n"
-                                + "Availabe tokens are: " + context.toString());
-                    }
-                }
+            ResolverTemplate template = ResolverTemplate.of((String) aProperty.getValue());
+
+            if (template != null) {
+                aProperty.setValue(template.resolve(namespaces, commandContext));
             }
 
             //all references are replaced with real values in the current property, now perform scripting
@@ -209,11 +189,9 @@ public final class Resolver {
             if (possibleScript.startsWith("=")) {
                 //this is a javascript
                 try {
-                    ScriptEngineManager mgr = new ScriptEngineManager();
-                    ScriptEngine js = mgr.getEngineByName("JavaScript");
                     String script = possibleScript.substring(1); //removing equal sign on the head
 
-                    String evaluatedKey = this.scriptEvaluation(js, script, key);
+                    String evaluatedKey = getScriptEvaluator().evaluate(script, key);
                     aProperty.setValue(evaluatedKey);
                     success = true;
                 } catch (Exception ex) {
@@ -237,45 +215,25 @@ public final class Resolver {
      * @param trigger
      */
     private void performSubstitutionInTrigger(Trigger trigger) throws VariableResolutionException {
-        Iterator it = trigger.getPayload().iterator();
+        //the context is already merged into the trigger payload, it is indexed only if needed
+        PayloadIndex values = null;
+        Iterator it = trigger.getPayload().getStatementsSnapshot().iterator();
 
         while (it.hasNext()) {
             Statement statement = (Statement) it.next();
             String key = statement.getAttribute();
-            String propertyValue = statement.getValue();
-
-            for (final String PREFIX : namespaces) {
-                Pattern pattern = Pattern.compile("@" + PREFIX + "[.A-Za-z0-9_-]*\\b(#)?"); //find any @token
-                Matcher matcher = pattern.matcher(propertyValue);
-                StringBuffer result = new StringBuffer();
-
-                while (matcher.find()) {
-                    matcher.appendReplacement(result, "");
-
-                    String tokenKey = matcher.group();
-
-                    if (tokenKey.endsWith("#")) {
-                        tokenKey = tokenKey.substring(0, tokenKey.length() - 1); //cutting out the optional last '#'
-                    }
-
-                    tokenKey
-                            = tokenKey.substring(1,
-                                    tokenKey.length()); //cutting out the first char '@'
-
-                    String tokenValue = trigger.getPayload().getStatementValue(tokenKey);
-
-                    if (tokenValue == null) {
-                        throw new VariableResolutionException("Variable '" + tokenValue + "' cannot be resolved in trigger '"
-                                + trigger.getName() + "'.\n" + "Availabe tokens are: "
-                                + context.toString());
-                    }
+            ResolverTemplate template = ResolverTemplate.of(statement.getValue());
 
-                    //replace an @token.property with its real value
-                    result.append(tokenValue);
+            if (template != null) {
+                if (values == null) {
+                    values = new PayloadIndex(trigger.getPayload());
                 }
-
-                matcher.appendTail(result);
-                statement.setValue(result.toString());
+                final PayloadIndex triggerContext = values;
+                //unknown references are replaced with an empty string
+                statement.setValue(template.resolve(namespaces, reference -> {
+                    String tokenValue = triggerContext.getValue(reference);
+                    return (tokenValue != null) ? tokenValue : "";
+                }));
             }
 
             //all references are replaced with real values in the current statement, now perform scripting
@@ -285,12 +243,10 @@ public final class Resolver {
             if (possibleScript.startsWith("=")) {
                 //this is a javascript
                 try {
-                    ScriptEngineManager mgr = new ScriptEngineManager();
-                    ScriptEngine js = mgr.getEngineByName("JavaScript");
                     //removing equal sign on the head
                     String script = possibleScript.substring(1);
 
-                    String evaluatedKey = this.scriptEvaluation(js, script, key);
+                    String evaluatedKey = getScriptEvaluator().evaluate(script, key);
                     statement.setValue(evaluatedKey);
                     success = true;
                 } catch (Exception ex) {
@@ -306,25 +262,10 @@ public final class Resolver {
         }
     }
     
-    private String scriptEvaluation(ScriptEngine js, String script, String key) {
-    	if (js == null) {
-            LOG.error("Cannot instantiate a JavaScript engine");
-            return null;
-        }
-
-        try {
-            js.eval(script);
-        } catch (ScriptException scriptException) {
-            LOG.error(scriptException.getMessage());
-        }
-
-        if (js.get(key) == null) {
-            LOG.error("Script evaluation has returned a null value, maybe the key ''{}'' is not evaluated properly.", key);
-            return null;
-        }
-        
-        return js.get(key).toString();
-   }
+    private static ScriptEvaluator getScriptEvaluator() {
+        //resolvers created outside of the injector (eg: unit tests) use the default settings
+        return (scriptEvaluator != null) ? scriptEvaluator : DefaultScriptEvaluator.INSTANCE;
+    }
 
     /**
      *
@@ -431,22 +372,44 @@ public final class Resolver {
             namespaces.add(prefix);
         }
 
-        // get an hold on the statements list mutex to avoid others to use it
-        synchronized (aContext.getStatements()) {
-            Iterator it = aContext.iterator();
-
-            while (it.hasNext()) {
-                String key;
-                Statement statement = (Statement) it.next();
-                //removing the prefix of the properties if already exists
-                //to avoid dublicate prefixes like @event.event.object.name
-                if (statement.getAttribute().startsWith(prefix)) {
-                    key = statement.getAttribute().substring(prefix.length());
-                } else {
-                    key = statement.getAttribute();
-                }
-                context.addStatement(prefix + key, statement.getValue());
+        Iterator it = aContext.iterator();
+
+        while (it.hasNext()) {
+            String key;
+            Statement statement = (Statement) it.next();
+            //removing the prefix of the properties if already exists
+            //to avoid dublicate prefixes like @event.event.object.name
+            if (statement.getAttribute().startsWith(prefix)) {
+                key = statement.getAttribute().substring(prefix.length());
+            } else {
+                key = statement.getAttribute();
             }
+            context.addStatement(prefix + key, statement.getValue());
+        }
+    }
+
+    /**
+     * Drops the parsed templates of the command values. It should be called
+     * when the command is modified or deleted, the templates of the new
+     * values are parsed on the first resolution.
+     *
+     * @param command the command which is not used anymore
+     */
+    public static void invalidateTemplates(Command command) {
+        for (Map.Entry<Object, Object> property : command.getProperties().entrySet()) {
+            ResolverTemplate.invalidate(String.valueOf(property.getValue()));
+        }
+    }
+
+    /**
+     * Drops the parsed templates of the trigger statements. It should be
+     * called when the trigger is modified or deleted.
+     *
+     * @param trigger the trigger which is not used anymore
+     */
+    public static void invalidateTemplates(Trigger trigger) {
+        for (Statement statement : trigger.getPayload().getStatementsSnapshot()) {
+            ResolverTemplate.invalidate(statement.getValue());
         }
     }
 
@@ -458,4 +421,9 @@ public final class Resolver {
         namespaces.clear();
         context.clear();
     }
+
+    private static final class DefaultScriptEvaluator {
+
+        private static final ScriptEvaluator INSTANCE = new ScriptEvaluator();
+    }
 }
@@ -0,0 +1,198 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.exceptions.VariableResolutionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A command or trigger value parsed into literal text and references to the
+ * resolution context (eg: "temperature is @event.temperature#C" is made of the
+ * text "temperature is ", the reference "event.temperature" and the text "C").
+ * <p>
+ * Templates are cached by their text, so a value is parsed the first time it
+ * is resolved and then resolving it is just a concatenation of strings. A
+ * modified command or trigger has different values, so it gets new templates
+ * and the old ones are dropped with {@link #invalidate(java.lang.String)}.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class ResolverTemplate {
+
+    private static final int MAX_CACHED_TEMPLATES = 4096;
+    private static final Map<String, ResolverTemplate> CACHE = new ConcurrentHashMap<>();
+    // literals.length == references.length + 1
+    private final String[] literals;
+    private final String[] references;
+    private final String[] occurrences;
+
+    /**
+     * Values of the references in the resolution context.
+     */
+    interface Context {
+
+        /**
+         * Gets the value of a reference.
+         *
+         * @param reference the reference without the leading '@' (eg:
+         * event.temperature)
+         * @return the value to use in place of the reference
+         * @throws VariableResolutionException if the reference cannot be
+         * resolved
+         */
+        String get(String reference) throws VariableResolutionException;
+    }
+
+    private ResolverTemplate(String[] literals, String[] references, String[] occurrences) {
+        this.literals = literals;
+        this.references = references;
+        this.occurrences = occurrences;
+    }
+
+    /**
+     * Gets the parsed template of a value, from the cache if it was already
+     * parsed.
+     *
+     * @param text the value to parse
+     * @return the template, or null if the value has no references
+     */
+    static ResolverTemplate of(String text) {
+        if ((text == null) || (text.indexOf('@') < 0)) {
+            return null;
+        }
+        ResolverTemplate template = CACHE.get(text);
+        if (template == null) {
+            template = parse(text);
+            if (CACHE.size() >= MAX_CACHED_TEMPLATES) {
+                // values are usually a few hundreds, so this happens only if they are generated at runtime
+                CACHE.clear();
+            }
+            CACHE.put(text, template);
+        }
+        return (template.references.length > 0) ? template : null;
+    }
+
+    /**
+     * Removes a value from the cache of parsed templates.
+     *
+     * @param text the value which is not used anymore
+     */
+    static void invalidate(String text) {
+        if (text != null) {
+            CACHE.remove(text);
+        }
+    }
+
+    /**
+     * Gets the number of values currently in the cache.
+     *
+     * @return the cache size
+     */
+    static int cacheSize() {
+        return CACHE.size();
+    }
+
+    /**
+     * Parses a value finding the references in the form @reference or
+     * @reference# which is useful when the reference is followed by other
+     * text. A reference is made of letters, digits and the symbols '.', '_'
+     * and '-' and must end with a letter, a digit or '_'. These are the same
+     * rules of the regular expression used before the introduction of the
+     * templates.
+     */
+    private static ResolverTemplate parse(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> references = new ArrayList<>();
+        List<String> occurrences = new ArrayList<>();
+        int literalStart = 0;
+        int at = text.indexOf('@');
+
+        while (at >= 0) {
+            int end = at + 1;
+            int wordEnd = -1;
+            while ((end < text.length()) && isReferenceChar(text.charAt(end))) {
+                if (isWordChar(text.charAt(end))) {
+                    wordEnd = end + 1;
+                }
+                end++;
+            }
+            if (wordEnd < 0) {
+                // not a reference, keep it as text
+                at = text.indexOf('@', at + 1);
+                continue;
+            }
+            int occurrenceEnd = ((wordEnd < text.length()) && (text.charAt(wordEnd) == '#')) ? wordEnd + 1 : wordEnd;
+            literals.add(text.substring(literalStart, at));
+            references.add(text.substring(at + 1, wordEnd));
+            occurrences.add(text.substring(at, occurrenceEnd));
+            literalStart = occurrenceEnd;
+            at = text.indexOf('@', occurrenceEnd);
+        }
+        literals.add(text.substring(literalStart));
+        return new ResolverTemplate(literals.toArray(new String[literals.size()]),
+                references.toArray(new String[references.size()]),
+                occurrences.toArray(new String[occurrences.size()]));
+    }
+
+    private static boolean isWordChar(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '_');
+    }
+
+    private static boolean isReferenceChar(char c) {
+        return isWordChar(c) || (c == '.') || (c == '-');
+    }
+
+    /**
+     * Replaces the references with their values. Only the references in one
+     * of the given namespaces are resolved, the others are left as they are.
+     *
+     * @param namespaces the namespaces to resolve (eg: event.)
+     * @param context the values of the references
+     * @return the resolved value
+     * @throws VariableResolutionException if a reference cannot be resolved
+     */
+    String resolve(List<String> namespaces, Context context) throws VariableResolutionException {
+        StringBuilder result = new StringBuilder(literals[0].length() + (references.length * 16));
+        result.append(literals[0]);
+        for (int i = 0; i < references.length; i++) {
+            if (isInNamespace(references[i], namespaces)) {
+                result.append(context.get(references[i]));
+            } else {
+                result.append(occurrences[i]);
+            }
+            result.append(literals[i + 1]);
+        }
+        return result.toString();
+    }
+
+    private static boolean isInNamespace(String reference, List<String> namespaces) {
+        for (int i = 0; i < namespaces.size(); i++) {
+            String namespace = namespaces.get(i);
+            if ((reference.length() > namespace.length()) && reference.startsWith(namespace)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
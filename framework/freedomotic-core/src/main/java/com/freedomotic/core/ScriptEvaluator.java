@@ -0,0 +1,345 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.settings.AppConfig;
+import com.google.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates the JavaScript expressions used in command and trigger values (eg:
+ * "= temperature = @event.temperature * 1.8 + 32").
+ * <p>
+ * Script engines are expensive to create, so a bounded pool of engines is
+ * shared by all the evaluations. Every engine keeps its own cache of compiled
+ * scripts keyed by source text. Each evaluation starts with empty bindings, so
+ * variables defined by a script are not visible to the next one.
+ * </p>
+ * <p>
+ * An evaluation which takes longer than the configured timeout is abandoned,
+ * but a running script can't be stopped: its engine is quarantined, and
+ * counted as busy, until the script ends. Then the engine is discarded and a
+ * new one can be created. Scripts which never end keep their engine, so they
+ * can't make the evaluator create threads or engines without limit.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public class ScriptEvaluator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptEvaluator.class.getName());
+    private static final String ENGINE_NAME = "JavaScript";
+    private static final int DEFAULT_ENGINES = 2;
+    private static final int DEFAULT_TIMEOUT = 1000;
+    private static final int DEFAULT_CACHE_SIZE = 256;
+    private final ScriptEngineManager manager = new ScriptEngineManager();
+    private final BlockingQueue<PooledEngine> idleEngines = new LinkedBlockingQueue<>();
+    private final AtomicInteger createdEngines = new AtomicInteger();
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong evaluationNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicInteger quarantinedEngines = new AtomicInteger();
+    private final ThreadPoolExecutor executor;
+    private final int maxEngines;
+    private final long timeout;
+    private final int cacheSize;
+
+    @Inject
+    ScriptEvaluator(AppConfig config) {
+        this(config.getIntProperty("KEY_SCRIPT_ENGINES", DEFAULT_ENGINES),
+                config.getIntProperty("KEY_SCRIPT_TIMEOUT", DEFAULT_TIMEOUT),
+                config.getIntProperty("KEY_SCRIPT_CACHE_SIZE", DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Creates an evaluator with the default settings.
+     */
+    ScriptEvaluator() {
+        this(DEFAULT_ENGINES, DEFAULT_TIMEOUT, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     *
+     * @param maxEngines the maximum number of script engines
+     * @param timeout the maximum evaluation time in milliseconds
+     * @param cacheSize the maximum number of compiled scripts per engine
+     */
+    ScriptEvaluator(int maxEngines, long timeout, int cacheSize) {
+        this.maxEngines = Math.max(1, maxEngines);
+        this.timeout = Math.max(1, timeout);
+        this.cacheSize = Math.max(1, cacheSize);
+        // every evaluation holds an engine, so there are never more running scripts than engines
+        this.executor = new ThreadPoolExecutor(this.maxEngines, this.maxEngines, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "ScriptEvaluator-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Evaluates a script and reads the value it has assigned to a variable.
+     *
+     * @param script the script source, without the leading '='
+     * @param key the name of the variable to read after the evaluation
+     * @return the value of the variable or null if the script fails, doesn't
+     * assign the variable or exceeds the timeout
+     */
+    public String evaluate(final String script, final String key) {
+        long start = System.nanoTime();
+        PooledEngine engine = borrowEngine();
+        if (engine == null) {
+            return null;
+        }
+        boolean reusable = true;
+        Evaluation evaluation = new Evaluation(engine, script, key);
+        Future<Object> result = executor.submit(evaluation);
+
+        try {
+            Object value = result.get(timeout, TimeUnit.MILLISECONDS);
+            if (value == null) {
+                LOG.error("Script evaluation has returned a null value, maybe the key ''{}'' is not evaluated properly.", key);
+                return null;
+            }
+            return value.toString();
+        } catch (TimeoutException ex) {
+            timeouts.incrementAndGet();
+            reusable = !evaluation.abandon();
+            if (!reusable) {
+                LOG.error("Script evaluation of ''{}'' has not completed in {}ms and it is abandoned, "
+                        + "its engine is quarantined until the script ends ({} of {} engines quarantined)",
+                        key, timeout, quarantinedEngines.get(), maxEngines);
+            }
+            return null;
+        } catch (InterruptedException ex) {
+            reusable = !evaluation.abandon();
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            LOG.error("Error while evaluating script", ex.getCause());
+            return null;
+        } finally {
+            if (reusable) {
+                idleEngines.offer(engine);
+            }
+            evaluations.incrementAndGet();
+            evaluationNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private PooledEngine borrowEngine() {
+        PooledEngine engine = idleEngines.poll();
+        if (engine != null) {
+            return engine;
+        }
+        if (createdEngines.incrementAndGet() <= maxEngines) {
+            ScriptEngine scriptEngine = manager.getEngineByName(ENGINE_NAME);
+            if (scriptEngine == null) {
+                createdEngines.decrementAndGet();
+                LOG.error("Cannot instantiate a JavaScript engine");
+                return null;
+            }
+            return new PooledEngine(scriptEngine);
+        }
+        createdEngines.decrementAndGet();
+        try {
+            engine = idleEngines.poll(timeout, TimeUnit.MILLISECONDS);
+            if (engine == null) {
+                LOG.error("No JavaScript engine available in {}ms, all the {} engines are busy ({} running abandoned scripts)",
+                        timeout, maxEngines, quarantinedEngines.get());
+            }
+            return engine;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of evaluations which have found the script already
+     * compiled.
+     *
+     * @return the compiled scripts cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Gets the number of evaluations which have compiled the script.
+     *
+     * @return the compiled scripts cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Gets the number of evaluations abandoned because of the timeout.
+     *
+     * @return the number of timed out evaluations
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Gets the number of engines still running an abandoned script.
+     *
+     * @return the number of quarantined engines
+     */
+    public int getQuarantinedEngines() {
+        return quarantinedEngines.get();
+    }
+
+    /**
+     * Gets the average evaluation time, including the wait for a free engine.
+     *
+     * @return the average evaluation latency in milliseconds
+     */
+    public double getAverageLatency() {
+        long count = evaluations.get();
+        return (count > 0) ? (evaluationNanos.get() / 1000000.0) / count : 0;
+    }
+
+    /**
+     * Runs a script on a borrowed engine. If the caller abandons it, the
+     * engine is released when the script ends.
+     */
+    private final class Evaluation implements Callable<Object> {
+
+        private static final int RUNNING = 0;
+        private static final int COMPLETED = 1;
+        private static final int ABANDONED = 2;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private final PooledEngine engine;
+        private final String script;
+        private final String key;
+
+        Evaluation(PooledEngine engine, String script, String key) {
+            this.engine = engine;
+            this.script = script;
+            this.key = key;
+        }
+
+        @Override
+        public Object call() {
+            try {
+                return engine.evaluate(script, key);
+            } finally {
+                if (!state.compareAndSet(RUNNING, COMPLETED)) {
+                    // abandoned by the caller, the engine is discarded now that the script is over
+                    quarantinedEngines.decrementAndGet();
+                    createdEngines.decrementAndGet();
+                    LOG.warn("Abandoned script evaluation of ''{}'' has ended, its engine is released", key);
+                }
+            }
+        }
+
+        /**
+         * Abandons the evaluation, quarantining the engine if the script is
+         * still running.
+         *
+         * @return true if the engine is quarantined, false if the script has
+         * already ended and the engine can be reused
+         */
+        boolean abandon() {
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                quarantinedEngines.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A script engine with its compiled scripts. It is used by one evaluation
+     * at a time.
+     */
+    private final class PooledEngine {
+
+        private final ScriptEngine engine;
+        private final Map<String, CompiledScript> compiledScripts;
+        private Bindings bindings;
+
+        PooledEngine(ScriptEngine engine) {
+            this.engine = engine;
+            this.compiledScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+
+        Object evaluate(String script, String key) {
+            if (bindings == null) {
+                bindings = engine.createBindings();
+            }
+            try {
+                CompiledScript compiled = compiledScripts.get(script);
+                if (compiled != null) {
+                    cacheHits.incrementAndGet();
+                    compiled.eval(bindings);
+                } else if (engine instanceof Compilable) {
+                    cacheMisses.incrementAndGet();
+                    compiled = ((Compilable) engine).compile(script);
+                    compiledScripts.put(script, compiled);
+                    compiled.eval(bindings);
+                } else {
+                    cacheMisses.incrementAndGet();
+                    engine.eval(script, bindings);
+                }
+            } catch (ScriptException scriptException) {
+                LOG.error(scriptException.getMessage());
+            }
+            Object value = bindings.get(key);
+            // new bindings are costly, they are reused only if the script has left nothing behind (eg: var declarations)
+            bindings.clear();
+            if (!bindings.isEmpty()) {
+                bindings = null;
+            }
+            return value;
+        }
+    }
+}
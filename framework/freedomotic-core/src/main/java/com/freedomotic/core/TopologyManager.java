@@ -59,6 +59,11 @@ public class TopologyManager implements BusConsumer {
         listener.consumeEventFrom(LISTEN_CHANNEL);
     }
 
+    @Override
+    public boolean isChangingEvents() {
+        return false;
+    }
+
     @Override
     public void onMessage(ObjectMessage message) {
         Object jmsObject = null;
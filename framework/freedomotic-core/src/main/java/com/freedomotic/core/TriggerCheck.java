@@ -19,11 +19,10 @@
  */
 package com.freedomotic.core;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,12 +38,15 @@ import com.freedomotic.events.MessageEvent;
 import com.freedomotic.exceptions.FreedomoticException;
 import com.freedomotic.exceptions.RepositoryException;
 import com.freedomotic.exceptions.VariableResolutionException;
+import com.freedomotic.persistence.StateJournal;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.reactions.Reaction;
 import com.freedomotic.reactions.ReactionRepository;
 import com.freedomotic.reactions.Trigger;
 import com.freedomotic.rules.ExpressionFactory;
 import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.PayloadIndex;
+import com.freedomotic.rules.PayloadMatcher;
 import com.freedomotic.rules.Statement;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.ThingRepository;
@@ -57,13 +59,15 @@ import com.google.inject.Inject;
 public class TriggerCheck {
 
     private static final Logger LOG = LoggerFactory.getLogger(TriggerCheck.class.getName());
-    private static final ExecutorService AUTOMATION_EXECUTOR = Executors.newCachedThreadPool();
     // Dependencies
     private final Autodiscovery autodiscovery;
     private final BusService busService;
     private final ThingRepository thingsRepository;
     private final ReactionRepository reactionRepository;
     private final BehaviorManager behaviorManager;
+    private final AutomationExecutor automationExecutor;
+    private final StateJournal stateJournal;
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
     private static final Pattern PATTERN = Pattern.compile("\\[(.*?)\\]\\.+[0-9A-Za-z]");
 
     @Inject
@@ -72,12 +76,16 @@ public class TriggerCheck {
             ThingRepository thingsRepository,
             BusService busService,
             BehaviorManager behaviorManager,
-            ReactionRepository reactionRepository) {
+            ReactionRepository reactionRepository,
+            AutomationExecutor automationExecutor,
+            StateJournal stateJournal) {
         this.autodiscovery = autodiscovery;
         this.thingsRepository = thingsRepository;
         this.busService = busService;
         this.behaviorManager = behaviorManager;
         this.reactionRepository = reactionRepository;
+        this.automationExecutor = automationExecutor;
+        this.stateJournal = stateJournal;
     }
 
     /**
@@ -88,29 +96,60 @@ public class TriggerCheck {
      * @return
      */
     public boolean check(final EventTemplate event, final Trigger trigger) {
+        return check(event, trigger, null);
+    }
+
+    /**
+     * Executes trigger-event comparison in a separated thread, reusing the
+     * index of the event payload when the same event is compared with many
+     * triggers.
+     *
+     * @param event
+     * @param trigger
+     * @param eventIndex the indexed event payload, if null it is built when
+     * needed
+     * @return
+     */
+    public boolean check(final EventTemplate event, final Trigger trigger, final PayloadIndex eventIndex) {
         if ((event == null) || (trigger == null)) {
             throw new IllegalArgumentException("Event and Trigger cannot be null while performing trigger check");
         }
 
         try {
-        	Trigger resolved = resolveTrigger(event, trigger);
-        	
-            if (trigger.isHardwareLevel() && resolved!=null && resolved.isConsistentWith(event)) {
+            PayloadMatcher matcher = trigger.getCompiledPayload();
+            Trigger resolved = null;
+            boolean consistent;
+
+            if (matcher.isStatic()) {
+                //the statements used for filtering don't depend on the event, resolve only consistent triggers
+                consistent = matcher.matches((eventIndex != null) ? eventIndex
+                        : new PayloadIndex(event.getPayload(matcher.isDateDependent())));
+                if (consistent) {
+                    resolved = resolveTrigger(event, trigger, matcher.isDateDependent());
+                }
+            } else {
+                resolved = resolveTrigger(event, trigger, matcher.isDateDependent());
+                // the event date and time are added only if the trigger reads them
+                consistent = (resolved != null)
+                        && resolved.getPayload().equals(event.getPayload(matcher.isDateDependent()));
+            }
+
+            if (trigger.isHardwareLevel() && resolved!=null && consistent) {
                     LOG.debug("[CONSISTENT] hardware level trigger \"{} {}\"\nconsistent with received event \"{}\" \"{}\"", 
                     		resolved.getName(), 
                     		this.getPayload(resolved.getPayload()), 
                     		event.getEventName(), 
-                    		this.getPayload(event.getPayload()));
+                    		this.getPayload(event.getPayload(false)));
                     applySensorNotification(resolved, event);
                     return true;
             } else {
-                if (trigger.canFire() && resolved!=null && resolved.isConsistentWith(event)) {
+                if (trigger.canFire() && resolved!=null && consistent) {
                             LOG.debug("[CONSISTENT] registered trigger \"{} {}\"\nconsistent with received event ''{}'' {}", 
                             		resolved.getName(), 
                             		this.getPayload(resolved.getPayload()), 
                             		event.getEventName(), 
-                            		this.getPayload(event.getPayload()));
-                        executeTriggeredAutomations(resolved, event);
+                            		this.getPayload(event.getPayload(false)));
+                        executeTriggeredAutomations(trigger, resolved, event);
                         return true;
                     }
             }
@@ -121,7 +160,7 @@ public class TriggerCheck {
                 		trigger.getName(), 
                 		trigger.getPayload().toString(), 
                 		event.getEventName(), 
-                		event.getPayload().toString());
+                		event.getPayload(false).toString());
             }
             return false;
         } catch (Exception e) {
@@ -139,12 +178,14 @@ public class TriggerCheck {
      *
      * @param event
      * @param trigger
+     * @param withDate true if the trigger reads the event date and time
      * @return
      * @throws VariableResolutionException
      */
-    private Trigger resolveTrigger(final EventTemplate event, final Trigger trigger) throws VariableResolutionException {
+    private Trigger resolveTrigger(final EventTemplate event, final Trigger trigger, boolean withDate)
+            throws VariableResolutionException {
         Resolver resolver = new Resolver();
-        resolver.addContext("event.", event.getPayload());
+        resolver.addContext("event.", event.getPayload(withDate));
         return resolver.resolve(trigger);
     }
 
@@ -178,7 +219,6 @@ public class TriggerCheck {
             LOG.warn("Hardware trigger \"{}\" is not associated to any thing.", resolved.getName());
         }
         resolved.getPayload().clear();
-        event.getPayload().clear();
     }
 
     private EnvObjectLogic getAffectedObject(EventTemplate event, String protocol, String address) {
@@ -205,87 +245,112 @@ public class TriggerCheck {
     /**
      *
      *
-     * @param trigger
+     * @param registered the registered trigger, used to prioritize and serialize its automations
+     * @param trigger the trigger resolved against the event
      * @param event
      */
-    private void executeTriggeredAutomations(final Trigger trigger, final EventTemplate event) {
-        AUTOMATION_EXECUTOR.execute(() -> {
+    private void executeTriggeredAutomations(final Trigger registered, final Trigger trigger, final EventTemplate event) {
+        String triggerId = (registered.getUUID() != null) ? registered.getUUID() : String.valueOf(registered.getName());
+        automationExecutor.executeAsync(triggerId, registered.getPriority(), () -> {
             //Searching for reactions using this trigger
-        	Iterator<Reaction> reactIterator = new CopyOnWriteArrayList<Reaction>(reactionRepository.findAll()).listIterator();
-        	
-            while (reactIterator.hasNext()) {
-            	Reaction reaction = reactIterator.next();
-                Trigger reactionTrigger = reaction.getTrigger();
-                //found a related reaction. This must be executed
-                if (trigger.equals(reactionTrigger) && !reaction.getCommands().isEmpty()) {
-                    if (!checkAdditionalConditions(reaction)) {
-                        LOG.info("Additional conditions test failed in reaction \"{}\"", reaction.getShortDescription());
-                        return;
-                    }
-                    reactionTrigger.setExecuted();
-                  
-                    LOG.debug("Try to execute reaction \"{}\"", reaction.toString());
-                      
-                    //executes the commands in sequence (only the first sequence is used) 
-                    //if more then one sequence is needed it can be done with two reactions with the same trigger
-                    Resolver commandResolver = new Resolver();
-                    event.getPayload().addStatement("description", trigger.getDescription()); //embedd the trigger description to the event payload
-                    commandResolver.addContext("event.", event.getPayload());
-
-                    if(!this.processReactionCommands(event, reaction, commandResolver))
-                    	return;
-                    
-                    String info = "Executing automation \"" + reaction.toString() + "\" takes "
-                            + (System.currentTimeMillis() - event.getCreation()) + "ms.";
-                    LOG.info(info);
-
-                    MessageEvent message = new MessageEvent(null, info);
-                    message.setType("callout"); //display as callout on frontends
-                    busService.send(message);
+            Iterator<Reaction> reactIterator = reactionRepository.findByTrigger(trigger).iterator();
+            return executeReactions(trigger, event, reactIterator)
+                    .whenComplete((done, error) -> trigger.getPayload().clear());
+        });
+    }
+
+    /**
+     * Executes the reactions bound to the trigger one after the other. The
+     * commands are sent asynchronously, so no thread is blocked while waiting
+     * for their replies.
+     *
+     * @return completes when all the reactions are executed or one of them has
+     * failed
+     */
+    private CompletableFuture<Void> executeReactions(final Trigger trigger, final EventTemplate event, final Iterator<Reaction> reactIterator) {
+        while (reactIterator.hasNext()) {
+            final Reaction reaction = reactIterator.next();
+            Trigger reactionTrigger = reaction.getTrigger();
+            //found a related reaction. This must be executed
+            if (trigger.equals(reactionTrigger) && !reaction.getCommands().isEmpty()) {
+                if (!checkAdditionalConditions(reaction)) {
+                    LOG.info("Additional conditions test failed in reaction \"{}\"", reaction.getShortDescription());
+                    return COMPLETED;
                 }
-                
-                else {
-                	LOG.info("No valid reaction {} bound to trigger \"{}\"", reaction.getShortDescription(), trigger.getName());
+                reactionTrigger.setExecuted();
+                stateJournal.recordTrigger(reactionTrigger);
+
+                LOG.debug("Try to execute reaction \"{}\"", reaction.toString());
+
+                //executes the commands in sequence (only the first sequence is used) 
+                //if more then one sequence is needed it can be done with two reactions with the same trigger
+                Resolver commandResolver = new Resolver();
+                commandResolver.addContext("event.", event.getPayload());
+                //embedd the trigger description in the event context, the event itself is shared by all the triggers of its channel
+                if (trigger.getDescription() != null) {
+                    commandResolver.addContext("event.", Collections.singletonMap("description", trigger.getDescription()));
                 }
-            }
 
-            trigger.getPayload().clear();
-            event.getPayload().clear();
-        });
+                return processReactionCommands(event, reaction.getCommands().iterator(), commandResolver)
+                        .thenCompose(executed -> {
+                            if (!executed) {
+                                return COMPLETED;
+                            }
+                            String info = "Executing automation \"" + reaction.toString() + "\" takes "
+                                    + (System.currentTimeMillis() - event.getCreation()) + "ms.";
+                            LOG.info(info);
+
+                            MessageEvent message = new MessageEvent(null, info);
+                            message.setType("callout"); //display as callout on frontends
+                            busService.send(message);
+                            return executeReactions(trigger, event, reactIterator);
+                        });
+            } else {
+                LOG.info("No valid reaction {} bound to trigger \"{}\"", reaction.getShortDescription(), trigger.getName());
+            }
+        }
+        return COMPLETED;
     }
-    
-    
-    private boolean processReactionCommands(final EventTemplate event, Reaction reaction, Resolver commandResolver) { 
-    	try { 
-            for (final Command command : reaction.getCommands()) {
-                if(!this.processCommand(event, command, commandResolver))
-                	return false;
+
+    private CompletableFuture<Boolean> processReactionCommands(final EventTemplate event, final Iterator<Command> commands, final Resolver commandResolver) {
+        try {
+            while (commands.hasNext()) {
+                CompletableFuture<Boolean> processed = this.processCommand(event, commands.next(), commandResolver);
+                if (!processed.isDone()) {
+                    // wait for the reply before sending the next command
+                    return processed.thenCompose(executed -> executed
+                            ? processReactionCommands(event, commands, commandResolver)
+                            : CompletableFuture.completedFuture(false));
+                }
+                if (!processed.join()) {
+                    return CompletableFuture.completedFuture(false);
+                }
             }
         } catch (Exception e) {
             LOG.error("Exception while merging event parameters into reaction.", e);
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
-    	
-    	return true;
+
+        return CompletableFuture.completedFuture(true);
     }
-    
-    private boolean processCommand(
-    		final EventTemplate event, 
-    		final Command command, 
-    		Resolver commandResolver) throws VariableResolutionException, CloneNotSupportedException {
-    	
-    	 if (command == null) {
-             return true;
-         }
-    	
-    	if (command.getReceiver().equalsIgnoreCase(BehaviorManager.getMessagingChannel())) {
+
+    private CompletableFuture<Boolean> processCommand(
+            final EventTemplate event,
+            final Command command,
+            Resolver commandResolver) throws VariableResolutionException, CloneNotSupportedException {
+
+        if (command == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        if (command.getReceiver().equalsIgnoreCase(BehaviorManager.getMessagingChannel())) {
             //this command is for an object so it needs only to know only about event parameters
             Command resolvedCommand = commandResolver.resolve(command);
             //doing so we bypass messaging system gaining better performances
             behaviorManager.parseCommand(resolvedCommand);
-            return true;
+            return CompletableFuture.completedFuture(true);
         }
-    	
+
         //if the event has a target object we include also object info
         List<EnvObjectLogic> targetObjects = thingsRepository.findByName(event.getProperty("object.name"));
 
@@ -297,27 +362,26 @@ public class TriggerCheck {
 
         final Command resolvedCommand = commandResolver.resolve(command);
         //it's not a user level command for objects (eg: turn it on), it is for another kind of actuator
-        Command reply = busService.send(resolvedCommand); //blocking wait until executed
-
-        if (reply == null) {
-            command.setExecuted(false);
-            LOG.warn("Unreceived reply within given time ({} ms) for command \"{}\"", command.getReplyTimeout(), command.getName());
-            notifyMessage("Unreceived reply within given time for command \"" + command.getName() + "\"");
-        } else {
-            if (reply.isExecuted()) {
-                //the reply is executed so mark the origial command as executed as well
-                command.setExecuted(true);
-                LOG.debug("Executed successfully \"{}\"", command.getName());
-            } else {
+        return busService.sendAsync(resolvedCommand).thenApply(reply -> {
+            if (reply == null) {
                 command.setExecuted(false);
-                LOG.warn("Unable to execute command \"{}\". Skipping the others", command.getName());
-                notifyMessage("Unable to execute command \"" + command.getName() + "\"");
-                // skip the other commands
-                return false;
+                LOG.warn("Unreceived reply within given time ({} ms) for command \"{}\"", command.getReplyTimeout(), command.getName());
+                notifyMessage("Unreceived reply within given time for command \"" + command.getName() + "\"");
+            } else {
+                if (reply.isExecuted()) {
+                    //the reply is executed so mark the origial command as executed as well
+                    command.setExecuted(true);
+                    LOG.debug("Executed successfully \"{}\"", command.getName());
+                } else {
+                    command.setExecuted(false);
+                    LOG.warn("Unable to execute command \"{}\". Skipping the others", command.getName());
+                    notifyMessage("Unable to execute command \"" + command.getName() + "\"");
+                    // skip the other commands
+                    return false;
+                }
             }
-        }
-        
-        return true;
+            return true;
+        });
     }
 
     /**
@@ -0,0 +1,420 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.api.EventTemplate;
+import com.freedomotic.bus.BusConsumer;
+import com.freedomotic.bus.BusMessagesListener;
+import com.freedomotic.bus.BusService;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.PayloadIndex;
+import com.freedomotic.rules.PayloadMatcher;
+import com.freedomotic.rules.Statement;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events received from the bus to the registered triggers.
+ * <p>
+ * A single bus subscription is opened for every channel listened by at least
+ * one trigger, so an event is received and deserialized only once whatever the
+ * number of triggers waiting for it. The triggers of a channel are indexed on
+ * the literal equality statements of their payload (eg: protocol = x10) and
+ * only the triggers which can be consistent with the event are passed to
+ * {@link TriggerCheck}.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public class TriggerDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TriggerDispatcher.class.getName());
+    private static final long STATS_INTERVAL = 60000;
+    private final Map<String, ChannelSubscription> subscriptions = new HashMap<>();
+    private final Map<Trigger, String> registeredTriggers = new IdentityHashMap<>();
+    private final AtomicLong windowEvents = new AtomicLong();
+    private final AtomicLong windowCandidates = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+    private volatile double eventsPerSecond;
+    private volatile double candidatesPerEvent;
+    // Dependencies
+    private final TriggerCheck checker;
+    private final BusService busService;
+
+    @Inject
+    TriggerDispatcher(TriggerCheck checker, BusService busService) {
+        this.checker = checker;
+        this.busService = busService;
+    }
+
+    /**
+     * Starts delivering the events published on the trigger channel to the
+     * given trigger. Registering again an already registered trigger refreshes
+     * its index entry, so it must be done every time the trigger is modified.
+     *
+     * @param trigger the trigger to register
+     */
+    public synchronized void register(Trigger trigger) {
+        if (trigger == null) {
+            throw new IllegalArgumentException("Cannot register a null trigger");
+        }
+        String channel = trigger.getChannel();
+        if ((channel == null) || channel.trim().isEmpty()) {
+            LOG.warn("Trigger \"{}\" has no channel to listen to, it will never fire", trigger.getName());
+            return;
+        }
+        unregister(trigger);
+        ChannelSubscription subscription = subscriptions.get(channel);
+        if (subscription == null) {
+            subscription = new ChannelSubscription(channel);
+            subscriptions.put(channel, subscription);
+        }
+        subscription.add(trigger);
+        registeredTriggers.put(trigger, channel);
+    }
+
+    /**
+     * Refreshes the index entry of a trigger modified in place, if it is
+     * registered. Unregistered triggers are left alone.
+     *
+     * @param trigger the modified trigger
+     */
+    public synchronized void refresh(Trigger trigger) {
+        if (registeredTriggers.containsKey(trigger)) {
+            register(trigger);
+        }
+    }
+
+    /**
+     * Stops delivering events to the given trigger. The bus subscription of a
+     * channel is closed when its last trigger is unregistered.
+     *
+     * @param trigger the trigger to unregister
+     */
+    public synchronized void unregister(Trigger trigger) {
+        String channel = registeredTriggers.remove(trigger);
+        if (channel == null) {
+            return;
+        }
+        ChannelSubscription subscription = subscriptions.get(channel);
+        if (subscription != null) {
+            subscription.remove(trigger);
+            if (subscription.isEmpty()) {
+                subscription.destroy();
+                subscriptions.remove(channel);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of currently registered triggers.
+     *
+     * @return the number of registered triggers
+     */
+    public synchronized int getRegisteredTriggers() {
+        return registeredTriggers.size();
+    }
+
+    /**
+     * Gets the number of events dispatched per second, measured on the last
+     * completed statistics window.
+     *
+     * @return the dispatched events per second
+     */
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    /**
+     * Gets the average number of triggers checked for each event, measured on
+     * the last completed statistics window.
+     *
+     * @return the candidate triggers per event
+     */
+    public double getCandidatesPerEvent() {
+        return candidatesPerEvent;
+    }
+
+    /**
+     * Checks the event against the triggers of the given channel which can be
+     * consistent with it.
+     *
+     * @param channel the channel the event was received from
+     * @param event the received event
+     * @return the number of candidate triggers checked
+     */
+    int dispatch(String channel, EventTemplate event) {
+        ChannelSubscription subscription;
+        synchronized (this) {
+            subscription = subscriptions.get(channel);
+        }
+        if (subscription == null) {
+            return 0;
+        }
+        return dispatch(subscription, event);
+    }
+
+    private int dispatch(ChannelSubscription subscription, EventTemplate event) {
+        List<Trigger> candidates = subscription.getIndex().findCandidates(event);
+        if (!candidates.isEmpty()) {
+            //the event payload is indexed once for all the candidates
+            PayloadIndex eventIndex = new PayloadIndex(event.getPayload(isDateDependent(candidates)));
+            for (Trigger trigger : candidates) {
+                LOG.debug("Trigger \"{}\" filters event \"{}\" on channel \"{}\"",
+                        trigger.getName(), event.getEventName(), subscription.channel);
+                checker.check(event, trigger, eventIndex);
+            }
+        }
+        updateStats(candidates.size());
+        return candidates.size();
+    }
+
+    private static boolean isDateDependent(List<Trigger> triggers) {
+        for (Trigger trigger : triggers) {
+            if (trigger.getCompiledPayload().isDateDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updateStats(int candidates) {
+        windowEvents.incrementAndGet();
+        windowCandidates.addAndGet(candidates);
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if ((now - start) >= STATS_INTERVAL && windowStart.compareAndSet(start, now)) {
+            long events = windowEvents.getAndSet(0);
+            long checked = windowCandidates.getAndSet(0);
+            eventsPerSecond = (events * 1000.0) / (now - start);
+            candidatesPerEvent = (events > 0) ? ((double) checked / events) : 0;
+            LOG.info("Trigger dispatcher: {} events/s, {} candidate triggers per event, {} triggers registered",
+                    String.format("%.2f", eventsPerSecond), String.format("%.2f", candidatesPerEvent), getRegisteredTriggers());
+        }
+    }
+
+    /**
+     * The bus subscription shared by all the triggers listening on a channel.
+     */
+    private class ChannelSubscription implements BusConsumer {
+
+        private final String channel;
+        private final List<Trigger> triggers = new ArrayList<>();
+        private final BusMessagesListener listener;
+        private volatile TriggerIndex index = new TriggerIndex(Collections.<Trigger>emptyList());
+
+        ChannelSubscription(String channel) {
+            this.channel = channel;
+            LOG.info("Opening trigger subscription on channel \"{}\"", channel);
+            this.listener = new BusMessagesListener(this, busService);
+            listener.consumeEventFrom(channel);
+        }
+
+        void add(Trigger trigger) {
+            triggers.add(trigger);
+            index = new TriggerIndex(triggers);
+        }
+
+        void remove(Trigger trigger) {
+            for (int i = 0; i < triggers.size(); i++) {
+                if (triggers.get(i) == trigger) {
+                    triggers.remove(i);
+                    break;
+                }
+            }
+            index = new TriggerIndex(triggers);
+        }
+
+        boolean isEmpty() {
+            return triggers.isEmpty();
+        }
+
+        TriggerIndex getIndex() {
+            return index;
+        }
+
+        void destroy() {
+            LOG.info("Closing trigger subscription on channel \"{}\"", channel);
+            listener.destroy();
+        }
+
+        @Override
+        public boolean isChangingEvents() {
+            // the triggers only read the events, the dates are filled once under the payload lock
+            return false;
+        }
+
+        @Override
+        public void onMessage(ObjectMessage message) {
+            Object jmsObject = null;
+            try {
+                jmsObject = message.getObject();
+            } catch (JMSException ex) {
+                LOG.error(ex.getMessage());
+            }
+
+            if (jmsObject instanceof EventTemplate) {
+                dispatch(this, (EventTemplate) jmsObject);
+            }
+        }
+    }
+
+    /**
+     * Immutable index of the triggers listening on a channel.
+     * <p>
+     * A trigger is indexed on its first AND statement comparing an attribute
+     * with a literal value through EQUALS, which must be satisfied by the event
+     * for the trigger to be consistent. The only exceptions are SET and OR
+     * statements, which can make the payload consistent anyway when the event
+     * contains their attribute, so the trigger is also indexed on those
+     * attributes. Triggers without a literal statement are always candidates.
+     * </p>
+     */
+    static final class TriggerIndex {
+
+        private final List<Trigger> unindexed = new ArrayList<>();
+        private final Map<String, List<Trigger>> byStatement = new HashMap<>();
+        private final Map<String, List<Trigger>> byAttribute = new HashMap<>();
+
+        TriggerIndex(List<Trigger> triggers) {
+            for (Trigger trigger : triggers) {
+                index(trigger);
+            }
+        }
+
+        private void index(Trigger trigger) {
+            Statement guard = null;
+            List<String> escapes = new ArrayList<>();
+
+            for (Statement statement : trigger.getPayload().getStatementsSnapshot()) {
+                if ((statement.getAttribute() == null) || (statement.getLogical() == null)) {
+                    // malformed statement, let the trigger check deal with it
+                    unindexed.add(trigger);
+                    return;
+                }
+                // event.* properties are skipped while comparing payloads
+                if (statement.getAttribute().startsWith("event.")) {
+                    continue;
+                }
+                boolean dateAttribute = PayloadMatcher.isDateAttribute(statement.getAttribute());
+                if (Statement.SET.equalsIgnoreCase(statement.getLogical())
+                        || Statement.OR.equalsIgnoreCase(statement.getLogical())) {
+                    if (dateAttribute) {
+                        // the event is indexed without its date and time statements
+                        unindexed.add(trigger);
+                        return;
+                    }
+                    escapes.add(fold(statement.getAttribute()));
+                } else if ((guard == null) && !dateAttribute && isLiteralEquality(statement)) {
+                    guard = statement;
+                }
+            }
+
+            if (guard == null) {
+                unindexed.add(trigger);
+                return;
+            }
+            put(byStatement, key(fold(guard.getAttribute()), fold(guard.getValue().trim())), trigger);
+            for (String attribute : escapes) {
+                put(byAttribute, attribute, trigger);
+            }
+        }
+
+        private static boolean isLiteralEquality(Statement statement) {
+            if (!Statement.AND.equalsIgnoreCase(statement.getLogical())
+                    || !Statement.EQUALS.equals(statement.getOperand())) {
+                return false;
+            }
+            if (statement.getValue() == null) {
+                return false;
+            }
+            String value = statement.getValue().trim();
+            // references to other values and scripts are known only after resolution
+            return !value.isEmpty()
+                    && !value.contains("@")
+                    && !value.startsWith("=")
+                    && !Statement.ANY.equalsIgnoreCase(value);
+        }
+
+        /**
+         * Finds the triggers which can be consistent with the given event.
+         *
+         * @param event the event to match
+         * @return the candidate triggers, each one listed once
+         */
+        List<Trigger> findCandidates(EventTemplate event) {
+            List<Trigger> candidates = new ArrayList<>(unindexed);
+            if (byStatement.isEmpty()) {
+                return candidates;
+            }
+            Set<Trigger> found = Collections.newSetFromMap(new IdentityHashMap<Trigger, Boolean>());
+
+            // date and time statements are added only if a candidate needs them
+            for (Statement statement : event.getPayload(false).getStatementsSnapshot()) {
+                if (statement.getAttribute() == null) {
+                    continue;
+                }
+                String attribute = fold(statement.getAttribute());
+                collect(byStatement.get(key(attribute, fold(statement.getValue()))), found, candidates);
+                collect(byAttribute.get(attribute), found, candidates);
+            }
+            return candidates;
+        }
+
+        private static void collect(List<Trigger> triggers, Set<Trigger> found, List<Trigger> candidates) {
+            if (triggers != null) {
+                for (Trigger trigger : triggers) {
+                    if (found.add(trigger)) {
+                        candidates.add(trigger);
+                    }
+                }
+            }
+        }
+
+        private static void put(Map<String, List<Trigger>> map, String key, Trigger trigger) {
+            List<Trigger> triggers = map.get(key);
+            if (triggers == null) {
+                triggers = new ArrayList<>();
+                map.put(key, triggers);
+            }
+            triggers.add(trigger);
+        }
+
+        private static String key(String attribute, String value) {
+            return attribute + '\u0000' + value;
+        }
+
+        private static String fold(String text) {
+            return (text == null) ? "" : text.toLowerCase(Locale.ENGLISH);
+        }
+    }
+}
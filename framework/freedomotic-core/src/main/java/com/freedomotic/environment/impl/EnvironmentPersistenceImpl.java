@@ -19,27 +19,19 @@
  */
 package com.freedomotic.environment.impl;
 
-import com.freedomotic.exceptions.DataUpgradeException;
 import com.freedomotic.exceptions.RepositoryException;
 import com.freedomotic.model.environment.Environment;
 import com.freedomotic.model.environment.Zone;
-import com.freedomotic.persistence.DataUpgradeService;
-import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
-import com.freedomotic.settings.Info;
+import com.freedomotic.persistence.DataLoader;
+import com.freedomotic.persistence.IncrementalSaver;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,13 +43,16 @@ import org.slf4j.LoggerFactory;
 class EnvironmentPersistenceImpl implements EnvironmentPersistence {
 
     private static final Logger LOG = LoggerFactory.getLogger(EnvironmentPersistenceImpl.class.getName());
+    static final String ENVIRONMENT_FILE_EXTENSION = ".xenv";
+    // shared by all the instances, it tracks the content of the files on disk
+    static final IncrementalSaver SAVER = new IncrementalSaver("environments", ENVIRONMENT_FILE_EXTENSION);
     private final File directory;
-    private final DataUpgradeService dataUpgradeService;
+    private final DataLoader dataLoader;
 
     @Inject
-    EnvironmentPersistenceImpl(@Assisted File directory, DataUpgradeService dataUpgradeService) {
+    EnvironmentPersistenceImpl(@Assisted File directory, DataLoader dataLoader) {
         this.directory = directory;
-        this.dataUpgradeService = dataUpgradeService;
+        this.dataLoader = dataLoader;
     }
 
     /**
@@ -67,31 +62,7 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
      * @throws RepositoryException
      */
     public Environment deserialize(final File file) throws RepositoryException {
-        XStream xstream = FreedomXStream.getXstream();
-        //validate the object against a predefined DTD
-        String xml;
-        try {
-            xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/environment.dtd");
-        } catch (IOException ex) {
-            throw new RepositoryException(ex.getMessage(), ex);
-        }
-        try {
-            Properties dataProperties = new Properties();
-            String fromVersion;
-            try {
-                dataProperties.load(new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties")));
-                fromVersion = dataProperties.getProperty("data.version");
-            } catch (IOException iOException) {
-                // Fallback to a default version for older version without that properties file
-                fromVersion = "5.5.0";
-            }
-            xml = (String) dataUpgradeService.upgrade(Environment.class, xml, fromVersion);
-            return (Environment) xstream.fromXML(xml);
-        } catch (DataUpgradeException dataUpgradeException) {
-            throw new RepositoryException("Cannot upgrade environment file \"" + file.getAbsolutePath() + "\"", dataUpgradeException);
-        } catch (XStreamException e) {
-            throw new RepositoryException("XML parsing error. Readed XML is \n" + xml, e);
-        }
+        return dataLoader.read(file, Environment.class);
     }
 
     /**
@@ -109,7 +80,6 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
             throw new RepositoryException(directory.getAbsoluteFile() + " is not a valid environment folder. Skipped");
         }
         verifyFolderStructure(directory);
-        delete(environment);
         String fileName = getEnvFilename(environment);
         try {
             serialize(environment, new File(directory + "/" + fileName));
@@ -135,7 +105,7 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
         if ((uuid == null) || uuid.isEmpty()) {
             environment.setUUID(UUID.randomUUID().toString());
         }
-        return environment.getUUID() + ".xenv";
+        return environment.getUUID() + ENVIRONMENT_FILE_EXTENSION;
     }
 
     /**
@@ -157,15 +127,15 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
                 = new FileFilter() {
                     @Override
                     public boolean accept(File file) {
-                        return file.isFile() && file.getName().endsWith(".xenv");
+                        return file.isFile() && file.getName().endsWith(ENVIRONMENT_FILE_EXTENSION);
                     }
                 };
 
         File[] files = directory.listFiles(envFileFilter);
 
-        List<Environment> environments = new ArrayList<>();
-        for (File file : files) {
-            environments.add(deserialize(file));
+        List<Environment> environments = dataLoader.loadAll("environment", files, this::deserialize);
+        if ((files != null) && (environments.size() < files.length)) {
+            throw new RepositoryException("Cannot load all the environments from \"" + directory.getAbsolutePath() + "\"");
         }
 
         verifyFolderStructure(directory);
@@ -204,9 +174,12 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
         for (Zone zone : env.getZones()) {
             zone.setObjects(null);
         }
-        LOG.info("Serializing environment to \"{}\"", file);
-        FreedomXStream.toXML(env, file);
-        LOG.info("Application environment \"{}\" successfully serialized", env.getName());
+        // the file is replaced atomically and only if the environment changed
+        if (SAVER.write(file, env)) {
+            LOG.info("Application environment \"{}\" successfully serialized to \"{}\"", env.getName(), file);
+        } else {
+            LOG.debug("Application environment \"{}\" is unchanged, \"{}\" not written", env.getName(), file);
+        }
     }
 
 }
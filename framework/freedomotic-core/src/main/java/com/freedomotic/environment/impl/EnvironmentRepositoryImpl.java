@@ -42,7 +42,6 @@ import com.freedomotic.settings.AppConfig;
 import com.freedomotic.settings.Info;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.ThingRepository;
-import com.freedomotic.util.SerialClone;
 import com.freedomotic.util.UidGenerator;
 import com.google.inject.Inject;
 import com.thoughtworks.xstream.XStream;
@@ -166,6 +165,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             throw new RepositoryException("\"" + folder.getAbsoluteFile() + "\" is not a valid environment folder. Skipped");
         }
         try {
+            List<String> saved = new ArrayList<>();
             for (EnvironmentLogic environment : environments) {
                 String uuid = environment.getPojo().getUUID();
 
@@ -176,7 +176,10 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
                 String fileName = environment.getPojo().getUUID() + ENVIRONMENT_FILE_EXTENSION;
                 save(environment,
                         new File(folder + "/" + fileName));
+                saved.add(environment.getPojo().getUUID());
             }
+            // removes the files of the deleted environments
+            EnvironmentPersistenceImpl.SAVER.retain(folder, saved);
         } catch (IOException e) {
             throw new RepositoryException(e.getCause());
         }
@@ -192,42 +195,6 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
 
     }
 
-    /**
-     *
-     *
-     * @param folder
-     * @throws RepositoryException
-     */
-    private static void deleteEnvFiles(File folder)
-            throws RepositoryException {
-        if ((folder == null) || !folder.isDirectory()) {
-            throw new IllegalArgumentException("Unable to delete environment files in a null or not valid folder");
-        }
-
-        // this filter only returns thing files
-        FileFilter objectFileFileter
-                = new FileFilter() {
-                    @Override
-                    public boolean accept(File file) {
-                        if (file.isFile() && file.getName().endsWith(ENVIRONMENT_FILE_EXTENSION)) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
-
-        File[] files = folder.listFiles(objectFileFileter);
-
-        for (File file : files) {
-            boolean deleted = file.delete();
-
-            if (!deleted) {
-                throw new RepositoryException("Unable to delete file " + file.getAbsoluteFile());
-            }
-        }
-    }
-
     /**
      * Loads all objects file filesystem folder and adds the objects to the
      * list.
@@ -301,7 +268,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             envLogic = new EnvironmentLogic();
 
             //defensive copy to not affect the passed object with the changes
-            Environment pojoCopy = SerialClone.clone(obj.getPojo());
+            Environment pojoCopy = new Environment(obj.getPojo());
             pojoCopy.setName(obj.getPojo().getName() + "-" + UidGenerator.getNextStringUid());
             pojoCopy.setUUID(""); // force to assign a new random and unique UUID
             // force to assign a new random and unique UUID to every zone
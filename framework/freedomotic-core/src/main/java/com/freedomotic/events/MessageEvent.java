@@ -49,11 +49,11 @@ public class MessageEvent extends EventTemplate {
      */
     public MessageEvent(Object source, String message) {
         super(source);
-        this.getPayload().addStatement("message.text", message);
+        payload.addStatement("message.text", message);
         //set a default message type
-        this.getPayload().addStatement(MESSAGE_TYPE, "callout");
+        payload.addStatement(MESSAGE_TYPE, "callout");
         //set a default message level
-        this.getPayload().addStatement(MESSAGE_LEVEL, "info");
+        payload.addStatement(MESSAGE_LEVEL, "info");
     }
 
     /**
@@ -65,11 +65,11 @@ public class MessageEvent extends EventTemplate {
      * @param type
      */
     public void setType(String type) {
-        this.getPayload().addStatement(MESSAGE_TYPE, type);
+        payload.addStatement(MESSAGE_TYPE, type);
     }
 
     public void setLevel(String level) {
-        this.getPayload().addStatement(MESSAGE_LEVEL, level);
+        payload.addStatement(MESSAGE_LEVEL, level);
     }
 
     /**
@@ -78,7 +78,7 @@ public class MessageEvent extends EventTemplate {
      * @param expires
      */
     public void setExpiration(long expires) {
-        this.getPayload().addStatement("message.expires", Long.toString(expires));
+        payload.addStatement("message.expires", Long.toString(expires));
     }
 
     /**
@@ -87,7 +87,7 @@ public class MessageEvent extends EventTemplate {
      * @param from
      */
     public void setFrom(String from) {
-        this.getPayload().addStatement("message.from", from);
+        payload.addStatement("message.from", from);
     }
 
     /**
@@ -98,7 +98,7 @@ public class MessageEvent extends EventTemplate {
      * @param to
      */
     public void setTo(String to) {
-        this.getPayload().addStatement("message.to", to);
+        payload.addStatement("message.to", to);
     }
 
     /**
@@ -109,7 +109,7 @@ public class MessageEvent extends EventTemplate {
      * @param path
      */
     public void setAttachmentPath(String path) {
-        this.getPayload().addStatement(MESSAGE_ATTACHMENT, path);
+        payload.addStatement(MESSAGE_ATTACHMENT, path);
     }
 
     /**
@@ -121,7 +121,7 @@ public class MessageEvent extends EventTemplate {
      */
     public void setAttachmentPath(File attachment) {
         String path = (attachment != null) ? attachment.getAbsolutePath() : "";
-        this.getPayload().addStatement(MESSAGE_ATTACHMENT, path);
+        payload.addStatement(MESSAGE_ATTACHMENT, path);
     }
 
     /**
@@ -129,7 +129,7 @@ public class MessageEvent extends EventTemplate {
      * @return
      */
     public String getFrom() {
-        return getPayload().getStatementValue("message.from");
+        return getProperty("message.from");
     }
 
     /**
@@ -137,7 +137,7 @@ public class MessageEvent extends EventTemplate {
      * @return
      */
     public String getTo() {
-        return getPayload().getStatementValue("message.to");
+        return getProperty("message.to");
     }
 
     /**
@@ -145,7 +145,7 @@ public class MessageEvent extends EventTemplate {
      * @return
      */
     public String getText() {
-        return getPayload().getStatementValue("message.text");
+        return getProperty("message.text");
     }
 
     /**
@@ -153,7 +153,7 @@ public class MessageEvent extends EventTemplate {
      * @return the absolute attachment path, if any
      */
     public String getAttachmentPath() {
-        return getPayload().getStatementValue(MESSAGE_ATTACHMENT);
+        return getProperty(MESSAGE_ATTACHMENT);
     }
 
     /**
@@ -165,7 +165,7 @@ public class MessageEvent extends EventTemplate {
         //adds the type to channel definition only if is not empty
         String type = "";
         try {
-            type = "." + getPayload().getStatements(MESSAGE_TYPE).get(0).getValue().toLowerCase().trim();
+            type = "." + payload.getStatements(MESSAGE_TYPE).get(0).getValue().toLowerCase().trim();
         } catch (Exception e) {
         	type = "";
         }
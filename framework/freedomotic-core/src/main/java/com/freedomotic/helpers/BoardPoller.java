@@ -0,0 +1,338 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import com.freedomotic.model.ds.Config;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the status of a set of boards and notifies the values which have
+ * changed since the previous poll.
+ * <p>
+ * A protocol calls {@link #poll()} from its onRun(), with a polling wait equal
+ * to {@link #getMinInterval()}. The boards due are read in parallel. A board
+ * whose values don't change is read less and less often, doubling its interval
+ * up to the maximum one, and goes back to the minimum interval as soon as one
+ * of its values changes or a command is sent to it (see
+ * {@link #wakeUp(Object)}). A board which cannot be read is retried once at
+ * the minimum interval, then backs off the same way while it keeps failing.
+ * </p>
+ * <p>
+ * The intervals are read from the plugin manifest: polling-time is the
+ * minimum one (default 1000 ms), polling-max-time the maximum one (default
+ * the minimum, which disables the backoff) and polling-threads the number of
+ * boards read at the same time (default 4).
+ * </p>
+ *
+ * @param <B> the type of the boards
+ * @author Freedomotic Team
+ */
+public class BoardPoller<B> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BoardPoller.class.getName());
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private final String name;
+    private final int minInterval;
+    private final int maxCycles;
+    private final Reader<B> reader;
+    private final Listener<B> listener;
+    private final ThreadPoolExecutor executor;
+    private final List<BoardState> boards = new CopyOnWriteArrayList<>();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Reads the current values of a board.
+     *
+     * @param <B> the type of the boards
+     */
+    public interface Reader<B> {
+
+        /**
+         *
+         * @param board the board to read
+         * @return the values of the board by name
+         * @throws IOException if the board cannot be read
+         */
+        Map<String, String> read(B board) throws IOException;
+    }
+
+    /**
+     * Receives the changes of the boards.
+     *
+     * @param <B> the type of the boards
+     */
+    public interface Listener<B> {
+
+        /**
+         * Called when a value is read for the first time or differs from the
+         * previous reading.
+         *
+         * @param board the board
+         * @param name the name of the value
+         * @param value the new value
+         */
+        void changed(B board, String name, String value);
+
+        /**
+         * Called when a board cannot be read.
+         *
+         * @param board the board
+         * @param ex the error
+         */
+        default void failed(B board, IOException ex) {
+            LOG.warn("Cannot read board \"{}\": {}", board, ex.getMessage());
+        }
+    }
+
+    /**
+     *
+     * @param name the name of the plugin, used to name the threads
+     * @param minInterval the minimum interval between two polls of the same
+     * board, in milliseconds
+     * @param maxInterval the maximum interval between two polls of a board
+     * which doesn't change, in milliseconds
+     * @param threads the number of boards read at the same time
+     * @param reader reads a board
+     * @param listener receives the changes
+     */
+    public BoardPoller(String name, int minInterval, int maxInterval, int threads, Reader<B> reader, Listener<B> listener) {
+        this.name = name;
+        this.minInterval = Math.max(1, minInterval);
+        this.maxCycles = Math.max(1, maxInterval / this.minInterval);
+        this.reader = reader;
+        this.listener = listener;
+        AtomicInteger counter = new AtomicInteger();
+        int size = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), (Runnable task) -> {
+                    Thread worker = new Thread(task, name + "-poller-" + counter.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a poller configured in the plugin manifest.
+     *
+     * @param <B> the type of the boards
+     * @param name the name of the plugin
+     * @param configuration the plugin configuration
+     * @param reader reads a board
+     * @param listener receives the changes
+     * @return the poller
+     */
+    public static <B> BoardPoller<B> fromConfig(String name, Config configuration, Reader<B> reader, Listener<B> listener) {
+        int minInterval = configuration.getIntProperty("polling-time", 1000);
+        return new BoardPoller<>(name, minInterval,
+                configuration.getIntProperty("polling-max-time", minInterval),
+                configuration.getIntProperty("polling-threads", 4), reader, listener);
+    }
+
+    /**
+     *
+     * @return the minimum interval between two polls of the same board, in
+     * milliseconds
+     */
+    public int getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     * Adds a board, which is read at the next poll.
+     *
+     * @param board the board
+     */
+    public void add(B board) {
+        boards.add(new BoardState(board));
+    }
+
+    /**
+     * Removes all the boards and forgets their values.
+     */
+    public void clear() {
+        boards.clear();
+    }
+
+    /**
+     * Reads the board at the next poll, for instance after a command has been
+     * sent to it, and resets its interval to the minimum one.
+     *
+     * @param board the board
+     */
+    public void wakeUp(B board) {
+        BoardState state = find(board);
+        if (state != null) {
+            state.cycles = 1;
+            state.remaining = 0;
+        }
+    }
+
+    /**
+     * Gets the current interval between the polls of a board.
+     *
+     * @param board the board
+     * @return the interval in milliseconds, -1 if the board is unknown
+     */
+    public int getInterval(B board) {
+        BoardState state = find(board);
+        return (state != null) ? state.cycles * minInterval : -1;
+    }
+
+    private BoardState find(B board) {
+        for (BoardState state : boards) {
+            if (state.board == board) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the boards which are due, in parallel, and returns when all of
+     * them have been read.
+     */
+    public void poll() {
+        List<BoardState> due = new ArrayList<>();
+        for (BoardState state : boards) {
+            if (state.remaining <= 0) {
+                due.add(state);
+            } else {
+                state.remaining--;
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        // the last board is read by the calling thread
+        List<Future<?>> running = new ArrayList<>(due.size() - 1);
+        for (int i = 0; i < due.size() - 1; i++) {
+            BoardState state = due.get(i);
+            running.add(executor.submit(() -> read(state)));
+        }
+        read(due.get(due.size() - 1));
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                LOG.error("Error while polling a board of \"{}\"", name, ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void read(BoardState state) {
+        polls.incrementAndGet();
+        Map<String, String> values;
+        try {
+            values = reader.read(state.board);
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+            // retry soon after the first failure, the board may be rebooting, then back off
+            state.cycles = (state.consecutiveFailures++ == 0) ? 1 : Math.min(maxCycles, state.cycles * 2);
+            state.remaining = state.cycles - 1;
+            listener.failed(state.board, ex);
+            return;
+        }
+        state.consecutiveFailures = 0;
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String previous = state.values.put(entry.getKey(), entry.getValue());
+            if (!Objects.equals(entry.getValue(), previous)) {
+                changed = true;
+                changes.incrementAndGet();
+                listener.changed(state.board, entry.getKey(), entry.getValue());
+            }
+        }
+        // fast while the board is changing, slower and slower while it is idle
+        state.cycles = changed ? 1 : Math.min(maxCycles, state.cycles * 2);
+        state.remaining = state.cycles - 1;
+    }
+
+    /**
+     * Stops the threads reading the boards.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        if (polls.get() > 0) {
+            LOG.info("Plugin \"{}\" polled its boards {} times, {} changes, {} failures",
+                    name, getPolls(), getChanges(), getFailures());
+        }
+    }
+
+    /**
+     *
+     * @return the number of board readings
+     */
+    public long getPolls() {
+        return polls.get();
+    }
+
+    /**
+     *
+     * @return the number of changed values notified
+     */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    /**
+     *
+     * @return the number of failed board readings
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * The values of a board and its polling interval, counted in polls.
+     */
+    private final class BoardState {
+
+        private final B board;
+        private final Map<String, String> values = new HashMap<>();
+        private volatile int cycles = 1;
+        private volatile int remaining;
+        private volatile int consecutiveFailures;
+
+        BoardState(B board) {
+            this.board = board;
+        }
+    }
+}
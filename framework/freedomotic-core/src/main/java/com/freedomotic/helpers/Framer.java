@@ -0,0 +1,203 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Splits the bytes received from a device into messages and encodes the
+ * messages sent to it.
+ *
+ * @author Freedomotic Team
+ */
+public interface Framer {
+
+    /**
+     * Reads the complete frames of a buffer. The bytes of an incomplete frame
+     * are left in the buffer, to be completed by the next read.
+     *
+     * @param buffer the received bytes, ready to be read
+     * @param frames receives the frames
+     * @throws IOException if the data is not valid, for instance a frame is
+     * too long
+     */
+    void decode(ByteBuffer buffer, Consumer<byte[]> frames) throws IOException;
+
+    /**
+     * Encodes a frame to be sent.
+     *
+     * @param frame the frame
+     * @return the bytes to send
+     * @throws IOException if the frame cannot be encoded
+     */
+    ByteBuffer encode(byte[] frame) throws IOException;
+
+    /**
+     * Each read is a frame, and frames are sent as they are.
+     *
+     * @return the framer
+     */
+    static Framer raw() {
+        return new Framer() {
+            @Override
+            public void decode(ByteBuffer buffer, Consumer<byte[]> frames) {
+                if (buffer.hasRemaining()) {
+                    byte[] frame = new byte[buffer.remaining()];
+                    buffer.get(frame);
+                    frames.accept(frame);
+                }
+            }
+
+            @Override
+            public ByteBuffer encode(byte[] frame) {
+                return ByteBuffer.wrap(frame);
+            }
+        };
+    }
+
+    /**
+     * Frames ending with a delimiter, like "\r\n". The delimiter is removed
+     * from the received frames and added to the sent ones.
+     *
+     * @param delimiter the delimiter
+     * @param maxLength the maximum length of a frame, without the delimiter
+     * @return the framer
+     */
+    static Framer delimited(String delimiter, int maxLength) {
+        return delimited(delimiter.getBytes(StandardCharsets.ISO_8859_1), maxLength);
+    }
+
+    /**
+     * Frames ending with a delimiter. The delimiter is removed from the
+     * received frames and added to the sent ones.
+     *
+     * @param delimiter the delimiter bytes
+     * @param maxLength the maximum length of a frame, without the delimiter
+     * @return the framer
+     */
+    static Framer delimited(byte[] delimiter, int maxLength) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("Empty frame delimiter");
+        }
+        byte[] copy = Arrays.copyOf(delimiter, delimiter.length);
+        return new Framer() {
+            @Override
+            public void decode(ByteBuffer buffer, Consumer<byte[]> frames) throws IOException {
+                int start = buffer.position();
+                int limit = buffer.limit();
+                int i = start;
+                while (i <= limit - copy.length) {
+                    if (matches(buffer, i)) {
+                        byte[] frame = new byte[i - start];
+                        buffer.get(frame);
+                        buffer.position(i + copy.length);
+                        frames.accept(frame);
+                        start = i + copy.length;
+                        i = start;
+                    } else {
+                        i++;
+                    }
+                }
+                if (limit - start > maxLength + copy.length) {
+                    throw new IOException("Frame longer than " + maxLength + " bytes");
+                }
+            }
+
+            private boolean matches(ByteBuffer buffer, int index) {
+                for (int j = 0; j < copy.length; j++) {
+                    if (buffer.get(index + j) != copy[j]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public ByteBuffer encode(byte[] frame) {
+                ByteBuffer encoded = ByteBuffer.allocate(frame.length + copy.length);
+                encoded.put(frame).put(copy).flip();
+                return encoded;
+            }
+        };
+    }
+
+    /**
+     * Frames preceded by their length, as a big endian unsigned integer.
+     *
+     * @param lengthBytes the size of the length field: 1, 2 or 4 bytes
+     * @param maxLength the maximum length of a frame, without the length
+     * field
+     * @return the framer
+     */
+    static Framer lengthPrefixed(int lengthBytes, int maxLength) {
+        if (lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4) {
+            throw new IllegalArgumentException("The length field must be 1, 2 or 4 bytes long");
+        }
+        // a longer frame could not be encoded in the length field
+        final int max = (lengthBytes == 4) ? maxLength : Math.min(maxLength, (1 << (8 * lengthBytes)) - 1);
+        return new Framer() {
+            @Override
+            public void decode(ByteBuffer buffer, Consumer<byte[]> frames) throws IOException {
+                while (buffer.remaining() >= lengthBytes) {
+                    buffer.mark();
+                    long length;
+                    if (lengthBytes == 1) {
+                        length = buffer.get() & 0xFF;
+                    } else if (lengthBytes == 2) {
+                        length = buffer.getShort() & 0xFFFF;
+                    } else {
+                        length = buffer.getInt() & 0xFFFFFFFFL;
+                    }
+                    if (length > max) {
+                        throw new IOException("Frame longer than " + max + " bytes");
+                    }
+                    if (buffer.remaining() < length) {
+                        buffer.reset();
+                        return;
+                    }
+                    byte[] frame = new byte[(int) length];
+                    buffer.get(frame);
+                    frames.accept(frame);
+                }
+            }
+
+            @Override
+            public ByteBuffer encode(byte[] frame) throws IOException {
+                if (frame.length > max) {
+                    throw new IOException("Frame longer than " + max + " bytes");
+                }
+                ByteBuffer encoded = ByteBuffer.allocate(lengthBytes + frame.length);
+                if (lengthBytes == 1) {
+                    encoded.put((byte) frame.length);
+                } else if (lengthBytes == 2) {
+                    encoded.putShort((short) frame.length);
+                } else {
+                    encoded.putInt(frame.length);
+                }
+                encoded.put(frame).flip();
+                return encoded;
+            }
+        };
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import com.freedomotic.settings.AppConfig;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HTTP client shared by the framework and the plugins.
+ * <p>
+ * Connections are pooled and kept alive, so polling the same board or
+ * service every second doesn't open a new connection each time. The number of
+ * connections to the same host is limited, a request waits for a free
+ * connection up to its timeout. Requests can be executed on the calling
+ * thread or asynchronously, and latency and errors are collected for each
+ * host.
+ * </p>
+ * <p>
+ * The pool is configured in config.xml with KEY_HTTP_MAX_CONNECTIONS (total,
+ * default 50), KEY_HTTP_MAX_CONNECTIONS_PER_HOST (default 4),
+ * KEY_HTTP_KEEP_ALIVE (seconds an idle connection is kept, default 30) and
+ * KEY_HTTP_THREADS (threads running the asynchronous requests, default 8).
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public class HttpClientService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpClientService.class.getName());
+    private static final long STATS_INTERVAL = 60000;
+    @Inject
+    private static AppConfig config;
+    private static HttpClientService defaultService;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, HostStats> stats = new ConcurrentHashMap<>();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     *
+     * @param maxConnections the maximum number of open connections
+     * @param maxConnectionsPerHost the maximum number of open connections to
+     * the same host
+     * @param keepAliveSeconds how long an idle connection is kept open
+     * @param threads the number of threads running the asynchronous requests
+     */
+    public HttpClientService(int maxConnections, int maxConnectionsPerHost, int keepAliveSeconds, int threads) {
+        connectionManager = new PoolingHttpClientConnectionManager(keepAliveSeconds, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(Math.max(1, maxConnections));
+        connectionManager.setDefaultMaxPerRoute(Math.max(1, maxConnectionsPerHost));
+        // a board may have closed an idle connection in the meantime
+        connectionManager.setValidateAfterInactivity(2000);
+        client = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .evictIdleConnections(keepAliveSeconds, TimeUnit.SECONDS)
+                .evictExpiredConnections()
+                .build();
+        AtomicInteger counter = new AtomicInteger();
+        int size = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                (Runnable task) -> {
+                    Thread thread = new Thread(task, "HttpClientService-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the client shared by the framework and the plugins, configured in
+     * config.xml.
+     *
+     * @return the shared client
+     */
+    public static synchronized HttpClientService getDefault() {
+        if (defaultService == null) {
+            if (config != null) {
+                defaultService = new HttpClientService(config.getIntProperty("KEY_HTTP_MAX_CONNECTIONS", 50),
+                        config.getIntProperty("KEY_HTTP_MAX_CONNECTIONS_PER_HOST", 4),
+                        config.getIntProperty("KEY_HTTP_KEEP_ALIVE", 30),
+                        config.getIntProperty("KEY_HTTP_THREADS", 8));
+            } else {
+                defaultService = new HttpClientService(50, 4, 30, 8);
+            }
+        }
+        return defaultService;
+    }
+
+    /**
+     * Closes the shared client, if it has been used.
+     */
+    public static synchronized void shutdownDefault() {
+        if (defaultService != null) {
+            defaultService.shutdown();
+            defaultService = null;
+        }
+    }
+
+    /**
+     * Executes a request on the calling thread. The response is consumed by
+     * the handler and the connection goes back to the pool.
+     *
+     * @param <T> the type of the result
+     * @param request the request
+     * @param username the user for basic authentication, null or empty if not
+     * required
+     * @param password the password for basic authentication, sent with the
+     * first request if not empty
+     * @param timeout the connect, read and pool wait timeout in milliseconds,
+     * zero for no timeout
+     * @param handler reads the response
+     * @return the value returned by the handler
+     * @throws IOException if the request fails
+     */
+    public <T> T execute(HttpRequestBase request, String username, String password, int timeout,
+            ResponseHandler<? extends T> handler) throws IOException {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .build();
+        request.setConfig(requestConfig);
+        HttpHost host = URIUtils.extractHost(request.getURI());
+        HttpClientContext context = HttpClientContext.create();
+        if ((host != null) && (username != null) && !username.isEmpty() && (password != null)) {
+            // the credentials are given only to the host of the request, not to a redirect target
+            BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(new AuthScope(host.getHostName(), portOf(host)),
+                    new UsernamePasswordCredentials(username, password));
+            context.setCredentialsProvider(credentialsProvider);
+            if (!password.isEmpty()) {
+                // send the credentials with the first request, saving the challenge round trip
+                BasicAuthCache authCache = new BasicAuthCache();
+                authCache.put(host, new BasicScheme());
+                context.setAuthCache(authCache);
+            }
+        }
+        HostStats hostStats = stats.computeIfAbsent((host != null) ? host.toHostString() : "unknown",
+                (String key) -> new HostStats());
+        int[] status = {0};
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            T result = client.execute(request, (HttpResponse response) -> {
+                status[0] = response.getStatusLine().getStatusCode();
+                return handler.handleResponse(response);
+            }, context);
+            failed = false;
+            return result;
+        } finally {
+            hostStats.update(System.nanoTime() - start, failed || (status[0] >= 400));
+            report();
+        }
+    }
+
+    private static int portOf(HttpHost host) {
+        if (host.getPort() >= 0) {
+            return host.getPort();
+        }
+        return "https".equalsIgnoreCase(host.getSchemeName()) ? 443 : 80;
+    }
+
+    /**
+     * Executes a request on the threads of this client.
+     *
+     * @param <T> the type of the result
+     * @param request the request
+     * @param username the user for basic authentication, null if not required
+     * @param password the password for basic authentication
+     * @param timeout the connect, read and pool wait timeout in milliseconds,
+     * zero for no timeout
+     * @param handler reads the response
+     * @return the value returned by the handler, completed with a
+     * {@link CompletionException} wrapping the IOException if the request
+     * fails
+     */
+    public <T> CompletableFuture<T> executeAsync(HttpRequestBase request, String username, String password, int timeout,
+            ResponseHandler<? extends T> handler) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(request, username, password, timeout, handler);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Gets the statistics of the requests, by host.
+     *
+     * @return the statistics by host:port
+     */
+    public Map<String, HostStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Gets the number of connections currently open.
+     *
+     * @return the leased and idle connections
+     */
+    public int getOpenConnections() {
+        return connectionManager.getTotalStats().getLeased() + connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Closes all the connections and stops the threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            client.close();
+        } catch (IOException ex) {
+            LOG.warn("Cannot close the HTTP client: {}", ex.getMessage());
+        }
+    }
+
+    private void report() {
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if ((now - start) >= STATS_INTERVAL && windowStart.compareAndSet(start, now) && LOG.isInfoEnabled()) {
+            for (Map.Entry<String, HostStats> entry : stats.entrySet()) {
+                HostStats hostStats = entry.getValue();
+                LOG.info("HTTP host \"{}\": {} requests, {} errors, {} ms average latency, {} ms max latency",
+                        entry.getKey(), hostStats.getRequests(), hostStats.getErrors(),
+                        String.format("%.2f", hostStats.getAverageLatency()), hostStats.getMaxLatency());
+            }
+        }
+    }
+
+    /**
+     * The requests sent to a host.
+     */
+    public static final class HostStats {
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong latencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private void update(long latency, boolean failed) {
+            requests.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            latencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+
+        /**
+         *
+         * @return the number of requests
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Gets the number of requests which failed or got an HTTP error
+         * status.
+         *
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         *
+         * @return the average time of a request in milliseconds
+         */
+        public double getAverageLatency() {
+            long count = requests.get();
+            return (count == 0) ? 0 : latencyNanos.get() / 1e6 / count;
+        }
+
+        /**
+         *
+         * @return the longest time of a request in milliseconds
+         */
+        public long getMaxLatency() {
+            return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+        }
+    }
+}
@@ -21,17 +21,12 @@ package com.freedomotic.helpers;
 import com.google.common.collect.ImmutableMap;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -41,7 +36,7 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
@@ -54,13 +49,18 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.apache.commons.io.IOUtils.toByteArray;
-import org.apache.http.impl.client.HttpClients;
 
 /**
+ * Sends HTTP requests through the shared {@link HttpClientService}, so the
+ * connections to the same host are pooled and kept alive.
+ *
  * @author Enrico Nicoletti
  */
 public class HttpHelper {
@@ -68,20 +68,36 @@ public class HttpHelper {
     private static final Logger LOG = LoggerFactory.getLogger(HttpHelper.class.getName());
     private static final int DEFAULT_TIMEOUT = 30_000; //30seconds
     private static final Charset DEFAULT_UTF8 = Charset.forName("UTF-8");
+    private static final int XPATH_CACHE_SIZE = 64;
+    // parsers and compiled expressions are not thread safe, each thread keeps its own
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    });
+    private static final ThreadLocal<Map<String, XPathExpression>> XPATH_CACHE = ThreadLocal.withInitial(()
+            -> new LinkedHashMap<String, XPathExpression>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+            return size() > XPATH_CACHE_SIZE;
+        }
+    });
 
-    private DocumentBuilder documentBuilder;
-    private XPath xPath;
+    private final HttpClientService httpClient;
     private int connectionTimeout = DEFAULT_TIMEOUT;
 
     public HttpHelper() {
-        try {
-            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilder = builderFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            LOG.error(ex.getMessage());
-        }
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        xPath = xpathFactory.newXPath();
+        this(HttpClientService.getDefault());
+    }
+
+    /**
+     *
+     * @param httpClient the client sending the requests
+     */
+    public HttpHelper(HttpClientService httpClient) {
+        this.httpClient = httpClient;
     }
 
     /**
@@ -121,7 +137,28 @@ public class HttpHelper {
      */
     public byte[] post(String url, byte[] content, String username, String password,
             Map<String, String> headers) throws IOException {
-        return doPost(url, content, username, password, headers);
+        return httpClient.execute(createPost(url, content, headers), username, password, connectionTimeout,
+                HttpHelper::readBytes);
+    }
+
+    /**
+     * Posts the content to the given URL without blocking the caller.
+     *
+     * @param url of the service
+     * @param content in byte format that is going to be post
+     * @param username for basic authentication
+     * @param password for basic authentication
+     * @param headers http headers
+     * @return post result as byte array
+     */
+    public CompletableFuture<byte[]> postAsync(String url, byte[] content, String username, String password,
+            Map<String, String> headers) {
+        try {
+            return httpClient.executeAsync(createPost(url, content, headers), username, password, connectionTimeout,
+                    HttpHelper::readBytes);
+        } catch (IOException ex) {
+            return failed(ex);
+        }
     }
 
     /**
@@ -138,6 +175,24 @@ public class HttpHelper {
         return doGetAsString(url, username, password);
     }
 
+    /**
+     * Gets the content of an URL as a string without blocking the caller.
+     *
+     * @param url
+     * @param username username if authentication is required. Can be null
+     * @param password password if authentication is required. Can be null
+     * @return the content, completed exceptionally with the IOException if it
+     * cannot be retrieved
+     */
+    public CompletableFuture<String> retrieveContentAsync(String url, String username, String password) {
+        try {
+            return httpClient.executeAsync(new HttpGet(asUri(url)), username, password, connectionTimeout,
+                    HttpHelper::readString);
+        } catch (IOException ex) {
+            return failed(ex);
+        }
+    }
+
     /**
      * Perform an XPath query on the XML content retrieved from the given URL.
      *
@@ -149,16 +204,68 @@ public class HttpHelper {
      * @throws IOException
      */
     public List<String> queryXml(String url, String username, String password, String... xpathQueries) throws IOException {
-        byte[] xmlContent = doGet(url, username, password);
+        return evaluate(doGet(url, username, password), xpathQueries);
+    }
+
+    /**
+     * Performs XPath queries on the XML content retrieved from the given URL
+     * without blocking the caller.
+     *
+     * @param url The url from wich retrieve the XML content
+     * @param username username if authentication is required. Can be null
+     * @param password password if authentication is required. Can be null
+     * @param xpathQueries any valid xpath query
+     * @return the results, completed exceptionally with the IOException if
+     * the content cannot be retrieved or queried
+     */
+    public CompletableFuture<List<String>> queryXmlAsync(String url, String username, String password, String... xpathQueries) {
+        try {
+            return httpClient.executeAsync(new HttpGet(asUri(url)), username, password, connectionTimeout,
+                    (HttpResponse response) -> evaluate(readBytes(response), xpathQueries));
+        } catch (IOException ex) {
+            return failed(ex);
+        }
+    }
+
+    /**
+     * Gets the compiled form of an XPath expression. Expressions are compiled
+     * once and cached for the calling thread.
+     *
+     * @param xpathQuery any valid xpath query
+     * @return the compiled expression, not to be shared with other threads
+     * @throws XPathExpressionException if the query is not valid
+     */
+    public static XPathExpression compileXPath(String xpathQuery) throws XPathExpressionException {
+        Map<String, XPathExpression> cache = XPATH_CACHE.get();
+        XPathExpression expression = cache.get(xpathQuery);
+        if (expression == null) {
+            expression = XPathFactory.newInstance().newXPath().compile(xpathQuery);
+            cache.put(xpathQuery, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Determines the timeout in milliseconds until a connection is
+     * established, a reply is received or a pooled connection is available. A
+     * timeout value of zero is interpreted as an infinite timeout.
+     *
+     * @param connectionTimeout timeout in milliseconds
+     */
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    private static List<String> evaluate(byte[] xmlContent, String... xpathQueries) throws IOException {
         List<String> results = new ArrayList<>();
         try {
             InputSource is = new InputSource(new ByteArrayInputStream(xmlContent));
-            Document xmlDocument = documentBuilder.parse(is);
+            Document xmlDocument = DOCUMENT_BUILDER.get().parse(is);
             xmlDocument.getDocumentElement().normalize();
 
             //xpathQuery  contains the xpath expression to be applied on the retrieved content
             for (String xpathQuery : xpathQueries) {
-                String result = xPath.compile(xpathQuery).evaluate(xmlDocument);
+                String result = compileXPath(xpathQuery).evaluate(xmlDocument);
                 // Notify an empty result to the user
                 if (result == null || result.isEmpty()) {
                     LOG.warn("XPath query {} produced no results on content: \n{}", xpathQuery, new String(xmlContent));
@@ -173,32 +280,16 @@ public class HttpHelper {
         return results;
     }
 
-    /**
-     * Determines the timeout in milliseconds until a connection is established.
-     * A timeout value of zero is interpreted as an infinite timeout.
-     * <br>
-     * See also {@link RequestConfig#getConnectTimeout()}
-     *
-     * @param connectionTimeout timeout in milliseconds
-     */
-    public void setConnectionTimeout(int connectionTimeout) {
-        this.connectionTimeout = connectionTimeout;
-    }
-
     /**
      * 
      * 
      * @param url
      * @param content
-     * @param username
-     * @param password
      * @param headers
      * @return
      * @throws IOException 
      */
-    private byte[] doPost(String url, byte[] content, String username, String password,
-            Map<String, String> headers) throws IOException {
-
+    private HttpPost createPost(String url, byte[] content, Map<String, String> headers) throws IOException {
         final HttpPost httpPost = new HttpPost(asUri(url));
         final HttpEntity httpEntity = new ByteArrayEntity(content);
         httpPost.setEntity(httpEntity);
@@ -206,11 +297,7 @@ public class HttpHelper {
         for (Map.Entry<String, String> header : headers.entrySet()) {
             httpPost.setHeader(header.getKey(), header.getValue());
         }
-
-        final HttpResponse httpResponse = fireHttpRequest(httpPost, username, password);
-        try (InputStream inputStream = httpResponse.getEntity().getContent()) {
-            return toByteArray(inputStream);
-        }
+        return httpPost;
     }
 
     /**
@@ -223,10 +310,7 @@ public class HttpHelper {
      * @throws IOException 
      */
     private byte[] doGet(String url, String username, String password) throws IOException {
-        HttpResponse httpResponse = fireGetRequest(url, username, password);
-        try (InputStream inputStream = httpResponse.getEntity().getContent()) {
-            return toByteArray(inputStream);
-        }
+        return fireGetRequest(url, username, password, HttpHelper::readBytes);
     }
 
     /**
@@ -239,11 +323,7 @@ public class HttpHelper {
      * @throws IOException 
      */
     private String doGetAsString(String url, String username, String password) throws IOException {
-        HttpResponse httpResponse = fireGetRequest(url, username, password);
-        try (InputStream inputStream = httpResponse.getEntity().getContent()) {
-            byte[] content = toByteArray(inputStream);
-            return new String(content, determineCharsetName(httpResponse));
-        }
+        return fireGetRequest(url, username, password, HttpHelper::readString);
     }
 
     /**
@@ -252,11 +332,13 @@ public class HttpHelper {
      * @param url
      * @param username
      * @param password
+     * @param handler
      * @return
      * @throws IOException 
      */
-    private HttpResponse fireGetRequest(String url, String username, String password) throws IOException {
-        return fireHttpRequest(new HttpGet(asUri(url)), username, password);
+    private <T> T fireGetRequest(String url, String username, String password,
+            ResponseHandler<T> handler) throws IOException {
+        return fireHttpRequest(new HttpGet(asUri(url)), username, password, handler);
     }
 
     /**
@@ -265,24 +347,32 @@ public class HttpHelper {
      * @param httpRequest
      * @param username
      * @param password
+     * @param handler
      * @return
      * @throws IOException 
      */
-    private HttpResponse fireHttpRequest(HttpRequestBase httpRequest, String username, String password) throws IOException {
-
-        HttpClientBuilder builder = HttpClients.custom().useSystemProperties();
-        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectionTimeout).build();
-        builder.setDefaultRequestConfig(requestConfig);
-
-        if ((username != null) && (password != null)) {
-            final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-            credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
-            builder.setDefaultCredentialsProvider(credentialsProvider);
+    private <T> T fireHttpRequest(HttpRequestBase httpRequest, String username, String password,
+            ResponseHandler<T> handler) throws IOException {
+        return httpClient.execute(httpRequest, username, password, connectionTimeout, handler);
+    }
 
+    private static byte[] readBytes(HttpResponse httpResponse) throws IOException {
+        if (httpResponse.getEntity() == null) {
+            return new byte[0];
         }
+        try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+            return toByteArray(inputStream);
+        }
+    }
+
+    private static String readString(HttpResponse httpResponse) throws IOException {
+        return new String(readBytes(httpResponse), determineCharsetName(httpResponse));
+    }
 
-        final CloseableHttpClient client = builder.build();
-        return client.execute(httpRequest);
+    private static <T> CompletableFuture<T> failed(IOException ex) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new CompletionException(ex));
+        return future;
     }
 
     /**
@@ -291,7 +381,7 @@ public class HttpHelper {
      * @param response
      * @return 
      */
-    private Charset determineCharsetName(HttpResponse response) {
+    private static Charset determineCharsetName(HttpResponse response) {
         ContentType contentType = ContentType.getLenient(response.getEntity());
         if (contentType != null && contentType.getCharset() != null) {
             return contentType.getCharset();
@@ -0,0 +1,652 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non blocking TCP and UDP connections to the devices, all served by a single
+ * thread.
+ * <p>
+ * The connections are registered on one selector. Connect and read timeouts
+ * and reconnection delays are checked by the same thread, so a plugin talking
+ * to hundreds of devices doesn't need a thread for each of them. The bytes
+ * received are split in messages by a {@link Framer} and passed to a
+ * {@link Listener}.
+ * </p>
+ * <p>
+ * The listeners are called by the transport thread and must not block: long
+ * work, like waiting for another device, has to be handed over to another
+ * thread.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public class NioTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioTransport.class.getName());
+    private static NioTransport defaultTransport;
+    private final String name;
+    private final Selector selector;
+    private final Thread worker;
+    // tasks submitted by other threads, executed by the transport thread
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+    // no deadline expires before this time, so the connections are not checked
+    private long nextCheck = Long.MAX_VALUE;
+
+    /**
+     * Receives the events of a connection. The methods are called by the
+     * transport thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the connection is established, and after every
+         * reconnection.
+         *
+         * @param connection the connection
+         */
+        default void connected(Connection connection) {
+        }
+
+        /**
+         * Called for each message received.
+         *
+         * @param connection the connection
+         * @param frame the message, without framing
+         */
+        void received(Connection connection, byte[] frame);
+
+        /**
+         * Called when the connection is lost or cannot be established.
+         *
+         * @param connection the connection
+         * @param cause the error, null if the connection has been closed by
+         * {@link Connection#close()}
+         */
+        default void disconnected(Connection connection, IOException cause) {
+        }
+    }
+
+    /**
+     * The settings of a connection.
+     */
+    public static final class Options {
+
+        private int connectTimeout = 5000;
+        private int readTimeout;
+        private Framer framer = Framer.raw();
+        private int minReconnectDelay;
+        private int maxReconnectDelay;
+        private int bufferSize = 4096;
+
+        /**
+         *
+         * @param connectTimeout the maximum time to establish a TCP
+         * connection in milliseconds, default 5000
+         * @return these options
+         */
+        public Options connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         *
+         * @param readTimeout the maximum time without receiving anything
+         * before the connection is considered lost, in milliseconds. Zero
+         * (the default) disables it
+         * @return these options
+         */
+        public Options readTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         *
+         * @param framer splits the received bytes in messages, default
+         * {@link Framer#raw()}
+         * @return these options
+         */
+        public Options framer(Framer framer) {
+            this.framer = framer;
+            return this;
+        }
+
+        /**
+         * Reconnects automatically when the connection is lost or cannot be
+         * established. The delay doubles at each failed attempt, from the
+         * minimum up to the maximum one, and goes back to the minimum once
+         * connected.
+         *
+         * @param minDelay the first delay in milliseconds
+         * @param maxDelay the maximum delay in milliseconds
+         * @return these options
+         */
+        public Options reconnect(int minDelay, int maxDelay) {
+            this.minReconnectDelay = Math.max(1, minDelay);
+            this.maxReconnectDelay = Math.max(this.minReconnectDelay, maxDelay);
+            return this;
+        }
+
+        /**
+         *
+         * @param bufferSize the size of the receive buffer, which must hold
+         * the longest message. Default 4096
+         * @return these options
+         */
+        public Options bufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+    }
+
+    /**
+     * Creates a transport and starts its thread.
+     *
+     * @param name the name of the thread
+     * @throws IOException if the selector cannot be opened
+     */
+    public NioTransport(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Gets the transport shared by the framework and the plugins.
+     *
+     * @return the shared transport
+     * @throws IOException if the selector cannot be opened
+     */
+    public static synchronized NioTransport getDefault() throws IOException {
+        if (defaultTransport == null) {
+            defaultTransport = new NioTransport("NioTransport");
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * Closes the shared transport, if it has been used.
+     */
+    public static synchronized void shutdownDefault() {
+        if (defaultTransport != null) {
+            defaultTransport.shutdown();
+            defaultTransport = null;
+        }
+    }
+
+    /**
+     * Opens a TCP connection. The connection is established asynchronously,
+     * {@link Listener#connected(Connection)} is called when done.
+     *
+     * @param host the host name or address of the device
+     * @param port the port
+     * @param options the connection settings
+     * @param listener receives the messages
+     * @return the connection
+     */
+    public Connection tcp(String host, int port, Options options, Listener listener) {
+        return open(host, port, false, options, listener);
+    }
+
+    /**
+     * Opens a UDP channel to a device. Each datagram received from it is
+     * decoded by the framer, and each message sent is a datagram.
+     *
+     * @param host the host name or address of the device
+     * @param port the port
+     * @param options the connection settings
+     * @param listener receives the messages
+     * @return the connection
+     */
+    public Connection udp(String host, int port, Options options, Listener listener) {
+        return open(host, port, true, options, listener);
+    }
+
+    private Connection open(String host, int port, boolean udp, Options options, Listener listener) {
+        if (!running) {
+            throw new IllegalStateException("Transport " + name + " is shut down");
+        }
+        Connection connection = new Connection(host, port, udp, options, listener);
+        connections.add(connection);
+        execute(connection::connect);
+        return connection;
+    }
+
+    /**
+     * Gets the number of open connections, including the ones waiting to
+     * reconnect.
+     *
+     * @return the number of connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Closes all the connections and stops the thread.
+     */
+    public void shutdown() {
+        execute(() -> {
+            for (Connection connection : connections) {
+                connection.closed = true;
+                connection.disconnect(null);
+            }
+            running = false;
+        });
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void execute(Runnable task) {
+        if (Thread.currentThread() == worker) {
+            task.run();
+        } else {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    private void schedule(long deadline) {
+        if (deadline < nextCheck) {
+            nextCheck = deadline;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long wait = 0;
+                if (nextCheck != Long.MAX_VALUE) {
+                    wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextCheck - System.nanoTime()) + 1);
+                }
+                if (tasks.isEmpty()) {
+                    selector.select(wait);
+                } else {
+                    selector.selectNow();
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((Connection) key.attachment()).ready(key);
+                }
+                if (nextCheck != Long.MAX_VALUE && System.nanoTime() - nextCheck >= 0) {
+                    checkDeadlines();
+                }
+            } catch (IOException | RuntimeException ex) {
+                LOG.error("Error in transport \"{}\"", name, ex);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            LOG.warn("Cannot close the selector of transport \"{}\": {}", name, ex.getMessage());
+        }
+    }
+
+    // deadlines only move forward while data is received, so the connections are checked only when the earliest one may have expired
+    private void checkDeadlines() {
+        long now = System.nanoTime();
+        nextCheck = Long.MAX_VALUE;
+        for (Connection connection : connections) {
+            connection.checkDeadline(now);
+        }
+    }
+
+    /**
+     * A connection to a device. It can be used by any thread.
+     */
+    public final class Connection {
+
+        private final String host;
+        private final int port;
+        private final boolean udp;
+        private final Options options;
+        private final Listener listener;
+        private final ByteBuffer readBuffer;
+        // accessed only by the transport thread
+        private final Queue<ByteBuffer> pending = new ArrayDeque<>();
+        private SelectableChannel channel;
+        private SelectionKey key;
+        private long connectDeadline;
+        private long readDeadline;
+        private long reconnectTime;
+        private int reconnectDelay;
+        private volatile boolean connected;
+        private volatile boolean closed;
+        private final AtomicLong reconnections = new AtomicLong();
+        private final AtomicLong received = new AtomicLong();
+
+        private Connection(String host, int port, boolean udp, Options options, Listener listener) {
+            this.host = host;
+            this.port = port;
+            this.udp = udp;
+            this.options = options;
+            this.listener = listener;
+            this.readBuffer = ByteBuffer.allocate(options.bufferSize);
+            this.reconnectDelay = options.minReconnectDelay;
+        }
+
+        /**
+         * Sends a message, encoded by the framer. The message is queued and
+         * written when the device can receive it.
+         *
+         * @param frame the message
+         * @return false if the device is not connected and the message has
+         * been discarded
+         * @throws IOException if the message cannot be encoded
+         */
+        public boolean send(byte[] frame) throws IOException {
+            if (!connected) {
+                return false;
+            }
+            ByteBuffer encoded = options.framer.encode(frame);
+            execute(() -> write(encoded));
+            return true;
+        }
+
+        /**
+         * Closes the connection, which is not reconnected.
+         */
+        public void close() {
+            closed = true;
+            execute(() -> {
+                disconnect(null);
+                connections.remove(this);
+            });
+        }
+
+        /**
+         *
+         * @return true if the device is connected
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         *
+         * @return the device address as host:port
+         */
+        public String getAddress() {
+            return host + ":" + port;
+        }
+
+        /**
+         *
+         * @return the number of reconnection attempts
+         */
+        public long getReconnections() {
+            return reconnections.get();
+        }
+
+        /**
+         *
+         * @return the number of messages received
+         */
+        public long getReceived() {
+            return received.get();
+        }
+
+        private void connect() {
+            if (closed) {
+                return;
+            }
+            try {
+                // literal addresses are not looked up, names should be resolved by a fast local resolver
+                InetSocketAddress address = new InetSocketAddress(host, port);
+                if (address.isUnresolved()) {
+                    throw new IOException("Cannot resolve " + host);
+                }
+                if (udp) {
+                    DatagramChannel datagram = DatagramChannel.open();
+                    channel = datagram;
+                    datagram.configureBlocking(false);
+                    datagram.connect(address);
+                    key = datagram.register(selector, SelectionKey.OP_READ, this);
+                    established();
+                } else {
+                    SocketChannel socket = SocketChannel.open();
+                    channel = socket;
+                    socket.configureBlocking(false);
+                    socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    socket.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                    if (socket.connect(address)) {
+                        key = socket.register(selector, SelectionKey.OP_READ, this);
+                        established();
+                    } else {
+                        key = socket.register(selector, SelectionKey.OP_CONNECT, this);
+                        if (options.connectTimeout > 0) {
+                            connectDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.connectTimeout);
+                            schedule(connectDeadline);
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                disconnect(ex);
+            }
+        }
+
+        private void established() {
+            connected = true;
+            connectDeadline = 0;
+            reconnectDelay = options.minReconnectDelay;
+            readBuffer.clear();
+            touch();
+            if (!pending.isEmpty()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            try {
+                listener.connected(this);
+            } catch (RuntimeException ex) {
+                LOG.error("Error in the listener of {}", getAddress(), ex);
+            }
+        }
+
+        private void touch() {
+            if (options.readTimeout > 0) {
+                readDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.readTimeout);
+                schedule(readDeadline);
+            }
+        }
+
+        private void ready(SelectionKey selected) {
+            try {
+                if (!selected.isValid()) {
+                    return;
+                }
+                if (selected.isConnectable()) {
+                    if (((SocketChannel) channel).finishConnect()) {
+                        selected.interestOps(SelectionKey.OP_READ);
+                        established();
+                    }
+                    return;
+                }
+                if (selected.isReadable()) {
+                    read();
+                }
+                if (selected.isValid() && selected.isWritable()) {
+                    flush();
+                }
+            } catch (IOException ex) {
+                disconnect(ex);
+            }
+        }
+
+        private void read() throws IOException {
+            int count = ((ByteChannel) channel).read(readBuffer);
+            if (count < 0) {
+                throw new EOFException("Connection closed by " + getAddress());
+            }
+            if (count == 0 && readBuffer.hasRemaining()) {
+                return;
+            }
+            touch();
+            readBuffer.flip();
+            try {
+                options.framer.decode(readBuffer, (byte[] frame) -> {
+                    received.incrementAndGet();
+                    try {
+                        listener.received(this, frame);
+                    } catch (RuntimeException ex) {
+                        LOG.error("Error in the listener of {}", getAddress(), ex);
+                    }
+                });
+            } finally {
+                if (udp) {
+                    // a datagram is never continued by the next one
+                    readBuffer.clear();
+                } else {
+                    readBuffer.compact();
+                }
+            }
+            if (!udp && !readBuffer.hasRemaining()) {
+                throw new IOException("Message longer than the " + options.bufferSize + " bytes buffer from " + getAddress());
+            }
+        }
+
+        private void write(ByteBuffer encoded) {
+            if (!connected) {
+                return;
+            }
+            pending.add(encoded);
+            try {
+                flush();
+            } catch (IOException ex) {
+                disconnect(ex);
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = pending.peek()) != null) {
+                ((ByteChannel) channel).write(buffer);
+                if (buffer.hasRemaining()) {
+                    // the device is slow, wait until it can receive more
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pending.poll();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        private void checkDeadline(long now) {
+            if (channel != null && connectDeadline != 0 && !connected) {
+                if (now - connectDeadline >= 0) {
+                    disconnect(new SocketTimeoutException("Connect timed out after "
+                            + options.connectTimeout + " ms to " + getAddress()));
+                } else {
+                    schedule(connectDeadline);
+                }
+            } else if (connected && options.readTimeout > 0) {
+                if (now - readDeadline >= 0) {
+                    disconnect(new SocketTimeoutException("Nothing received from " + getAddress()
+                            + " in " + options.readTimeout + " ms"));
+                } else {
+                    schedule(readDeadline);
+                }
+            } else if (channel == null && reconnectTime != 0) {
+                if (now - reconnectTime >= 0) {
+                    reconnectTime = 0;
+                    reconnections.incrementAndGet();
+                    connect();
+                } else {
+                    schedule(reconnectTime);
+                }
+            }
+        }
+
+        private void disconnect(IOException cause) {
+            boolean wasOpen = channel != null;
+            if (key != null) {
+                key.cancel();
+                key = null;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    //best effort
+                }
+                channel = null;
+            }
+            connected = false;
+            connectDeadline = 0;
+            pending.clear();
+            if (wasOpen || cause != null) {
+                if (cause != null) {
+                    LOG.debug("Connection to {} lost: {}", getAddress(), cause.getMessage());
+                }
+                try {
+                    listener.disconnected(this, cause);
+                } catch (RuntimeException ex) {
+                    LOG.error("Error in the listener of {}", getAddress(), ex);
+                }
+            }
+            if (closed) {
+                connections.remove(this);
+            } else if (options.minReconnectDelay > 0) {
+                reconnectTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectDelay);
+                schedule(reconnectTime);
+                reconnectDelay = Math.min(options.maxReconnectDelay, reconnectDelay * 2);
+            } else {
+                connections.remove(this);
+            }
+        }
+    }
+}
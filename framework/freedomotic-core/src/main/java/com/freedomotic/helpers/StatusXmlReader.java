@@ -0,0 +1,166 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Reads the status files published by the ethernet boards, like
+ * <code>&lt;response&gt;&lt;led0&gt;1&lt;/led0&gt;&lt;btn0&gt;up&lt;/btn0&gt;&lt;/response&gt;</code>.
+ * <p>
+ * The file is parsed while it is received, without building a DOM, and every
+ * element containing only text is returned as a name/value pair.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class StatusXmlReader {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // board files are trusted but small, don't resolve anything external
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    private StatusXmlReader() {
+        //disable instantiation
+    }
+
+    /**
+     * Reads all the values of a status file.
+     *
+     * @param in the status file, not closed
+     * @return the values by element name, in document order
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static Map<String, String> read(InputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * Reads some values of a status file.
+     *
+     * @param in the status file, not closed
+     * @param names the names of the elements to read, null to read all of
+     * them
+     * @return the values by element name, in document order
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static Map<String, String> read(InputStream in, Set<String> names) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(in);
+            String current = null;
+            StringBuilder text = new StringBuilder();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        // a parent element is forgotten when its first child starts
+                        current = reader.getLocalName();
+                        if (names != null && !names.contains(current)) {
+                            current = null;
+                        }
+                        text.setLength(0);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (current != null) {
+                            text.append(reader.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (current != null) {
+                            values.put(current, text.toString().trim());
+                            current = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Cannot parse status file: " + ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    //best effort, the stream is closed by the caller
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Downloads and reads a status file. The request goes through the shared
+     * {@link HttpClientService}, so the connection to the board is kept alive
+     * and reused by the next poll.
+     *
+     * @param url the url of the status file
+     * @param username the user for basic authentication, null if not required
+     * @param password the password for basic authentication
+     * @param timeout the connect and read timeout in milliseconds
+     * @param names the names of the elements to read, null to read all of
+     * them
+     * @return the values by element name, in document order
+     * @throws IOException if the board doesn't reply or the file cannot be
+     * parsed
+     */
+    public static Map<String, String> fetch(String url, String username, String password, int timeout, Set<String> names) throws IOException {
+        HttpGet request;
+        try {
+            request = new HttpGet(url);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("The URL \"" + url + "\" is not properly formatted", ex);
+        }
+        String secret = (username != null && password == null) ? "" : password;
+        return HttpClientService.getDefault().execute(request, username, secret, timeout, (HttpResponse response) -> {
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 300) {
+                EntityUtils.consume(response.getEntity());
+                throw new HttpResponseException(status, "Cannot read \"" + url + "\": " + response.getStatusLine().getReasonPhrase());
+            }
+            if (response.getEntity() == null) {
+                throw new IOException("Empty reply from \"" + url + "\"");
+            }
+            // closing the content gives the connection back to the pool
+            try (InputStream in = response.getEntity().getContent()) {
+                return read(in, names);
+            }
+        });
+    }
+}
@@ -19,31 +19,24 @@
  */
 package com.freedomotic.helpers;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 /**
  * This class offers a timeout feature on socket connections. A maximum length
  * of time allowed for a connection can be specified, along with a host and
  * port.
+ * <p>
+ * The connection is established by the calling thread. Devices which are
+ * polled or kept connected should rather use {@link NioTransport}, which
+ * serves all the connections with a single thread.
+ * </p>
  * 
 * @author David Reilly
  */
 public class TCPHelper {
-    /**
-     * Polling delay for socket checks (in milliseconds)
-     */
-    private static final int POLL_DELAY = 100;
-
-    /**
-     * Class logger
-     */
-    private static final Logger LOG = LoggerFactory.getLogger(TCPHelper.class.getName());
 
     private TCPHelper() {}
 
@@ -77,131 +70,15 @@ public class TCPHelper {
 
      */
     public static Socket getSocket(InetAddress addr, int port, int delay) throws IOException {
-        // Create a new socket thread, and start it running
-        SocketThread st = new SocketThread(addr, port);
-        st.start();
-        int timer = 0;
-        Socket sock;
-        for (;;) {
-            // Check to see if a connection is established
-            if (st.isConnected()) {
-                // Yes ... assign to sock variable, and break out of loop
-                sock = st.getSocket();
-                break;
-            } else {
-                // Check to see if an error occurred
-                if (st.isError()) {
-                    // No connection could be established
-                    throw (st.getException());
-                }
-                try {
-                    // Sleep for a short period of time
-                    Thread.sleep(POLL_DELAY);
-                } catch (InterruptedException ie) {
-                    LOG.warn("Interrupted exception: ", ie);
-                    Thread.currentThread().interrupt();
-                }
-                // Increment timer
-                timer += POLL_DELAY;
-                // Check to see if time limit exceeded
-                if (timer > delay) {
-                    // Can't connect to server
-                    throw new InterruptedIOException("Could not connect for " + delay + " milliseconds");
-                }
-            }
+        // the timeout is enforced by the connect call, no need for another thread
+        // a SocketTimeoutException is an InterruptedIOException, as before
+        Socket sock = new Socket();
+        try {
+            sock.connect(new InetSocketAddress(addr, port), Math.max(1, delay));
+        } catch (IOException ex) {
+            sock.close();
+            throw ex;
         }
         return sock;
     }
-
-    /**
-     * Inner class for establishing a socket thread
-     * within another thread to prevent blocking.
-     */
-    private static class SocketThread extends Thread {
-        /**
-         * Socket connection to remote host
-         */
-        private volatile Socket mConnection = null;
-
-        /**
-         * Hostname to connect to
-         */
-        private String mHost = null;
-
-        /**
-         * Internet Address to connect to
-         */
-        private InetAddress mInet = null;
-
-        /**
-         * Port number to connect to
-         */
-        private int mPort = 0;
-
-        /**
-         * Exception in the event a connection error occurs
-         */
-        private IOException mException = null;
-
-        /**
-         * Connects to the specified host and port number
-         * @param host specified host name
-         * @param port specified port number
-         */
-        SocketThread(String host, int port) {
-            // Assign to member variables
-            mHost = host;
-            mPort = port;
-        }
-
-        /**
-         * Connects to the specified host IP and port number
-         * @param inetAddr specified host IP address
-         * @param port specified port number
-         */
-        SocketThread(InetAddress inetAddr, int port) {
-            // Assign to member variables
-            mInet = inetAddr;
-            mPort = port;
-        }
-
-        @Override
-        public void run() {
-            // Socket used for establishing a connection
-            Socket sock;
-            try {
-                // Was a string or an inet specified
-                if (mHost != null) {
-                    // Connect to a remote host - BLOCKING I/O
-                    sock = new Socket(mHost, mPort);
-                } else {
-                    // Connect to a remote host - BLOCKING I/O
-                    sock = new Socket(mInet, mPort);
-                }
-            } catch (IOException ioe) {
-                // Assign to our exception member variable
-                mException = ioe;
-                return;
-            }
-            // If socket constructor returned without error,
-            // then connection finished
-            mConnection = sock;
-        }
-
-        public boolean isConnected() {
-            return mConnection != null;
-        }
-
-        public boolean isError() {
-            return mException != null;
-        }
-
-        public Socket getSocket() {
-            return mConnection;
-        }
-
-        public IOException getException() {
-            return mException;
-        }
-    }
 }
@@ -0,0 +1,461 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.exceptions.DataUpgradeException;
+import com.freedomotic.exceptions.RepositoryException;
+import com.freedomotic.settings.AppConfig;
+import com.freedomotic.settings.Info;
+import com.google.inject.Inject;
+import com.thoughtworks.xstream.XStreamException;
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.DomReader;
+import com.thoughtworks.xstream.io.xml.XppDriver;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+/**
+ * Reads the data files (environments, things, triggers, commands and
+ * reactions) on a bounded pool of threads.
+ * <p>
+ * The files of a folder are deserialized in parallel and returned in the
+ * same order of the files, so the repositories can register them one after
+ * the other as before. Files already consistent with the current framework
+ * version are parsed straight from the file stream, the others are upgraded
+ * through the {@link DataUpgradeService} first.
+ * </p>
+ * <p>
+ * When the binary snapshot is enabled, the content of the files is also kept
+ * in a {@link DataSnapshot} and read from there at the next startup if the
+ * files are unchanged, skipping the xml parsing and the upgrade.
+ * </p>
+ * <p>
+ * The time spent reading every type of file and every startup phase is
+ * collected in a report, logged at the end of the startup.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public class DataLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataLoader.class.getName());
+    private static final String DEFAULT_DATA_VERSION = "5.5.0";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final String SNAPSHOT_FILE = "data.snapshot";
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static final HierarchicalStreamDriver XML_DRIVER = new XppDriver();
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final boolean snapshotEnabled;
+    private volatile DataSnapshot snapshot;
+    private final Map<String, FileStats> fileStats = new LinkedHashMap<>();
+    private final Map<String, Long> phaseTimes = new LinkedHashMap<>();
+    private String dataVersion;
+    private long dataVersionModified = -1;
+    // Dependencies
+    private final DataUpgradeService dataUpgradeService;
+
+    /**
+     * Deserializes a single data file.
+     *
+     * @param <T> the type of the loaded entity
+     */
+    public interface Parser<T> {
+
+        /**
+         *
+         * @param file the file to read
+         * @return the loaded entity
+         * @throws RepositoryException if the file cannot be loaded
+         */
+        T parse(File file) throws RepositoryException;
+    }
+
+    /**
+     * Counters of the files of the same type.
+     */
+    private static final class FileStats {
+
+        private int files;
+        private int failures;
+        private long bytes;
+        private long nanos;
+    }
+
+    @Inject
+    DataLoader(AppConfig config, DataUpgradeService dataUpgradeService) {
+        this(config.getIntProperty("KEY_DATA_LOADER_THREADS", 0),
+                config.getBooleanProperty("KEY_DATA_SNAPSHOT", false), dataUpgradeService);
+    }
+
+    DataLoader(int threads, DataUpgradeService dataUpgradeService) {
+        this(threads, false, dataUpgradeService);
+    }
+
+    /**
+     *
+     * @param threads the number of threads, zero or less to use one thread
+     * for each processor
+     * @param snapshotEnabled true to keep the data in a binary snapshot
+     * @param dataUpgradeService the service upgrading data of older versions
+     */
+    DataLoader(int threads, boolean snapshotEnabled, DataUpgradeService dataUpgradeService) {
+        this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        this.snapshotEnabled = snapshotEnabled;
+        this.dataUpgradeService = dataUpgradeService;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                (Runnable task) -> {
+                    Thread worker = new Thread(() -> {
+                        WORKER.set(Boolean.TRUE);
+                        task.run();
+                    }, "DataLoader-" + counter.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+        // the pool is used mostly at startup, don't keep idle threads around
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Loads the given files in parallel. Files which cannot be loaded are
+     * logged and skipped.
+     *
+     * @param <T> the type of the loaded entities
+     * @param type the name of the file type, used in the report
+     * @param files the files to load, can be null
+     * @param parser deserializes a single file
+     * @return the loaded entities, in the same order of the files
+     */
+    public <T> List<T> loadAll(String type, File[] files, Parser<T> parser) {
+        if ((files == null) || (files.length == 0)) {
+            return Collections.emptyList();
+        }
+        // configure the shared deserialization engine before going parallel
+        FreedomXStream.getXstream();
+        long start = System.nanoTime();
+        List<T> results = new ArrayList<>(files.length);
+        int failures = 0;
+
+        if ((threads == 1) || (files.length == 1) || WORKER.get()) {
+            for (File file : files) {
+                try {
+                    results.add(parser.parse(file));
+                } catch (RepositoryException | RuntimeException ex) {
+                    LOG.error("Cannot load {} file \"{}\"", type, file.getAbsolutePath(), ex);
+                    failures++;
+                }
+            }
+        } else {
+            List<Future<T>> futures = new ArrayList<>(files.length);
+            for (File file : files) {
+                futures.add(executor.submit(() -> parser.parse(file)));
+            }
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    LOG.error("Cannot load {} file \"{}\"", type, files[i].getAbsolutePath(), ex.getCause());
+                    failures++;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted while loading {} files", type);
+                    for (Future<T> future : futures) {
+                        future.cancel(true);
+                    }
+                    break;
+                }
+            }
+        }
+
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        record(type, files.length, failures, bytes, System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * Deserializes a data file, upgrading it to the current framework version
+     * if needed.
+     *
+     * @param <T> the type of the loaded entity
+     * @param file the file to read
+     * @param type the type of the loaded entity, used to choose the upgrade
+     * @return the loaded entity
+     * @throws RepositoryException if the file cannot be read or upgraded
+     */
+    public <T> T read(File file, Class<T> type) throws RepositoryException {
+        if (getSnapshot() != null) {
+            HierarchicalStreamReader reader = new BinaryStreamReader(new ByteArrayInputStream(readBinary(file, type)));
+            try {
+                return type.cast(FreedomXStream.getXstream().unmarshal(reader));
+            } catch (XStreamException | ClassCastException ex) {
+                throw new RepositoryException("XML parsing error in file \"" + file.getAbsolutePath() + "\"", ex);
+            } finally {
+                reader.close();
+            }
+        }
+        String fromVersion = getDataVersion();
+        try {
+            if (fromVersion.trim().equals(Info.getVersion())) {
+                // nothing to upgrade, no need to hold the whole file in memory
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                    return type.cast(FreedomXStream.getXstream().fromXML(in));
+                }
+            }
+            return type.cast(FreedomXStream.getXstream().unmarshal(upgrade(new StreamSource(file), type, fromVersion)));
+        } catch (IOException ex) {
+            throw new RepositoryException("Cannot read file \"" + file.getAbsolutePath() + "\"", ex);
+        } catch (DataUpgradeException ex) {
+            throw new RepositoryException("Cannot upgrade file \"" + file.getAbsolutePath() + "\"", ex);
+        } catch (XStreamException | ClassCastException ex) {
+            throw new RepositoryException("XML parsing error in file \"" + file.getAbsolutePath() + "\"", ex);
+        }
+    }
+
+    /**
+     * Gets the content of a data file in the XStream binary format, from the
+     * snapshot if the file is unchanged, otherwise converting the xml after
+     * upgrading it to the current framework version.
+     *
+     * @param file the file to read
+     * @param type the type of the loaded entity, used to choose the upgrade
+     * @return the binary content
+     * @throws RepositoryException if the file cannot be read or upgraded
+     */
+    byte[] readBinary(File file, Class<?> type) throws RepositoryException {
+        DataSnapshot dataSnapshot = getSnapshot();
+        try {
+            long modified = file.lastModified();
+            long length = file.length();
+            byte[] binary = dataSnapshot.get(file, modified);
+            if (binary == null) {
+                String fromVersion = getDataVersion();
+                // the file is decoded and checksummed in a single pass, never held in memory
+                try (DataSnapshot.ContentStream content = new DataSnapshot.ContentStream(
+                        new BufferedInputStream(new FileInputStream(file)))) {
+                    HierarchicalStreamReader xml;
+                    if (fromVersion.trim().equals(Info.getVersion())) {
+                        xml = XML_DRIVER.createReader(content);
+                    } else {
+                        xml = upgrade(new StreamSource(content, file.toURI().toASCIIString()), type, fromVersion);
+                    }
+                    binary = toBinary(xml);
+                    content.close();
+                    dataSnapshot.put(file, modified, length, content.getContentChecksum(), binary);
+                }
+            }
+            return binary;
+        } catch (IOException ex) {
+            throw new RepositoryException("Cannot read file \"" + file.getAbsolutePath() + "\"", ex);
+        } catch (DataUpgradeException ex) {
+            throw new RepositoryException("Cannot upgrade file \"" + file.getAbsolutePath() + "\"", ex);
+        } catch (XStreamException ex) {
+            throw new RepositoryException("XML parsing error in file \"" + file.getAbsolutePath() + "\"", ex);
+        }
+    }
+
+    /**
+     * Upgrades xml data to the current framework version. The compiled
+     * transformation writes straight into a document tree, read by XStream
+     * without serializing it again.
+     *
+     * @param source the xml data to upgrade
+     * @param type the type of the data, used to choose the upgrade
+     * @param fromVersion the version of the data
+     * @return a reader of the upgraded document
+     * @throws DataUpgradeException if the data cannot be upgraded
+     */
+    private HierarchicalStreamReader upgrade(Source source, Class<?> type, String fromVersion) throws DataUpgradeException {
+        DOMResult upgraded = new DOMResult();
+        dataUpgradeService.upgrade(type, source, upgraded, fromVersion);
+        return new DomReader((Document) upgraded.getNode());
+    }
+
+    /**
+     * Copies an xml document to the XStream binary format.
+     *
+     * @param xml the document reader, closed when done
+     * @return the binary content
+     */
+    static byte[] toBinary(HierarchicalStreamReader xml) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        BinaryStreamWriter writer = new BinaryStreamWriter(bytes);
+        try {
+            new HierarchicalStreamCopier().copy(xml, writer);
+            writer.flush();
+        } finally {
+            xml.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the binary snapshot of the data files, loading it the first time.
+     *
+     * @return the snapshot or null if it is not enabled
+     */
+    DataSnapshot getSnapshot() {
+        if (snapshotEnabled && (snapshot == null)) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    DataSnapshot loaded = new DataSnapshot(new File(Info.PATHS.PATH_DATA_FOLDER, SNAPSHOT_FILE), Info.PATHS.PATH_WORKDIR);
+                    int entries = loaded.load(Info.getVersion() + "/" + getDataVersion());
+                    LOG.info("Data snapshot loaded with {} files", entries);
+                    snapshot = loaded;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the binary snapshot, if enabled and changed. The entries of the
+     * files changed since they were read are discarded.
+     */
+    public void saveSnapshot() {
+        DataSnapshot dataSnapshot = snapshot;
+        if (dataSnapshot != null) {
+            try {
+                dataSnapshot.save();
+            } catch (IOException ex) {
+                LOG.error("Cannot save the data snapshot", ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the version of the data folder, read from data.properties and
+     * cached until the file changes.
+     *
+     * @return the data version
+     */
+    synchronized String getDataVersion() {
+        File file = new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties");
+        long modified = file.lastModified();
+        if ((dataVersion == null) || (modified != dataVersionModified)) {
+            String version = null;
+            try (InputStream in = new FileInputStream(file)) {
+                Properties dataProperties = new Properties();
+                dataProperties.load(in);
+                version = dataProperties.getProperty("data.version");
+            } catch (IOException ex) {
+                LOG.warn("Cannot read data version from \"{}\", using {}", file.getAbsolutePath(), DEFAULT_DATA_VERSION);
+            }
+            // fallback to a default version for older version without that properties file
+            dataVersion = (version != null) ? version : DEFAULT_DATA_VERSION;
+            dataVersionModified = modified;
+        }
+        return dataVersion;
+    }
+
+    private synchronized void record(String type, int files, int failures, long bytes, long nanos) {
+        FileStats stats = fileStats.get(type);
+        if (stats == null) {
+            stats = new FileStats();
+            fileStats.put(type, stats);
+        }
+        stats.files += files;
+        stats.failures += failures;
+        stats.bytes += bytes;
+        stats.nanos += nanos;
+    }
+
+    /**
+     * Adds the duration of a startup phase to the report.
+     *
+     * @param phase the phase name
+     * @param millis the phase duration in milliseconds
+     */
+    public synchronized void recordPhase(String phase, long millis) {
+        phaseTimes.put(phase, millis);
+    }
+
+    /**
+     * Gets the milliseconds spent loading each type of file.
+     *
+     * @return the loading time by file type
+     */
+    public synchronized Map<String, Long> getFileTypeTimes() {
+        Map<String, Long> times = new LinkedHashMap<>();
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            times.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().nanos));
+        }
+        return times;
+    }
+
+    /**
+     * Gets the milliseconds spent in each startup phase.
+     *
+     * @return the duration by phase
+     */
+    public synchronized Map<String, Long> getPhaseTimes() {
+        return new LinkedHashMap<>(phaseTimes);
+    }
+
+    /**
+     * Logs the time spent in each startup phase and loading each type of
+     * file.
+     */
+    public synchronized void logReport() {
+        LOG.info("Data loading report ({} threads):", threads);
+        for (Map.Entry<String, Long> phase : phaseTimes.entrySet()) {
+            LOG.info("  phase \"{}\": {} ms", phase.getKey(), phase.getValue());
+        }
+        for (Map.Entry<String, FileStats> entry : fileStats.entrySet()) {
+            FileStats stats = entry.getValue();
+            LOG.info("  {}: {} files ({} KB, {} failed) in {} ms", entry.getKey(), stats.files,
+                    stats.bytes / 1024, stats.failures, TimeUnit.NANOSECONDS.toMillis(stats.nanos));
+        }
+        if (snapshot != null) {
+            LOG.info("  snapshot: {} files read from the snapshot, {} from xml", snapshot.getHits(), snapshot.getMisses());
+        }
+    }
+}
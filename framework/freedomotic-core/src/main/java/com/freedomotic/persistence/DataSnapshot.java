@@ -0,0 +1,375 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.util.FileOperations;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single binary file holding the content of all the data files, already
+ * upgraded to the current framework version and encoded with the XStream
+ * binary format.
+ * <p>
+ * Every entry is bound to the length, the modification time and the checksum
+ * of the xml file it was read from, so it is used only while the xml file is
+ * unchanged: the xml files stay the source of truth and can be freely edited.
+ * The whole snapshot is discarded when the framework or the data version
+ * changes.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class DataSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataSnapshot.class.getName());
+    private static final int MAGIC = 0x46445331;
+    private static final int FORMAT_VERSION = 1;
+    private final File file;
+    private final File root;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private String context = "";
+    private volatile boolean changed;
+
+    /**
+     * The binary content of a data file.
+     */
+    private static final class Entry {
+
+        private final long length;
+        private final long modified;
+        private final int checksum;
+        private final byte[] binary;
+
+        Entry(long length, long modified, int checksum, byte[] binary) {
+            this.length = length;
+            this.modified = modified;
+            this.checksum = checksum;
+            this.binary = binary;
+        }
+    }
+
+    /**
+     *
+     * @param file the snapshot file
+     * @param root the folder the data file paths are relative to
+     */
+    public DataSnapshot(File file, File root) {
+        this.file = file;
+        this.root = root.getAbsoluteFile();
+    }
+
+    /**
+     * Loads the snapshot file, if it was written in the given context.
+     *
+     * @param context the framework and data version the entries must match
+     * @return the number of loaded entries
+     */
+    public synchronized int load(String context) {
+        this.context = context;
+        entries.clear();
+        if (!file.isFile()) {
+            return 0;
+        }
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            if (content.length < 4) {
+                throw new IOException("truncated file");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length - 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION)) {
+                LOG.warn("\"{}\" is not a data snapshot, ignored", file.getAbsolutePath());
+                return 0;
+            }
+            if (!context.equals(in.readUTF())) {
+                LOG.info("Data snapshot \"{}\" was written by another version, it will be rebuilt", file.getAbsolutePath());
+                return 0;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long modified = in.readLong();
+                int checksum = in.readInt();
+                byte[] binary = new byte[in.readInt()];
+                in.readFully(binary);
+                entries.put(path, new Entry(length, modified, checksum, binary));
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("checksum mismatch");
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Cannot read data snapshot \"{}\", it will be rebuilt: {}", file.getAbsolutePath(), ex.getMessage());
+            entries.clear();
+        }
+        return entries.size();
+    }
+
+    /**
+     * Gets the binary content of a data file, if the file is unchanged since
+     * it was added to the snapshot.
+     *
+     * @param dataFile the data file
+     * @param modified the modification time of the file
+     * @param content the current content of the file
+     * @return the binary content or null if missing or stale
+     */
+    public byte[] get(File dataFile, long modified, byte[] content) {
+        Entry entry = entries.get(key(dataFile));
+        if ((entry != null) && (entry.length == content.length) && (entry.modified == modified)
+                && (entry.checksum == checksum(content))) {
+            hits.incrementAndGet();
+            return entry.binary;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Gets the binary content of a data file, if the file is unchanged since
+     * it was added to the snapshot. The file is streamed to compute its
+     * checksum only if its length and modification time match.
+     *
+     * @param dataFile the data file
+     * @param modified the modification time of the file
+     * @return the binary content or null if missing or stale
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] get(File dataFile, long modified) throws IOException {
+        Entry entry = entries.get(key(dataFile));
+        if ((entry != null) && (entry.length == dataFile.length()) && (entry.modified == modified)
+                && (entry.checksum == checksum(dataFile))) {
+            hits.incrementAndGet();
+            return entry.binary;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds the binary content of a data file.
+     *
+     * @param dataFile the data file
+     * @param modified the modification time of the file when it was read
+     * @param content the content of the file the binary content comes from
+     * @param binary the binary content
+     */
+    public void put(File dataFile, long modified, byte[] content, byte[] binary) {
+        put(dataFile, modified, content.length, checksum(content), binary);
+    }
+
+    /**
+     * Adds the binary content of a data file read through a
+     * {@link ContentStream}.
+     *
+     * @param dataFile the data file
+     * @param modified the modification time of the file when it was read
+     * @param length the length of the file when it was read
+     * @param checksum the checksum of the content of the file
+     * @param binary the binary content
+     */
+    public void put(File dataFile, long modified, long length, int checksum, byte[] binary) {
+        entries.put(key(dataFile), new Entry(length, modified, checksum, binary));
+        changed = true;
+    }
+
+    /**
+     * Removes the entries whose data file has changed or was deleted and
+     * writes the snapshot file, if anything has changed.
+     *
+     * @return true if the snapshot file was written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized boolean save() throws IOException {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            File dataFile = toFile(entry.getKey());
+            if ((dataFile.length() != entry.getValue().length) || (dataFile.lastModified() != entry.getValue().modified)) {
+                entries.remove(entry.getKey());
+                changed = true;
+            }
+        }
+        if (!changed && file.isFile()) {
+            return false;
+        }
+        changed = false;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(bytes, crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(context);
+            Set<String> paths = new TreeSet<>(entries.keySet());
+            out.writeInt(paths.size());
+            for (String path : paths) {
+                Entry entry = entries.get(path);
+                out.writeUTF(path);
+                out.writeLong(entry.length);
+                out.writeLong(entry.modified);
+                out.writeInt(entry.checksum);
+                out.writeInt(entry.binary.length);
+                out.write(entry.binary);
+            }
+            out.flush();
+            // the checksum of the content written so far
+            new DataOutputStream(bytes).writeInt((int) crc.getValue());
+        }
+        byte[] snapshot = bytes.toByteArray();
+        FileOperations.writeAtomically(file, snapshot);
+        LOG.info("Data snapshot saved to \"{}\": {} files, {} KB", file.getAbsolutePath(), entries.size(), snapshot.length / 1024);
+        return true;
+    }
+
+    /**
+     * Gets the data files in the snapshot, relative to the root folder.
+     *
+     * @return the paths of the data files, sorted
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(new TreeSet<>(entries.keySet()));
+    }
+
+    /**
+     * Gets the binary content of a data file, whether the file is changed or
+     * not.
+     *
+     * @param path the data file path relative to the root folder
+     * @return the binary content or null if not in the snapshot
+     */
+    public byte[] getBinary(String path) {
+        Entry entry = entries.get(path);
+        return (entry != null) ? entry.binary : null;
+    }
+
+    /**
+     * Resolves a path of the snapshot.
+     *
+     * @param path the data file path relative to the root folder
+     * @return the data file
+     */
+    public File toFile(String path) {
+        File dataFile = new File(path);
+        return dataFile.isAbsolute() ? dataFile : new File(root, path);
+    }
+
+    /**
+     * Gets the number of data files read from the snapshot.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of data files read from xml because they were not in
+     * the snapshot or had changed.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private String key(File dataFile) {
+        String path = dataFile.getAbsolutePath();
+        String rootPath = root.getPath() + File.separator;
+        if (path.startsWith(rootPath)) {
+            path = path.substring(rootPath.length());
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    private static int checksum(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(File dataFile) throws IOException {
+        ContentStream in = new ContentStream(new FileInputStream(dataFile));
+        in.close();
+        return in.getContentChecksum();
+    }
+
+    /**
+     * Computes the checksum of a data file while it is read. The part of the
+     * file left unread, like the text after the xml root element, is read on
+     * close so that the checksum always covers the whole file.
+     */
+    public static final class ContentStream extends CheckedInputStream {
+
+        private boolean closed;
+
+        /**
+         *
+         * @param in the content of the data file
+         */
+        public ContentStream(InputStream in) {
+            super(in, new CRC32());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                byte[] buffer = new byte[8192];
+                while (read(buffer, 0, buffer.length) >= 0) {
+                    // only the checksum is needed
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        /**
+         * Gets the checksum of the file, once the stream is closed.
+         *
+         * @return the checksum
+         */
+        public int getContentChecksum() {
+            return (int) getChecksum().getValue();
+        }
+    }
+}
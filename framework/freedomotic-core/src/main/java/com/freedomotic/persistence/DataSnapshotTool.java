@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.exceptions.RepositoryException;
+import com.freedomotic.model.environment.Environment;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.reactions.Command;
+import com.freedomotic.reactions.Reaction;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.settings.Info;
+import com.freedomotic.util.FileOperations;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command line tool converting the data files to the binary snapshot and
+ * back.
+ * <p>
+ * Usage: {@code DataSnapshotTool export} reads all the data files of the
+ * data and plugins folders into the snapshot, {@code DataSnapshotTool import}
+ * writes the xml files from the content of the snapshot.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class DataSnapshotTool {
+
+    private static final String[] FILE_TYPES = {".xenv", ".xobj", ".xtrg", ".xcmd", ".xrea"};
+    private static final Class<?>[] TYPES = {Environment.class, EnvObject.class, Trigger.class, Command.class, Reaction.class};
+    private final DataLoader loader = new DataLoader(1, true, new DataUpgradeServiceImpl());
+    private int files;
+    private int failures;
+
+    private DataSnapshotTool() {
+    }
+
+    /**
+     *
+     * @param args export or import
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if ((args.length != 1) || !("export".equals(args[0]) || "import".equals(args[0]))) {
+            System.err.println("Usage: DataSnapshotTool export|import");
+            System.exit(2);
+        }
+        DataSnapshotTool tool = new DataSnapshotTool();
+        if ("export".equals(args[0])) {
+            tool.export(Info.PATHS.PATH_DATA_FOLDER);
+            tool.export(Info.PATHS.PATH_PLUGINS_FOLDER);
+        } else {
+            tool.importXml();
+        }
+        tool.loader.getSnapshot().save();
+        System.out.println(tool.files + " files converted, " + tool.failures + " failed");
+        System.exit((tool.failures == 0) ? 0 : 1);
+    }
+
+    private void export(File folder) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                export(child);
+                continue;
+            }
+            for (int i = 0; i < FILE_TYPES.length; i++) {
+                if (child.getName().endsWith(FILE_TYPES[i])) {
+                    try {
+                        loader.readBinary(child, TYPES[i]);
+                        files++;
+                    } catch (RepositoryException ex) {
+                        System.err.println("Cannot convert \"" + child + "\": " + ex.getMessage());
+                        failures++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void importXml() {
+        DataSnapshot snapshot = loader.getSnapshot();
+        for (String path : snapshot.getPaths()) {
+            File file = snapshot.toFile(path);
+            byte[] binary = snapshot.getBinary(path);
+            try {
+                byte[] xml = toXml(binary);
+                file.getParentFile().mkdirs();
+                FileOperations.writeAtomically(file, xml);
+                // the snapshot stays valid for the written file
+                snapshot.put(file, file.lastModified(), xml, binary);
+                files++;
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Cannot write \"" + file + "\": " + ex.getMessage());
+                failures++;
+            }
+        }
+    }
+
+    private static byte[] toXml(byte[] binary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        HierarchicalStreamReader reader = new BinaryStreamReader(new ByteArrayInputStream(binary));
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+            new HierarchicalStreamCopier().copy(reader, new PrettyPrintWriter(writer));
+        } finally {
+            reader.close();
+        }
+        return bytes.toByteArray();
+    }
+}
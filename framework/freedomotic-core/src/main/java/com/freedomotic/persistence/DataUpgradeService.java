@@ -20,6 +20,8 @@
 package com.freedomotic.persistence;
 
 import com.freedomotic.exceptions.DataUpgradeException;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 
 /**
  * Upgrades the data making them compatible with the current version.
@@ -41,4 +43,16 @@ public interface DataUpgradeService<T> {
      */
     T upgrade(Class classType, T dataObject, String fromVersion) throws DataUpgradeException;
 
+    /**
+     * Upgrades xml data streaming them from a source to a result, without
+     * holding the whole document as a string.
+     *
+     * @param classType the class of the data to upgrade
+     * @param source the xml data to upgrade
+     * @param result where the upgraded xml data are written
+     * @param fromVersion The source version of the data to upgrade
+     * @throws DataUpgradeException
+     */
+    void upgrade(Class classType, Source source, Result result, String fromVersion) throws DataUpgradeException;
+
 }
@@ -31,9 +31,10 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
@@ -46,94 +47,105 @@ import org.slf4j.LoggerFactory;
  * files. Transformation file should be in conf/validator folder and have a
  * naming schema like /conf/validator/TYPE-upgrade-FROMVERSION.xslt
  * /conf/validator/things-upgrade-5.5.0.xslt"
+ * <p>
+ * Every transformation is compiled once and cached, the compiled templates
+ * are thread safe and shared by all the upgrades of the same type and
+ * version.
+ * </p>
  *
  * @author Matteo Mazzoni
  */
 class DataUpgradeServiceImpl implements DataUpgradeService<String> {
 
     private static final Logger LOG = LoggerFactory.getLogger(DataUpgradeServiceImpl.class.getCanonicalName());
-    
-    // Cache the loaded transformations
-    private Map<File, Source> sources = new HashMap<>();
+    private static final Map<Class, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put(EnvObject.class, "thing");
+        TYPES.put(Environment.class, "environment");
+        TYPES.put(Reaction.class, "reaction");
+        TYPES.put(Command.class, "command");
+        TYPES.put(Trigger.class, "trigger");
+    }
+
+    // Cache the compiled transformations by type and version
+    private final Map<String, Templates> templates = new ConcurrentHashMap<>();
+    // TransformerFactory is not thread safe, access is synchronized on it
+    private final TransformerFactory factory = TransformerFactory.newInstance();
 
     /**
      * {@inheritDoc}
      */
     @Override
     public String upgrade(Class type, String xml, String fromVersion) throws DataUpgradeException {
-
         if (fromVersion.trim().equals(Info.getVersion())) {
             LOG.debug("Given data are already consistent with the most recent framework version. No XML transformation was performed");
             return xml;
-        } else {
-            LOG.info("Upgrading data of type \"{}\" from version {} to version {}", type.getCanonicalName(), fromVersion, Info.getVersion());
         }
+        StringWriter writer = new StringWriter(xml.length());
+        upgrade(type, new StreamSource(new StringReader(xml)), new StreamResult(writer), fromVersion);
+        return writer.toString();
+    }
 
-        String upgradedXml;
-        Source xsltAlgorthm;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void upgrade(Class type, Source source, Result result, String fromVersion) throws DataUpgradeException {
         try {
-            if (type == EnvObject.class) {
-                xsltAlgorthm = getTransformationAlgorithm("thing", fromVersion);
-            } else if (type == Environment.class) {
-                xsltAlgorthm = getTransformationAlgorithm("environment", fromVersion);
-            } else if (type == Reaction.class) {
-                xsltAlgorthm = getTransformationAlgorithm("reaction", fromVersion);
-            } else if (type == Command.class) {
-                xsltAlgorthm = getTransformationAlgorithm("command", fromVersion);
-            } else if (type == Trigger.class) {
-                xsltAlgorthm = getTransformationAlgorithm("trigger", fromVersion);
-            } else {
-                // Return an exception if it's not a class that this service able to upgrade
-                throw new DataUpgradeException("Data upgrade service: upgrading entities of type " + type.getCanonicalName() + " is not supported");
+            if (fromVersion.trim().equals(Info.getVersion())) {
+                LOG.debug("Given data are already consistent with the most recent framework version. Data are copied unchanged");
+                synchronized (factory) {
+                    factory.newTransformer().transform(source, result);
+                }
+                return;
             }
-            upgradedXml = upgradeContent(xml, xsltAlgorthm);
-        } catch (TransformerException | DataUpgradeException transformerException) {
+            LOG.debug("Upgrading data of type \"{}\" from version {} to version {}", type.getCanonicalName(), fromVersion, Info.getVersion());
+            // Apply the transformation algorithm defined in the XSLT file
+            getTransformationAlgorithm(type, fromVersion.trim()).newTransformer().transform(source, result);
+        } catch (TransformerException transformerException) {
             throw new DataUpgradeException("Error while upgrading an XML data source", transformerException);
         }
-        return upgradedXml;
-    }
-
-    /**
-     * Upgrades a xml content to the current framework version.
-     *
-     * @param input xml string describing a content from a non current version 
-     * @param xsltAlgorithm algorithm to use for transformation
-     * @return xml content formatted with the current framework version
-     * @throws TransformerConfigurationException
-     * @throws TransformerException
-     */
-    private String upgradeContent(String input, Source xsltAlgorithm) throws TransformerException {
-        // Load all the needed resources
-        StreamSource streamSource = new StreamSource(new StringReader(input));
-        StreamResult streamResult = new StreamResult(new StringWriter());
-        // Create the transformer
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = factory.newTransformer(xsltAlgorithm);
-        // Apply the transformation algorithm defined in the XSLT file
-        transformer.transform(streamSource, streamResult);
-        return streamResult.getWriter().toString();
     }
 
     /**
      * Loads the right XSLT transformation script according to the version of
-     * the data to transform.
+     * the data to transform, compiling it the first time.
      *
+     * @param type the type of the data to transform
      * @param fromVersion The original data version which should be made
      * compatible with the current framework version
-     * @return the transformation Source
+     * @return the compiled transformation
+     * @throws DataUpgradeException if the type is not supported or the
+     * transformation cannot be loaded
      */
-    private Source getTransformationAlgorithm(String baseFile, String fromVersion) {
-        // Take the source from cache or load it from file
-        File xsltFile = new File(Info.PATHS.PATH_CONFIG_FOLDER + "/validator/" + baseFile + "-upgrade-" + fromVersion + ".xslt");
-        if (!sources.containsKey(xsltFile)) {
-            Source source = new StreamSource(xsltFile);
-            sources.put(xsltFile, source);
+    private Templates getTransformationAlgorithm(Class type, String fromVersion) throws DataUpgradeException {
+        String baseFile = TYPES.get(type);
+        if (baseFile == null) {
+            // Return an exception if it's not a class that this service able to upgrade
+            throw new DataUpgradeException("Data upgrade service: upgrading entities of type " + type.getCanonicalName() + " is not supported");
         }
-        Source result = sources.get(xsltFile);
+        String key = baseFile + "-upgrade-" + fromVersion;
+        Templates result = templates.get(key);
         if (result == null) {
-            throw new IllegalStateException("Cannot load a valid XSLT transformation file from " + xsltFile.getAbsolutePath());
+            File xsltFile = new File(Info.PATHS.PATH_CONFIG_FOLDER + "/validator/" + key + ".xslt");
+            if (!xsltFile.isFile()) {
+                throw new DataUpgradeException("Cannot load a valid XSLT transformation file from " + xsltFile.getAbsolutePath());
+            }
+            synchronized (factory) {
+                result = templates.get(key);
+                if (result == null) {
+                    try {
+                        result = factory.newTemplates(new StreamSource(xsltFile));
+                    } catch (TransformerException ex) {
+                        throw new DataUpgradeException("Cannot compile the XSLT transformation file " + xsltFile.getAbsolutePath(), ex);
+                    }
+                    templates.put(key, result);
+                    LOG.info("Compiled data upgrade transformation \"{}\"", xsltFile.getName());
+                }
+            }
         }
-        return sources.get(xsltFile);
+        return result;
     }
 
 }
@@ -0,0 +1,181 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.exceptions.DataUpgradeException;
+import com.freedomotic.exceptions.RepositoryException;
+import com.freedomotic.model.environment.Environment;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.reactions.Command;
+import com.freedomotic.reactions.Reaction;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.settings.Info;
+import com.freedomotic.util.FileOperations;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Command line tool upgrading the whole data folder to the current framework
+ * version in parallel, so the next startups don't need to upgrade the files
+ * again.
+ * <p>
+ * Usage: {@code DataUpgradeTool [threads]}. Every file is transformed into a
+ * temporary file first, the data files are replaced and the data version
+ * updated only if all of them were upgraded.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class DataUpgradeTool {
+
+    private static final String[] FILE_TYPES = {".xenv", ".xobj", ".xtrg", ".xcmd", ".xrea"};
+    private static final String[] TYPE_NAMES = {"environment", "thing", "trigger", "command", "reaction"};
+    private static final Class<?>[] TYPES = {Environment.class, EnvObject.class, Trigger.class, Command.class, Reaction.class};
+    private static final String TEMP_EXTENSION = ".upgrade";
+    private final DataUpgradeService dataUpgradeService = new DataUpgradeServiceImpl();
+    private final DataLoader loader;
+
+    private DataUpgradeTool(int threads) {
+        loader = new DataLoader(threads, dataUpgradeService);
+    }
+
+    /**
+     *
+     * @param args the number of threads, optional
+     * @throws IOException if the data version cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = 0;
+        try {
+            if (args.length > 0) {
+                threads = Integer.parseInt(args[0]);
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println("Usage: DataUpgradeTool [threads]");
+            System.exit(2);
+        }
+        System.exit(new DataUpgradeTool(threads).upgrade(Info.PATHS.PATH_DATA_FOLDER) ? 0 : 1);
+    }
+
+    private boolean upgrade(File folder) throws IOException {
+        String fromVersion = loader.getDataVersion();
+        if (fromVersion.trim().equals(Info.getVersion())) {
+            System.out.println("Data are already at version " + fromVersion);
+            return true;
+        }
+        List<List<File>> files = new ArrayList<>();
+        for (int i = 0; i < FILE_TYPES.length; i++) {
+            files.add(new ArrayList<>());
+        }
+        collect(folder, files);
+
+        long start = System.nanoTime();
+        List<File> upgraded = new ArrayList<>();
+        int total = 0;
+        long bytes = 0;
+        for (int i = 0; i < TYPES.length; i++) {
+            Class<?> type = TYPES[i];
+            File[] typeFiles = files.get(i).toArray(new File[0]);
+            upgraded.addAll(loader.loadAll(TYPE_NAMES[i], typeFiles, (File file) -> transform(file, type, fromVersion)));
+            total += typeFiles.length;
+            for (File file : typeFiles) {
+                bytes += file.length();
+            }
+        }
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (upgraded.size() < total) {
+            System.err.println((total - upgraded.size()) + " of " + total + " files cannot be upgraded, the data folder is left unchanged");
+            for (File file : upgraded) {
+                Files.deleteIfExists(toTemp(file).toPath());
+            }
+            return false;
+        }
+        for (File file : upgraded) {
+            Files.move(toTemp(file).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        writeDataVersion(new File(folder, "data.properties"));
+        loader.logReport();
+        System.out.println("Upgraded " + total + " files (" + (bytes / 1024) + " KB) from version " + fromVersion
+                + " to " + Info.getVersion() + " in " + millis + " ms: "
+                + (total * 1000L / millis) + " files/s, " + (bytes * 1000L / 1024 / millis) + " KB/s");
+        return true;
+    }
+
+    private static void collect(File folder, List<List<File>> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+                continue;
+            }
+            for (int i = 0; i < FILE_TYPES.length; i++) {
+                if (child.getName().endsWith(FILE_TYPES[i])) {
+                    files.get(i).add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the upgraded content of a file to its temporary file.
+     */
+    private File transform(File file, Class<?> type, String fromVersion) throws RepositoryException {
+        File temp = toTemp(file);
+        try {
+            dataUpgradeService.upgrade(type, new StreamSource(file), new StreamResult(temp), fromVersion);
+        } catch (DataUpgradeException ex) {
+            temp.delete();
+            throw new RepositoryException("Cannot upgrade file \"" + file.getAbsolutePath() + "\"", ex);
+        }
+        return file;
+    }
+
+    private static File toTemp(File file) {
+        return new File(file.getParentFile(), file.getName() + TEMP_EXTENSION);
+    }
+
+    private static void writeDataVersion(File file) throws IOException {
+        Properties dataProperties = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                dataProperties.load(in);
+            }
+        }
+        dataProperties.setProperty("data.version", Info.getVersion());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dataProperties.store(out, "Data upgraded by DataUpgradeTool");
+        FileOperations.writeAtomically(file, out.toByteArray());
+    }
+}
@@ -19,6 +19,7 @@
  */
 package com.freedomotic.persistence;
 
+import com.freedomotic.api.EventTemplate;
 import com.freedomotic.core.Condition;
 import com.freedomotic.environment.Room;
 import com.freedomotic.model.ds.Config;
@@ -36,13 +37,17 @@ import com.freedomotic.reactions.Reaction;
 import com.freedomotic.rules.Statement;
 import com.freedomotic.reactions.Trigger;
 import com.freedomotic.security.User;
+import com.freedomotic.util.FileOperations;
 import com.thoughtworks.xstream.XStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
@@ -50,15 +55,22 @@ import org.apache.shiro.authz.SimpleRole;
 
 /**
  * Serialization engine object.
+ * <p>
+ * The engine is configured once, all the aliases, converters and annotations
+ * are registered before it is published, then it is shared by all threads.
+ * A configured XStream is thread safe, the returned instance must not be
+ * configured further.
+ * </p>
  *  
  * @author Gabriel Pulido de Torres
  */
 public class FreedomXStream {
 
-    private static XStream xstream = null;
+    private static volatile XStream xstream = null;
     private static final Logger LOG = LoggerFactory.getLogger(FreedomXStream.class.getName());
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n";
+    private static final int BUFFER_SIZE = 8192;
 
-    @Inject
     private static ReactionConverter reactionConverter;
 
     
@@ -68,73 +80,100 @@ public class FreedomXStream {
     private FreedomXStream() {
         //disable instantiation
     }
+
+    /**
+     * Sets the converter of reactions, which needs the command repository,
+     * and configures the serialization engine eagerly.
+     *
+     * @param converter the reactions converter
+     */
+    @Inject
+    static synchronized void setReactionConverter(ReactionConverter converter) {
+        reactionConverter = converter;
+        xstream = createXstream();
+    }
     
     /**
-     * Creates a new fully configured serialization engine object which can be
+     * Returns the fully configured serialization engine object which can be
      * used to convert java instances into text (xml, json [not yet supported]).
      *
      * @return the serialization engine
      */
     public static XStream getXstream() {
-        if (xstream == null) {
-            // Generic configuration
-            xstream = new XStream();
-            xstream.setMode(XStream.NO_REFERENCES);
-            xstream.autodetectAnnotations(true);
-
-            // Things
-            xstream.omitField(EnvObject.class, "LOG");
-
-            // Geometry
-            xstream.alias("polygon", FreedomPolygon.class);
-            xstream.addImplicitCollection(FreedomPolygon.class, "points", "point", FreedomPoint.class);
-            xstream.alias("ellipse", FreedomEllipse.class);
-            xstream.alias("point", FreedomPoint.class);
-            xstream.useAttributeFor(FreedomPoint.class, "x");
-            xstream.useAttributeFor(FreedomPoint.class, "y");
-            xstream.alias("shape", FreedomShape.class);
-            xstream.alias("view", Representation.class);
-
-            // Commands
-            xstream.omitField(Config.class, "xmlFile");
-            xstream.registerLocalConverter(Config.class, "tuples", new TupleConverter());
-
-            // Zones and topology
-            xstream.alias("object", EnvObject.class);
-            xstream.alias("environment", Environment.class);
-            xstream.alias("zone", Zone.class);
-            xstream.omitField(Zone.class, "occupiers");
-            xstream.omitField(Room.class, "gates");
-            xstream.omitField(Room.class, "reachable");
-            xstream.omitField(Environment.class, "occupiers");
-            xstream.omitField(Zone.class, "objects");
-
-            // Triggers and commands
-            xstream.alias("trigger", Trigger.class);
-            xstream.alias("statement", Statement.class);
-            xstream.alias("command", Command.class);
-            xstream.alias("reaction", Reaction.class);
-            xstream.alias("condition", Condition.class);
-            xstream.omitField(Trigger.class, "suspensionStart");
-            xstream.omitField(Trigger.class, "listener");
-            xstream.omitField(Trigger.class, "checker");
-            xstream.omitField(Trigger.class, "busService");
-            xstream.alias("payload", Payload.class);
-
-            // Register custom converters
-            xstream.registerConverter(reactionConverter);
-            xstream.registerConverter(new PayloadConverter());
-            xstream.registerConverter(new PropertiesConverter());
-            xstream.registerConverter(new TupleConverter());
-            xstream.alias("user", User.class);
-            xstream.alias("users", User[].class);
-            xstream.registerConverter(new UserConverter());
-            xstream.alias("role", SimpleRole.class);
-            xstream.alias("roles", SimpleRole[].class);
-            xstream.registerConverter(new RoleConverter());
+        XStream result = xstream;
+        if (result == null) {
+            // used before the injection, e.g. by tests and command line tools
+            synchronized (FreedomXStream.class) {
+                if (xstream == null) {
+                    xstream = createXstream();
+                }
+                result = xstream;
+            }
         }
+        return result;
+    }
 
-        return xstream;
+    private static XStream createXstream() {
+        // Generic configuration
+        XStream engine = new XStream();
+        engine.setMode(XStream.NO_REFERENCES);
+        // annotations are processed once here, autodetection would do it
+        // again at runtime on every new type
+        engine.processAnnotations(EventTemplate.class);
+
+        // Things
+        engine.omitField(EnvObject.class, "LOG");
+
+        // Geometry
+        engine.alias("polygon", FreedomPolygon.class);
+        engine.addImplicitCollection(FreedomPolygon.class, "points", "point", FreedomPoint.class);
+        engine.alias("ellipse", FreedomEllipse.class);
+        engine.alias("point", FreedomPoint.class);
+        engine.useAttributeFor(FreedomPoint.class, "x");
+        engine.useAttributeFor(FreedomPoint.class, "y");
+        engine.alias("shape", FreedomShape.class);
+        engine.alias("view", Representation.class);
+
+        // Commands
+        engine.omitField(Config.class, "xmlFile");
+        engine.registerLocalConverter(Config.class, "tuples", new TupleConverter());
+
+        // Zones and topology
+        engine.alias("object", EnvObject.class);
+        engine.alias("environment", Environment.class);
+        engine.alias("zone", Zone.class);
+        engine.omitField(Zone.class, "occupiers");
+        engine.omitField(Room.class, "gates");
+        engine.omitField(Room.class, "reachable");
+        engine.omitField(Environment.class, "occupiers");
+        engine.omitField(Zone.class, "objects");
+
+        // Triggers and commands
+        engine.alias("trigger", Trigger.class);
+        engine.alias("statement", Statement.class);
+        engine.alias("command", Command.class);
+        engine.alias("reaction", Reaction.class);
+        engine.alias("condition", Condition.class);
+        engine.omitField(Trigger.class, "suspensionStart");
+        engine.omitField(Trigger.class, "dispatcher");
+        engine.alias("payload", Payload.class);
+
+        // Register custom converters
+        if (reactionConverter != null) {
+            engine.registerConverter(reactionConverter);
+        } else {
+            LOG.debug("Serialization engine created before the injection, reactions are not supported");
+        }
+        engine.registerConverter(new PayloadConverter());
+        engine.registerConverter(new PropertiesConverter());
+        engine.registerConverter(new TupleConverter());
+        engine.alias("user", User.class);
+        engine.alias("users", User[].class);
+        engine.registerConverter(new UserConverter());
+        engine.alias("role", SimpleRole.class);
+        engine.alias("roles", SimpleRole[].class);
+        engine.registerConverter(new RoleConverter());
+        return engine;
     }
 
 	/**
@@ -144,18 +183,45 @@ public class FreedomXStream {
 	 * @return true if processing is ok, false instead
 	 */
     public static boolean toXML(Object object, File file) {
-    	XStream serializer = getXstream();
-
-    	try (OutputStream outputStream = new FileOutputStream(file);
-    			Writer writer = new OutputStreamWriter(outputStream, Charset.forName("UTF-8"))) {
-    		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
-    		serializer.toXML(object, writer);
-    	} catch (Exception exp) {
-    		LOG.error("Error while serializing instance to disk", exp);
-    		//TODO Shouldn't the returned value be false ?
-    	}
-
-    	return true;
+        try {
+            FileOperations.writeAtomically(file, toXMLBytes(object));
+            return true;
+        } catch (Exception exp) {
+            LOG.error("Error while serializing instance to disk", exp);
+            return false;
+        }
+    }
+
+    /**
+     * Serializes an object to the content of an UTF-8 xml file.
+     *
+     * @param object input to serialize
+     * @return the xml document
+     */
+    public static byte[] toXMLBytes(Object object) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
+        try {
+            toXML(object, outputStream);
+        } catch (IOException ex) {
+            // not thrown by in memory streams
+            throw new UncheckedIOException(ex);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Serializes an object as an UTF-8 xml document written to a stream
+     * through a buffer. The stream is flushed but not closed.
+     *
+     * @param object input to serialize
+     * @param out the stream to write
+     * @throws IOException if the stream cannot be written
+     */
+    public static void toXML(Object object, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(XML_HEADER);
+        getXstream().toXML(object, writer);
+        writer.flush();
     }
 
     /**
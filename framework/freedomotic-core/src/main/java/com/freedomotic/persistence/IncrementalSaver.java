@@ -0,0 +1,222 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.util.FileOperations;
+import com.thoughtworks.xstream.XStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the entities of a repository in a folder, one xml file per entity,
+ * writing only the files whose content has changed.
+ * <p>
+ * The digest of every file written (or found unchanged on disk) is kept, so
+ * an entity is serialized on every save but its file is rewritten only if it
+ * was modified in the meantime. Files are replaced atomically and the files
+ * of the entities no longer in the repository are deleted one by one.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class IncrementalSaver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalSaver.class.getName());
+    private final String name;
+    private final String extension;
+    private final Map<File, byte[]> digests = new HashMap<>();
+    private final AtomicLong filesWritten = new AtomicLong();
+    private final AtomicLong filesUnchanged = new AtomicLong();
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile long lastSaveDuration;
+
+    /**
+     * Creates a saver for a kind of entities.
+     *
+     * @param name the entities name, used in logs (eg: things)
+     * @param extension the extension of the entity files (eg: .xobj)
+     */
+    public IncrementalSaver(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * Saves the given entities in a folder and deletes the files of the other
+     * entities.
+     *
+     * @param folder the folder where to save the files
+     * @param entities the entities to save, by file name without extension
+     * @return true if at least one file was written or deleted
+     * @throws IOException if a file cannot be written
+     */
+    public synchronized boolean save(File folder, Map<String, ?> entities) throws IOException {
+        long start = System.nanoTime();
+        long written = filesWritten.get();
+        long deleted = filesDeleted.get();
+        long bytes = bytesWritten.get();
+
+        for (Map.Entry<String, ?> entity : entities.entrySet()) {
+            write(new File(folder, entity.getKey() + extension), entity.getValue());
+        }
+        retain(folder, entities.keySet());
+
+        lastSaveDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        written = filesWritten.get() - written;
+        deleted = filesDeleted.get() - deleted;
+        bytes = bytesWritten.get() - bytes;
+        LOG.info("Saved {} {} into \"{}\" in {} ms: {} files written ({} bytes), {} deleted",
+                entities.size(), name, folder.getAbsolutePath(), lastSaveDuration, written, bytes, deleted);
+        return (written > 0) || (deleted > 0);
+    }
+
+    /**
+     * Writes the file of an entity if its content has changed. Entities which
+     * cannot be serialized are skipped, leaving their file untouched.
+     *
+     * @param file the entity file
+     * @param entity the entity to serialize
+     * @return true if the file was written
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized boolean write(File file, Object entity) throws IOException {
+        byte[] content;
+        try {
+            content = FreedomXStream.toXMLBytes(entity);
+        } catch (XStreamException e) {
+            LOG.error("Cannot serialize {} file \"{}\", the file is not updated", name, file.getAbsolutePath(), e);
+            return false;
+        }
+        byte[] digest = digest(content);
+        byte[] previous = digests.get(file);
+        if (file.isFile()) {
+            if (((previous != null) && Arrays.equals(previous, digest))
+                    || ((previous == null) && Arrays.equals(Files.readAllBytes(file.toPath()), content))) {
+                digests.put(file, digest);
+                filesUnchanged.incrementAndGet();
+                return false;
+            }
+        }
+        FileOperations.writeAtomically(file, content);
+        digests.put(file, digest);
+        filesWritten.incrementAndGet();
+        bytesWritten.addAndGet(content.length);
+        return true;
+    }
+
+    /**
+     * Deletes the entity files in a folder which are not in the given list.
+     *
+     * @param folder the folder containing the files
+     * @param keep the names of the files to keep, without extension
+     * @return the number of deleted files
+     */
+    public synchronized int retain(File folder, Collection<String> keep) {
+        Set<String> kept = new HashSet<>();
+        for (String fileName : keep) {
+            kept.add(fileName + extension);
+        }
+        File[] files = folder.listFiles((File file) -> file.isFile() && file.getName().endsWith(extension));
+        int deleted = 0;
+        if (files != null) {
+            for (File file : files) {
+                if (!kept.contains(file.getName())) {
+                    if (file.delete()) {
+                        digests.remove(file);
+                        filesDeleted.incrementAndGet();
+                        deleted++;
+                    } else {
+                        LOG.warn("Unable to delete {} file \"{}\"", name, file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform must support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the duration of the last save.
+     *
+     * @return the duration in milliseconds
+     */
+    public long getLastSaveDuration() {
+        return lastSaveDuration;
+    }
+
+    /**
+     * Gets the number of files written since startup.
+     *
+     * @return the written files
+     */
+    public long getFilesWritten() {
+        return filesWritten.get();
+    }
+
+    /**
+     * Gets the number of files not written since startup because they were
+     * up to date.
+     *
+     * @return the unchanged files
+     */
+    public long getFilesUnchanged() {
+        return filesUnchanged.get();
+    }
+
+    /**
+     * Gets the number of files deleted since startup.
+     *
+     * @return the deleted files
+     */
+    public long getFilesDeleted() {
+        return filesDeleted.get();
+    }
+
+    /**
+     * Gets the number of bytes written since startup.
+     *
+     * @return the written bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+}
@@ -35,6 +35,8 @@ public class InjectorPersistence extends AbstractModule {
     @Override
     protected void configure() {
         bind(DataUpgradeService.class).to(DataUpgradeServiceImpl.class).in(Singleton.class);
+        bind(StateJournal.class).in(Singleton.class);
+        bind(DataLoader.class).in(Singleton.class);
         requestStaticInjection(FreedomXStream.class);
     }
 
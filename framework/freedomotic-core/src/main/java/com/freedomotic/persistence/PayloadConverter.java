@@ -45,7 +45,7 @@ public class PayloadConverter implements Converter {
     public void marshal(Object o, HierarchicalStreamWriter writer, MarshallingContext mc) {
         Payload payload = (Payload) o;
         writer.startNode("payload");
-        Iterator<Statement> it = payload.iterator();
+        Iterator<Statement> it = payload.getStatementsSnapshot().iterator();
         while (it.hasNext()) {
             MarshalUtil.writeNode(writer, it.next());
         }
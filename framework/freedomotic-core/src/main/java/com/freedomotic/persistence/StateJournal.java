@@ -0,0 +1,568 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.behaviors.BehaviorLogic;
+import com.freedomotic.model.ds.Config;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.reactions.TriggerRepository;
+import com.freedomotic.settings.AppConfig;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.ThingRepository;
+import com.freedomotic.util.FileOperations;
+import com.google.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of the runtime state which is not saved in the data
+ * files until the next full save: the behavior values of the things and the
+ * execution counters of the triggers.
+ * <p>
+ * Every change is appended to a memory mapped file, so it survives a crash of
+ * the process as soon as it is recorded (the file is synced to the device at
+ * most once per second). When the journal is full, or periodically, the last
+ * known state is compacted into a snapshot file, replaced atomically, and the
+ * journal starts a new generation. At startup the snapshot and the journal
+ * are replayed and the state is restored on the loaded things and triggers.
+ * </p>
+ * <p>
+ * Each record is protected by a checksum which includes the journal
+ * generation, so the replay stops at the first torn record or at the first
+ * record left by a previous generation.
+ * </p>
+ * <p>
+ * The state of deleted things and triggers is forgotten, and so is the
+ * state of the things and triggers not found when it is restored, so the
+ * snapshot doesn't grow with the deleted items.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class StateJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StateJournal.class.getName());
+    public static final String KEY_STATE_JOURNAL = "KEY_STATE_JOURNAL";
+    public static final String KEY_STATE_JOURNAL_SIZE = "KEY_STATE_JOURNAL_SIZE";
+    public static final String KEY_STATE_JOURNAL_COMPACTION = "KEY_STATE_JOURNAL_COMPACTION";
+    private static final int DEFAULT_SIZE_KB = 1024;
+    private static final int DEFAULT_COMPACTION_MINUTES = 60;
+    private static final String JOURNAL_FILE = "journal.bin";
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int JOURNAL_MAGIC = 0x46534a31;
+    private static final int SNAPSHOT_MAGIC = 0x46535331;
+    // magic and generation
+    private static final int HEADER_SIZE = 12;
+    // length and checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long SYNC_INTERVAL = 1000;
+    private static final byte BEHAVIOR = 1;
+    private static final byte TRIGGER = 2;
+    private final boolean enabled;
+    private final int capacity;
+    private final long compactionInterval;
+    // the last known state, by key
+    private final Map<String, State> states = new LinkedHashMap<>();
+    private File folder;
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+    private long generation;
+    private long lastCompaction;
+    private long lastSync;
+    private boolean dirty;
+    // set on the thread restoring the things, the other threads keep recording
+    private final ThreadLocal<Boolean> restoring = new ThreadLocal<>();
+    private long recordsAppended;
+    private long compactions;
+
+    /**
+     * A value restored from the journal.
+     */
+    private abstract static class State {
+
+        abstract String key();
+
+        abstract void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final class BehaviorState extends State {
+
+        private final String thing;
+        private final String behavior;
+        private final String value;
+
+        BehaviorState(String thing, String behavior, String value) {
+            this.thing = thing;
+            this.behavior = behavior;
+            this.value = value;
+        }
+
+        static String key(String thing, String behavior) {
+            return prefix(thing) + behavior;
+        }
+
+        static String prefix(String thing) {
+            return "b:" + thing + '\u0000';
+        }
+
+        @Override
+        String key() {
+            return key(thing, behavior);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(BEHAVIOR);
+            out.writeUTF(thing);
+            out.writeUTF(behavior);
+            out.writeUTF(value);
+        }
+    }
+
+    private static final class TriggerState extends State {
+
+        private final String uuid;
+        private final long executions;
+        private final long suspensionStart;
+
+        TriggerState(String uuid, long executions, long suspensionStart) {
+            this.uuid = uuid;
+            this.executions = executions;
+            this.suspensionStart = suspensionStart;
+        }
+
+        static String key(String uuid) {
+            return "t:" + uuid;
+        }
+
+        @Override
+        String key() {
+            return key(uuid);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TRIGGER);
+            out.writeUTF(uuid);
+            out.writeLong(executions);
+            out.writeLong(suspensionStart);
+        }
+    }
+
+    @Inject
+    StateJournal(AppConfig config) {
+        this(config.getBooleanProperty(KEY_STATE_JOURNAL, false),
+                config.getIntProperty(KEY_STATE_JOURNAL_SIZE, DEFAULT_SIZE_KB) * 1024,
+                TimeUnit.MINUTES.toMillis(config.getIntProperty(KEY_STATE_JOURNAL_COMPACTION, DEFAULT_COMPACTION_MINUTES)));
+    }
+
+    StateJournal(boolean enabled, int capacity, long compactionInterval) {
+        this.enabled = enabled;
+        this.capacity = Math.max(capacity, 4096);
+        this.compactionInterval = compactionInterval;
+    }
+
+    /**
+     * Opens the journal in the given folder, loading the state recorded by
+     * the previous runs. Nothing is recorded before the journal is opened.
+     *
+     * @param folder the folder of the journal files, created if missing
+     * @throws IOException if the journal cannot be opened
+     */
+    public synchronized void open(File folder) throws IOException {
+        if (!enabled || (channel != null)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        folder.mkdirs();
+        this.folder = folder;
+        long snapshotGeneration = loadSnapshot(new File(folder, SNAPSHOT_FILE));
+        int replayed = 0;
+
+        channel = new RandomAccessFile(new File(folder, JOURNAL_FILE), "rw").getChannel();
+        journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        if ((journal.getInt(0) == JOURNAL_MAGIC) && (journal.getLong(4) >= snapshotGeneration)) {
+            generation = journal.getLong(4);
+            replayed = replay();
+        } else {
+            // empty journal or already compacted in the snapshot
+            generation = snapshotGeneration;
+            journal.putInt(0, JOURNAL_MAGIC);
+            journal.putLong(4, generation);
+            journal.putInt(HEADER_SIZE, 0);
+            journal.position(HEADER_SIZE);
+        }
+        // the replayed records are compacted, so the journal starts empty
+        dirty = replayed > 0;
+        compact();
+        LOG.info("State journal opened in {} ms: {} states restored, {} journal records replayed",
+                System.currentTimeMillis() - start, states.size(), replayed);
+    }
+
+    /**
+     * Compacts the journal and closes it.
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            compact();
+            journal.force();
+            channel.close();
+        } catch (IOException ex) {
+            LOG.error("Cannot close the state journal", ex);
+        }
+        channel = null;
+        journal = null;
+    }
+
+    /**
+     * Records the current value of a thing behavior, if it has changed.
+     *
+     * @param thing the thing uuid
+     * @param behavior the behavior name
+     * @param value the behavior value
+     */
+    public synchronized void recordBehavior(String thing, String behavior, String value) {
+        if ((channel == null) || isRestoring() || (thing == null) || (behavior == null) || (value == null)) {
+            return;
+        }
+        State previous = states.get(BehaviorState.key(thing, behavior));
+        if ((previous instanceof BehaviorState) && value.equals(((BehaviorState) previous).value)) {
+            return;
+        }
+        append(new BehaviorState(thing, behavior, value));
+    }
+
+    /**
+     * Records the execution counters of a trigger.
+     *
+     * @param trigger the executed trigger
+     */
+    public synchronized void recordTrigger(Trigger trigger) {
+        if ((channel == null) || isRestoring() || (trigger == null)) {
+            return;
+        }
+        append(new TriggerState(trigger.getUUID(), trigger.getNumberOfExecutions(), trigger.getSuspensionStart()));
+    }
+
+    /**
+     * Forgets the recorded behavior values of a deleted thing.
+     *
+     * @param thing the thing uuid
+     */
+    public synchronized void forgetThing(String thing) {
+        if (thing == null) {
+            return;
+        }
+        String prefix = BehaviorState.prefix(thing);
+        if (states.keySet().removeIf(key -> key.startsWith(prefix))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Forgets the recorded execution counters of a deleted trigger.
+     *
+     * @param uuid the trigger uuid
+     */
+    public synchronized void forgetTrigger(String uuid) {
+        if ((uuid != null) && (states.remove(TriggerState.key(uuid)) != null)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Restores the recorded behavior values on the loaded things. Only the
+     * values different from the current ones are applied, without firing
+     * hardware commands. The values of the things which don't exist anymore
+     * are forgotten. The restored values are not recorded again, while the
+     * changes made meanwhile by the other threads are.
+     *
+     * @param thingRepository the repository of the loaded things
+     * @return the number of restored behaviors
+     */
+    public int restoreThings(ThingRepository thingRepository) {
+        Map<String, Map<String, String>> values = new HashMap<>();
+        synchronized (this) {
+            for (State state : states.values()) {
+                if (state instanceof BehaviorState) {
+                    BehaviorState behavior = (BehaviorState) state;
+                    values.computeIfAbsent(behavior.thing, k -> new LinkedHashMap<>()).put(behavior.behavior, behavior.value);
+                }
+            }
+        }
+        int restored = 0;
+        restoring.set(Boolean.TRUE);
+        try {
+            for (Map.Entry<String, Map<String, String>> thingValues : values.entrySet()) {
+                EnvObjectLogic thing = thingRepository.findOne(thingValues.getKey());
+                if (thing == null) {
+                    forgetThing(thingValues.getKey());
+                    continue;
+                }
+                for (BehaviorLogic behavior : thing.getBehaviors()) {
+                    String value = thingValues.getValue().get(behavior.getName());
+                    if ((value != null) && !value.equals(behavior.getValueAsString())) {
+                        Config params = new Config();
+                        params.setProperty("value", value);
+                        behavior.filterParams(params, false);
+                        restored++;
+                    }
+                }
+            }
+        } finally {
+            restoring.remove();
+        }
+        LOG.info("Restored {} behavior values from the state journal", restored);
+        return restored;
+    }
+
+    private boolean isRestoring() {
+        return restoring.get() != null;
+    }
+
+    /**
+     * Restores the recorded execution counters on the loaded triggers. The
+     * counters of the triggers which don't exist anymore are forgotten.
+     *
+     * @param triggerRepository the repository of the loaded triggers
+     * @return the number of restored triggers
+     */
+    public synchronized int restoreTriggers(TriggerRepository triggerRepository) {
+        int restored = 0;
+        Iterator<State> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            State state = iterator.next();
+            if (state instanceof TriggerState) {
+                TriggerState counters = (TriggerState) state;
+                Trigger trigger = triggerRepository.findOne(counters.uuid);
+                if (trigger != null) {
+                    trigger.setNumberOfExecutions(counters.executions);
+                    trigger.setSuspensionStart(counters.suspensionStart);
+                    restored++;
+                } else {
+                    iterator.remove();
+                    dirty = true;
+                }
+            }
+        }
+        LOG.info("Restored {} trigger counters from the state journal", restored);
+        return restored;
+    }
+
+    /**
+     * Gets the last recorded value of a thing behavior.
+     *
+     * @return the value or null if it was never recorded
+     */
+    synchronized String getBehaviorValue(String thing, String behavior) {
+        State state = states.get(BehaviorState.key(thing, behavior));
+        return (state instanceof BehaviorState) ? ((BehaviorState) state).value : null;
+    }
+
+    /**
+     * Gets the last recorded number of executions of a trigger.
+     *
+     * @return the number of executions or -1 if it was never recorded
+     */
+    synchronized long getTriggerExecutions(String uuid) {
+        State state = states.get(TriggerState.key(uuid));
+        return (state instanceof TriggerState) ? ((TriggerState) state).executions : -1;
+    }
+
+    /**
+     * Gets the number of records appended since startup.
+     *
+     * @return the appended records
+     */
+    public synchronized long getRecordsAppended() {
+        return recordsAppended;
+    }
+
+    /**
+     * Gets the number of compactions since startup.
+     *
+     * @return the compactions
+     */
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    private void append(State state) {
+        states.put(state.key(), state);
+        dirty = true;
+        byte[] record;
+        try {
+            record = encode(state);
+        } catch (IOException ex) {
+            // not thrown by in memory streams
+            LOG.error("Cannot encode state \"{}\"", state.key(), ex);
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (((now - lastCompaction) >= compactionInterval)
+                    || (journal.remaining() < (RECORD_HEADER_SIZE + record.length))) {
+                // the new state is already in the snapshot
+                compact();
+                return;
+            }
+            journal.putInt(record.length);
+            journal.putInt(checksum(generation, record, 0, record.length));
+            journal.put(record);
+            recordsAppended++;
+            if ((now - lastSync) >= SYNC_INTERVAL) {
+                journal.force();
+                lastSync = now;
+            }
+        } catch (IOException ex) {
+            LOG.error("Cannot write the state journal", ex);
+        }
+    }
+
+    /**
+     * Writes the last known state to the snapshot and empties the journal.
+     */
+    private void compact() throws IOException {
+        lastCompaction = System.currentTimeMillis();
+        if (!dirty) {
+            return;
+        }
+        long nextGeneration = generation + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextGeneration);
+            out.writeInt(states.size());
+            for (State state : states.values()) {
+                state.write(out);
+            }
+        }
+        // once the snapshot is on disk the journal content is not needed anymore
+        FileOperations.writeAtomically(new File(folder, SNAPSHOT_FILE), bytes.toByteArray());
+        generation = nextGeneration;
+        journal.putInt(0, JOURNAL_MAGIC);
+        journal.putLong(4, generation);
+        journal.position(HEADER_SIZE);
+        journal.force();
+        dirty = false;
+        compactions++;
+        LOG.debug("State journal compacted, {} states in snapshot", states.size());
+    }
+
+    private long loadSnapshot(File file) {
+        if (!file.isFile()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                LOG.warn("\"{}\" is not a state snapshot, ignored", file.getAbsolutePath());
+                return 0;
+            }
+            long snapshotGeneration = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                State state = read(in);
+                states.put(state.key(), state);
+            }
+            return snapshotGeneration;
+        } catch (IOException ex) {
+            LOG.error("Cannot read state snapshot \"{}\", the journal only is replayed", file.getAbsolutePath(), ex);
+            states.clear();
+            return 0;
+        }
+    }
+
+    private int replay() {
+        int replayed = 0;
+        int position = HEADER_SIZE;
+        while ((position + RECORD_HEADER_SIZE) <= capacity) {
+            int length = journal.getInt(position);
+            if ((length <= 0) || ((position + RECORD_HEADER_SIZE + length) > capacity)) {
+                break;
+            }
+            byte[] record = new byte[length];
+            journal.position(position + RECORD_HEADER_SIZE);
+            journal.get(record);
+            if (journal.getInt(position + 4) != checksum(generation, record, 0, length)) {
+                // torn write or record of a previous generation
+                break;
+            }
+            try {
+                State state = read(new DataInputStream(new ByteArrayInputStream(record)));
+                states.put(state.key(), state);
+            } catch (IOException ex) {
+                LOG.warn("Invalid state journal record at position {}, replay stopped", position);
+                break;
+            }
+            replayed++;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        journal.position(position);
+        return replayed;
+    }
+
+    private static byte[] encode(State state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            state.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static State read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case BEHAVIOR:
+                return new BehaviorState(in.readUTF(), in.readUTF(), in.readUTF());
+            case TRIGGER:
+                return new TriggerState(in.readUTF(), in.readLong(), in.readLong());
+            default:
+                throw new IOException("Unknown state type " + type);
+        }
+    }
+
+    private static int checksum(long generation, byte[] record, int offset, int length) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (generation >>> shift));
+        }
+        crc.update(record, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -64,13 +64,25 @@ public class XmlPreprocessor {
      * @throws IOException
      */
     public static String validate(File xmlFile, String absolutePathToDtd) throws IOException {
+        return validate(new InputSource(xmlFile.toURI().toASCIIString()), absolutePathToDtd);
+    }
+
+    /**
+     * Validate xml content against a DTD file.
+     * 
+     * @param xml content to validate
+     * @param absolutePathToDtd path of the DTD file
+     * @return validation result
+     * @throws IOException
+     */
+    public static String validate(InputSource xml, String absolutePathToDtd) throws IOException {
         try {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             DocumentBuilder documentBuilder;
 
             documentBuilder = factory.newDocumentBuilder();
 
-            Document doc = documentBuilder.parse(xmlFile);
+            Document doc = documentBuilder.parse(xml);
             DOMSource source = new DOMSource(doc);
 
             //now use a transformer to add the DTD element declaration at top
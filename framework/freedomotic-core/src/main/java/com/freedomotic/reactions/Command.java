@@ -42,11 +42,10 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import javax.jms.Destination;
 import org.slf4j.LoggerFactory;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -90,6 +89,9 @@ public final class Command implements Serializable, Cloneable {
     @XmlElement(name = "props")
     private Config properties = new Config();
     private final String type = "command";
+    // where the reply goes, known only to the receiver of the command
+    private transient Destination replyTo;
+    private transient String correlationID;
 
     /**
      *
@@ -221,6 +223,41 @@ public final class Command implements Serializable, Cloneable {
         this.stopIf = continueIf;
     }
 
+    /**
+     * Sets where the reply to this command must be sent. It is set when the
+     * command is received from the bus, so a plugin can reply later or from
+     * another thread.
+     *
+     * @param replyTo the destination of the reply, null if the sender doesn't
+     * wait for it
+     * @param correlationID routes the reply to the waiting sender
+     */
+    public void setReplyTo(Destination replyTo, String correlationID) {
+        this.replyTo = replyTo;
+        this.correlationID = correlationID;
+    }
+
+    /**
+     * Gets the destination of the reply to this command.
+     *
+     * @return the reply destination, null if the command was not received
+     * from the bus or its sender doesn't wait for the reply
+     */
+    @XmlTransient
+    public Destination getReplyTo() {
+        return replyTo;
+    }
+
+    /**
+     * Gets the correlation ID of the reply to this command.
+     *
+     * @return the correlation ID, null if unknown
+     */
+    @XmlTransient
+    public String getCorrelationID() {
+        return correlationID;
+    }
+
     /**
      * Gets a "behavior" property.
      *
@@ -453,8 +490,6 @@ public final class Command implements Serializable, Cloneable {
     @Override
     public Command clone()
             throws CloneNotSupportedException {
-        super.clone();
-
         Command clonedCmd = new Command();
         clonedCmd.setName(getName());
         clonedCmd.setDescription(getDescription());
@@ -463,12 +498,12 @@ public final class Command implements Serializable, Cloneable {
         clonedCmd.setReplyTimeout(getReplyTimeout());
         clonedCmd.setExecuted(executed);
         clonedCmd.setHardwareLevel(hardwareLevel);
-        Iterator<Entry<Object, Object>> it = getProperties().entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<Object, Object> e = it.next();
-            clonedCmd.setProperty(e.getKey().toString(), e.getValue().toString()); //adding the original command properties to its clone
+        clonedCmd.setReplyTo(replyTo, correlationID);
+        //copying the original command properties in one pass, instead of one property at a time
+        clonedCmd.properties = new Config(properties);
+        if (clonedCmd.properties.getProperty("type") == null) {
+            clonedCmd.properties.setProperty("type", type);
         }
-
         clonedCmd.properties.setXmlFile(this.getName());
 
         return clonedCmd;
@@ -21,27 +21,21 @@ package com.freedomotic.reactions;
 
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.bus.BusService;
+import com.freedomotic.core.Resolver;
 import com.freedomotic.events.CommandHasChanged;
-import com.freedomotic.exceptions.DataUpgradeException;
-import com.freedomotic.exceptions.RepositoryException;
-import com.freedomotic.persistence.DataUpgradeService;
-import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
+import com.freedomotic.persistence.DataLoader;
+import com.freedomotic.persistence.IncrementalSaver;
 import com.freedomotic.settings.Info;
 import com.google.inject.Inject;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
-import com.thoughtworks.xstream.mapper.CannotResolveClassException;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,14 +52,15 @@ class CommandRepositoryImpl implements CommandRepository {
     private static final Map<String, Command> USER_COMMANDS = new HashMap<>();
     private static final Map<String, Command> HARDWARE_COMMANDS = new HashMap<>();
     private static final String COMMAND_FILE_EXTENSION = ".xcmd";
-    private final DataUpgradeService dataUpgradeService;
+    private static final IncrementalSaver SAVER = new IncrementalSaver("commands", COMMAND_FILE_EXTENSION);
+    private final DataLoader dataLoader;
 
     @Inject
     private BusService busService;
 
     @Inject
-    public CommandRepositoryImpl(DataUpgradeService dataUpgradeService) {
-        this.dataUpgradeService = dataUpgradeService;
+    public CommandRepositoryImpl(DataLoader dataLoader) {
+        this.dataLoader = dataLoader;
     }
 
     /**
@@ -108,6 +103,7 @@ class CommandRepositoryImpl implements CommandRepository {
         } else {
             USER_COMMANDS.remove(input.getName());
         }
+        Resolver.invalidateTemplates(input);
     }
 
     /**
@@ -209,9 +205,6 @@ class CommandRepositoryImpl implements CommandRepository {
      */
     @Override
     public void loadCommands(File folder) {
-        XStream xstream = FreedomXStream.getXstream();
-        File[] files = folder.listFiles();
-
         // This filter only returns object files
         FileFilter objectFileFilter
                 = (File file) -> {
@@ -222,61 +215,23 @@ class CommandRepositoryImpl implements CommandRepository {
                     }
                 };
 
-        files = folder.listFiles(objectFileFilter);
+        File[] files = folder.listFiles(objectFileFilter);
 
         if (files != null) {
-
-            try {
-
-                for (File file : files) {
-                    Command command;
-                    String xml;
-                    try {
-                        xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/command.dtd");
-                    } catch (IOException ex) {
-                        LOG.error(Freedomotic.getStackTraceInfo(ex));
-                        continue;
+            List<Command> loaded = dataLoader.loadAll("command", files,
+                    (File file) -> dataLoader.read(file, Command.class));
+            for (Command command : loaded) {
+                if (command.isHardwareLevel()) { //an hardware level command
+                    HARDWARE_COMMANDS.put(command.getName(),
+                            command);
+                } else { //a user level commmand
+
+                    if (folder.getAbsolutePath().startsWith(Info.PATHS.PATH_PLUGINS_FOLDER.getAbsolutePath())) {
+                        command.setEditable(false);
                     }
-                    try {
-                        Properties dataProperties = new Properties();
-                        String fromVersion;
-                        try {
-                            dataProperties.load(new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties")));
-                            fromVersion = dataProperties.getProperty("data.version");
-                        } catch (IOException iOException) {
-                            LOG.error(Freedomotic.getStackTraceInfo(iOException));
-                            // Fallback to a default version for older version without that properties file
-                            fromVersion = "5.5.0";
-                        }
-                        xml = (String) dataUpgradeService.upgrade(Command.class, xml, fromVersion);
-                        command = (Command) xstream.fromXML(xml);
-
-                    } catch (DataUpgradeException dataUpgradeException) {
-                        throw new RepositoryException("Cannot upgrade Command file " + file.getAbsolutePath(), dataUpgradeException);
-                    } catch (XStreamException e) {
-                        throw new RepositoryException("XML parsing error. Readed XML is \n" + xml, e);
-                    }
-                    try {
-
-                        if (command.isHardwareLevel()) { //an hardware level command
-                            HARDWARE_COMMANDS.put(command.getName(),
-                                    command);
-                        } else { //a user level commmand
-
-                            if (folder.getAbsolutePath().startsWith(Info.PATHS.PATH_PLUGINS_FOLDER.getAbsolutePath())) {
-                                command.setEditable(false);
-                            }
 
-                            add(command);
-                        }
-
-                    } catch (CannotResolveClassException e) {
-                        LOG.error("Cannot unserialize command due to unrecognized class \"{}\" in \n{}", new Object[]{e.getMessage(), xml});
-                    }
+                    add(command);
                 }
-
-            } catch (RepositoryException ex) {
-                LOG.error("Error while loading command", Freedomotic.getStackTraceInfo(ex));
             }
         } else {
             if (LOG.isDebugEnabled()) {
@@ -301,11 +256,11 @@ class CommandRepositoryImpl implements CommandRepository {
             LOG.warn("\"{}\" is not a valid command folder. Skipped", folder.getAbsoluteFile());
             return;
         }
-        deleteCommandFiles(folder);
 
         try {
             LOG.info("Saving commands to file into \"{}\"", folder.getAbsolutePath());
             StringBuilder summaryContent = new StringBuilder();
+            Map<String, Command> persisted = new LinkedHashMap<>();
             USER_COMMANDS.values().stream().filter((c) -> (c.isEditable())).map((c) -> {
                 String uuid = c.getUuid();
                 if ((uuid == null) || uuid.isEmpty()) {
@@ -314,39 +269,22 @@ class CommandRepositoryImpl implements CommandRepository {
                 return c;
             }).forEachOrdered((c) -> {
                 String fileName = c.getUuid() + COMMAND_FILE_EXTENSION;
-                File file = new File(folder + "/" + fileName);
-                FreedomXStream.toXML(c, file);
+                persisted.put(c.getUuid(), c);
                 summaryContent.append(fileName).append("\t\t").append(c.getName())
                         .append("\t\t\t").append(c.getReceiver()).append("\n");
             });
 
-            writeSummaryFile(new File(folder, "index.txt"), "#Filename \t\t #CommandName \t\t\t #Destination\n", summaryContent.toString());
+            // only the changed commands are written, deleted commands files are removed
+            File summaryFile = new File(folder, "index.txt");
+            if (SAVER.save(folder, persisted) || !summaryFile.exists()) {
+                writeSummaryFile(summaryFile, "#Filename \t\t #CommandName \t\t\t #Destination\n", summaryContent.toString());
+            }
 
         } catch (IOException e) {
             LOG.error("Error while saving commands to \"" + folder.getAbsolutePath() + "\"", e);
         }
     }
 
-    /**
-     *
-     * @param folder
-     */
-    private static void deleteCommandFiles(File folder) {
-        File[] files = folder.listFiles();
-
-        // This filter only returns object files
-        FileFilter objectFileFilter
-                = (File file) -> {
-                    return file.isFile() && file.getName().endsWith(COMMAND_FILE_EXTENSION);
-                };
-
-        files = folder.listFiles(objectFileFilter);
-
-        for (File file : files) {
-            file.delete();
-        }
-    }
-
     @Override
     public List<Command> findAll() {
         List<Command> cl = new ArrayList<>(USER_COMMANDS.values());
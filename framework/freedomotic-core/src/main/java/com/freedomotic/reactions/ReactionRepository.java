@@ -21,6 +21,7 @@ package com.freedomotic.reactions;
 
 import com.freedomotic.persistence.Repository;
 import java.io.File;
+import java.util.List;
 
 /**
  *
@@ -32,4 +33,19 @@ public interface ReactionRepository extends Repository<Reaction> {
     public void loadReactions(File folder);
 
     public void saveReactions(File folder);
+
+    /**
+     * Finds the reactions bound to a trigger. Triggers are matched by name,
+     * ignoring case, as {@link Trigger#equals(Object)} does.
+     *
+     * @param trigger the trigger
+     * @return the reactions bound to the trigger, in the same order as {@link #findAll()}
+     */
+    public List<Reaction> findByTrigger(Trigger trigger);
+
+    /**
+     * Rebuilds the trigger index, to be called after triggers bound to
+     * reactions have been renamed.
+     */
+    public void reindexTriggers();
 }
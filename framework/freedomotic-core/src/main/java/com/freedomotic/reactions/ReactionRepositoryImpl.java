@@ -19,30 +19,24 @@
  */
 package com.freedomotic.reactions;
 
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.bus.BusService;
 import com.freedomotic.events.ReactionHasChanged;
-import com.freedomotic.exceptions.DataUpgradeException;
-import com.freedomotic.exceptions.RepositoryException;
-import com.freedomotic.persistence.DataUpgradeService;
-import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
-import com.freedomotic.settings.Info;
+import com.freedomotic.persistence.DataLoader;
+import com.freedomotic.persistence.IncrementalSaver;
 import com.google.inject.Inject;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
 import static com.freedomotic.util.FileOperations.writeSummaryFile;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,15 +49,22 @@ public class ReactionRepositoryImpl implements ReactionRepository {
     private static final Logger LOG = LoggerFactory.getLogger(ReactionRepositoryImpl.class.getName());
     //for persistence purposes. ELEMENTS CANNOT BE MODIFIED OUTSIDE THIS CLASS
     private static final List<Reaction> REACTIONS_LIST = new ArrayList<>();
+    //reactions by lowercase trigger name, values are immutable and replaced on change.
+    //A full reindex builds a new map and swaps it, so readers never see it partially filled
+    private static volatile Map<String, List<Reaction>> byTrigger = new ConcurrentHashMap<>();
+    private static final Object TRIGGER_INDEX_LOCK = new Object();
+    private static final Map<String, Reaction> BY_UUID = new ConcurrentHashMap<>();
+    private static final Comparator<Reaction> BY_NAME = new ReactionNameComparator();
     private static final String REACTION_FILE_EXTENSION = ".xrea";
-    private final DataUpgradeService dataUpgradeService;
+    private static final IncrementalSaver SAVER = new IncrementalSaver("reactions", REACTION_FILE_EXTENSION);
+    private final DataLoader dataLoader;
 
     @Inject
     private BusService busService;
 
     @Inject
-    public ReactionRepositoryImpl(DataUpgradeService dataUpgradeService) {
-        this.dataUpgradeService = dataUpgradeService;
+    public ReactionRepositoryImpl(DataLoader dataLoader) {
+        this.dataLoader = dataLoader;
     }
 
     /**
@@ -83,53 +84,34 @@ public class ReactionRepositoryImpl implements ReactionRepository {
             return;
         }
 
-        deleteReactionFiles(folder);
-
         try {
             LOG.info("Saving reactions to file into \"{}\"", folder.getAbsolutePath());
             StringBuilder summaryContent = new StringBuilder();
+            Map<String, Reaction> persisted = new LinkedHashMap<>();
             REACTIONS_LIST.stream().map((reaction) -> {
                 String uuid = reaction.getUuid();
                 if ((uuid == null) || uuid.isEmpty()) {
                     reaction.setUuid(UUID.randomUUID().toString());
+                    BY_UUID.put(uuidKey(reaction.getUuid()), reaction);
                 }
                 return reaction;
-            }).map((reaction) -> {
-                String fileName = reaction.getUuid() + REACTION_FILE_EXTENSION;
-                File file = new File(folder + "/" + fileName);
-                FreedomXStream.toXML(reaction, file);
-                return reaction;
             }).forEachOrdered((reaction) -> {
+                persisted.put(reaction.getUuid(), reaction);
                 summaryContent.append(reaction.getUuid()).append("\t\t\t").append(reaction.toString()).append("\t\t\t")
                         .append(reaction.getDescription()).append("\n");
             });
 
-            writeSummaryFile(new File(folder, "index.txt"), "#Filename \t\t #Reaction \t\t\t #Description\n", summaryContent.toString());
+            // only the changed reactions are written, deleted reactions files are removed
+            File summaryFile = new File(folder, "index.txt");
+            if (SAVER.save(folder, persisted) || !summaryFile.exists()) {
+                writeSummaryFile(summaryFile, "#Filename \t\t #Reaction \t\t\t #Description\n", summaryContent.toString());
+            }
 
         } catch (IOException e) {
             LOG.error("Error while saving reations", e);
         }
     }
 
-    /**
-     * Deletes all .xrea reaction files from a given folder.
-     *
-     * @param folder the folder to save the files from
-     */
-    private void deleteReactionFiles(File folder) {
-        File[] files;
-
-        // This filter only returns object files
-        FileFilter objectFileFilter
-                = (File file) -> file.isFile() && file.getName().endsWith(REACTION_FILE_EXTENSION);
-
-        files = folder.listFiles(objectFileFilter);
-
-        for (File file : files) {
-            file.delete();
-        }
-    }
-
     /**
      * Loads all .xrea reaction files from a given folder.
      *
@@ -137,8 +119,6 @@ public class ReactionRepositoryImpl implements ReactionRepository {
      */
     @Override
     public synchronized void loadReactions(File folder) {
-        XStream xstream = FreedomXStream.getXstream();
-
         // This filter only returns object files
         FileFilter objectFileFilter
                 = (File file) -> {
@@ -151,55 +131,26 @@ public class ReactionRepositoryImpl implements ReactionRepository {
 
         File[] files = folder.listFiles(objectFileFilter);
 
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    Reaction reaction = null;
-                    String xml;
-                    //validate the object against a predefined DTD
-                    try {
-                        xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/reaction.dtd");
-                    } catch (IOException ex) {
-                        throw new RepositoryException(ex.getMessage(), ex);
-                    }
-                    try {
-                        Properties dataProperties = new Properties();
-                        String fromVersion;
-                        try {
-                            dataProperties.load(new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties")));
-                            fromVersion = dataProperties.getProperty("data.version");
-                        } catch (IOException iOException) {
-                            LOG.error(Freedomotic.getStackTraceInfo(iOException));
-                            // Fallback to a default version for older version without that properties file
-                            fromVersion = "5.5.0";
-                        }
-                        xml = (String) dataUpgradeService.upgrade(Reaction.class, xml, fromVersion);
-                        reaction = (Reaction) xstream.fromXML(xml);
-
-                    } catch (DataUpgradeException dataUpgradeException) {
-                        throw new RepositoryException("Cannot upgrade reaction file " + file.getAbsolutePath(), dataUpgradeException);
-                    } catch (XStreamException e) {
-                        throw new RepositoryException("XML parsing error. Readed XML is \n" + xml, e);
-                    }
-
-                    if (reaction.getTrigger() != null && reaction.getTrigger().getName() != null) {
-                        add(reaction);
-                    } else {
-                        LOG.error("Cannot add reaction \"{}\": it has an empty trigger", file.getName());
-                        continue;
-                    }
-
-                    if (reaction.getCommands().isEmpty()) {
-                        LOG.warn("Reaction \"{}\" has no valid commands. Maybe related objects are missing or not configured properly", reaction.toString());
-                    }
+        if (files != null) {
+            // reactions refer to triggers and commands, which must be already loaded
+            List<Reaction> loaded = dataLoader.loadAll("reaction", files,
+                    (File file) -> dataLoader.read(file, Reaction.class));
+            for (Reaction reaction : loaded) {
+                if (reaction.getTrigger() != null && reaction.getTrigger().getName() != null) {
+                    add(reaction);
+                } else {
+                    LOG.error("Cannot add reaction \"{}\": it has an empty trigger", reaction.toString());
+                    continue;
                 }
-            } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("No reactions to load from the folder \"{}\"", folder.toString());
+
+                if (reaction.getCommands().isEmpty()) {
+                    LOG.warn("Reaction \"{}\" has no valid commands. Maybe related objects are missing or not configured properly", reaction.toString());
                 }
             }
-        } catch (RepositoryException e) {
-            LOG.error("Exception while loading reactions from \"{}\"", new Object[]{folder.getAbsolutePath()}, e);
+        } else {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No reactions to load from the folder \"{}\"", folder.toString());
+            }
         }
     }
 
@@ -217,6 +168,7 @@ public class ReactionRepositoryImpl implements ReactionRepository {
                     LOG.warn("Cannot register trigger");
                 }
                 REACTIONS_LIST.add(r);
+                index(r);
                 r.setChanged();
                 ReactionHasChanged event = new ReactionHasChanged(this, r.getUuid(), ReactionHasChanged.ReactionActions.ADD);
                 busService.send(event);
@@ -240,7 +192,12 @@ public class ReactionRepositoryImpl implements ReactionRepository {
      */
     public void remove(Reaction input) {
         if (input != null) {
-            boolean removed = REACTIONS_LIST.remove(input);
+            int position = REACTIONS_LIST.indexOf(input);
+            boolean removed = position >= 0;
+            if (removed) {
+                // the stored instance may differ from the given one, reactions are equal by description
+                unindex(REACTIONS_LIST.remove(position));
+            }
             try {
                 input.getTrigger().unregister();
             } catch (Exception e) {
@@ -279,12 +236,7 @@ public class ReactionRepositoryImpl implements ReactionRepository {
      * @return
      */
     public Reaction getReaction(String uuid) {
-        for (Reaction r : REACTIONS_LIST) {
-            if (r.getUuid().equalsIgnoreCase(uuid)) {
-                return r;
-            }
-        }
-        return null;
+        return findOne(uuid);
     }
 
     /**
@@ -313,7 +265,7 @@ public class ReactionRepositoryImpl implements ReactionRepository {
 
     @Override
     public List<Reaction> findAll() {
-        Collections.sort(REACTIONS_LIST, new ReactionNameComparator());
+        Collections.sort(REACTIONS_LIST, BY_NAME);
         return Collections.unmodifiableList(REACTIONS_LIST);
     }
 
@@ -324,12 +276,88 @@ public class ReactionRepositoryImpl implements ReactionRepository {
 
     @Override
     public Reaction findOne(String uuid) {
-        for (Reaction r : REACTIONS_LIST) {
-            if (r.getUuid().equalsIgnoreCase(uuid)) {
-                return r;
+        if (uuid == null) {
+            return null;
+        }
+        return BY_UUID.get(uuidKey(uuid));
+    }
+
+    @Override
+    public List<Reaction> findByTrigger(Trigger trigger) {
+        if (trigger == null || trigger.getName() == null) {
+            return Collections.emptyList();
+        }
+        return byTrigger.getOrDefault(triggerKey(trigger.getName()), Collections.emptyList());
+    }
+
+    @Override
+    public void reindexTriggers() {
+        synchronized (TRIGGER_INDEX_LOCK) {
+            Map<String, List<Reaction>> rebuilt = new ConcurrentHashMap<>();
+            for (Reaction r : new ArrayList<>(REACTIONS_LIST)) {
+                indexTrigger(rebuilt, r);
+            }
+            byTrigger = rebuilt;
+        }
+    }
+
+    private static void index(Reaction r) {
+        if (r.getUuid() != null) {
+            BY_UUID.put(uuidKey(r.getUuid()), r);
+        }
+        synchronized (TRIGGER_INDEX_LOCK) {
+            indexTrigger(byTrigger, r);
+        }
+    }
+
+    private static void indexTrigger(Map<String, List<Reaction>> index, Reaction r) {
+        if (r.getTrigger() == null || r.getTrigger().getName() == null) {
+            return;
+        }
+        index.compute(triggerKey(r.getTrigger().getName()), (key, bound) -> {
+            List<Reaction> updated = (bound == null) ? new ArrayList<>(1) : new ArrayList<>(bound);
+            // same position findAll() would give it, so rules keep running in name order
+            int position = updated.size();
+            while (position > 0 && BY_NAME.compare(updated.get(position - 1), r) > 0) {
+                position--;
             }
+            updated.add(position, r);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    private static void unindex(Reaction r) {
+        if (r.getUuid() != null) {
+            BY_UUID.remove(uuidKey(r.getUuid()), r);
         }
-        return null;
+        synchronized (TRIGGER_INDEX_LOCK) {
+            if (r.getTrigger() != null && r.getTrigger().getName() != null
+                    && unindexTrigger(triggerKey(r.getTrigger().getName()), r)) {
+                return;
+            }
+            // the trigger was renamed after the reaction was indexed
+            for (String key : byTrigger.keySet()) {
+                unindexTrigger(key, r);
+            }
+        }
+    }
+
+    private static boolean unindexTrigger(String key, Reaction r) {
+        boolean[] found = new boolean[1];
+        byTrigger.computeIfPresent(key, (k, bound) -> {
+            List<Reaction> updated = new ArrayList<>(bound);
+            found[0] = updated.removeIf(candidate -> candidate == r);
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+        return found[0];
+    }
+
+    private static String uuidKey(String uuid) {
+        return uuid.toLowerCase();
+    }
+
+    private static String triggerKey(String name) {
+        return name.trim().toLowerCase();
     }
 
     @Override
@@ -392,6 +420,8 @@ public class ReactionRepositoryImpl implements ReactionRepository {
         } catch (Exception e) {
         } finally {
             REACTIONS_LIST.clear();
+            byTrigger = new ConcurrentHashMap<>();
+            BY_UUID.clear();
         }
     }
 
@@ -399,7 +429,7 @@ public class ReactionRepositoryImpl implements ReactionRepository {
      * This class compares two reactions given their names.
      *
      */
-    class ReactionNameComparator implements Comparator<Reaction> {
+    static class ReactionNameComparator implements Comparator<Reaction> {
 
         @Override
         public int compare(Reaction r1, Reaction r2) {
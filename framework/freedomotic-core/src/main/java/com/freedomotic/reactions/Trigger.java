@@ -21,19 +21,15 @@ package com.freedomotic.reactions;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.app.Freedomotic;
-import com.freedomotic.bus.BusConsumer;
-import com.freedomotic.bus.BusMessagesListener;
-import com.freedomotic.bus.BusService;
-import com.freedomotic.core.TriggerCheck;
+import com.freedomotic.core.TriggerDispatcher;
 import com.freedomotic.exceptions.FreedomoticRuntimeException;
 import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.PayloadMatcher;
 import com.freedomotic.rules.Statement;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.jms.JMSException;
-import javax.jms.ObjectMessage;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -50,7 +46,7 @@ import java.util.UUID;
  */
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.FIELD)
-public final class Trigger implements BusConsumer, Cloneable {
+public final class Trigger implements Cloneable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Trigger.class.getName());
     private String name;
@@ -71,14 +67,11 @@ public final class Trigger implements BusConsumer, Cloneable {
     private long numberOfExecutions;
     private long suspensionStart;
     @XmlTransient
-    private BusMessagesListener listener;
+    private transient volatile PayloadMatcher compiledPayload;
     //dependencies
     @Inject
     @XmlTransient
-    private TriggerCheck checker;
-    @Inject
-    @XmlTransient
-    private BusService busService;
+    private TriggerDispatcher dispatcher;
 
     /**
      * Default constructor.
@@ -88,13 +81,13 @@ public final class Trigger implements BusConsumer, Cloneable {
     }
 
     /**
-     * Registers the trigger
+     * Registers the trigger, it starts to receive the events of its channel
      */
     public void register() {
         Freedomotic.INJECTOR.injectMembers(this);
         LOG.info("Registering the trigger named \"{}\"", getName());
-        listener = new BusMessagesListener(this, busService);
-        listener.consumeEventFrom(channel);
+        compiledPayload = PayloadMatcher.compile(getPayload());
+        dispatcher.register(this);
         numberOfExecutions = 0;
         suspensionStart = System.currentTimeMillis();
     }
@@ -203,6 +196,25 @@ public final class Trigger implements BusConsumer, Cloneable {
         this.numberOfExecutions = numberOfExecutions;
     }
 
+    /**
+     * Gets the time of the last execution of the trigger, from which the
+     * suspension time is counted.
+     *
+     * @return the time of the last execution in milliseconds
+     */
+    public long getSuspensionStart() {
+        return suspensionStart;
+    }
+
+    /**
+     * Sets the time of the last execution of the trigger.
+     *
+     * @param suspensionStart the time of the last execution in milliseconds
+     */
+    public void setSuspensionStart(long suspensionStart) {
+        this.suspensionStart = suspensionStart;
+    }
+
     /**
      * Gets suspension time of the trigger.
      *
@@ -228,6 +240,7 @@ public final class Trigger implements BusConsumer, Cloneable {
      */
     public void setPayload(Payload payload) {
         this.payload = payload;
+        this.compiledPayload = null;
     }
 
     //can be moved to a stategy pattern
@@ -339,6 +352,22 @@ public final class Trigger implements BusConsumer, Cloneable {
         return payload;
     }
 
+    /**
+     * Gets the trigger payload compiled for the comparison with events. It is
+     * compiled when the trigger is registered and compiled again if the
+     * payload is replaced or its statements are added, removed or changed.
+     *
+     * @return the compiled trigger payload
+     */
+    public PayloadMatcher getCompiledPayload() {
+        PayloadMatcher matcher = compiledPayload;
+        if ((matcher == null) || !matcher.isCompiledFrom(getPayload())) {
+            matcher = PayloadMatcher.compile(getPayload());
+            compiledPayload = matcher;
+        }
+        return matcher;
+    }
+
     /**
      * Gets delay of the trigger.
      *
@@ -376,28 +405,6 @@ public final class Trigger implements BusConsumer, Cloneable {
         return hash;
     }
 
-    /*
-     * Performs the trigger check comparing the received event with itself (this
-     * trigger)
-     */
-    @Override
-    public void onMessage(ObjectMessage message) {
-        Object msgPayload = null;
-
-        try {
-            msgPayload = message.getObject();
-        } catch (JMSException ex) {
-            LOG.error(ex.getMessage());
-        }
-
-        if (msgPayload instanceof EventTemplate) {
-            EventTemplate event = (EventTemplate) msgPayload;
-            LOG.debug("Trigger \"" + this.getName() + "\" filters event \"" + event.getEventName()
-                    + "\" on channel \"" + this.getChannel() + "\"");
-            checker.check(event, this);
-        }
-    }
-
     /**
      * Clones the trigger.
      *
@@ -416,7 +423,7 @@ public final class Trigger implements BusConsumer, Cloneable {
         clone.setUUID(UUID.randomUUID().toString());
 
         Payload clonePayload = new Payload();
-        Iterator<Statement> it = getPayload().iterator();
+        Iterator<Statement> it = getPayload().getStatementsSnapshot().iterator();
 
         while (it.hasNext()) {
             Statement original = it.next();
@@ -436,8 +443,8 @@ public final class Trigger implements BusConsumer, Cloneable {
      * Unregisters the trigger.
      */
     public void unregister() {
-        if (listener != null) {
-            listener.destroy();
+        if (dispatcher != null) {
+            dispatcher.unregister(this);
         }
     }
 
@@ -479,9 +486,4 @@ public final class Trigger implements BusConsumer, Cloneable {
     public boolean isToPersist() {
         return persistence;
     }
-
-    @Inject
-    private void setTriggerCheck(TriggerCheck checker) {
-        this.checker = checker;
-    }
 }
@@ -20,27 +20,24 @@
 package com.freedomotic.reactions;
 
 import com.freedomotic.app.Freedomotic;
+import com.freedomotic.core.Resolver;
 import com.freedomotic.events.TriggerHasChanged;
-import com.freedomotic.exceptions.DataUpgradeException;
-import com.freedomotic.exceptions.RepositoryException;
-import com.freedomotic.persistence.DataUpgradeService;
-import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
+import com.freedomotic.persistence.DataLoader;
+import com.freedomotic.persistence.IncrementalSaver;
+import com.freedomotic.persistence.StateJournal;
 import com.freedomotic.settings.Info;
 import com.google.inject.Inject;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
 import static com.freedomotic.util.FileOperations.writeSummaryFile;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,12 +50,15 @@ class TriggerRepositoryImpl implements TriggerRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(TriggerRepositoryImpl.class.getName());
     private static final List<Trigger> TRIGGERS_LIST = new ArrayList<>();
-    private final DataUpgradeService dataUpgradeService;
+    private final DataLoader dataLoader;
+    private final StateJournal stateJournal;
     private static final String TRIGGER_FILE_EXTENSION = ".xtrg";
+    private static final IncrementalSaver SAVER = new IncrementalSaver("triggers", TRIGGER_FILE_EXTENSION);
 
     @Inject
-    public TriggerRepositoryImpl(DataUpgradeService dataUpgradeService) {
-        this.dataUpgradeService = dataUpgradeService;
+    public TriggerRepositoryImpl(DataLoader dataLoader, StateJournal stateJournal) {
+        this.dataLoader = dataLoader;
+        this.stateJournal = stateJournal;
     }
 
     /**
@@ -78,11 +78,10 @@ class TriggerRepositoryImpl implements TriggerRepository {
             return;
         }
 
-        deleteTriggerFiles(folder);
-
         try {
             LOG.info("Saving triggers to file into \"{}\"", folder.getAbsolutePath());
             StringBuilder summaryContent = new StringBuilder();
+            Map<String, Trigger> persisted = new LinkedHashMap<>();
             TRIGGERS_LIST.stream().map((trigger) -> {
                 if (trigger.isToPersist()) {
                     String uuid = trigger.getUUID();
@@ -90,10 +89,7 @@ class TriggerRepositoryImpl implements TriggerRepository {
                     if ((uuid == null) || uuid.isEmpty()) {
                         trigger.setUUID(UUID.randomUUID().toString());
                     }
-
-                    String fileName = trigger.getUUID() + TRIGGER_FILE_EXTENSION;
-                    File file = new File(folder + "/" + fileName);
-                    FreedomXStream.toXML(trigger, file);
+                    persisted.put(trigger.getUUID(), trigger);
                 }
                 return trigger;
             }).forEachOrdered((trigger) -> {
@@ -101,35 +97,17 @@ class TriggerRepositoryImpl implements TriggerRepository {
                         .append(trigger.getChannel()).append("\n");
             });
 
-            writeSummaryFile(new File(folder, "index.txt"), "#Filename \t\t #TriggerName \t\t\t #ListenedChannel\n", summaryContent.toString());
+            // only the changed triggers are written, deleted triggers files are removed
+            File summaryFile = new File(folder, "index.txt");
+            if (SAVER.save(folder, persisted) || !summaryFile.exists()) {
+                writeSummaryFile(summaryFile, "#Filename \t\t #TriggerName \t\t\t #ListenedChannel\n", summaryContent.toString());
+            }
 
         } catch (IOException e) {
             LOG.error("Error while saving triggers ", e);
         }
     }
 
-    /**
-     * Deletes all the triggers into the specified folder.
-     *
-     * @param folder the folder containing all the triggers to delete
-     */
-    private static void deleteTriggerFiles(File folder) {
-        File[] files = folder.listFiles();
-        // this filter only returns triggers files
-        FileFilter objectFileFilter
-                = (File file) -> {
-                    if (file.isFile() && file.getName().endsWith(TRIGGER_FILE_EXTENSION)) {
-                        return true;
-                    } else {
-                        return false;
-                    }
-                };
-        files = folder.listFiles(objectFileFilter);
-        for (File file : files) {
-            file.delete();
-        }
-    }
-
     /**
      *
      * @return
@@ -145,69 +123,36 @@ class TriggerRepositoryImpl implements TriggerRepository {
      */
     @Override
     public void loadTriggers(File folder) {
-        XStream xstream = FreedomXStream.getXstream();
-
         // this filter only returns triggers files
         FileFilter objectFileFilter
                 = (File file) -> file.isFile() && file.getName().endsWith(TRIGGER_FILE_EXTENSION);
 
         File[] files = folder.listFiles(objectFileFilter);
 
-        try {
-
-            if (files != null) {
-                for (File file : files) {
-                    Trigger trigger = null;
-                    String xml;
-                    try {
-                        //validate the object against a predefined DTD
-                        xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/trigger.dtd");
-                    } catch (IOException e) {
-                        LOG.error(Freedomotic.getStackTraceInfo(e));
-                        continue;
-                    }
-                    try {
-                        Properties dataProperties = new Properties();
-                        String fromVersion;
-                        try {
-                            dataProperties.load(new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties")));
-                            fromVersion = dataProperties.getProperty("data.version");
-                        } catch (IOException iOException) {
-                            LOG.error(Freedomotic.getStackTraceInfo(iOException));
-                            // fallback to a default version for older version without that properties file
-                            fromVersion = "5.5.0";
-                        }
-                        xml = (String) dataUpgradeService.upgrade(Trigger.class, xml, fromVersion);
-                        trigger = (Trigger) xstream.fromXML(xml);
-
-                    } catch (DataUpgradeException dataUpgradeException) {
-                        throw new RepositoryException("Cannot upgrade trigger file " + file.getAbsolutePath(), dataUpgradeException);
-                    } catch (XStreamException e) {
-                        throw new RepositoryException("XML parsing error. Readed XML is \n" + xml, e);
-                    }
-                    //addAndRegister trigger to the list if it is not a duplicate
-                    if (!TRIGGERS_LIST.contains(trigger)) {
-                        if (trigger.isHardwareLevel()) {
-                            trigger.setPersistence(false); //it has not to me stored in root/data folder
-                            addAndRegister(trigger); //in the list and start listening
+        if (files != null) {
+            List<Trigger> loaded = dataLoader.loadAll("trigger", files,
+                    (File file) -> dataLoader.read(file, Trigger.class));
+            for (Trigger trigger : loaded) {
+                //addAndRegister trigger to the list if it is not a duplicate
+                if (!TRIGGERS_LIST.contains(trigger)) {
+                    if (trigger.isHardwareLevel()) {
+                        trigger.setPersistence(false); //it has not to me stored in root/data folder
+                        addAndRegister(trigger); //in the list and start listening
+                    } else {
+                        if (folder.getAbsolutePath().startsWith(Info.PATHS.PATH_PLUGINS_FOLDER.getAbsolutePath())) {
+                            trigger.setPersistence(false);
                         } else {
-                            if (folder.getAbsolutePath().startsWith(Info.PATHS.PATH_PLUGINS_FOLDER.getAbsolutePath())) {
-                                trigger.setPersistence(false);
-                            } else {
-                                trigger.setPersistence(true); //not hardware trigger and not plugin related
-                            }
-
-                            TRIGGERS_LIST.add(trigger); //only in the list not registred. I will be registred only if used in mapping
+                            trigger.setPersistence(true); //not hardware trigger and not plugin related
                         }
-                    } else {
-                        LOG.warn("Trigger \"{}\" is already in the list", trigger.getName());
+
+                        TRIGGERS_LIST.add(trigger); //only in the list not registred. I will be registred only if used in mapping
                     }
+                } else {
+                    LOG.warn("Trigger \"{}\" is already in the list", trigger.getName());
                 }
-            } else {
-                LOG.info("No triggers to load from the folder \"{}\"", folder.toString());
             }
-        } catch (RepositoryException e) {
-            LOG.error("Exception while loading this trigger ", e);
+        } else {
+            LOG.info("No triggers to load from the folder \"{}\"", folder.toString());
         }
     }
 
@@ -275,6 +220,7 @@ class TriggerRepositoryImpl implements TriggerRepository {
         try {
             t.unregister();
             TRIGGERS_LIST.remove(t);
+            Resolver.invalidateTemplates(t);
             int postSize = TriggerRepositoryImpl.size();
 
             if (postSize != (preSize - 1)) {
@@ -410,6 +356,7 @@ class TriggerRepositoryImpl implements TriggerRepository {
     public boolean delete(Trigger item) {
         try {
             remove(item);
+            stateJournal.forgetTrigger(item.getUUID());
             return true;
         } catch (Exception e) {
             return false;
@@ -21,16 +21,28 @@ package com.freedomotic.rules;
 
 import com.google.gson.Gson;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 /**
+ * An ordered list of statements, indexed by case insensitive attribute.
+ * <p>
+ * Writers are serialized on the payload monitor. Readers of
+ * {@link #getStatementsSnapshot()} get an immutable snapshot of the
+ * statements, built on the first read after a change and shared until the
+ * next one, so they never lock or copy the statements. {@link #getStatements()}
+ * and {@link #iterator()} are live views, as they have always been.
+ * </p>
  *
  * @author Enrico Nicoletti
  */
@@ -40,7 +52,33 @@ public final class Payload implements Serializable {
 
     @XmlTransient
     private static final long serialVersionUID = -5799483105084939108L;
-    private final List<Statement> payloadLst = Collections.synchronizedList(new ArrayList<>());
+    private static final Statement[] NO_STATEMENTS = new Statement[0];
+    private final List<Statement> payloadLst = new ArrayList<>();
+    // statements by folded attribute, used to discard duplicates on insertion
+    @XmlTransient
+    private transient Map<String, List<Statement>> buckets;
+    @XmlTransient
+    private transient volatile Snapshot snapshot;
+    // incremented on every change, statements changed in place included
+    @XmlTransient
+    private transient volatile long modifications;
+
+    /**
+     * An immutable view of the statements at a given time.
+     */
+    static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(NO_STATEMENTS, Collections.<String, Statement[]>emptyMap());
+        final Statement[] statements;
+        final List<Statement> list;
+        final Map<String, Statement[]> byAttribute;
+
+        private Snapshot(Statement[] statements, Map<String, Statement[]> byAttribute) {
+            this.statements = statements;
+            this.list = Collections.unmodifiableList(Arrays.asList(statements));
+            this.byAttribute = byAttribute;
+        }
+    }
 
     /**
      *
@@ -75,23 +113,113 @@ public final class Payload implements Serializable {
     }
 
     /**
-     * Adds a statement to the payload.
+     * Adds a statement to the payload, if an equal statement is not already
+     * there.
      * 
      * @param s statement to add
      */
-    public void enqueueStatement(Statement s) {
-        if ((s != null) && !payloadLst.contains(s)) {
-            payloadLst.add(s);
+    public synchronized void enqueueStatement(Statement s) {
+        if (s == null) {
+            return;
+        }
+        List<Statement> bucket = getBuckets().get(key(s));
+        if ((bucket == null) || !bucket.contains(s)) {
+            append(s);
         }
     }
 
+    private Map<String, List<Statement>> getBuckets() {
+        if (buckets == null) {
+            // not yet built, or lost in the deserialization
+            buckets = new HashMap<>();
+            for (Statement statement : payloadLst) {
+                addToBucket(statement);
+            }
+        }
+        return buckets;
+    }
+
+    private void append(Statement s) {
+        payloadLst.add(s);
+        addToBucket(s);
+        snapshot = null;
+        modifications++;
+    }
+
+    /**
+     * Called by a statement of this payload when it is changed in place.
+     */
+    synchronized void statementChanged() {
+        // the attribute may have changed, the buckets are rebuilt on the next access
+        buckets = null;
+        snapshot = null;
+        modifications++;
+    }
+
+    /**
+     * Gets the number of changes made to this payload: statements added or
+     * removed and statements changed in place.
+     *
+     * @return a counter which changes every time the payload changes
+     */
+    public long getModifications() {
+        return modifications;
+    }
+
+    private void addToBucket(Statement s) {
+        s.bindTo(this);
+        List<Statement> bucket = buckets.get(key(s));
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            buckets.put(key(s), bucket);
+        }
+        bucket.add(s);
+    }
+
+    private static String key(Statement s) {
+        return (s.getAttribute() != null) ? fold(s.getAttribute()) : null;
+    }
+
+    /**
+     * Gets the current snapshot of the statements.
+     *
+     * @return the snapshot, never null
+     */
+    Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = createSnapshot();
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot createSnapshot() {
+        if (payloadLst.isEmpty()) {
+            return Snapshot.EMPTY;
+        }
+        Statement[] statements = payloadLst.toArray(new Statement[payloadLst.size()]);
+        Map<String, Statement[]> byAttribute = new HashMap<>(statements.length * 2);
+        for (Map.Entry<String, List<Statement>> entry : getBuckets().entrySet()) {
+            List<Statement> bucket = entry.getValue();
+            byAttribute.put(entry.getKey(), bucket.toArray(new Statement[bucket.size()]));
+        }
+        // statements without attribute can't be searched
+        byAttribute.remove(null);
+        return new Snapshot(statements, byAttribute);
+    }
+
     /**
      * Returns the number of statements.
      * 
      * @return
      */
     public int size() {
-        return payloadLst.size();
+        return snapshot().statements.length;
     }
 
     /**
@@ -105,11 +233,10 @@ public final class Payload implements Serializable {
 
         if (obj instanceof Payload) {
             Payload eventPayload = (Payload) obj;
-            Iterator<Statement> it = payloadLst.iterator();
+            Map<String, Statement[]> eventIndex = eventPayload.snapshot().byAttribute;
 
             //check all statement for consistency
-            while (it.hasNext()) {
-                Statement triggerStatement = it.next();
+            for (Statement triggerStatement : snapshot().statements) {
 
                 // at this stage the trigger has already all the event.* properties embedded (shoud be skipped)
                 if (triggerStatement.getAttribute().startsWith("event.")) {
@@ -117,9 +244,9 @@ public final class Payload implements Serializable {
                     continue;
                 }
 
-                List<Statement> filteredEventStatements = eventPayload.getStatements(triggerStatement.getAttribute());
+                Statement[] filteredEventStatements = eventIndex.get(fold(triggerStatement.getAttribute()));
 
-                if (filteredEventStatements.isEmpty()) {
+                if (filteredEventStatements == null) {
                     //if the trigger has a property which is not in the event
                     if (!triggerStatement.getLogical().equalsIgnoreCase(Statement.SET)) {
                         //if it is AND/OR/...
@@ -175,7 +302,7 @@ public final class Payload implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
-        hash = (67 * hash) + ((this.payloadLst != null) ? this.payloadLst.hashCode() : 0);
+        hash = (67 * hash) + getStatementsSnapshot().hashCode();
 
         return hash;
     }
@@ -201,23 +328,30 @@ public final class Payload implements Serializable {
      * @return a list of statements
      */
     public List<Statement> getStatements(String attribute) {
-        List<Statement> statements = new ArrayList<>();
-
-        synchronized (payloadLst) {
-            payloadLst.stream().filter((i) -> (i.getAttribute().equalsIgnoreCase(attribute))).forEachOrdered((i) -> {
-                statements.add(i);
-            });
-        }
-        return statements;
+        Statement[] found = find(attribute);
+        return (found != null) ? new ArrayList<>(Arrays.asList(found)) : new ArrayList<>();
     }
 
     /**
-     * Gets the list of statements.
+     * Gets the list of statements. The list is a live view of the payload:
+     * it reflects later changes and changing it changes the payload. Readers
+     * which only iterate should prefer {@link #getStatementsSnapshot()}.
      * 
      * @return the list of statements
      */
     public List<Statement> getStatements() {
-        return payloadLst;
+        return new LiveStatements();
+    }
+
+    /**
+     * Gets the list of statements as a read only snapshot. The list does not
+     * reflect later changes to the payload, it is shared among the readers
+     * and can be iterated without locking.
+     *
+     * @return the read only list of statements
+     */
+    public List<Statement> getStatementsSnapshot() {
+        return snapshot().list;
     }
     
     /**
@@ -226,7 +360,7 @@ public final class Payload implements Serializable {
      * @return 
      */
     public String getStatementsAsJson() {
-        return new Gson().toJson(payloadLst);
+        return new Gson().toJson(getStatementsSnapshot());
     }
 
     /**
@@ -238,29 +372,56 @@ public final class Payload implements Serializable {
      * @return the String value of the statement
      */
     public String getStatementValue(String attribute) {
-        List<Statement> statements = getStatements(attribute);
-
-        if ((statements != null) && !statements.isEmpty()) {
-            return statements.get(0).getValue();
-        }
+        Statement[] found = find(attribute);
+        return (found != null) ? found[0].getValue() : "";
+    }
 
-        return "";
+    private Statement[] find(String attribute) {
+        return (attribute != null) ? snapshot().byAttribute.get(fold(attribute)) : null;
     }
 
     /**
+     * Iterates the live list of statements, see {@link #getStatements()}.
      *
      * @return
      */
     public Iterator<Statement> iterator() {
-        return payloadLst.iterator();
+        return getStatements().iterator();
     }
 
     /**
+     * Appends all the statements of another payload, duplicates included.
      *
      * @param anotherPayload
      */
     public void merge(Payload anotherPayload) {
-        payloadLst.addAll(anotherPayload.payloadLst);
+        Statement[] statements = anotherPayload.snapshot().statements;
+        synchronized (this) {
+            getBuckets();
+            for (Statement statement : statements) {
+                append(statement);
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of this payload. Statements are copied too, so that
+     * changing the copy doesn't affect this payload.
+     *
+     * @return the copy
+     */
+    public Payload copy() {
+        Payload copy = new Payload();
+        copy.getBuckets();
+        for (Statement statement : snapshot().statements) {
+            Statement copied = new Statement();
+            copied.setLogical(statement.getLogical());
+            copied.setAttribute(statement.getAttribute());
+            copied.setOperand(statement.getOperand());
+            copied.setValue(statement.getValue());
+            copy.append(copied);
+        }
+        return copy;
     }
 
     /**
@@ -275,7 +436,85 @@ public final class Payload implements Serializable {
     /**
      *
      */
-    public void clear() {
+    public synchronized void clear() {
         payloadLst.clear();
+        buckets = null;
+        snapshot = null;
+        modifications++;
+    }
+
+    /**
+     * The statements list seen through {@link #getStatements()}. Changes are
+     * made under the payload monitor and invalidate the indexes.
+     */
+    private final class LiveStatements extends AbstractList<Statement> {
+
+        @Override
+        public Statement get(int index) {
+            synchronized (Payload.this) {
+                return payloadLst.get(index);
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (Payload.this) {
+                return payloadLst.size();
+            }
+        }
+
+        @Override
+        public Statement set(int index, Statement element) {
+            synchronized (Payload.this) {
+                Statement previous = payloadLst.set(index, element);
+                element.bindTo(Payload.this);
+                statementChanged();
+                return previous;
+            }
+        }
+
+        @Override
+        public void add(int index, Statement element) {
+            synchronized (Payload.this) {
+                payloadLst.add(index, element);
+                element.bindTo(Payload.this);
+                statementChanged();
+                modCount++;
+            }
+        }
+
+        @Override
+        public Statement remove(int index) {
+            synchronized (Payload.this) {
+                Statement removed = payloadLst.remove(index);
+                statementChanged();
+                modCount++;
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * Normalizes an attribute name so that two names are equal after folding
+     * if and only if they are equal ignoring case, as in
+     * {@link String#equalsIgnoreCase(java.lang.String)}.
+     *
+     * @param attribute the attribute name
+     * @return the folded attribute name, the same instance if it is already
+     * folded
+     */
+    static String fold(String attribute) {
+        int length = attribute.length();
+        for (int i = 0; i < length; i++) {
+            char c = attribute.charAt(i);
+            if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+                char[] chars = attribute.toCharArray();
+                for (int j = i; j < length; j++) {
+                    chars[j] = Character.toLowerCase(Character.toUpperCase(chars[j]));
+                }
+                return new String(chars);
+            }
+        }
+        return attribute;
     }
 }
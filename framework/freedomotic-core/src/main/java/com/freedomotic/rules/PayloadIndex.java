@@ -0,0 +1,92 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.rules;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read only snapshot of an event payload, indexed by case insensitive
+ * attribute. It is built once per event and shared by all the
+ * {@link PayloadMatcher} the event is compared with.
+ *
+ * @author Freedomotic Team
+ */
+public final class PayloadIndex {
+
+    private static final String[] NO_VALUES = new String[0];
+    private final Map<String, String[]> values;
+
+    /**
+     * Indexes the statements of the given payload.
+     *
+     * @param payload the event payload
+     */
+    public PayloadIndex(Payload payload) {
+        // the values are copied, statements can be changed during the resolution
+        Map<String, Statement[]> statements = payload.snapshot().byAttribute;
+        values = new HashMap<>(statements.size() * 2);
+        for (Map.Entry<String, Statement[]> entry : statements.entrySet()) {
+            Statement[] group = entry.getValue();
+            String[] groupValues = new String[group.length];
+            for (int i = 0; i < group.length; i++) {
+                groupValues[i] = group[i].getValue();
+            }
+            values.put(entry.getKey(), groupValues);
+        }
+    }
+
+    /**
+     * Gets the values of the statements with the given attribute, in insertion
+     * order.
+     *
+     * @param foldedAttribute the attribute, already passed through
+     * {@link #fold(java.lang.String)}
+     * @return the values, an empty array if the attribute is not in the payload
+     */
+    String[] getValues(String foldedAttribute) {
+        String[] found = values.get(foldedAttribute);
+        return (found != null) ? found : NO_VALUES;
+    }
+
+    /**
+     * Gets the value of the first statement with the given attribute, like
+     * {@link Payload#getStatementValue(java.lang.String)} does.
+     *
+     * @param attribute the attribute, case insensitive
+     * @return the value or null if the attribute is not in the payload
+     */
+    public String getValue(String attribute) {
+        String[] found = values.get(fold(attribute));
+        return (found != null) ? found[0] : null;
+    }
+
+    /**
+     * Normalizes an attribute name so that two names are equal after folding
+     * if and only if they are equal ignoring case, as in
+     * {@link String#equalsIgnoreCase(java.lang.String)}.
+     *
+     * @param attribute the attribute name
+     * @return the folded attribute name
+     */
+    static String fold(String attribute) {
+        return Payload.fold(attribute);
+    }
+}
@@ -0,0 +1,426 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A trigger payload compiled for repeated comparisons with event payloads.
+ * <p>
+ * It gives the same result as {@link Payload#equals(java.lang.Object)} but the
+ * statements are analyzed once: operands are resolved to an {@link Operator},
+ * numbers, time intervals and regular expressions are parsed in advance and
+ * the event payload is read through a {@link PayloadIndex}. The matching
+ * itself doesn't allocate objects.
+ * </p>
+ * <p>
+ * Statements whose value references the event (eg: @event.temperature) or is
+ * a script are known only after the trigger resolution, in this case the
+ * matcher is not static and the resolved payload must be compared as usual.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+public final class PayloadMatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PayloadMatcher.class.getName());
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final long NOT_AN_INTEGER = Long.MIN_VALUE;
+    private final CompiledStatement[] statements;
+    private final boolean staticPayload;
+    private final boolean dateDependent;
+    private final Payload source;
+    private final long sourceModifications;
+
+    /**
+     * Operators supported in trigger statements.
+     */
+    enum Operator {
+
+        EQUALS, REGEX, GREATER_THAN, GREATER_EQUAL_THAN, LESS_THAN, LESS_EQUAL_THAN, BETWEEN_TIME;
+
+        /**
+         * Resolves an operand following the same rules of
+         * {@link ExpressionFactory}.
+         *
+         * @param operand the statement operand
+         * @return the operator or null if it is not supported
+         */
+        static Operator fromOperand(String operand) {
+            for (Operator operator : values()) {
+                if (operand.endsWith(operator.name())) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+
+    private enum Logical {
+        AND, OR, SET, OTHER, UNDEFINED
+    }
+
+    private enum Outcome {
+        TRUE, FALSE, ERROR
+    }
+
+    private PayloadMatcher(CompiledStatement[] statements, boolean staticPayload, boolean dateDependent,
+            Payload source, long sourceModifications) {
+        this.statements = statements;
+        this.staticPayload = staticPayload;
+        this.dateDependent = dateDependent;
+        this.source = source;
+        this.sourceModifications = sourceModifications;
+    }
+
+    /**
+     * Compiles a trigger payload. The payload is copied, so later changes to
+     * it are not reflected in the matcher.
+     *
+     * @param payload the trigger payload
+     * @return the compiled payload
+     */
+    public static PayloadMatcher compile(Payload payload) {
+        List<CompiledStatement> compiled = new ArrayList<>();
+        boolean staticPayload = true;
+        boolean dateDependent = false;
+        // read before the statements, a concurrent change makes the matcher stale
+        long modifications = payload.getModifications();
+        List<Statement> statements = payload.getStatementsSnapshot();
+
+        for (Statement statement : statements) {
+            String attribute = statement.getAttribute();
+            String value = statement.getValue();
+            dateDependent = dateDependent || isDateAttribute(attribute) || readsEventDate(value);
+            // blank statements are discarded when the trigger is cloned for resolution
+            if ((attribute == null) || attribute.trim().isEmpty() || value.trim().isEmpty()) {
+                continue;
+            }
+            // at this stage the trigger has already all the event.* properties embedded (shoud be skipped)
+            if (attribute.startsWith("event.")) {
+                continue;
+            }
+            CompiledStatement compiledStatement = new CompiledStatement(statement);
+            if ((compiledStatement.logical != Logical.SET) && !isStaticValue(value)) {
+                staticPayload = false;
+            }
+            compiled.add(compiledStatement);
+        }
+        return new PayloadMatcher(compiled.toArray(new CompiledStatement[compiled.size()]), staticPayload, dateDependent,
+                payload, modifications);
+    }
+
+    /**
+     * Tells if this matcher was compiled from the given payload and the
+     * payload has not changed since then, including its statements changed in
+     * place.
+     *
+     * @param payload the payload to check
+     * @return true if the matcher is up to date with the payload
+     */
+    public boolean isCompiledFrom(Payload payload) {
+        return (source == payload) && (sourceModifications == payload.getModifications());
+    }
+
+    /**
+     * Tells if an attribute is one of the date and time statements added to
+     * the event payloads: date, time or one of their sub-attributes, ignoring
+     * case.
+     *
+     * @param attribute the attribute name
+     * @return true if it is a date or time attribute
+     */
+    public static boolean isDateAttribute(String attribute) {
+        return (attribute != null) && (isOrStartsWith(attribute, "date") || isOrStartsWith(attribute, "time"));
+    }
+
+    private static boolean isOrStartsWith(String attribute, String prefix) {
+        return attribute.regionMatches(true, 0, prefix, 0, prefix.length())
+                && ((attribute.length() == prefix.length()) || (attribute.charAt(prefix.length()) == '.'));
+    }
+
+    private static boolean readsEventDate(String value) {
+        String folded = value.toLowerCase();
+        // a script can read any event property
+        return folded.contains("@event.date") || folded.contains("@event.time") || folded.trim().startsWith("=");
+    }
+
+    /**
+     * Tells if comparing or resolving the payload can read the date and time
+     * statements of the event, which are added to the event payload on
+     * request.
+     *
+     * @return true if the event date and time are needed
+     */
+    public boolean isDateDependent() {
+        return dateDependent;
+    }
+
+    private static boolean isStaticValue(String value) {
+        return !value.contains("@") && !value.trim().startsWith("=");
+    }
+
+    /**
+     * Tells if the payload can be matched before resolving the trigger, that
+     * is if no statement used for filtering depends on the event.
+     *
+     * @return true if {@link #matches(com.freedomotic.rules.PayloadIndex)} can
+     * be used on the unresolved trigger
+     */
+    public boolean isStatic() {
+        return staticPayload;
+    }
+
+    /**
+     * Checks if the compiled payload is consistent with the given event
+     * payload.
+     *
+     * @param event the indexed event payload
+     * @return true if consistent
+     */
+    public boolean matches(PayloadIndex event) {
+        boolean payloadConsistence = true;
+
+        for (CompiledStatement statement : statements) {
+            if (statement.logical == Logical.UNDEFINED) {
+                // a statement without logical makes the comparison fail
+                return false;
+            }
+            String[] eventValues = event.getValues(statement.attribute);
+
+            if (eventValues.length == 0) {
+                //if the trigger has a property which is not in the event
+                if (statement.logical != Logical.SET) {
+                    return false;
+                }
+            } else {
+                for (String eventValue : eventValues) {
+                    //is setting a value must be not used to filter
+                    if (statement.logical == Logical.SET) {
+                        return true;
+                    }
+                    Outcome outcome = statement.evaluate(eventValue);
+                    if (outcome == Outcome.ERROR) {
+                        return false;
+                    }
+                    boolean isStatementConsistent = outcome == Outcome.TRUE;
+                    if (statement.logical == Logical.AND) {
+                        payloadConsistence = payloadConsistence && isStatementConsistent;
+                    } else if (statement.logical == Logical.OR) {
+                        payloadConsistence = payloadConsistence || isStatementConsistent;
+                    }
+                }
+            }
+        }
+        return payloadConsistence;
+    }
+
+    /**
+     * Parses a time in the form HH:mm:ss.
+     *
+     * @return the seconds from midnight or -1 if the text is not in the
+     * expected form
+     */
+    private static int parseTime(String text) {
+        int seconds = 0;
+        int field = 0;
+        int fields = 0;
+        int digits = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c >= '0') && (c <= '9') && (digits < 6)) {
+                field = (field * 10) + (c - '0');
+                digits++;
+            } else if ((c == ':') && (digits > 0) && (fields < 2)) {
+                seconds = (seconds * 60) + field;
+                field = 0;
+                digits = 0;
+                fields++;
+            } else {
+                return -1;
+            }
+        }
+        if ((digits == 0) || (fields != 2)) {
+            return -1;
+        }
+        return (seconds * 60) + field;
+    }
+
+    /**
+     * Parses an integer like {@link Integer#valueOf(java.lang.String)} does,
+     * without throwing exceptions.
+     *
+     * @return the integer or {@link #NOT_AN_INTEGER}
+     */
+    private static long parseInteger(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return NOT_AN_INTEGER;
+        }
+        int i = 0;
+        boolean negative = false;
+        char first = text.charAt(0);
+        if ((first == '-') || (first == '+')) {
+            if (length == 1) {
+                return NOT_AN_INTEGER;
+            }
+            negative = first == '-';
+            i++;
+        }
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return NOT_AN_INTEGER;
+            }
+            result = (result * 10) + digit;
+            if (result > (Integer.MAX_VALUE + 1L)) {
+                return NOT_AN_INTEGER;
+            }
+        }
+        result = negative ? -result : result;
+        return (result > Integer.MAX_VALUE) ? NOT_AN_INTEGER : result;
+    }
+
+    /**
+     * A trigger statement with its value parsed according to the operator.
+     */
+    private static final class CompiledStatement {
+
+        private final String attribute;
+        private final Logical logical;
+        private final Operator operator;
+        private final String operand;
+        private final String value;
+        private final boolean any;
+        private long number = NOT_AN_INTEGER;
+        private Pattern pattern;
+        private ThreadLocal<Matcher> matchers;
+        private int intervalStart = -1;
+        private int intervalEnd = -1;
+
+        CompiledStatement(Statement statement) {
+            this.attribute = PayloadIndex.fold(statement.getAttribute());
+            this.logical = toLogical(statement.getLogical());
+            this.operand = statement.getOperand();
+            this.operator = (operand == null) ? null : Operator.fromOperand(operand);
+            // values are trimmed when the trigger is resolved
+            this.value = statement.getValue().trim();
+            this.any = Statement.ANY.equals(value);
+
+            if (operator == Operator.REGEX) {
+                try {
+                    pattern = Pattern.compile(value);
+                    matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+                } catch (PatternSyntaxException ex) {
+                    LOG.warn("Invalid regular expression \"{}\" in statement \"{}\"", value, statement);
+                }
+            } else if (operator == Operator.BETWEEN_TIME) {
+                String[] interval = value.split("-");
+                if (interval.length >= 2) {
+                    intervalStart = parseTime(interval[0]);
+                    intervalEnd = parseTime(interval[1]);
+                }
+            } else if ((operator != null) && (operator != Operator.EQUALS)) {
+                number = parseInteger(value);
+            }
+        }
+
+        private static Logical toLogical(String logical) {
+            if (Statement.AND.equalsIgnoreCase(logical)) {
+                return Logical.AND;
+            }
+            if (Statement.OR.equalsIgnoreCase(logical)) {
+                return Logical.OR;
+            }
+            if (Statement.SET.equalsIgnoreCase(logical)) {
+                return Logical.SET;
+            }
+            return (logical == null) ? Logical.UNDEFINED : Logical.OTHER;
+        }
+
+        Outcome evaluate(String eventValue) {
+            if (operator == null) {
+                LOG.warn("Operand {} is not a recognised expression operand. HINT: check for spelling errors", operand);
+                return Outcome.ERROR;
+            }
+            switch (operator) {
+                case EQUALS:
+                    return toOutcome(eventValue.equalsIgnoreCase(value) || any);
+                case REGEX:
+                    if (pattern == null) {
+                        return Outcome.ERROR;
+                    }
+                    return toOutcome(matchers.get().reset(eventValue).matches());
+                case BETWEEN_TIME:
+                    return evaluateBetweenTime(eventValue);
+                default:
+                    return evaluateNumber(eventValue);
+            }
+        }
+
+        private Outcome evaluateNumber(String eventValue) {
+            long left = parseInteger(eventValue);
+            if ((number == NOT_AN_INTEGER) || (left == NOT_AN_INTEGER)) {
+                LOG.warn("{} operator can be applied only to integer values", operator.name());
+                return Outcome.FALSE;
+            }
+            switch (operator) {
+                case GREATER_THAN:
+                    return toOutcome(left > number);
+                case GREATER_EQUAL_THAN:
+                    return toOutcome(left >= number);
+                case LESS_THAN:
+                    return toOutcome(left < number);
+                default:
+                    return toOutcome(left <= number);
+            }
+        }
+
+        private Outcome evaluateBetweenTime(String eventValue) {
+            int time = parseTime(eventValue);
+            if ((time < 0) || (intervalStart < 0) || (intervalEnd < 0)) {
+                // unusual formats are left to the lenient parsing of the expression
+                try {
+                    return toOutcome(new BetweenTime(eventValue, value).evaluate());
+                } catch (RuntimeException ex) {
+                    return Outcome.ERROR;
+                }
+            }
+            if (intervalStart < intervalEnd) {
+                //if the  time interval do not cross the day boundaries
+                return toOutcome((time > intervalStart) && (time < intervalEnd));
+            }
+            // the time interval is crossing days boundaries
+            return toOutcome(((time >= intervalStart) && (time <= SECONDS_PER_DAY)) || (time <= intervalEnd));
+        }
+
+        private static Outcome toOutcome(boolean result) {
+            return result ? Outcome.TRUE : Outcome.FALSE;
+        }
+    }
+}
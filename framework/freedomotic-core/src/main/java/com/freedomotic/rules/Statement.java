@@ -66,6 +66,9 @@ public class Statement
      */
     private String value;
 
+    // the payload holding this statement, told when the statement changes
+    private transient volatile Payload owner;
+
     /**
      *
      * @param logical
@@ -133,6 +136,7 @@ public class Statement
      */
     public void setAttribute(String attribute) {
         this.attribute = attribute;
+        changed();
     }
 
     /**
@@ -141,6 +145,7 @@ public class Statement
      */
     public void setLogical(String logical) {
         this.logical = logical;
+        changed();
     }
 
     /**
@@ -149,6 +154,7 @@ public class Statement
      */
     public void setOperand(String operand) {
         this.operand = operand;
+        changed();
     }
 
     /**
@@ -157,6 +163,26 @@ public class Statement
      */
     public void setValue(String value) {
         this.value = value;
+        changed();
+    }
+
+    /**
+     * Binds the statement to the payload it belongs to. A statement shared by
+     * more payloads stays bound to the first one.
+     *
+     * @param payload the payload holding this statement
+     */
+    void bindTo(Payload payload) {
+        if (owner == null) {
+            owner = payload;
+        }
+    }
+
+    private void changed() {
+        Payload payload = owner;
+        if (payload != null) {
+            payload.statementChanged();
+        }
     }
 
     /**
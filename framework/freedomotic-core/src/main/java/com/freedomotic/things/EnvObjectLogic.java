@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 import org.slf4j.Logger;
@@ -36,6 +37,7 @@ import com.freedomotic.bus.BusService;
 import com.freedomotic.core.Resolver;
 import com.freedomotic.core.SynchAction;
 import com.freedomotic.core.SynchThingRequest;
+import com.freedomotic.core.TriggerDispatcher;
 import com.freedomotic.environment.EnvironmentLogic;
 import com.freedomotic.environment.EnvironmentRepository;
 import com.freedomotic.environment.ZoneLogic;
@@ -47,6 +49,7 @@ import com.freedomotic.model.geometry.FreedomPolygon;
 import com.freedomotic.model.geometry.FreedomShape;
 import com.freedomotic.model.object.EnvObject;
 import com.freedomotic.model.object.Representation;
+import com.freedomotic.persistence.StateJournal;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.reactions.CommandRepository;
 import com.freedomotic.reactions.Reaction;
@@ -79,6 +82,12 @@ public class EnvObjectLogic {
     protected ReactionRepository reactionRepository;
     @Inject
     private BusService busService;
+    @Inject
+    private ThingRepository thingRepository;
+    @Inject
+    private StateJournal stateJournal;
+    @Inject
+    private TriggerDispatcher triggerDispatcher;
 
     /**
      * Instantiation disabled from outside its package. Use
@@ -155,10 +164,14 @@ public class EnvObjectLogic {
         LOG.warn("Renaming thing \"{}\" in \"{}\"", oldName, trimmedNewName);
         //change the object name
         this.getPojo().setName(trimmedNewName);
+        reindex();
 
         //change trigger references to this thing
         for (Trigger t : triggerRepository.findAll()) {
-            renameValuesInTrigger(t, oldName, trimmedNewName);
+            if (renameValuesInTrigger(t, oldName, trimmedNewName)) {
+                //the trigger is indexed by its statement values
+                triggerDispatcher.refresh(t);
+            }
         }
 
         //change commands references to this thing
@@ -170,6 +183,8 @@ public class EnvObjectLogic {
         for (Reaction r : reactionRepository.findAll()) {
             r.setChanged();
         }
+        //reactions are looked up by trigger name
+        reactionRepository.reindexTriggers();
     }
 
     /**
@@ -256,6 +271,14 @@ public class EnvObjectLogic {
     @RequiresPermissions("objects:update")
     public synchronized void setChanged(boolean value) {
         if (value) {
+            if (stateJournal != null) {
+                // only the behaviors flagged by their value change, the event clears the flags
+                for (BehaviorLogic behavior : behaviors.values()) {
+                    if (behavior.isChanged()) {
+                        stateJournal.recordBehavior(getPojo().getUUID(), behavior.getName(), behavior.getValueAsString());
+                    }
+                }
+            }
             ObjectHasChangedBehavior objectEvent = new ObjectHasChangedBehavior(this, this);
             //send multicast because an event must be received by all triggers registred on the destination channel
             if (LOG.isDebugEnabled()) {
@@ -463,6 +486,7 @@ public class EnvObjectLogic {
                 }
             }
         }
+        reindex();
     }
 
     /**
@@ -525,6 +549,22 @@ public class EnvObjectLogic {
      */
     @RequiresPermissions("objects:read")
     protected final boolean executeCommand(final String action, final Config params) {
+        return executeCommandAsync(action, params).join(); //blocking wait until timeout
+    }
+
+    /**
+     * Executes the hardware command related to the action passed as paramenter
+     * without blocking the calling thread while waiting for the reply.
+     *
+     * @param action the name of the action to executeCommand as defined in the
+     * object XML
+     * @param params parameters of the event that have started the reaction
+     * execution
+     * @return completes with true if the command is succesfully executed by
+     * the actuator and false otherways
+     */
+    @RequiresPermissions("objects:read")
+    protected final CompletableFuture<Boolean> executeCommandAsync(final String action, final Config params) {
         LOG.debug("Executing action \"{}\" of thing \"{}\"", action, getPojo().getName());
 
         if ("virtual".equalsIgnoreCase(getPojo().getActAs())) {
@@ -533,7 +573,7 @@ public class EnvObjectLogic {
                     "The thing \"{}\" act as virtual device so its hardware commands are not executed.",
                     getPojo().getName());
 
-            return true;
+            return CompletableFuture.completedFuture(true);
         }
 
         final Command command = getHardwareCommand(action.trim());
@@ -543,7 +583,7 @@ public class EnvObjectLogic {
                     "The hardware level command for action \"{}\" in thing \"{}\" doesn''t exists or is not set",
                     action, pojo.getName());
 
-            return false; //command not executed
+            return CompletableFuture.completedFuture(false); //command not executed
         }
 
         //resolves developer level command parameters like myObjectName = "@event.object.name" -> myObjectName = "Light 1"
@@ -563,31 +603,29 @@ public class EnvObjectLogic {
         try {
             final Command resolvedCommand = resolver.resolve(command); //eg: turn on an X10 device
 
-            Command result;
             //mark the command as not executed if it is supposed to not return
             //an execution state value
             if (Boolean.valueOf(command.getProperty("send-and-forget"))) {
                 LOG.info("Command \"{}\" is \"send-and-forget\". No execution result will be catched from plugin''s reply", resolvedCommand.getName());
                 resolvedCommand.setReplyTimeout(-1); //disable reply request
                 busService.send(resolvedCommand);
-                return false;
-            } else {
-                //10 seconds is the default timeout if not already set
-                if (resolvedCommand.getReplyTimeout() < 1) {
-                    resolvedCommand.setReplyTimeout(10000); //enable reply request
-                }
-                result = busService.send(resolvedCommand); //blocking wait until timeout
+                return CompletableFuture.completedFuture(false);
             }
-
-            if (result == null) {
-                LOG.warn("Received null reply after sending hardware command \"{}\"", resolvedCommand.getName());
-            } else if (result.isExecuted()) {
-                return true; //succesfully executed
+            //10 seconds is the default timeout if not already set
+            if (resolvedCommand.getReplyTimeout() < 1) {
+                resolvedCommand.setReplyTimeout(10000); //enable reply request
             }
+            return busService.sendAsync(resolvedCommand).thenApply(result -> {
+                if (result == null) {
+                    LOG.warn("Received null reply after sending hardware command \"{}\"", resolvedCommand.getName());
+                    return false;
+                }
+                return result.isExecuted();
+            });
         } catch (CloneNotSupportedException | VariableResolutionException ex) {
             LOG.error(ex.getMessage());
         } 
-        return false; //command not executed
+        return CompletableFuture.completedFuture(false); //command not executed
     }
 
     protected void createCommands() {
@@ -608,7 +646,8 @@ public class EnvObjectLogic {
     }
 
     @RequiresPermissions({"objects:update", "triggers:update"})
-    private void renameValuesInTrigger(Trigger t, String oldName, String newName) {
+    private boolean renameValuesInTrigger(Trigger t, String oldName, String newName) {
+        boolean changed = false;
         if (!t.isHardwareLevel()) {
             if (t.getName().contains(oldName)) {
                 t.setName(t.getName().replace(oldName, newName));
@@ -620,9 +659,11 @@ public class EnvObjectLogic {
                 if (statement.getValue().contains(oldName)) {
                     statement.setValue(statement.getValue().replace(oldName, newName));
                     LOG.warn("Trigger value in payload renamed to \"{}\"", statement.getValue());
+                    changed = true;
                 }
             }
         }
+        return changed;
     }
 
     @RequiresPermissions({"objects:read", "commands:update"})
@@ -689,6 +730,19 @@ public class EnvObjectLogic {
         updateTopology();
     }
 
+    /**
+     * Sets the protocol and the physical address of this thing.
+     *
+     * @param protocol the protocol name
+     * @param address the address of the thing for this protocol
+     */
+    @RequiresPermissions("objects:update")
+    public void setAddress(String protocol, String address) {
+        getPojo().setProtocol(protocol);
+        getPojo().setPhisicalAddress(address);
+        reindex();
+    }
+
     /**
      *
      * @param tagList
@@ -697,5 +751,18 @@ public class EnvObjectLogic {
     public void addTags(String tagList) {
         String[] tags = tagList.toLowerCase().split(",");
         getPojo().getTagsList().addAll(Arrays.asList(tags));
+        reindex();
+    }
+
+    /**
+     * Updates the repository lookups after a change of the indexed properties.
+     * The name, protocol, address, tags and environment of a thing are
+     * indexed, they must be changed with the methods of this class, otherwise
+     * {@link ThingRepository#reindex(EnvObjectLogic)} must be called.
+     */
+    private void reindex() {
+        if (thingRepository != null) {
+            thingRepository.reindex(this);
+        }
     }
 }
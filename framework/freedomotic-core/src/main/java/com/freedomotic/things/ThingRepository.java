@@ -19,6 +19,7 @@
  */
 package com.freedomotic.things;
 
+import com.freedomotic.core.SynchAction;
 import com.freedomotic.environment.EnvironmentLogic;
 import com.freedomotic.exceptions.RepositoryException;
 import com.freedomotic.persistence.Repository;
@@ -31,6 +32,36 @@ import java.util.List;
  */
 public interface ThingRepository extends Repository<EnvObjectLogic> {
 
+    /**
+     * Receives the changes of the things in the repository.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a thing is created, replaced by
+         * {@link ThingRepository#modify(java.lang.String, java.lang.Object)}
+         * or deleted, on the thread which changed it.
+         *
+         * @param action the kind of change
+         * @param thing the created, new or deleted thing
+         */
+        void onThingChanged(SynchAction action, EnvObjectLogic thing);
+    }
+
+    /**
+     * Registers a listener notified of all the changes in the repository.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(Listener listener);
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(Listener listener);
+
     public List<EnvObjectLogic> findByEnvironment(EnvironmentLogic env);
 
     public List<EnvObjectLogic> findByEnvironment(String uuid);
@@ -39,6 +70,38 @@ public interface ThingRepository extends Repository<EnvObjectLogic> {
 
     public EnvObjectLogic findByAddress(String protocol, String address);
 
+    /**
+     * Finds the things with at least one of the given tags.
+     *
+     * @param tags comma separated list of tags
+     * @return the things, empty if none is found
+     */
+    public List<EnvObjectLogic> findByTags(String tags);
+
+    /**
+     * Finds the things of a type (eg: EnvObject.ElectricDevice.Light).
+     *
+     * @param type the thing type, case insensitive
+     * @return the things, empty if none is found
+     */
+    public List<EnvObjectLogic> findByType(String type);
+
+    /**
+     * Finds the things located in a zone.
+     *
+     * @param uuid the zone uuid
+     * @return the things, empty if none is found
+     */
+    public List<EnvObjectLogic> findByZone(String uuid);
+
+    /**
+     * Updates the lookups of a thing after a change of its name, protocol,
+     * address, tags, environment or location.
+     *
+     * @param thing the changed thing
+     */
+    public void reindex(EnvObjectLogic thing);
+
     //TODO: temporary for refactoring, should be removed
     public EnvObjectLogic load(File file) throws RepositoryException;
 
@@ -0,0 +1,348 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.things.impl;
+
+import com.freedomotic.environment.EnvironmentLogic;
+import com.freedomotic.environment.ZoneLogic;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.ThingRepository;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Secondary indexes of the things in the repository, by uuid, name,
+ * protocol and address, protocol, environment, tag, type and zone.
+ * <p>
+ * Text keys are case insensitive, except tags which are already lower case.
+ * Updates are serialized on the index and replace the affected lists, so
+ * lookups are lock free and never see a partial update. A thing must be
+ * updated when its indexed properties change: the {@link EnvObjectLogic}
+ * mutators do it, code changing the pojo directly must call
+ * {@link ThingRepository#reindex(EnvObjectLogic)}. Otherwise lookups by the
+ * new value miss the thing until it is reindexed. The lookups discard (and
+ * reindex) the things which don't match anymore, logging a warning.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class ThingIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThingIndex.class.getName());
+    private final Map<String, List<EnvObjectLogic>> byUuid = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byName = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byAddress = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byProtocol = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byEnvironment = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byTag = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byType = new ConcurrentHashMap<>();
+    private final Map<String, List<EnvObjectLogic>> byZone = new ConcurrentHashMap<>();
+    // the keys each thing is currently indexed with
+    private final Map<EnvObjectLogic, Keys> indexed = new IdentityHashMap<>();
+
+    /**
+     * The values of the indexed properties of a thing.
+     */
+    private static final class Keys {
+
+        private final String uuid;
+        private final String name;
+        private final String address;
+        private final String protocol;
+        private final String environment;
+        private final String type;
+        private final List<String> tags;
+        private final List<String> zones;
+
+        Keys(EnvObjectLogic thing) {
+            EnvObject pojo = thing.getPojo();
+            uuid = fold(pojo.getUUID());
+            name = fold(pojo.getName());
+            protocol = fold(pojo.getProtocol());
+            address = addressKey(pojo.getProtocol(), pojo.getPhisicalAddress());
+            environment = fold(pojo.getEnvironmentID());
+            type = fold(pojo.getType());
+            tags = (pojo.getTagsList() != null) ? new ArrayList<>(pojo.getTagsList()) : Collections.<String>emptyList();
+            zones = findZones(thing);
+        }
+
+        boolean sameAs(Keys other) {
+            return equal(uuid, other.uuid) && equal(name, other.name) && equal(address, other.address)
+                    && equal(protocol, other.protocol) && equal(environment, other.environment)
+                    && equal(type, other.type) && tags.equals(other.tags) && zones.equals(other.zones);
+        }
+
+        private static boolean equal(String a, String b) {
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+
+        private static List<String> findZones(EnvObjectLogic thing) {
+            EnvironmentLogic environment = thing.getEnvironment();
+            if (environment == null) {
+                return Collections.emptyList();
+            }
+            List<String> found = new ArrayList<>(1);
+            for (ZoneLogic zone : environment.getZones()) {
+                for (EnvObject object : zone.getPojo().getObjects()) {
+                    if (object == thing.getPojo()) {
+                        found.add(zone.getPojo().getUuid());
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Adds a thing to the indexes.
+     *
+     * @param thing the thing to add
+     */
+    synchronized void add(EnvObjectLogic thing) {
+        Keys keys = new Keys(thing);
+        indexed.put(thing, keys);
+        link(thing, keys);
+    }
+
+    /**
+     * Removes a thing from the indexes, it must be called before the thing is
+     * destroyed.
+     *
+     * @param thing the thing to remove
+     */
+    synchronized void remove(EnvObjectLogic thing) {
+        Keys keys = indexed.remove(thing);
+        if (keys != null) {
+            unlink(thing, keys);
+        }
+    }
+
+    /**
+     * Updates the indexes after a change of the thing properties. Things not
+     * in the index are ignored.
+     *
+     * @param thing the changed thing
+     */
+    synchronized void update(EnvObjectLogic thing) {
+        Keys current = indexed.get(thing);
+        if ((current == null) || (thing.getPojo() == null)) {
+            return;
+        }
+        Keys keys = new Keys(thing);
+        if (!keys.sameAs(current)) {
+            unlink(thing, current);
+            indexed.put(thing, keys);
+            link(thing, keys);
+        }
+    }
+
+    /**
+     * Removes all the things from the indexes.
+     */
+    synchronized void clear() {
+        indexed.clear();
+        for (Map<String, List<EnvObjectLogic>> index : indexes()) {
+            index.clear();
+        }
+    }
+
+    private List<Map<String, List<EnvObjectLogic>>> indexes() {
+        List<Map<String, List<EnvObjectLogic>>> indexes = new ArrayList<>(8);
+        Collections.addAll(indexes, byUuid, byName, byAddress, byProtocol, byEnvironment, byTag, byType, byZone);
+        return indexes;
+    }
+
+    private void link(EnvObjectLogic thing, Keys keys) {
+        put(byUuid, keys.uuid, thing);
+        put(byName, keys.name, thing);
+        put(byAddress, keys.address, thing);
+        put(byProtocol, keys.protocol, thing);
+        put(byEnvironment, keys.environment, thing);
+        put(byType, keys.type, thing);
+        for (String tag : keys.tags) {
+            put(byTag, tag, thing);
+        }
+        for (String zone : keys.zones) {
+            put(byZone, zone, thing);
+        }
+    }
+
+    private void unlink(EnvObjectLogic thing, Keys keys) {
+        remove(byUuid, keys.uuid, thing);
+        remove(byName, keys.name, thing);
+        remove(byAddress, keys.address, thing);
+        remove(byProtocol, keys.protocol, thing);
+        remove(byEnvironment, keys.environment, thing);
+        remove(byType, keys.type, thing);
+        for (String tag : keys.tags) {
+            remove(byTag, tag, thing);
+        }
+        for (String zone : keys.zones) {
+            remove(byZone, zone, thing);
+        }
+    }
+
+    private static void put(Map<String, List<EnvObjectLogic>> index, String key, EnvObjectLogic thing) {
+        if (key == null) {
+            return;
+        }
+        List<EnvObjectLogic> things = index.get(key);
+        List<EnvObjectLogic> updated = new ArrayList<>((things != null) ? things.size() + 1 : 1);
+        if (things != null) {
+            updated.addAll(things);
+        }
+        updated.add(thing);
+        index.put(key, Collections.unmodifiableList(updated));
+    }
+
+    private static void remove(Map<String, List<EnvObjectLogic>> index, String key, EnvObjectLogic thing) {
+        List<EnvObjectLogic> things = (key != null) ? index.get(key) : null;
+        if (things == null) {
+            return;
+        }
+        List<EnvObjectLogic> updated = new ArrayList<>(things.size());
+        for (EnvObjectLogic other : things) {
+            if (other != thing) {
+                updated.add(other);
+            }
+        }
+        if (updated.isEmpty()) {
+            index.remove(key);
+        } else {
+            index.put(key, Collections.unmodifiableList(updated));
+        }
+    }
+
+    /**
+     * Gets the indexed things with the given key which still match the
+     * filter. Things changed without updating the index are reindexed.
+     */
+    private List<EnvObjectLogic> find(Map<String, List<EnvObjectLogic>> index, String key, Predicate<EnvObject> filter) {
+        List<EnvObjectLogic> things = (key != null) ? index.get(key) : null;
+        if (things == null) {
+            return new ArrayList<>(0);
+        }
+        List<EnvObjectLogic> found = new ArrayList<>(things.size());
+        for (EnvObjectLogic thing : things) {
+            EnvObject pojo = thing.getPojo();
+            if ((pojo != null) && filter.test(pojo)) {
+                found.add(thing);
+            } else {
+                if (pojo != null) {
+                    LOG.warn("Thing \"{}\" was changed without updating the repository indexes, "
+                            + "use the EnvObjectLogic methods or ThingRepository.reindex()", pojo.getName());
+                }
+                update(thing);
+            }
+        }
+        return found;
+    }
+
+    List<EnvObjectLogic> findByUuid(String uuid) {
+        return find(byUuid, fold(uuid), pojo -> pojo.getUUID().equalsIgnoreCase(uuid));
+    }
+
+    List<EnvObjectLogic> findByName(String name) {
+        return find(byName, fold(name), pojo -> pojo.getName().equalsIgnoreCase(name));
+    }
+
+    List<EnvObjectLogic> findByAddress(String protocol, String address) {
+        return find(byAddress, addressKey(protocol, address),
+                pojo -> pojo.getProtocol().equalsIgnoreCase(protocol) && pojo.getPhisicalAddress().equalsIgnoreCase(address));
+    }
+
+    List<EnvObjectLogic> findByProtocol(String protocol) {
+        return find(byProtocol, fold(protocol), pojo -> pojo.getProtocol().equalsIgnoreCase(protocol));
+    }
+
+    List<EnvObjectLogic> findByEnvironment(String uuid) {
+        return find(byEnvironment, fold(uuid), pojo -> pojo.getEnvironmentID().equalsIgnoreCase(uuid));
+    }
+
+    List<EnvObjectLogic> findByTag(String tag) {
+        return find(byTag, tag, pojo -> pojo.getTagsList().contains(tag));
+    }
+
+    List<EnvObjectLogic> findByType(String type) {
+        return find(byType, fold(type), pojo -> pojo.getType().equalsIgnoreCase(type));
+    }
+
+    List<EnvObjectLogic> findByZone(String uuid) {
+        // zone membership is read from the zones, the index can't be checked
+        List<EnvObjectLogic> things = (uuid != null) ? byZone.get(uuid) : null;
+        return (things != null) ? new ArrayList<>(things) : new ArrayList<>(0);
+    }
+
+    /**
+     * Tells if an equal thing is indexed, as in
+     * {@link EnvObjectLogic#equals(java.lang.Object)}: same name or same known
+     * protocol and address.
+     *
+     * @param thing the thing to search
+     * @param ignored a thing not considered in the search, can be null
+     * @return true if an equal thing is already in the index
+     */
+    boolean containsEqual(EnvObjectLogic thing, EnvObjectLogic ignored) {
+        EnvObject pojo = thing.getPojo();
+        for (EnvObjectLogic other : findByName(pojo.getName())) {
+            if ((other != ignored) && other.equals(thing)) {
+                return true;
+            }
+        }
+        if ((pojo.getProtocol() != null) && (pojo.getPhisicalAddress() != null)) {
+            for (EnvObjectLogic other : findByAddress(pojo.getProtocol(), pojo.getPhisicalAddress())) {
+                if ((other != ignored) && other.equals(thing)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String addressKey(String protocol, String address) {
+        if ((protocol == null) || (address == null)) {
+            return null;
+        }
+        return fold(protocol) + '\u0000' + fold(address);
+    }
+
+    /**
+     * Normalizes a text so that two texts are equal after folding if and only
+     * if they are equal ignoring case.
+     */
+    private static String fold(String text) {
+        if (text == null) {
+            return null;
+        }
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+}
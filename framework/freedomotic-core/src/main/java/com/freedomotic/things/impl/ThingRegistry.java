@@ -0,0 +1,193 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.things.impl;
+
+import com.freedomotic.core.SynchAction;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.ThingRepository;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The things loaded in the system, by uuid.
+ * <p>
+ * The map is concurrent, so lookups never block and writers lock only the
+ * affected segment. Every change increments the registry version; the list of
+ * all the things is an immutable snapshot built at most once per version and
+ * shared by all the readers until the next change. Listeners are notified
+ * after each change, on the thread which made it.
+ * </p>
+ *
+ * @author Freedomotic Team
+ */
+final class ThingRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThingRegistry.class.getName());
+    private final ConcurrentHashMap<String, EnvObjectLogic> things = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<EnvObjectLogic>emptyList());
+    private final List<ThingRepository.Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The things in the registry at a given version.
+     */
+    private static final class Snapshot {
+
+        private final long version;
+        private final List<EnvObjectLogic> things;
+
+        Snapshot(long version, List<EnvObjectLogic> things) {
+            this.version = version;
+            this.things = things;
+        }
+    }
+
+    /**
+     * Gets a thing.
+     *
+     * @param uuid the thing uuid
+     * @return the thing or null if it is not in the registry
+     */
+    EnvObjectLogic get(String uuid) {
+        return (uuid != null) ? things.get(uuid) : null;
+    }
+
+    /**
+     * Adds a thing if no other thing has the same uuid.
+     *
+     * @param uuid the thing uuid
+     * @param thing the thing to add
+     * @return true if the thing was added
+     */
+    boolean add(String uuid, EnvObjectLogic thing) {
+        if (things.putIfAbsent(uuid, thing) != null) {
+            return false;
+        }
+        changed(SynchAction.CREATED, thing);
+        return true;
+    }
+
+    /**
+     * Replaces a thing only if it was not changed by someone else since it was
+     * read, that is if the registry still holds the same instance.
+     *
+     * @param uuid the thing uuid
+     * @param expected the thing read from the registry
+     * @param thing the new thing
+     * @return true if the thing was replaced, false if the registry holds
+     * another thing under the same uuid
+     */
+    boolean replace(String uuid, EnvObjectLogic expected, EnvObjectLogic thing) {
+        // compared by identity, EnvObjectLogic.equals would match a different instance of the same thing
+        boolean[] replaced = new boolean[1];
+        things.computeIfPresent(uuid, (key, current) -> {
+            replaced[0] = (current == expected);
+            return replaced[0] ? thing : current;
+        });
+        if (!replaced[0]) {
+            return false;
+        }
+        changed(SynchAction.UPDATED, thing);
+        return true;
+    }
+
+    /**
+     * Removes a thing.
+     *
+     * @param uuid the thing uuid
+     * @return the removed thing or null if it was not in the registry
+     */
+    EnvObjectLogic remove(String uuid) {
+        EnvObjectLogic removed = (uuid != null) ? things.remove(uuid) : null;
+        if (removed != null) {
+            changed(SynchAction.DELETED, removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the things, without notifying the listeners.
+     */
+    void clear() {
+        things.clear();
+        version.incrementAndGet();
+    }
+
+    boolean isEmpty() {
+        return things.isEmpty();
+    }
+
+    int size() {
+        return things.size();
+    }
+
+    /**
+     * Gets the current version, incremented by every change.
+     *
+     * @return the registry version
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Gets all the things. The list is immutable and it is not affected by
+     * later changes of the registry.
+     *
+     * @return the things in the registry
+     */
+    List<EnvObjectLogic> snapshot() {
+        Snapshot current = snapshot;
+        long expected = version.get();
+        if (current.version == expected) {
+            return current.things;
+        }
+        // changes made while copying increment the version again, so a newer
+        // snapshot is built by the next reader
+        List<EnvObjectLogic> copy = Collections.unmodifiableList(new ArrayList<>(things.values()));
+        snapshot = new Snapshot(expected, copy);
+        return copy;
+    }
+
+    void addListener(ThingRepository.Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(ThingRepository.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void changed(SynchAction action, EnvObjectLogic thing) {
+        version.incrementAndGet();
+        for (ThingRepository.Listener listener : listeners) {
+            try {
+                listener.onThingChanged(action, thing);
+            } catch (RuntimeException e) {
+                LOG.warn("Thing listener failed to handle the {} notification", action, e);
+            }
+        }
+    }
+}
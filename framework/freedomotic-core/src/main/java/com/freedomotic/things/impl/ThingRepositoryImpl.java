@@ -22,33 +22,27 @@ package com.freedomotic.things.impl;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.core.SynchAction;
 import com.freedomotic.environment.EnvironmentLogic;
-import com.freedomotic.exceptions.DataUpgradeException;
 import com.freedomotic.exceptions.FreedomoticRuntimeException;
 import com.freedomotic.exceptions.RepositoryException;
 import com.freedomotic.model.object.EnvObject;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.ThingFactory;
 import com.freedomotic.things.ThingRepository;
-import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.DataUpgradeService;
-import com.freedomotic.persistence.XmlPreprocessor;
-import com.freedomotic.settings.Info;
-import com.freedomotic.util.SerialClone;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
+import com.freedomotic.persistence.DataLoader;
+import com.freedomotic.persistence.StateJournal;
+import com.freedomotic.persistence.IncrementalSaver;
 import static com.freedomotic.util.FileOperations.writeSummaryFile;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
 import javax.inject.Inject;
@@ -65,11 +59,16 @@ class ThingRepositoryImpl implements ThingRepository {
     public static final boolean MAKE_UNIQUE = true;
     public static final boolean MAKE_NOT_UNIQUE = false;
     public static final String OBJECT_FILE_EXTENSION = ".xobj";
-    private static final Map<String, EnvObjectLogic> OBJECT_LIST = new HashMap<>();
+    private static final int MODIFY_ATTEMPTS = 3;
+    // writes are serialized on the registry to keep it consistent with the index
+    private static final ThingRegistry REGISTRY = new ThingRegistry();
+    private static final ThingIndex INDEX = new ThingIndex();
+    private static final IncrementalSaver SAVER = new IncrementalSaver("things", OBJECT_FILE_EXTENSION);
     private static final Logger LOG = LoggerFactory.getLogger(ThingRepositoryImpl.class.getName());
     // Dependencies
     private final ThingFactory thingsFactory;
-    private final DataUpgradeService dataUpgradeService;
+    private final DataLoader dataLoader;
+    private final StateJournal stateJournal;
 
     /**
      *
@@ -77,15 +76,16 @@ class ThingRepositoryImpl implements ThingRepository {
      * @param environmentRepository
      */
     @Inject
-    public ThingRepositoryImpl(ThingFactory thingsFactory, DataUpgradeService dataUpgradeService) {
+    public ThingRepositoryImpl(ThingFactory thingsFactory, DataLoader dataLoader, StateJournal stateJournal) {
         this.thingsFactory = thingsFactory;
-        this.dataUpgradeService = dataUpgradeService;
+        this.dataLoader = dataLoader;
+        this.stateJournal = stateJournal;
     }
 
     @Deprecated
     @RequiresPermissions("objects:read")
     private static Collection<EnvObjectLogic> getObjectList() {
-        return OBJECT_LIST.values();
+        return REGISTRY.snapshot();
     }
 
     /**
@@ -95,7 +95,8 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @RequiresPermissions("objects:save")
     private static void saveObjects(File folder) throws RepositoryException {
-        if (OBJECT_LIST.isEmpty()) {
+        List<EnvObjectLogic> things = REGISTRY.snapshot();
+        if (things.isEmpty()) {
             throw new RepositoryException("There are no object to persist, \"" + folder.getAbsolutePath()
                     + "\" will not be altered.");
         }
@@ -105,11 +106,10 @@ class ThingRepositoryImpl implements ThingRepository {
             throw new RepositoryException("\"" + folder.getAbsoluteFile() + "\" is not a valid object folder. Skipped");
         }
 
-        deleteObjectFiles(folder);
-
+        Map<String, EnvObject> pojos = new LinkedHashMap<>();
         StringBuilder summaryContent = new StringBuilder();
 
-        for (EnvObjectLogic envObject : OBJECT_LIST.values()) {
+        for (EnvObjectLogic envObject : things) {
             String uuid = envObject.getPojo().getUUID();
 
             if ((uuid == null) || uuid.isEmpty()) {
@@ -117,47 +117,24 @@ class ThingRepositoryImpl implements ThingRepository {
             }
 
             String fileName = envObject.getPojo().getUUID() + OBJECT_FILE_EXTENSION;
-            File file = new File(folder + "/" + fileName);
-            FreedomXStream.toXML(envObject.getPojo(), file);
+            pojos.put(envObject.getPojo().getUUID(), envObject.getPojo());
             summaryContent.append(fileName).append("\t\t").append(envObject.getPojo().getName()).append("\n");
         }
 
+        boolean changed;
         try {
-            writeSummaryFile(new File(folder, "index.txt"), "#Filename \t\t #ThingName\n", summaryContent.toString());
+            // only the changed things are written, deleted things files are removed
+            changed = SAVER.save(folder, pojos);
         } catch (IOException e) {
-            LOG.error("Something went wrong while creating the index file for things.", e);
-        }
-    }
-
-    /**
-     *
-     * @param folder
-     * @throws RepositoryException
-     */
-    private static void deleteObjectFiles(File folder) throws RepositoryException {
-        if ((folder == null) || !folder.isDirectory()) {
-            throw new IllegalArgumentException("Unable to delete objects files in a null or not valid folder");
+            throw new RepositoryException("Cannot save things into \"" + folder.getAbsolutePath() + "\"", e);
         }
 
-        File[] files = folder.listFiles();
-
-        // This filter only returns object files
-        FileFilter objectFileFilter
-                = (File file) -> {
-                    if (file.isFile() && file.getName().endsWith(OBJECT_FILE_EXTENSION)) {
-                        return true;
-                    } else {
-                        return false;
-                    }
-                };
-
-        files = folder.listFiles(objectFileFilter);
-
-        for (File file : files) {
-            boolean deleted = file.delete();
-
-            if (!deleted) {
-                throw new RepositoryException("Unable to delete file \"" + file.getAbsoluteFile() + "\"");
+        File summaryFile = new File(folder, "index.txt");
+        if (changed || !summaryFile.exists()) {
+            try {
+                writeSummaryFile(summaryFile, "#Filename \t\t #ThingName\n", summaryContent.toString());
+            } catch (IOException e) {
+                LOG.error("Something went wrong while creating the index file for things.", e);
             }
         }
     }
@@ -169,7 +146,7 @@ class ThingRepositoryImpl implements ThingRepository {
     @Deprecated
     @RequiresPermissions("objects:read")
     private static Iterator<EnvObjectLogic> iterator() {
-        return OBJECT_LIST.values().iterator();
+        return REGISTRY.snapshot().iterator();
     }
 
     /**
@@ -180,15 +157,8 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @RequiresPermissions("objects:read")
     private static EnvObjectLogic getObjectByName(String name) {
-        for (Iterator<EnvObjectLogic> it = ThingRepositoryImpl.iterator(); it.hasNext();) {
-            EnvObjectLogic object = it.next();
-            if (object.getPojo().getName().equalsIgnoreCase(name) //&& auth.isPermitted("objects:read:" + object.getPojo().getUUID())
-                    ) {
-                return object;
-            }
-        }
-
-        return null;
+        List<EnvObjectLogic> found = INDEX.findByName(name);
+        return found.isEmpty() ? null : found.get(0);
     }
 
     /**
@@ -198,25 +168,17 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @RequiresPermissions("objects:read")
     private static List<EnvObjectLogic> getObjectByTags(String tags) {
-        List<EnvObjectLogic> results = new ArrayList<>();
+        Set<EnvObjectLogic> results = Collections.newSetFromMap(new IdentityHashMap<EnvObjectLogic, Boolean>());
         // split tags string
         String[] tagList = tags.split(",");
 
-        // search every object for at least one tag
-        OBJECT_LIST.values().forEach((obj) -> {
-            Set<String> tagSet = new HashSet<>();
-            for (String tag : tagList) {
-                if (!tag.trim().isEmpty()) {
-                    tagSet.add(tag.trim());
-                }
+        // collect the objects with at least one tag
+        for (String tag : tagList) {
+            if (!tag.trim().isEmpty()) {
+                results.addAll(INDEX.findByTag(tag.trim()));
             }
-            int prevCount = tagSet.size();
-            tagSet.removeAll(obj.getPojo().getTagsList());
-            if (prevCount > tagSet.size()) {
-                results.add(obj);
-            }
-        });
-        return results;
+        }
+        return new ArrayList<>(results);
     }
 
     /**
@@ -228,14 +190,12 @@ class ThingRepositoryImpl implements ThingRepository {
     @Deprecated
     @RequiresPermissions("objects:read")
     private static EnvObjectLogic getObjectByUUID(String uuid) {
-        for (Iterator<EnvObjectLogic> it = iterator(); it.hasNext();) {
-            EnvObjectLogic object = it.next();
-            if (object.getPojo().getUUID().equalsIgnoreCase(uuid)) {
-                return object;
-            }
+        EnvObjectLogic object = REGISTRY.get(uuid);
+        if (object != null) {
+            return object;
         }
-
-        return null;
+        List<EnvObjectLogic> found = INDEX.findByUuid(uuid);
+        return found.isEmpty() ? null : found.get(0);
     }
 
     /**
@@ -254,13 +214,9 @@ class ThingRepositoryImpl implements ThingRepository {
             throw new IllegalArgumentException();
         }
 
-        for (Iterator<EnvObjectLogic> it = ThingRepositoryImpl.iterator(); it.hasNext();) {
-            EnvObjectLogic object = it.next();
-            if ((object.getPojo().getProtocol().equalsIgnoreCase(protocol.trim()))
-                    && (object.getPojo().getPhisicalAddress().equalsIgnoreCase(address.trim())) //           && auth.isPermitted("objects:read:" + object.getPojo().getUUID())
-                    ) {
-                return object;
-            }
+        List<EnvObjectLogic> found = INDEX.findByAddress(protocol.trim(), address.trim());
+        if (!found.isEmpty()) {
+            return found.get(0);
         }
 
         LOG.warn("An object with protocol \"" + protocol + "\" and address \""
@@ -277,16 +233,7 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @RequiresPermissions("objects:read")
     private static List<EnvObjectLogic> getObjectByProtocol(String protocol) {
-        List<EnvObjectLogic> list = new ArrayList<>();
-        for (Iterator<EnvObjectLogic> it = ThingRepositoryImpl.iterator(); it.hasNext();) {
-            EnvObjectLogic object = it.next();
-            if (object.getPojo().getProtocol().equalsIgnoreCase(protocol.trim()) // && auth.isPermitted("objects:read:" + object.getPojo().getUUID())
-                    ) {
-                list.add(object);
-            }
-        }
-
-        return list;
+        return INDEX.findByProtocol(protocol.trim());
     }
 
     /**
@@ -297,16 +244,7 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @RequiresPermissions("objects:read")
     private static List<EnvObjectLogic> getObjectByEnvironment(String uuid) {
-        List<EnvObjectLogic> list = new ArrayList<>();
-        for (Iterator<EnvObjectLogic> it = ThingRepositoryImpl.iterator(); it.hasNext();) {
-            EnvObjectLogic object = it.next();
-            if (object.getPojo().getEnvironmentID().equalsIgnoreCase(uuid) //&& auth.isPermitted("objects:read:" + object.getPojo().getUUID().substring(0, 7))
-                    ) {
-                list.add(object);
-            }
-        }
-
-        return list;
+        return INDEX.findByEnvironment(uuid);
     }
 
     /**
@@ -315,7 +253,7 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @RequiresPermissions("objects:read")
     private static int size() {
-        return OBJECT_LIST.size();
+        return REGISTRY.size();
     }
 
     /**
@@ -325,7 +263,10 @@ class ThingRepositoryImpl implements ThingRepository {
     @Deprecated
     @RequiresPermissions("objects:delete")
     private static void remove(EnvObjectLogic input) {
-        OBJECT_LIST.remove(input.getPojo().getUUID());
+        synchronized (REGISTRY) {
+            REGISTRY.remove(input.getPojo().getUUID());
+            INDEX.remove(input);
+        }
         input.setChanged(true); //force repainting on frontends clients
         input.destroy(); //free memory
     }
@@ -337,7 +278,7 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     private static List<String> getObjectsNames() {
         List<String> list = new ArrayList<>();
-        OBJECT_LIST.values().forEach((obj) -> {
+        REGISTRY.snapshot().forEach((obj) -> {
             list.add(obj.getPojo().getName());
         });
         return list;
@@ -373,7 +314,7 @@ class ThingRepositoryImpl implements ThingRepository {
 
         if (MAKE_UNIQUE) {
             //defensive copy to not affect the passed object with the changes
-            EnvObject pojoCopy = SerialClone.clone(obj.getPojo());
+            EnvObject pojoCopy = new EnvObject(obj.getPojo());
             pojoCopy.setName(getNextInOrder(obj.getPojo().getName()));
             pojoCopy.setProtocol(obj.getPojo().getProtocol());
             pojoCopy.setPhisicalAddress("unknown");
@@ -393,22 +334,33 @@ class ThingRepositoryImpl implements ThingRepository {
         }
 
         envObjectLogic.init();
-
-        if (!OBJECT_LIST.containsValue(envObjectLogic)) {
-            OBJECT_LIST.put(envObjectLogic.getPojo().getUUID(), envObjectLogic);
-            try {
-                envObjectLogic.setChanged(SynchAction.CREATED);
-            } catch (Exception e) {
-                LOG.warn("Thing was created, but cannot set it as \"Changed\"", e);
-            }
-        } else {
-            throw new FreedomoticRuntimeException("Cannot add the same object more than one time");
-        }
+        insert(envObjectLogic);
         // ObjectHasChanged event = new ObjectHasChanged(null, envObjectLogic.getPojo().getUUID(), ObjectHasChanged.ObjectActions.ADD);
         // Freedomotic.sendEvent(event);
         return envObjectLogic;
     }
 
+    /**
+     * Adds an initialized thing to the registry and the index.
+     *
+     * @param thing the thing to add
+     */
+    private static void insert(EnvObjectLogic thing) {
+        String uuid = thing.getPojo().getUUID();
+        synchronized (REGISTRY) {
+            if (INDEX.containsEqual(thing, null) || (REGISTRY.get(uuid) != null)) {
+                throw new FreedomoticRuntimeException("Cannot add the same object more than one time");
+            }
+            INDEX.add(thing);
+            REGISTRY.add(uuid, thing);
+        }
+        try {
+            thing.setChanged(SynchAction.CREATED);
+        } catch (Exception e) {
+            LOG.warn("Thing was created, but cannot set it as \"Changed\"", e);
+        }
+    }
+
     /**
      *
      * @param name
@@ -432,31 +384,29 @@ class ThingRepositoryImpl implements ThingRepository {
     @Override
     public void deleteAll() {
         try {
-            OBJECT_LIST.values().forEach((el) -> {
-                delete(el);
+            // also used to reload the things, their journaled state must be kept
+            REGISTRY.snapshot().forEach((el) -> {
+                delete(el.getPojo().getUUID(), false);
             });
         } catch (Exception e) {
         } finally {
-            OBJECT_LIST.clear();
+            synchronized (REGISTRY) {
+                REGISTRY.clear();
+                INDEX.clear();
+            }
         }
     }
 
     @Override
     @RequiresPermissions("objects:read")
     public List<EnvObjectLogic> findAll() {
-        List<EnvObjectLogic> el = new ArrayList<>();
-        el.addAll(OBJECT_LIST.values());
-        return el;
+        return REGISTRY.snapshot();
     }
 
     @Override
     @RequiresPermissions("objects:read")
     public List<EnvObjectLogic> findByName(String name) {
-        List<EnvObjectLogic> el = new ArrayList<>();
-        findAll().stream().filter((e) -> (e.getPojo().getName().equalsIgnoreCase(name))).forEachOrdered((e) -> {
-            el.add(e);
-        });
-        return el;
+        return INDEX.findByName(name);
     }
 
     @Override
@@ -469,9 +419,8 @@ class ThingRepositoryImpl implements ThingRepository {
     @RequiresPermissions("objects:create")
     public boolean create(EnvObjectLogic item) {
         try {
-            int preSize = OBJECT_LIST.size();
             add(item, false);
-            return (preSize + 1 == OBJECT_LIST.size());
+            return true;
         } catch (Exception e) {
             LOG.error("Cannot create object", e);
             return false;
@@ -487,8 +436,20 @@ class ThingRepositoryImpl implements ThingRepository {
     @Override
     @RequiresPermissions("objects:delete")
     public boolean delete(String uuid) {
+        return delete(uuid, true);
+    }
+
+    private boolean delete(String uuid, boolean forgetState) {
         try {
-            EnvObjectLogic eol = OBJECT_LIST.remove(uuid);
+            EnvObjectLogic eol;
+            synchronized (REGISTRY) {
+                eol = REGISTRY.remove(uuid);
+                if (eol == null) {
+                    LOG.warn("Cannot delete thing \"{}\", it doesn't exist", uuid);
+                    return false;
+                }
+                INDEX.remove(eol);
+            }
             try {
                 eol.setChanged(SynchAction.DELETED); //force repainting on frontends clients
             } catch (Exception e) {
@@ -496,6 +457,9 @@ class ThingRepositoryImpl implements ThingRepository {
             }
             String objUuid = eol.getPojo().getUUID();
             eol.destroy();
+            if (forgetState) {
+                stateJournal.forgetThing(objUuid);
+            }
             // ObjectHasChanged event = new ObjectHasChanged(null, objUuid, ObjectHasChanged.ObjectActions.REMOVE);
             // Freedomotic.sendEvent(event);
             return true;
@@ -509,15 +473,62 @@ class ThingRepositoryImpl implements ThingRepository {
     @RequiresPermissions("objects:update")
     public EnvObjectLogic modify(String uuid, EnvObjectLogic data) {
         try {
-            delete(uuid);
             data.getPojo().setUUID(uuid);
-            create(data);
-            return data;
+            if (REGISTRY.get(uuid) != data) {
+                data.init();
+            }
+            // the new thing is prepared without locking, the replacement
+            // succeeds only if nobody changed the thing in the meantime
+            for (int attempt = 0; attempt < MODIFY_ATTEMPTS; attempt++) {
+                EnvObjectLogic current = REGISTRY.get(uuid);
+                if (current == null) {
+                    insert(data);
+                    return data;
+                }
+                if (replace(uuid, current, data)) {
+                    return data;
+                }
+            }
+            LOG.error("Cannot modify thing \"{}\", it is being changed concurrently", uuid);
+            return null;
         } catch (Exception e) {
+            LOG.error("Cannot modify thing \"{}\"", uuid, e);
             return null;
         }
     }
 
+    /**
+     * Replaces a thing if it is still the expected one.
+     *
+     * @return false if the thing was changed since it was read
+     */
+    private static boolean replace(String uuid, EnvObjectLogic current, EnvObjectLogic data) {
+        synchronized (REGISTRY) {
+            if (INDEX.containsEqual(data, current)) {
+                throw new FreedomoticRuntimeException("Cannot modify thing \"" + uuid + "\", another thing has the same name or address");
+            }
+            if (!REGISTRY.replace(uuid, current, data)) {
+                return false;
+            }
+            INDEX.remove(current);
+            INDEX.add(data);
+        }
+        if (current == data) {
+            // changed in place
+            data.setChanged(SynchAction.UPDATED);
+            return true;
+        }
+        try {
+            // notified as a deletion and a creation, like other instances expect
+            current.setChanged(SynchAction.DELETED);
+            data.setChanged(SynchAction.CREATED);
+        } catch (Exception e) {
+            LOG.warn("Thing \"{}\" was modified, but cannot notify the change", uuid, e);
+        }
+        current.destroy();
+        return true;
+    }
+
     @Override
     @RequiresPermissions("objects:create")
     public EnvObjectLogic copy(EnvObjectLogic thing) {
@@ -547,6 +558,18 @@ class ThingRepositoryImpl implements ThingRepository {
      */
     @Override
     public EnvObjectLogic load(File file) throws RepositoryException {
+        return instantiate(read(file));
+    }
+
+    /**
+     * Deserializes a Thing file, upgrading it to the current version if
+     * needed.
+     *
+     * @param file the Thing file
+     * @return the thing data
+     * @throws RepositoryException if the file cannot be loaded
+     */
+    private EnvObject read(File file) throws RepositoryException {
 
         // Arguments validation
         if (file == null) {
@@ -556,45 +579,17 @@ class ThingRepositoryImpl implements ThingRepository {
             throw new IllegalArgumentException("Thing file in input is not a file");
         }
 
-        // Configure the deserialization engine
         if (LOG.isDebugEnabled()) {
             LOG.debug("Loading Thing from file \"{}\"", file.getAbsolutePath());
         }
+        return dataLoader.read(file, EnvObject.class);
+    }
 
-        XStream xstream = FreedomXStream.getXstream();
-
-        // Validate the object against a predefined DTD
-        String xml;
-        try {
-            // Validate the upgraded xml against a DTD file
-            xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/object.dtd");
-            //TODO: merge this upgrade code with the XmlPreprocessor (validation should be after the upgrade)
-            // Upgrade the data to be compatible with the current version (skipped if already up to date)
-            try {
-                Properties dataProperties = new Properties();
-                String fromVersion;
-                try {
-                    dataProperties.load(new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties")));
-                    fromVersion = dataProperties.getProperty("data.version");
-                } catch (IOException iOException) {
-                    // Fallback to a default version for older version without that properties file
-                    fromVersion = "5.5.0";
-                }
-                xml = (String) dataUpgradeService.upgrade(EnvObject.class, xml, fromVersion);
-            } catch (DataUpgradeException dataUpgradeException) {
-                throw new RepositoryException("Cannot upgrade Thing file \"" + file.getAbsolutePath() + "\"", dataUpgradeException);
-            }
-            // Deserialize the object from the upgraded and validated xml
-            EnvObject pojo = (EnvObject) xstream.fromXML(xml);
-            EnvObjectLogic objectLogic = thingsFactory.create(pojo);
-            LOG.info("Loaded Thing \"{}\" [id:{}] of type \"{}\"",
-                    new Object[]{objectLogic.getPojo().getName(), objectLogic.getPojo().getUUID(), objectLogic.getClass().getCanonicalName()});
-            return objectLogic;
-        } catch (IOException ex) {
-            throw new RepositoryException("Cannot read Thing file \"" + file.getAbsolutePath() + "\"", ex);
-        } catch (XStreamException e) {
-            throw new RepositoryException("Error while deserializing Thing file \"" + file.getAbsolutePath() + "\"", e);
-        }
+    private EnvObjectLogic instantiate(EnvObject pojo) throws RepositoryException {
+        EnvObjectLogic objectLogic = thingsFactory.create(pojo);
+        LOG.info("Loaded Thing \"{}\" [id:{}] of type \"{}\"",
+                new Object[]{objectLogic.getPojo().getName(), objectLogic.getPojo().getUUID(), objectLogic.getClass().getCanonicalName()});
+        return objectLogic;
     }
 
     @Override
@@ -613,14 +608,12 @@ class ThingRepositoryImpl implements ThingRepository {
 
         File[] files = folder.listFiles(objectFileFilter);
 
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    EnvObjectLogic loaded = load(file);
-                    results.add(loaded);
-                } catch (RepositoryException ex) {
-                    LOG.error(Freedomotic.getStackTraceInfo(ex));
-                }
+        // files are parsed in parallel, things are created one at a time
+        for (EnvObject pojo : dataLoader.loadAll("thing", files, this::read)) {
+            try {
+                results.add(instantiate(pojo));
+            } catch (RepositoryException ex) {
+                LOG.error(Freedomotic.getStackTraceInfo(ex));
             }
         }
         return results;
@@ -635,4 +628,34 @@ class ThingRepositoryImpl implements ThingRepository {
     public List<EnvObjectLogic> findByProtocol(String protocolName) {
         return getObjectByProtocol(protocolName);
     }
+
+    @Override
+    public List<EnvObjectLogic> findByTags(String tags) {
+        return getObjectByTags(tags);
+    }
+
+    @Override
+    public List<EnvObjectLogic> findByType(String type) {
+        return INDEX.findByType(type);
+    }
+
+    @Override
+    public List<EnvObjectLogic> findByZone(String uuid) {
+        return INDEX.findByZone(uuid);
+    }
+
+    @Override
+    public void reindex(EnvObjectLogic thing) {
+        INDEX.update(thing);
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        REGISTRY.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        REGISTRY.removeListener(listener);
+    }
 }
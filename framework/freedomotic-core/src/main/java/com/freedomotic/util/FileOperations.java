@@ -22,8 +22,12 @@ package com.freedomotic.util;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,4 +93,31 @@ public class FileOperations {
             throw e;
         }
     }
+
+    /**
+     * Writes a file so that it contains either the old or the new content,
+     * even if the system crashes while writing. The content is written and
+     * synced to a temporary file in the same folder, which then replaces the
+     * target file.
+     *
+     * @param file the file to write
+     * @param content the new content of the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeAtomically(File file, byte[] content) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(content);
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.debug("Atomic move not supported for \"{}\", replacing it", file.getAbsolutePath());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
 }
@@ -19,6 +19,7 @@
  */
 package com.freedomotic.util;
 
+import com.freedomotic.persistence.DataLoader;
 import com.freedomotic.reactions.CommandRepository;
 import com.freedomotic.reactions.ReactionRepository;
 import com.freedomotic.reactions.TriggerRepository;
@@ -38,6 +39,7 @@ public class PeriodicSave {
     private TriggerRepository triggerRepository;
     private CommandRepository commandRepository;
     private ReactionRepository reactionRepository;
+    private DataLoader dataLoader;
     private String savedDataRoot;
     private int executionInterval;
 
@@ -66,6 +68,16 @@ public class PeriodicSave {
         this.reactionRepository = reactionRepository;
     }
 
+    /**
+     * Delegate the loader keeping the binary snapshot of the data, which is
+     * saved after the data files.
+     *
+     * @param dataLoader the data loader
+     */
+    public void delegateDataLoader(DataLoader dataLoader) {
+        this.dataLoader = dataLoader;
+    }
+
     /**
      * Start the executor service with a scheduled, fixed delay of 5 minutes.
      */
@@ -77,6 +89,9 @@ public class PeriodicSave {
             triggerRepository.saveTriggers(new File(savedDataRoot + "/trg"));
             commandRepository.saveCommands(new File(savedDataRoot + "/cmd"));
             reactionRepository.saveReactions(new File(savedDataRoot + "/rea"));
+            if (dataLoader != null) {
+                dataLoader.saveSnapshot();
+            }
         }, initDelay, executionInterval, TimeUnit.MINUTES);
     }
 
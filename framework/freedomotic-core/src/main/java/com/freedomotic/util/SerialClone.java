@@ -44,7 +44,11 @@ import java.util.Queue;
 /**
  *
  * @author Enrico Nicoletti
+ * @deprecated the model classes have copy constructors, e.g.
+ * {@link com.freedomotic.model.object.EnvObject#EnvObject(com.freedomotic.model.object.EnvObject)},
+ * which are much faster than a serialization round trip
  */
+@Deprecated
 public class SerialClone {
 
     /**
@@ -0,0 +1,133 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.api;
+
+import com.freedomotic.events.GenericEvent;
+import com.freedomotic.events.MessageEvent;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class EventTemplateTest {
+
+    /**
+     * The date and time statements describe the event creation even if they
+     * are added later.
+     */
+    @Test
+    public void testDateDefaultsMatchCreation() {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("protocol", "test");
+        Calendar creation = Calendar.getInstance();
+        creation.setTimeInMillis(event.getCreation());
+
+        assertEquals(creation.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.UK), event.getProperty("date.day.name"));
+        assertEquals(creation.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.UK), event.getProperty("date.month.name"));
+        assertEquals(Integer.toString(creation.get(Calendar.DAY_OF_MONTH)), event.getProperty("date.day"));
+        assertEquals(Integer.toString(creation.get(Calendar.MONTH) + 1), event.getProperty("date.month"));
+        assertEquals(Integer.toString(creation.get(Calendar.YEAR)), event.getProperty("date.year"));
+        assertEquals(Integer.toString(creation.get(Calendar.DAY_OF_WEEK)), event.getProperty("date.dow"));
+        assertEquals(Integer.toString(creation.get(Calendar.HOUR_OF_DAY)), event.getProperty("time.hour"));
+        assertEquals(Integer.toString(creation.get(Calendar.MINUTE)), event.getProperty("time.minute"));
+        assertEquals(Integer.toString(creation.get(Calendar.SECOND)), event.getProperty("time.second"));
+        assertEquals(new SimpleDateFormat("yyyyMMdd").format(creation.getTime()), event.getProperty("date"));
+        assertEquals(new SimpleDateFormat("HHmmss").format(creation.getTime()), event.getProperty("time"));
+        assertEquals("test", event.getProperty("protocol"));
+    }
+
+    /**
+     * The defaults are added once.
+     */
+    @Test
+    public void testDateDefaultsAreAddedOnce() {
+        GenericEvent event = new GenericEvent(this);
+        int size = event.getPayload().size();
+        assertEquals(size, event.getPayload().size());
+        assertEquals(1, event.getPayload().getStatements("date").size());
+        assertEquals(14, size);
+    }
+
+    /**
+     * A copy can be changed without affecting the original event.
+     */
+    @Test
+    public void testCopyHasItsOwnPayload() {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("protocol", "test");
+        EventTemplate copy = event.copy();
+        copy.addProperty("behavior", "on");
+        copy.getPayload().getStatements("protocol").get(0).setValue("changed");
+
+        assertEquals(event.getUuid(), copy.getUuid());
+        assertEquals("test", event.getProperty("protocol"));
+        assertEquals("", event.getProperty("behavior"));
+        assertEquals("changed", copy.getProperty("protocol"));
+        assertEquals(event.getPayload().size() + 1, copy.getPayload().size());
+    }
+
+    /**
+     * Reading other properties doesn't add the date and time statements.
+     */
+    @Test
+    public void testDateDefaultsAreAddedWhenRequested() {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("protocol", "test");
+        assertEquals("test", event.getProperty("protocol"));
+        assertEquals("", event.getProperty("timeout"));
+        assertEquals(4, event.payload.size());
+
+        assertEquals(Integer.toString(Calendar.getInstance().get(Calendar.YEAR)), event.getProperty("DATE.year"));
+        assertEquals(15, event.payload.size());
+    }
+
+    /**
+     * The trigger indexes read the payload without the date and time
+     * statements.
+     */
+    @Test
+    public void testPayloadCanBeReadWithoutDate() {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("protocol", "test");
+        assertEquals(4, event.getPayload(false).size());
+        assertEquals(15, event.getPayload(true).size());
+    }
+
+    /**
+     * Message events are created and routed without the date and time
+     * statements.
+     */
+    @Test
+    public void testMessageEventDoesNotAddDateDefaults() {
+        MessageEvent event = new MessageEvent(this, "hello");
+        event.setType("mail");
+        event.setTo("user@example.com");
+
+        assertEquals("hello", event.getText());
+        assertEquals("user@example.com", event.getTo());
+        assertEquals("app.event.sensor.messages.callout", event.getDefaultDestination());
+        assertEquals(8, event.payload.size());
+    }
+}
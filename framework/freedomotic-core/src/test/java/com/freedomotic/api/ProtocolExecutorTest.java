@@ -0,0 +1,191 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.api;
+
+import com.freedomotic.api.ProtocolExecutor.Mode;
+import com.freedomotic.api.ProtocolExecutor.RejectionPolicy;
+import com.freedomotic.model.ds.Config;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class ProtocolExecutorTest {
+
+    /**
+     * Records its execution or its rejection.
+     */
+    private static class RecordingTask implements ProtocolExecutor.Task {
+
+        private final int id;
+        private final List<Integer> executed;
+        private final List<Integer> rejected;
+        private final CountDownLatch gate;
+
+        RecordingTask(int id, List<Integer> executed, List<Integer> rejected, CountDownLatch gate) {
+            this.id = id;
+            this.executed = executed;
+            this.rejected = rejected;
+            this.gate = gate;
+        }
+
+        @Override
+        public void run() {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            executed.add(id);
+        }
+
+        @Override
+        public void rejected() {
+            rejected.add(id);
+        }
+    }
+
+    private static void awaitIdle(ProtocolExecutor executor, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getExecuted() + executor.getRejected() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSerialKeepsArrivalOrder() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor("test", Mode.SERIAL, 4, 100, RejectionPolicy.REJECT);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> rejected = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch open = new CountDownLatch(0);
+        for (int i = 0; i < 50; i++) {
+            executor.execute(new RecordingTask(i, executed, rejected, open));
+        }
+        awaitIdle(executor, 50);
+        executor.shutdown();
+        assertEquals(50, executed.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), executed.get(i));
+        }
+        assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor("test", Mode.SERIAL, 1, 2, RejectionPolicy.REJECT);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> rejected = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(new RecordingTask(0, executed, rejected, gate));
+        // wait for the first task to leave the queue
+        while (executor.getQueueDepth() > 0) {
+            Thread.sleep(5);
+        }
+        for (int i = 1; i <= 4; i++) {
+            executor.execute(new RecordingTask(i, executed, rejected, gate));
+        }
+        gate.countDown();
+        awaitIdle(executor, 5);
+        executor.shutdown();
+        assertEquals(3, executed.size());
+        assertEquals(2, rejected.size());
+        assertTrue(rejected.contains(3));
+        assertTrue(rejected.contains(4));
+        assertEquals(2, executor.getRejected());
+    }
+
+    @Test
+    public void testDiscardOldestKeepsNewestMessages() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor("test", Mode.SERIAL, 1, 2, RejectionPolicy.DISCARD_OLDEST);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> rejected = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(new RecordingTask(0, executed, rejected, gate));
+        while (executor.getQueueDepth() > 0) {
+            Thread.sleep(5);
+        }
+        for (int i = 1; i <= 4; i++) {
+            executor.execute(new RecordingTask(i, executed, rejected, gate));
+        }
+        gate.countDown();
+        awaitIdle(executor, 5);
+        executor.shutdown();
+        assertEquals(3, executed.size());
+        assertTrue(executed.contains(3));
+        assertTrue(executed.contains(4));
+        assertTrue(rejected.contains(1));
+        assertTrue(rejected.contains(2));
+    }
+
+    @Test
+    public void testCallerRunsWhenQueueIsFull() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor("test", Mode.POOL, 1, 1, RejectionPolicy.CALLER_RUNS);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> rejected = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(new RecordingTask(0, executed, rejected, gate));
+        while (executor.getQueueDepth() > 0) {
+            Thread.sleep(5);
+        }
+        executor.execute(new RecordingTask(1, executed, rejected, gate));
+        gate.countDown();
+        // the queue is full, the caller runs the task
+        executor.execute(new RecordingTask(2, executed, rejected, gate));
+        assertTrue(executed.contains(2));
+        awaitIdle(executor, 3);
+        executor.shutdown();
+        assertEquals(3, executed.size());
+        assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void testMessagesAfterShutdownAreRejected() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor("test", Mode.POOL, 2, 10, RejectionPolicy.CALLER_RUNS);
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> rejected = Collections.synchronizedList(new ArrayList<>());
+        executor.shutdown();
+        executor.execute(new RecordingTask(0, executed, rejected, new CountDownLatch(0)));
+        assertTrue(executed.isEmpty());
+        assertEquals(Collections.singletonList(0), rejected);
+    }
+
+    @Test
+    public void testConfigurationFromManifest() {
+        Config config = new Config();
+        config.setProperty("executor", "serial");
+        config.setProperty("executor-rejection-policy", "discard-oldest");
+        ProtocolExecutor executor = ProtocolExecutor.fromConfig("test", config);
+        assertEquals(Mode.SERIAL, executor.getMode());
+        executor.shutdown();
+
+        config.setProperty("executor", "virtual");
+        executor = ProtocolExecutor.fromConfig("test", config);
+        // falls back to a pool on JVMs without virtual threads
+        assertTrue(executor.getMode() == Mode.VIRTUAL || executor.getMode() == Mode.POOL);
+        executor.shutdown();
+    }
+}
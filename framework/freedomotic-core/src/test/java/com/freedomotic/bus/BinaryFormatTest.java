@@ -0,0 +1,138 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.api.EventTemplate;
+import com.freedomotic.events.GenericEvent;
+import com.freedomotic.events.MessageEvent;
+import com.freedomotic.reactions.Command;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class BinaryFormatTest {
+
+    private static Serializable roundTrip(Serializable object) throws Exception {
+        byte[] data = BinaryFormat.write(object);
+        return BinaryFormat.read(data, 0, data.length);
+    }
+
+    private static int javaSerializedSize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+
+    @Test
+    public void testEventRoundTrip() throws Exception {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("object.name", "Kitchen Light");
+        event.addProperty("temperature", "21,5 °C");
+
+        EventTemplate decoded = (EventTemplate) roundTrip(event);
+        assertNotSame(event, decoded);
+        assertEquals(GenericEvent.class, decoded.getClass());
+        assertEquals(event.getEventName(), decoded.getEventName());
+        assertEquals(event.getUuid(), decoded.getUuid());
+        assertEquals(event.getCreation(), decoded.getCreation());
+        assertEquals(event.getPayload().getStatements(), decoded.getPayload().getStatements());
+        assertEquals("21,5 °C", decoded.getProperty("temperature"));
+    }
+
+    @Test
+    public void testSubclassRoundTrip() throws Exception {
+        MessageEvent event = new MessageEvent(this, "hello");
+        event.setType("callout");
+
+        EventTemplate decoded = (EventTemplate) roundTrip(event);
+        assertEquals(MessageEvent.class, decoded.getClass());
+        assertEquals(event.getPayload().getStatements(), decoded.getPayload().getStatements());
+    }
+
+    @Test
+    public void testCommandRoundTrip() throws Exception {
+        Command command = new Command();
+        command.setName("Turn on kitchen light");
+        command.setReceiver("app.actuators.protocol.x10.in");
+        command.setReplyTimeout(2000);
+        command.setDelay(250);
+        command.setExecuted(true);
+        command.setProperty("address", "A01");
+        HashMap<String, String> tuple = new HashMap<>();
+        tuple.put("code", "ON");
+        command.getProperties().getTuples().add(tuple);
+
+        Command decoded = (Command) roundTrip(command);
+        assertEquals(command.getUuid(), decoded.getUuid());
+        assertEquals(command.getName(), decoded.getName());
+        assertEquals(command.getReceiver(), decoded.getReceiver());
+        assertEquals(2000, decoded.getReplyTimeout());
+        assertEquals(250, decoded.getDelay());
+        assertTrue(decoded.isExecuted());
+        assertEquals(command.getProperties().getProperties(), decoded.getProperties().getProperties());
+        assertEquals("ON", decoded.getProperties().getTuples().getProperty(0, "code"));
+        assertEquals(command.getTags(), decoded.getTags());
+        assertNull(decoded.getStopIf());
+    }
+
+    @Test
+    public void testUnsupportedValuesAreRejected() throws Exception {
+        Command command = new Command();
+        command.setName("test");
+        command.getProperties().put("not a string", 1);
+        try {
+            BinaryFormat.write(command);
+            fail("A config property which is not a string can't be encoded");
+        } catch (BinaryFormat.UnsupportedObjectException ex) {
+            // sent with Java serialization
+        }
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("object.name", "Kitchen Light");
+        assertTrue(BinaryFormat.write(event).length * 3 < javaSerializedSize(event));
+
+        // the other messages measured by BusCodecBenchmark
+        MessageEvent message = new MessageEvent(this, "Executing automation \"turn on the light\" takes 3ms.");
+        message.setType("callout");
+        assertTrue(BinaryFormat.write(message).length < javaSerializedSize(message));
+        Command command = new Command();
+        command.setName("Turn on kitchen light");
+        command.setReceiver("app.actuators.protocol.x10.in");
+        command.setProperty("address", "A01");
+        assertTrue(BinaryFormat.write(command).length < javaSerializedSize(command));
+    }
+}
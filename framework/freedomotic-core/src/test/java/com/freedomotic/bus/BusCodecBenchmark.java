@@ -0,0 +1,129 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.events.GenericEvent;
+import com.freedomotic.events.MessageEvent;
+import com.freedomotic.reactions.Command;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link BinaryFormat} with the Java serialization used by
+ * {@link JavaBusCodec}, on the events and commands sent by the core. The size
+ * of the encoded messages is checked by {@link BinaryFormatTest}.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BusCodecBenchmark {
+
+    @Param({"GenericEvent", "MessageEvent", "Command"})
+    private String type;
+    private Serializable object;
+    private byte[] binary;
+    private byte[] java;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (type) {
+            case "GenericEvent":
+                GenericEvent event = new GenericEvent(this);
+                event.addProperty("object.name", "Kitchen Light");
+                event.addProperty("object.protocol", "x10");
+                event.addProperty("object.address", "A01");
+                event.addProperty("behavior.name", "powered");
+                event.addProperty("behaviorValue", "true");
+                object = event;
+                break;
+            case "MessageEvent":
+                MessageEvent message = new MessageEvent(this, "Executing automation \"turn on the light\" takes 3ms.");
+                message.setType("callout");
+                object = message;
+                break;
+            default:
+                Command command = new Command();
+                command.setName("Turn on kitchen light");
+                command.setReceiver("app.actuators.protocol.x10.in");
+                command.setReplyTimeout(10000);
+                command.setProperty("address", "A01");
+                command.setProperty("x10.function", "ON");
+                object = command;
+        }
+        binary = BinaryFormat.write(object);
+        java = javaWrite();
+    }
+
+    @Benchmark
+    public byte[] binaryWrite() throws BinaryFormat.UnsupportedObjectException {
+        return BinaryFormat.write(object);
+    }
+
+    @Benchmark
+    public Serializable binaryRead() throws IOException {
+        return BinaryFormat.read(binary, 0, binary.length);
+    }
+
+    @Benchmark
+    public byte[] javaWrite() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaRead() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(java))) {
+            return in.readObject();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BusCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.events.GenericEvent;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.Topic;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time from the publication of an event to its reception by a
+ * consumer, which is where the trigger dispatching starts. The broker is an
+ * embedded ActiveMQ instance configured as in {@link BusConnection}, the
+ * consumer reads from a virtual topic queue as {@link BusMessagesListener}
+ * does.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDeliveryBenchmark {
+
+    private static final String CHANNEL = "app.event.sensor.protocol.read.benchmark";
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    private final MessageListener listener = message -> received.add(message);
+    private Connection connection;
+    private Session sendSession;
+    private MessageProducer producer;
+    private Topic topic;
+    private BusCodec javaCodec;
+    private BusCodec binaryCodec;
+    private LocalEventBus localBus;
+    private GenericEvent event;
+
+    @Setup
+    public void setUp() throws JMSException {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://benchmark?broker.persistent=false&broker.useJmx=false");
+        factory.setUseAsyncSend(true);
+        factory.setAlwaysSessionAsync(true);
+        factory.setObjectMessageSerializationDefered(true);
+        factory.setCopyMessageOnSend(false);
+        connection = factory.createConnection();
+        connection.start();
+        sendSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        producer = sendSession.createProducer(null);
+        topic = sendSession.createTopic("VirtualTopic." + CHANNEL);
+        Session receiveSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        receiveSession.createConsumer(receiveSession.createQueue("Consumer.benchmark.VirtualTopic." + CHANNEL))
+                .setMessageListener(message -> {
+                    try {
+                        received.add(BusCodecs.decode(message));
+                    } catch (JMSException ex) {
+                        received.add(ex);
+                    }
+                });
+
+        javaCodec = new JavaBusCodec();
+        binaryCodec = new BinaryBusCodec();
+        localBus = new LocalEventBus(1000, 100);
+        localBus.createMailbox("benchmark", listener).subscribe(CHANNEL);
+
+        event = new GenericEvent(this);
+        event.addProperty("protocol", "benchmark");
+        event.addProperty("address", "A01");
+        event.addProperty("value", "21");
+    }
+
+    @TearDown
+    public void tearDown() throws JMSException {
+        localBus.stop();
+        connection.close();
+    }
+
+    @Benchmark
+    public Object brokerJavaSerialization() throws JMSException, InterruptedException {
+        producer.send(topic, javaCodec.encode(sendSession, event));
+        return received.take();
+    }
+
+    @Benchmark
+    public Object brokerBinaryCodec() throws JMSException, InterruptedException {
+        producer.send(topic, binaryCodec.encode(sendSession, event));
+        return received.take();
+    }
+
+    @Benchmark
+    public Object localEventBus() throws JMSException, InterruptedException {
+        ObjectMessage message = sendSession.createObjectMessage();
+        message.setObject(event);
+        localBus.publish(CHANNEL, message);
+        return received.take();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventDeliveryBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
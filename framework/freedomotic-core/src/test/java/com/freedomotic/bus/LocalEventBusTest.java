@@ -0,0 +1,170 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import com.freedomotic.api.EventTemplate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class LocalEventBusTest {
+
+    private final List<Message> received = Collections.synchronizedList(new ArrayList<Message>());
+
+    @Test
+    public void testEventsAreRoutedByTopic() throws InterruptedException {
+        LocalEventBus bus = new LocalEventBus(10, 100);
+        final CountDownLatch done = new CountDownLatch(2);
+        LocalEventBus.Mailbox mailbox = bus.createMailbox("test", message -> {
+            received.add(message);
+            done.countDown();
+        });
+        mailbox.subscribe("app.event.sensor.object.behavior.change");
+        mailbox.subscribe("app.event.sensor.messages.notify.user.*");
+
+        Message changed = Mockito.mock(ObjectMessage.class);
+        Message notified = Mockito.mock(ObjectMessage.class);
+        assertEquals(1, bus.publish("app.event.sensor.object.behavior.change", changed));
+        assertEquals(0, bus.publish("app.event.sensor.protocol.read", Mockito.mock(ObjectMessage.class)));
+        assertEquals(1, bus.publish("app.event.sensor.messages.notify.user.admin", notified));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, received.size());
+        assertTrue(received.get(0) == changed);
+        assertTrue(received.get(1) == notified);
+        bus.stop();
+    }
+
+    @Test
+    public void testEachMailboxReceivesTheEvent() throws InterruptedException {
+        LocalEventBus bus = new LocalEventBus(10, 100);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            bus.createMailbox("test", message -> done.countDown()).subscribe("app.event.sensor.>");
+        }
+        assertEquals(2, bus.publish("app.event.sensor.protocol.read.x10", Mockito.mock(ObjectMessage.class)));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        bus.stop();
+    }
+
+    @Test
+    public void testClosedMailboxIsNotRouted() {
+        LocalEventBus bus = new LocalEventBus(10, 100);
+        LocalEventBus.Mailbox mailbox = bus.createMailbox("test", received::add);
+        mailbox.subscribe("app.event.sensor.protocol.read");
+        assertEquals(1, bus.publish("app.event.sensor.protocol.read", Mockito.mock(ObjectMessage.class)));
+        mailbox.close();
+        assertEquals(0, bus.publish("app.event.sensor.protocol.read", Mockito.mock(ObjectMessage.class)));
+    }
+
+    @Test
+    public void testEachConsumerReceivesItsOwnCopy() throws InterruptedException, JMSException {
+        LocalEventBus bus = new LocalEventBus(10, 100);
+        final List<EventTemplate> events = Collections.synchronizedList(new ArrayList<EventTemplate>());
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            bus.createMailbox("test", message -> {
+                try {
+                    events.add((EventTemplate) ((ObjectMessage) message).getObject());
+                } catch (JMSException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                done.countDown();
+            }).subscribe("app.event.sensor");
+        }
+        EventTemplate event = new EventTemplate();
+        event.addProperty("object.name", "Kitchen Light");
+        ObjectMessage message = Mockito.mock(ObjectMessage.class);
+        Mockito.when(message.getObject()).thenReturn(event);
+
+        assertEquals(2, bus.publish("app.event.sensor", message));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(events.get(0) == events.get(1));
+        assertFalse(events.get(0) == event);
+        assertEquals(event.getUuid(), events.get(0).getUuid());
+        events.get(0).getPayload().getStatements("object.name").get(0).setValue("changed");
+        assertEquals("Kitchen Light", events.get(1).getProperty("object.name"));
+        assertEquals("Kitchen Light", event.getProperty("object.name"));
+        bus.stop();
+    }
+
+    @Test
+    public void testReadOnlyConsumersShareTheEvent() throws InterruptedException, JMSException {
+        LocalEventBus bus = new LocalEventBus(10, 100);
+        final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+        final CountDownLatch done = new CountDownLatch(1);
+        bus.createMailbox("test", message -> {
+            try {
+                events.add(((ObjectMessage) message).getObject());
+            } catch (JMSException ex) {
+                throw new IllegalStateException(ex);
+            }
+            done.countDown();
+        }, false).subscribe("app.event.sensor");
+        EventTemplate event = new EventTemplate();
+        ObjectMessage message = Mockito.mock(ObjectMessage.class);
+        Mockito.when(message.getObject()).thenReturn(event);
+
+        assertEquals(1, bus.publish("app.event.sensor", message));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(events.get(0) == event);
+        bus.stop();
+    }
+
+    @Test
+    public void testFullMailboxBlocksTheSenderForABoundedTime() throws InterruptedException {
+        LocalEventBus bus = new LocalEventBus(1, 50);
+        final CountDownLatch release = new CountDownLatch(1);
+        LocalEventBus.Mailbox mailbox = bus.createMailbox("test", message -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        mailbox.subscribe("app.event.sensor");
+
+        long start = System.currentTimeMillis();
+        int delivered = 0;
+        for (int i = 0; i < 3; i++) {
+            delivered += bus.publish("app.event.sensor", Mockito.mock(ObjectMessage.class));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(delivered < 3);
+        assertEquals(3 - delivered, bus.getDropped());
+        assertEquals(3 - delivered, mailbox.getDropped());
+        release.countDown();
+        bus.stop();
+    }
+}
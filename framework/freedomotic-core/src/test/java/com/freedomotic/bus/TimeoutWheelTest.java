@@ -0,0 +1,59 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.bus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class TimeoutWheelTest {
+
+    @Test
+    public void testTimeoutNeverExpiresEarly() throws InterruptedException {
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 8);
+        final CountDownLatch expired = new CountDownLatch(1);
+        final AtomicLong elapsed = new AtomicLong();
+        final long start = System.nanoTime();
+        // longer than a whole rotation of the wheel
+        wheel.schedule(() -> {
+            elapsed.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            expired.countDown();
+        }, 200);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= 200);
+        wheel.stop();
+    }
+
+    @Test
+    public void testStoppedWheelDoesNotExpire() throws InterruptedException {
+        TimeoutWheel wheel = new TimeoutWheel("test", 10, 8);
+        final CountDownLatch expired = new CountDownLatch(1);
+        wheel.schedule(expired::countDown, 50);
+        wheel.stop();
+        assertFalse(expired.await(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.core.AutomationExecutor.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class AutomationExecutorTest {
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    private Runnable record(final String name, final CountDownLatch done) {
+        return () -> {
+            executed.add(name);
+            done.countDown();
+        };
+    }
+
+    /**
+     * Occupies the only worker until the returned latch is released.
+     */
+    private CountDownLatch block(AutomationExecutor executor) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute("blocker", 0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test
+    public void testHigherPriorityRunsFirst() throws InterruptedException {
+        AutomationExecutor executor = new AutomationExecutor(1, 10, OverflowPolicy.REJECT);
+        CountDownLatch release = block(executor);
+        CountDownLatch done = new CountDownLatch(3);
+        executor.execute("low", 0, record("low", done));
+        executor.execute("high", 10, record("high", done));
+        executor.execute("medium", 5, record("medium", done));
+        assertEquals(3, executor.getQueueDepth());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("high", "medium", "low"), executed);
+    }
+
+    @Test
+    public void testSameTriggerAutomationsAreSerialized() throws InterruptedException {
+        AutomationExecutor executor = new AutomationExecutor(4, 100, OverflowPolicy.REJECT);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            final String name = String.valueOf(i);
+            executor.execute("same trigger", 0, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                executed.add(name);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(String.valueOf(i), executed.get(i));
+        }
+    }
+
+    @Test
+    public void testRejectPolicy() throws InterruptedException {
+        AutomationExecutor executor = new AutomationExecutor(1, 1, OverflowPolicy.REJECT);
+        CountDownLatch release = block(executor);
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(executor.execute("first", 0, record("first", done)));
+        assertFalse(executor.execute("second", 0, record("second", done)));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first"), executed);
+        assertEquals(1, executor.getDiscarded());
+    }
+
+    @Test
+    public void testDropOldestPolicy() throws InterruptedException {
+        AutomationExecutor executor = new AutomationExecutor(1, 2, OverflowPolicy.DROP_OLDEST);
+        CountDownLatch release = block(executor);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute("first", 0, record("first", done));
+        executor.execute("second", 0, record("second", done));
+        executor.execute("third", 0, record("third", done));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("second", "third"), executed);
+    }
+
+    @Test
+    public void testCoalescePolicy() throws InterruptedException {
+        AutomationExecutor executor = new AutomationExecutor(1, 2, OverflowPolicy.COALESCE);
+        CountDownLatch release = block(executor);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute("light", 0, record("light on", done));
+        executor.execute("heater", 0, record("heater on", done));
+        executor.execute("light", 0, record("light off", done));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("light off", "heater on"), executed);
+    }
+
+    @Test
+    public void testAsyncAutomationHoldsTriggerUntilCompleted() throws InterruptedException {
+        AutomationExecutor executor = new AutomationExecutor(2, 10, OverflowPolicy.REJECT);
+        final CompletableFuture<Void> reply = new CompletableFuture<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.executeAsync("light", 0, () -> {
+            started.countDown();
+            return reply;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute("light", 0, record("light off", done));
+        executor.execute("heater", 0, record("heater on", done));
+        // the worker is free but the light automation is still waiting for its reply
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("heater on"), executed);
+        reply.complete(null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("heater on", "light off"), executed);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.core.PollingScheduler.Mode;
+import com.freedomotic.core.PollingScheduler.Poll;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class PollingSchedulerTest {
+
+    @Test
+    public void testPollsPeriodically() throws Exception {
+        PollingScheduler scheduler = new PollingScheduler(Mode.FIXED_RATE, 0);
+        CountDownLatch polled = new CountDownLatch(5);
+        Poll poll = scheduler.schedule("test", () -> 10, null, polled::countDown);
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        poll.cancel();
+        assertEquals(Mode.FIXED_RATE, poll.getMode());
+        assertTrue(poll.getPolls() >= 5);
+        long[] histogram = poll.getHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        assertEquals(poll.getPolls(), total);
+    }
+
+    @Test
+    public void testPollsNeverOverlapAndOverrunsAreSkipped() throws Exception {
+        PollingScheduler scheduler = new PollingScheduler(Mode.FIXED_RATE, 0);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch polled = new CountDownLatch(3);
+        Poll poll = scheduler.schedule("slow", () -> 10, Mode.FIXED_RATE, () -> {
+            if (running.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            try {
+                Thread.sleep(35);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            polled.countDown();
+        });
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        poll.cancel();
+        // let the poll in progress complete
+        Thread.sleep(100);
+        assertEquals(0, overlaps.get());
+        // every poll overruns at least three periods
+        assertTrue(poll.getSkipped() >= 3 * (poll.getPolls() - 1));
+        assertTrue(poll.getHistogram()[1] > 0);
+    }
+
+    @Test
+    public void testFixedDelayWaitsAfterEveryPoll() throws Exception {
+        PollingScheduler scheduler = new PollingScheduler(Mode.FIXED_RATE, 0);
+        CountDownLatch polled = new CountDownLatch(3);
+        Poll poll = scheduler.schedule("delay", () -> 20, Mode.FIXED_DELAY, () -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            polled.countDown();
+        });
+        long start = System.nanoTime();
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        poll.cancel();
+        // three delays and three polls
+        assertTrue(elapsed >= 120);
+        assertEquals(0, poll.getSkipped());
+    }
+
+    @Test
+    public void testCancelStopsPolling() throws Exception {
+        PollingScheduler scheduler = new PollingScheduler(Mode.FIXED_DELAY, 50);
+        AtomicInteger polls = new AtomicInteger();
+        Poll poll = scheduler.schedule("cancelled", () -> 10, null, polls::incrementAndGet);
+        Thread.sleep(100);
+        poll.cancel();
+        assertTrue(poll.isCancelled());
+        Thread.sleep(30);
+        int count = polls.get();
+        Thread.sleep(100);
+        assertEquals(count, polls.get());
+    }
+
+    @Test
+    public void testPeriodChangesAreApplied() throws Exception {
+        PollingScheduler scheduler = new PollingScheduler(Mode.FIXED_RATE, 0);
+        AtomicInteger period = new AtomicInteger(10000);
+        CountDownLatch polled = new CountDownLatch(1);
+        Poll poll = scheduler.schedule("changed", period::get, null, polled::countDown);
+        assertFalse(polled.await(100, TimeUnit.MILLISECONDS));
+        poll.cancel();
+
+        period.set(10);
+        poll = scheduler.schedule("changed", period::get, null, polled::countDown);
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        poll.cancel();
+    }
+
+    @Test
+    public void testModeFromManifest() {
+        PollingScheduler scheduler = new PollingScheduler(Mode.FIXED_DELAY, 0);
+        assertEquals(Mode.FIXED_RATE, scheduler.getMode("fixed-rate"));
+        assertEquals(Mode.FIXED_DELAY, scheduler.getMode(null));
+        assertEquals(Mode.FIXED_DELAY, scheduler.getMode("sometimes"));
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.events.GenericEvent;
+import com.freedomotic.exceptions.VariableResolutionException;
+import com.freedomotic.reactions.Command;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.Statement;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the variables resolution done by {@link TriggerCheck} for every
+ * automation: the trigger is resolved against the event and then the command
+ * is resolved against the event and the trigger description.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+
+    private GenericEvent event;
+    private Trigger trigger;
+    private Command command;
+
+    @Setup
+    public void setUp() {
+        event = new GenericEvent(this);
+        event.addProperty("object.name", "Kitchen Light");
+        event.addProperty("object.type", "EnvObject.ElectricDevice.Light");
+        event.addProperty("object.protocol", "x10");
+        event.addProperty("object.address", "A01");
+        event.addProperty("zone", "Kitchen");
+        event.addProperty("temperature", "25");
+
+        trigger = new Trigger();
+        trigger.setName("Kitchen light changes");
+        trigger.setDescription("the kitchen light has changed");
+        trigger.getPayload().addStatement(Statement.AND, "object.type", Statement.REGEX, "^EnvObject.ElectricDevice\\.(.*)");
+        trigger.getPayload().addStatement(Statement.AND, "object.name", Statement.EQUALS, "Kitchen Light");
+        trigger.getPayload().addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.temperature");
+
+        command = new Command();
+        command.setName("Say the light state");
+        command.setReceiver("app.actuators.media.tts.in");
+        command.setProperty("say", "@event.object.name# in @event.zone is changed, temperature is @event.temperature celsius.");
+        command.setProperty("object", "@event.object.name");
+        command.setProperty("address", "@event.object.protocol:@event.object.address");
+        command.setProperty("reason", "@event.description");
+        command.setProperty("volume", "80");
+    }
+
+    @Benchmark
+    public Command resolveAutomation() throws VariableResolutionException, CloneNotSupportedException {
+        Resolver triggerResolver = new Resolver();
+        triggerResolver.addContext("event.", event.getPayload());
+        Trigger resolved = triggerResolver.resolve(trigger);
+
+        Resolver commandResolver = new Resolver();
+        commandResolver.addContext("event.", event.getPayload());
+        commandResolver.addContext("event.", Collections.singletonMap("description", resolved.getDescription()));
+        return commandResolver.resolve(command);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ResolverBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
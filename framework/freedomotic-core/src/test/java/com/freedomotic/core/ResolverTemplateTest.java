@@ -0,0 +1,77 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.exceptions.VariableResolutionException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class ResolverTemplateTest {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    private String resolve(String text, String... namespaces) throws VariableResolutionException {
+        return ResolverTemplate.of(text).resolve(Arrays.asList(namespaces), values::get);
+    }
+
+    @Test
+    public void testReferencesAreSplitFromText() throws VariableResolutionException {
+        values.put("event.zone", "Kitchen");
+        values.put("event.temperature", "25");
+        assertEquals("25", resolve("@event.temperature", "event."));
+        assertEquals("temperature is 25.", resolve("temperature is @event.temperature.", "event."));
+        assertEquals("temperature is 25celsius", resolve("temperature is @event.temperature#celsius", "event."));
+        assertEquals("Kitchen-25", resolve("@event.zone-@event.temperature", "event."));
+        assertEquals("(25+40)", resolve("(@event.temperature+40)", "event."));
+    }
+
+    @Test
+    public void testOnlyGivenNamespacesAreResolved() throws VariableResolutionException {
+        values.put("event.zone", "Kitchen");
+        values.put("current.zone", "Garden");
+        assertEquals("Kitchen @current.zone# user@example", resolve("@event.zone @current.zone# user@example", "event."));
+        assertEquals("Kitchen Garden", resolve("@event.zone @current.zone", "current.", "event."));
+    }
+
+    @Test
+    public void testTemplatesAreCached() {
+        ResolverTemplate template = ResolverTemplate.of("cached @event.value");
+        assertSame(template, ResolverTemplate.of("cached @event.value"));
+        ResolverTemplate.invalidate("cached @event.value");
+        assertNotSame(template, ResolverTemplate.of("cached @event.value"));
+    }
+
+    @Test
+    public void testValuesWithoutReferences() {
+        assertNull(ResolverTemplate.of("plain text"));
+        assertNull(ResolverTemplate.of("an @ alone"));
+        assertNull(ResolverTemplate.of(null));
+    }
+}
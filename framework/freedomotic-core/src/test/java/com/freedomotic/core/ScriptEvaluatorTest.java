@@ -0,0 +1,76 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class ScriptEvaluatorTest {
+
+    @Test
+    public void testCompiledScriptsAreReused() {
+        ScriptEvaluator evaluator = new ScriptEvaluator(1, 5000, 16);
+        assertEquals("it's hot", evaluator.evaluate("if (25 > 20) value=\"it's hot\"; else value=\"it's cold\";", "value"));
+        assertEquals("it's hot", evaluator.evaluate("if (25 > 20) value=\"it's hot\"; else value=\"it's cold\";", "value"));
+        assertEquals(1, evaluator.getCacheMisses());
+        assertEquals(1, evaluator.getCacheHits());
+    }
+
+    @Test
+    public void testVariablesDoNotLeakBetweenEvaluations() {
+        ScriptEvaluator evaluator = new ScriptEvaluator(1, 5000, 16);
+        assertEquals("first", evaluator.evaluate("shared=\"first\";", "shared"));
+        assertNull(evaluator.evaluate("other=1;", "shared"));
+        assertEquals("declared", evaluator.evaluate("var declared=\"declared\"; result=declared;", "result"));
+        assertNull(evaluator.evaluate("other=1;", "declared"));
+    }
+
+    @Test
+    public void testEndlessScriptIsAbandoned() {
+        ScriptEvaluator evaluator = new ScriptEvaluator(2, 200, 16);
+        assertNull(evaluator.evaluate("while (true) {}", "value"));
+        assertEquals(1, evaluator.getTimeouts());
+        assertEquals(1, evaluator.getQuarantinedEngines());
+        //the other engine still works
+        assertEquals("2", evaluator.evaluate("value=\"2\";", "value"));
+        //the busy engine is not replaced while its script runs
+        assertNull(evaluator.evaluate("while (true) {}", "value"));
+        assertEquals(2, evaluator.getQuarantinedEngines());
+        assertNull(evaluator.evaluate("value=\"3\";", "value"));
+    }
+
+    @Test
+    public void testQuarantinedEngineIsReleasedWhenTheScriptEnds() throws InterruptedException {
+        ScriptEvaluator evaluator = new ScriptEvaluator(1, 200, 16);
+        assertNull(evaluator.evaluate("java.lang.Thread.sleep(500); value=\"1\";", "value"));
+        assertEquals(1, evaluator.getQuarantinedEngines());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (evaluator.getQuarantinedEngines() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, evaluator.getQuarantinedEngines());
+        assertEquals("2", evaluator.evaluate("value=\"2\";", "value"));
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.events.GenericEvent;
+import com.freedomotic.mocks.MockBusService;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.PayloadIndex;
+import com.freedomotic.rules.Statement;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import org.mockito.Mockito;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class TriggerDispatcherTest {
+
+    private static final String CHANNEL = "app.event.sensor.protocol.read.test";
+    private TriggerCheck checker;
+    private TriggerDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        checker = Mockito.mock(TriggerCheck.class);
+        dispatcher = new TriggerDispatcher(checker, new MockBusService());
+    }
+
+    private Trigger createTrigger(String name, String protocol) {
+        Trigger trigger = new Trigger();
+        trigger.setName(name);
+        trigger.setChannel(CHANNEL);
+        if (protocol != null) {
+            trigger.getPayload().addStatement(Statement.AND, "protocol", Statement.EQUALS, protocol);
+        }
+        trigger.getPayload().addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.isOn");
+        return trigger;
+    }
+
+    private GenericEvent createEvent(String protocol) {
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("protocol", protocol);
+        event.addProperty("address", "A01");
+        return event;
+    }
+
+    /**
+     * Only the triggers whose literal statements match the event are checked.
+     */
+    @Test
+    public void testOnlyCandidateTriggersAreChecked() {
+        Trigger x10 = createTrigger("x10 reads", "X10");
+        Trigger zwave = createTrigger("zwave reads", "zwave");
+        dispatcher.register(x10);
+        dispatcher.register(zwave);
+
+        GenericEvent event = createEvent("x10");
+        assertEquals(1, dispatcher.dispatch(CHANNEL, event));
+        verify(checker).check(same(event), same(x10), any(PayloadIndex.class));
+        verify(checker, never()).check(any(GenericEvent.class), same(zwave), any(PayloadIndex.class));
+    }
+
+    /**
+     * Triggers without literal statements are checked against every event.
+     */
+    @Test
+    public void testUnindexedTriggersAreAlwaysChecked() {
+        Trigger any = createTrigger("any reads", null);
+        Trigger script = createTrigger("script reads", "@event.protocol");
+        dispatcher.register(any);
+        dispatcher.register(script);
+        dispatcher.register(createTrigger("x10 reads", "x10"));
+
+        GenericEvent event = createEvent("zwave");
+        assertEquals(2, dispatcher.dispatch(CHANNEL, event));
+        verify(checker).check(same(event), same(any), any(PayloadIndex.class));
+        verify(checker).check(same(event), same(script), any(PayloadIndex.class));
+    }
+
+    /**
+     * A SET statement can make a trigger consistent even if its literal
+     * statements don't match, so it must be checked if the event has that
+     * attribute.
+     */
+    @Test
+    public void testSetAttributeInEventMakesTriggerCandidate() {
+        Trigger x10 = createTrigger("x10 reads", "x10");
+        dispatcher.register(x10);
+
+        GenericEvent event = createEvent("zwave");
+        event.addProperty("behaviorValue", "true");
+        assertEquals(1, dispatcher.dispatch(CHANNEL, event));
+        verify(checker).check(same(event), same(x10), any(PayloadIndex.class));
+    }
+
+    /**
+     * Unregistered triggers don't receive events anymore and registering the
+     * same trigger twice doesn't duplicate it.
+     */
+    @Test
+    public void testRegisterAndUnregister() {
+        Trigger x10 = createTrigger("x10 reads", "x10");
+        dispatcher.register(x10);
+        dispatcher.register(x10);
+        assertEquals(1, dispatcher.getRegisteredTriggers());
+        assertEquals(1, dispatcher.dispatch(CHANNEL, createEvent("x10")));
+
+        dispatcher.unregister(x10);
+        assertEquals(0, dispatcher.getRegisteredTriggers());
+        assertEquals(0, dispatcher.dispatch(CHANNEL, createEvent("x10")));
+    }
+
+    /**
+     * A trigger changed in place, as a thing rename does, is routed by its
+     * new values once refreshed.
+     */
+    @Test
+    public void testRefreshAfterValuesChangedInPlace() {
+        Trigger x10 = createTrigger("x10 reads", "x10");
+        dispatcher.register(x10);
+        x10.getPayload().getStatements("protocol").get(0).setValue("zwave");
+        dispatcher.refresh(x10);
+
+        GenericEvent event = createEvent("zwave");
+        assertEquals(1, dispatcher.dispatch(CHANNEL, event));
+        verify(checker).check(same(event), same(x10), any(PayloadIndex.class));
+        assertEquals(0, dispatcher.dispatch(CHANNEL, createEvent("x10")));
+
+        // refreshing an unregistered trigger doesn't register it
+        dispatcher.refresh(createTrigger("zwave reads", "zwave"));
+        assertEquals(1, dispatcher.getRegisteredTriggers());
+    }
+}
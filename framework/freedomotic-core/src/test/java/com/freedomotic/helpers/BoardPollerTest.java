@@ -0,0 +1,170 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class BoardPollerTest {
+
+    private final Map<String, Map<String, String>> status = new ConcurrentHashMap<>();
+    private final Map<String, Integer> reads = new ConcurrentHashMap<>();
+    private final List<String> changes = new ArrayList<>();
+
+    private BoardPoller<String> poller(int min, int max) {
+        return new BoardPoller<>("test", min, max, 2, (String board) -> {
+            reads.merge(board, 1, Integer::sum);
+            Map<String, String> values = status.get(board);
+            if (values == null) {
+                throw new IOException("unreachable");
+            }
+            return new HashMap<>(values);
+        }, (String board, String name, String value) -> {
+            synchronized (changes) {
+                changes.add(board + "." + name + "=" + value);
+            }
+        });
+    }
+
+    private void set(String board, String name, String value) {
+        status.computeIfAbsent(board, (String key) -> new ConcurrentHashMap<>()).put(name, value);
+    }
+
+    @Test
+    public void onlyChangedValuesAreNotified() {
+        BoardPoller<String> poller = poller(100, 100);
+        set("a", "led0", "0");
+        set("a", "led1", "1");
+        poller.add("a");
+
+        poller.poll();
+        assertEquals(2, changes.size());
+        poller.poll();
+        assertEquals(2, changes.size());
+        set("a", "led1", "0");
+        poller.poll();
+
+        assertEquals(3, changes.size());
+        assertEquals("a.led1=0", changes.get(2));
+        assertEquals(3, poller.getPolls());
+        assertEquals(3, poller.getChanges());
+        poller.shutdown();
+    }
+
+    @Test
+    public void allBoardsAreReadInEachPoll() {
+        BoardPoller<String> poller = poller(100, 100);
+        for (int i = 0; i < 5; i++) {
+            set("b" + i, "led0", "1");
+            poller.add("b" + i);
+        }
+
+        poller.poll();
+
+        assertEquals(5, reads.size());
+        assertEquals(5, changes.size());
+        poller.shutdown();
+    }
+
+    @Test
+    public void idleBoardIsReadLessOften() {
+        BoardPoller<String> poller = poller(100, 400);
+        set("a", "led0", "0");
+        poller.add("a");
+
+        for (int i = 0; i < 10; i++) {
+            poller.poll();
+        }
+
+        // read at cycles 1, 2, 4, 8
+        assertEquals(4, (int) reads.get("a"));
+        assertEquals(400, poller.getInterval("a"));
+        poller.shutdown();
+    }
+
+    @Test
+    public void changeOrWakeUpRestoresMinInterval() {
+        BoardPoller<String> poller = poller(100, 800);
+        set("a", "led0", "0");
+        poller.add("a");
+        for (int i = 0; i < 4; i++) {
+            poller.poll();
+        }
+        assertTrue(poller.getInterval("a") > 100);
+
+        poller.wakeUp("a");
+        assertEquals(100, poller.getInterval("a"));
+        set("a", "led0", "1");
+        poller.poll();
+
+        assertEquals("a.led0=1", changes.get(changes.size() - 1));
+        assertEquals(100, poller.getInterval("a"));
+        poller.shutdown();
+    }
+
+    @Test
+    public void failingBoardBacksOff() {
+        BoardPoller<String> poller = poller(100, 400);
+        poller.add("missing");
+
+        for (int i = 0; i < 10; i++) {
+            poller.poll();
+        }
+
+        // retried at cycles 1, 2, 4, 8
+        assertEquals(4, poller.getFailures());
+        assertEquals(400, poller.getInterval("missing"));
+
+        set("missing", "led0", "1");
+        poller.wakeUp("missing");
+        poller.poll();
+        assertEquals("missing.led0=1", changes.get(changes.size() - 1));
+        assertEquals(100, poller.getInterval("missing"));
+        poller.shutdown();
+    }
+
+    @Test
+    public void nullValuesAreCompared() {
+        BoardPoller<String> poller = new BoardPoller<>("test", 100, 100, 1, (String board) -> {
+            Map<String, String> values = new HashMap<>();
+            values.put("led0", null);
+            return values;
+        }, (String board, String name, String value) -> changes.add(board + "." + name + "=" + value));
+        poller.add("a");
+
+        poller.poll();
+        poller.poll();
+
+        assertEquals(0, poller.getFailures());
+        assertTrue(changes.isEmpty());
+        poller.shutdown();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class FramerTest {
+
+    private final List<String> frames = new ArrayList<>();
+
+    private void decode(Framer framer, ByteBuffer buffer, String data) throws IOException {
+        buffer.put(data.getBytes(StandardCharsets.ISO_8859_1));
+        buffer.flip();
+        framer.decode(buffer, (byte[] frame) -> frames.add(new String(frame, StandardCharsets.ISO_8859_1)));
+        buffer.compact();
+    }
+
+    @Test
+    public void delimitedFramesAreSplitAcrossReads() throws Exception {
+        Framer framer = Framer.delimited("\r\n", 64);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+
+        decode(framer, buffer, "OK\r\nrelay=");
+        decode(framer, buffer, "1\r");
+        decode(framer, buffer, "\n\r\n");
+
+        assertEquals(3, frames.size());
+        assertEquals("OK", frames.get(0));
+        assertEquals("relay=1", frames.get(1));
+        assertEquals("", frames.get(2));
+    }
+
+    @Test
+    public void delimiterIsAddedToSentFrames() throws Exception {
+        ByteBuffer encoded = Framer.delimited("\n", 64).encode("GET".getBytes(StandardCharsets.ISO_8859_1));
+
+        assertEquals("GET\n", StandardCharsets.ISO_8859_1.decode(encoded).toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void tooLongDelimitedFrameIsAnError() throws Exception {
+        decode(Framer.delimited("\n", 4), ByteBuffer.allocate(64), "0123456789");
+    }
+
+    @Test
+    public void lengthPrefixedFramesAreDecodedWhenComplete() throws Exception {
+        Framer framer = Framer.lengthPrefixed(2, 64);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        ByteBuffer first = framer.encode("abc".getBytes(StandardCharsets.ISO_8859_1));
+        ByteBuffer second = framer.encode("de".getBytes(StandardCharsets.ISO_8859_1));
+        byte[] both = new byte[first.remaining() + second.remaining()];
+        first.get(both, 0, first.remaining());
+        second.get(both, 5, second.remaining());
+        String data = new String(both, StandardCharsets.ISO_8859_1);
+
+        decode(framer, buffer, data.substring(0, 4));
+        assertEquals(0, frames.size());
+        decode(framer, buffer, data.substring(4, 8));
+        assertEquals(1, frames.size());
+        decode(framer, buffer, data.substring(8));
+
+        assertEquals("abc", frames.get(0));
+        assertEquals("de", frames.get(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void tooLongLengthPrefixedFrameIsAnError() throws Exception {
+        Framer.lengthPrefixed(1, 1000).encode(new byte[300]);
+    }
+}
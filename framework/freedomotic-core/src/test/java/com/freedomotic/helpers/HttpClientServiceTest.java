@@ -0,0 +1,203 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class HttpClientServiceTest {
+
+    private HttpServer server;
+    private HttpClientService httpClient;
+    private String baseUrl;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final Set<String> authorizations = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/status.xml", (HttpExchange exchange) -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization != null) {
+                authorizations.add(authorization);
+            }
+            reply(exchange, 200, "<response><led0>1</led0><led1>0</led1></response>");
+        });
+        server.createContext("/protected", (HttpExchange exchange) -> {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null) {
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"board\"");
+                reply(exchange, 401, "unauthorized");
+            } else {
+                authorizations.add(authorization);
+                reply(exchange, 200, "ok");
+            }
+        });
+        server.createContext("/missing", (HttpExchange exchange) -> reply(exchange, 404, "not found"));
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        httpClient = new HttpClientService(10, 2, 30, 2);
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.shutdown();
+        server.stop(0);
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    private String get(String path) throws IOException {
+        return httpClient.execute(new HttpGet(baseUrl + path), null, null, 2000,
+                (HttpResponse response) -> EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void connectionsAreKeptAlive() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            get("/status.xml");
+        }
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void credentialsAreSentWithTheFirstRequest() throws Exception {
+        httpClient.execute(new HttpGet(baseUrl + "/status.xml"), "user", "password", 2000,
+                (HttpResponse response) -> EntityUtils.toString(response.getEntity()));
+
+        assertEquals(1, authorizations.size());
+        assertTrue(authorizations.iterator().next().startsWith("Basic "));
+    }
+
+    @Test
+    public void emptyCredentialsAreNotSent() throws Exception {
+        httpClient.execute(new HttpGet(baseUrl + "/status.xml"), "", "", 2000,
+                (HttpResponse response) -> EntityUtils.toString(response.getEntity()));
+
+        assertTrue(authorizations.isEmpty());
+    }
+
+    @Test
+    public void credentialsWithoutPasswordAnswerTheChallenge() throws Exception {
+        String content = httpClient.execute(new HttpGet(baseUrl + "/protected"), "user", "", 2000,
+                (HttpResponse response) -> EntityUtils.toString(response.getEntity()));
+
+        assertEquals("ok", content);
+        assertEquals(1, authorizations.size());
+    }
+
+    @Test
+    public void asyncRequestCompletesWithTheContent() throws Exception {
+        String content = httpClient.executeAsync(new HttpGet(baseUrl + "/status.xml"), null, null, 2000,
+                (HttpResponse response) -> EntityUtils.toString(response.getEntity()))
+                .get(5, TimeUnit.SECONDS);
+
+        assertTrue(content.contains("<led0>1</led0>"));
+    }
+
+    @Test
+    public void latencyAndErrorsAreCollectedByHost() throws Exception {
+        get("/status.xml");
+        get("/status.xml");
+        get("/missing");
+
+        HttpClientService.HostStats stats = httpClient.getStats().get("127.0.0.1:" + server.getAddress().getPort());
+        assertEquals(3, stats.getRequests());
+        assertEquals(1, stats.getErrors());
+        assertTrue(stats.getAverageLatency() > 0);
+    }
+
+    @Test
+    public void unreachableHostCompletesExceptionally() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            httpClient.executeAsync(new HttpGet("http://127.0.0.1:" + port + "/"), null, null, 1000,
+                    (HttpResponse response) -> "").get(5, TimeUnit.SECONDS);
+            fail("The request should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+        assertEquals(1, httpClient.getStats().get("127.0.0.1:" + port).getErrors());
+    }
+
+    @Test
+    public void statusFileIsReadThroughThePool() throws Exception {
+        HttpHelper httpHelper = new HttpHelper(httpClient);
+
+        List<String> values = httpHelper.queryXml(baseUrl + "/status.xml", null, null, "//led0", "//led1");
+
+        assertEquals("1", values.get(0));
+        assertEquals("0", values.get(1));
+    }
+
+    @Test
+    public void boardStatusIsFetched() throws Exception {
+        Map<String, String> values = StatusXmlReader.fetch(baseUrl + "/status.xml", "user", null, 2000, null);
+
+        assertEquals("1", values.get("led0"));
+        assertEquals("0", values.get("led1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingBoardStatusIsAnIOException() throws Exception {
+        StatusXmlReader.fetch(baseUrl + "/missing", null, null, 2000, null);
+    }
+
+    @Test
+    public void compiledXPathIsCached() throws Exception {
+        assertSame(HttpHelper.compileXPath("//led0"), HttpHelper.compileXPath("//led0"));
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class NioTransportTest {
+
+    private NioTransport transport;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final List<IOException> errors = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new NioTransport("NioTransportTest");
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+    }
+
+    private NioTransport.Listener listener(CountDownLatch connected) {
+        return new NioTransport.Listener() {
+            @Override
+            public void connected(NioTransport.Connection connection) {
+                connected.countDown();
+            }
+
+            @Override
+            public void received(NioTransport.Connection connection, byte[] frame) {
+                received.add(new String(frame, StandardCharsets.ISO_8859_1));
+            }
+
+            @Override
+            public void disconnected(NioTransport.Connection connection, IOException cause) {
+                if (cause != null) {
+                    errors.add(cause);
+                }
+            }
+        };
+    }
+
+    // replies to each line with "echo " + line
+    private static Thread echoServer(ServerSocket server, int connections) {
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < connections; i++) {
+                try (Socket socket = server.accept();
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1))) {
+                    OutputStream out = socket.getOutputStream();
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        out.write(("echo " + line + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                        out.flush();
+                    }
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void tcpFramesAreSentAndReceived() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            echoServer(server, 1);
+            CountDownLatch connected = new CountDownLatch(1);
+            NioTransport.Connection connection = transport.tcp("127.0.0.1", server.getLocalPort(),
+                    new NioTransport.Options().framer(Framer.delimited("\r\n", 256)), listener(connected));
+
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+            assertTrue(connection.send("status".getBytes(StandardCharsets.ISO_8859_1)));
+            assertTrue(connection.send("relay1".getBytes(StandardCharsets.ISO_8859_1)));
+
+            assertEquals("echo status", received.poll(5, TimeUnit.SECONDS));
+            assertEquals("echo relay1", received.poll(5, TimeUnit.SECONDS));
+            connection.close();
+        }
+    }
+
+    @Test
+    public void readTimeoutClosesTheConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            echoServer(server, 1);
+            CountDownLatch connected = new CountDownLatch(1);
+            NioTransport.Connection connection = transport.tcp("127.0.0.1", server.getLocalPort(),
+                    new NioTransport.Options().readTimeout(200), listener(connected));
+
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+            Thread.sleep(1000);
+
+            assertTrue(!connection.isConnected());
+            assertEquals(1, errors.size());
+            assertTrue(errors.get(0) instanceof SocketTimeoutException);
+            assertEquals(0, transport.getConnectionCount());
+        }
+    }
+
+    @Test
+    public void lostConnectionIsReestablished() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        CountDownLatch connected = new CountDownLatch(1);
+        NioTransport.Connection connection = transport.tcp("127.0.0.1", port,
+                new NioTransport.Options().reconnect(50, 200), listener(connected));
+        // nobody is listening yet, the connection is retried with backoff
+        Thread.sleep(400);
+        assertTrue(connection.getReconnections() >= 1);
+        assertTrue(!errors.isEmpty());
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            echoServer(server, 1);
+
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+            assertTrue(connection.isConnected());
+            connection.close();
+        }
+    }
+
+    @Test
+    public void udpDatagramsAreSentAndReceived() throws Exception {
+        try (DatagramSocket device = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            device.setSoTimeout(5000);
+            CountDownLatch connected = new CountDownLatch(1);
+            NioTransport.Connection connection = transport.udp("127.0.0.1", device.getLocalPort(),
+                    new NioTransport.Options(), listener(connected));
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+            connection.send("ping".getBytes(StandardCharsets.ISO_8859_1));
+            DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+            device.receive(packet);
+            assertEquals("ping", new String(packet.getData(), 0, packet.getLength(), StandardCharsets.ISO_8859_1));
+            byte[] reply = "pong".getBytes(StandardCharsets.ISO_8859_1);
+            device.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+
+            assertEquals("pong", received.poll(5, TimeUnit.SECONDS));
+            connection.close();
+        }
+    }
+
+    @Test
+    public void manyConnectionsShareOneThread() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 100, InetAddress.getLoopbackAddress())) {
+            echoServer(server, 1);
+            int before = Thread.activeCount();
+            CountDownLatch connected = new CountDownLatch(50);
+            for (int i = 0; i < 50; i++) {
+                transport.tcp("127.0.0.1", server.getLocalPort(), new NioTransport.Options(), listener(connected));
+            }
+
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+            assertEquals(50, transport.getConnectionCount());
+            assertTrue(Thread.activeCount() - before < 5);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class StatusXmlReaderTest {
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void leafElementsAreReadInOrder() throws Exception {
+        Map<String, String> values = StatusXmlReader.read(stream(
+                "<?xml version=\"1.0\"?><response><led0>1</led0><led1> 0 </led1><btn0>up</btn0></response>"));
+
+        assertEquals(Arrays.asList("led0", "led1", "btn0"), Arrays.asList(values.keySet().toArray()));
+        assertEquals("1", values.get("led0"));
+        assertEquals("0", values.get("led1"));
+        assertEquals("up", values.get("btn0"));
+        assertFalse(values.containsKey("response"));
+    }
+
+    @Test
+    public void onlyRequestedElementsAreRead() throws Exception {
+        Map<String, String> values = StatusXmlReader.read(stream(
+                "<response><led0>1</led0><an0>512</an0><btn0>up</btn0></response>"),
+                new HashSet<>(Arrays.asList("an0")));
+
+        assertEquals(1, values.size());
+        assertEquals("512", values.get("an0"));
+    }
+
+    @Test
+    public void emptyElementsHaveEmptyValue() throws Exception {
+        Map<String, String> values = StatusXmlReader.read(stream("<response><led0/><led1></led1></response>"));
+
+        assertEquals("", values.get("led0"));
+        assertEquals("", values.get("led1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedFileIsAnIOException() throws Exception {
+        StatusXmlReader.read(stream("<response><led0>1</response>"));
+    }
+}
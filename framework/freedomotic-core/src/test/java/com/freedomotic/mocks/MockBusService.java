@@ -2,6 +2,7 @@ package com.freedomotic.mocks;
 
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CompletableFuture;
 import javax.jms.Destination;
 import javax.jms.MessageConsumer;
 import javax.jms.Session;
@@ -10,6 +11,7 @@ import org.mockito.Mockito;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.bus.BusService;
+import com.freedomotic.bus.LocalEventBus;
 import com.freedomotic.reactions.Command;
 
 /**
@@ -26,6 +28,11 @@ public class MockBusService implements BusService, Mockable {
 		return null;
 	}
 
+	@Override
+	public CompletableFuture<Command> sendAsync(Command command) {
+		return CompletableFuture.completedFuture(send(command));
+	}
+
 	@Override
 	public void reply(Command command, Destination destination, String correlationID) {
 		// TODO Auto-generated method stub
@@ -67,6 +74,11 @@ public class MockBusService implements BusService, Mockable {
 		return Mockito.mock(Session.class);
 	}
 
+	@Override
+	public LocalEventBus getLocalEventBus() {
+		return null;
+	}
+
 	@Override
 	public Session createSession() throws Exception {
 		Session s = Mockito.mock(Session.class);
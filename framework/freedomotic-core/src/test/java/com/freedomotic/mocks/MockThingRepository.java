@@ -93,6 +93,33 @@ public class MockThingRepository implements ThingRepository, Mockable {
 		return null;
 	}
 
+	@Override
+	public List<EnvObjectLogic> findByTags(String tags) {
+		return null;
+	}
+
+	@Override
+	public List<EnvObjectLogic> findByType(String type) {
+		return null;
+	}
+
+	@Override
+	public List<EnvObjectLogic> findByZone(String uuid) {
+		return null;
+	}
+
+	@Override
+	public void reindex(EnvObjectLogic thing) {
+	}
+
+	@Override
+	public void addListener(Listener listener) {
+	}
+
+	@Override
+	public void removeListener(Listener listener) {
+	}
+
 	@Override
 	public EnvObjectLogic load(File file) throws RepositoryException {
 		// TODO Auto-generated method stub
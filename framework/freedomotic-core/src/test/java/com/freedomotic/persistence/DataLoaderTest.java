@@ -0,0 +1,98 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.exceptions.RepositoryException;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class DataLoaderTest {
+
+    private DataLoader loader;
+    private File[] files;
+
+    @Before
+    public void setUp() {
+        loader = new DataLoader(4, Mockito.mock(DataUpgradeService.class));
+        files = new File[100];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File("file-" + i + ".xtst");
+        }
+    }
+
+    /**
+     * Files are loaded in parallel but returned in their original order.
+     */
+    @Test
+    public void testResultsKeepFileOrder() {
+        List<String> loaded = loader.loadAll("test", files, (File file) -> {
+            // files take different times to load
+            LockSupport.parkNanos((long) (Math.random() * 1000000));
+            return file.getName();
+        });
+        assertEquals(files.length, loaded.size());
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(files[i].getName(), loaded.get(i));
+        }
+    }
+
+    /**
+     * A file which cannot be loaded is skipped without stopping the others.
+     */
+    @Test
+    public void testFailedFilesAreSkipped() {
+        List<String> loaded = loader.loadAll("test", files, (File file) -> {
+            if (file.getName().equals("file-10.xtst")) {
+                throw new RepositoryException("broken file");
+            }
+            if (file.getName().equals("file-20.xtst")) {
+                throw new IllegalStateException("broken converter");
+            }
+            return file.getName();
+        });
+        assertEquals(files.length - 2, loaded.size());
+        assertEquals("file-11.xtst", loaded.get(10));
+        assertTrue(loader.getFileTypeTimes().containsKey("test"));
+    }
+
+    /**
+     * Loading files from a loader thread doesn't wait for the busy pool.
+     */
+    @Test
+    public void testNestedLoading() {
+        List<List<String>> loaded = loader.loadAll("outer", files, (File file)
+                -> loader.loadAll("inner", new File[]{file, file}, (File inner) -> inner.getName()));
+        assertEquals(files.length, loaded.size());
+        assertEquals(Arrays.asList("file-0.xtst", "file-0.xtst"), loaded.get(0));
+        assertEquals(Collections.emptyList(), loader.loadAll("empty", null, (File file) -> file));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import com.thoughtworks.xstream.io.xml.XppDriver;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class DataSnapshotTest {
+
+    private static final String CONTEXT = "5.6.0/5.6.0";
+    private static final String XML = "<trigger><name>Light on</name><payload><statement logical=\"AND\">on</statement></payload></trigger>";
+    private File folder;
+    private File dataFile;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("freedomotic-snapshot").toFile();
+        dataFile = new File(folder, "light.xtrg");
+        snapshotFile = new File(folder, "data.snapshot");
+        Files.write(dataFile.toPath(), XML.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    private byte[] content() throws IOException {
+        return Files.readAllBytes(dataFile.toPath());
+    }
+
+    /**
+     * The binary format holds the same document of the xml file.
+     */
+    @Test
+    public void testBinaryRoundTrip() {
+        byte[] binary = DataLoader.toBinary(new XppDriver().createReader(new StringReader(XML)));
+        StringWriter xml = new StringWriter();
+        new HierarchicalStreamCopier().copy(new BinaryStreamReader(new ByteArrayInputStream(binary)), new PrettyPrintWriter(xml));
+        assertEquals(XML, xml.toString().replaceAll(">\\s+<", "><"));
+    }
+
+    /**
+     * Entries survive a save and a load, and are used only while the data
+     * file is unchanged.
+     */
+    @Test
+    public void testEntriesAreValidatedAgainstFiles() throws IOException {
+        byte[] binary = {1, 2, 3};
+        DataSnapshot snapshot = new DataSnapshot(snapshotFile, folder);
+        assertEquals(0, snapshot.load(CONTEXT));
+        assertNull(snapshot.get(dataFile, dataFile.lastModified(), content()));
+        snapshot.put(dataFile, dataFile.lastModified(), content(), binary);
+        assertTrue(snapshot.save());
+        assertFalse(snapshot.save());
+
+        DataSnapshot reloaded = new DataSnapshot(snapshotFile, folder);
+        assertEquals(1, reloaded.load(CONTEXT));
+        assertTrue(reloaded.getPaths().contains("light.xtrg"));
+        assertArrayEquals(binary, reloaded.get(dataFile, dataFile.lastModified(), content()));
+
+        Files.write(dataFile.toPath(), XML.replace("on", "off").getBytes(StandardCharsets.UTF_8));
+        assertNull(reloaded.get(dataFile, dataFile.lastModified(), content()));
+        // the stale entry is dropped on save
+        assertTrue(reloaded.save());
+        assertTrue(reloaded.getPaths().isEmpty());
+    }
+
+    /**
+     * A file streamed through a content stream gets the same checksum as its
+     * whole content, even if the reader stops early, and is validated
+     * without loading it.
+     */
+    @Test
+    public void testStreamedEntriesAreValidatedAgainstFiles() throws IOException {
+        byte[] binary = {1, 2, 3};
+        DataSnapshot snapshot = new DataSnapshot(snapshotFile, folder);
+        snapshot.load(CONTEXT);
+        assertNull(snapshot.get(dataFile, dataFile.lastModified()));
+        DataSnapshot.ContentStream content = new DataSnapshot.ContentStream(new FileInputStream(dataFile));
+        content.read(new byte[4]);
+        content.close();
+        snapshot.put(dataFile, dataFile.lastModified(), dataFile.length(), content.getContentChecksum(), binary);
+
+        assertArrayEquals(binary, snapshot.get(dataFile, dataFile.lastModified()));
+        assertArrayEquals(binary, snapshot.get(dataFile, dataFile.lastModified(), content()));
+        Files.write(dataFile.toPath(), XML.replace("on", "no").getBytes(StandardCharsets.UTF_8));
+        assertNull(snapshot.get(dataFile, dataFile.lastModified()));
+    }
+
+    /**
+     * A snapshot written by another version, or corrupted, is discarded.
+     */
+    @Test
+    public void testInvalidSnapshotIsDiscarded() throws IOException {
+        DataSnapshot snapshot = new DataSnapshot(snapshotFile, folder);
+        snapshot.load(CONTEXT);
+        snapshot.put(dataFile, dataFile.lastModified(), content(), new byte[]{1, 2, 3});
+        snapshot.save();
+
+        assertEquals(0, new DataSnapshot(snapshotFile, folder).load("5.7.0/5.7.0"));
+
+        byte[] saved = Files.readAllBytes(snapshotFile.toPath());
+        saved[saved.length - 6] ^= 1;
+        Files.write(snapshotFile.toPath(), saved);
+        assertEquals(0, new DataSnapshot(snapshotFile, folder).load(CONTEXT));
+    }
+}
@@ -20,11 +20,16 @@
 package com.freedomotic.persistence;
 
 import com.freedomotic.app.FreedomoticInjector;
+import com.freedomotic.exceptions.DataUpgradeException;
 import com.freedomotic.model.object.EnvObject;
 import com.freedomotic.testutils.GuiceJUnitRunner;
 import com.freedomotic.settings.Info;
 import com.thoughtworks.xstream.XStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import javax.inject.Inject;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -91,6 +96,29 @@ public class DataUpgradeServiceImplTest {
         //assertXMLEquals(expResult, result);
     }
 
+    /**
+     * Test of the streaming upgrade, reusing the compiled transformation.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testStreamingUpgradeMatchesStringUpgrade() throws Exception {
+        String xml = IOUtils.toString(
+                this.getClass().getResourceAsStream("thing-5.5.0.xml"),
+                "UTF-8");
+        String expected = (String) dataUpgradeService.upgrade(EnvObject.class, xml, "5.5.0");
+        for (int i = 0; i < 2; i++) {
+            StringWriter writer = new StringWriter();
+            dataUpgradeService.upgrade(EnvObject.class, new StreamSource(new StringReader(xml)), new StreamResult(writer), "5.5.0");
+            Assert.assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test(expected = DataUpgradeException.class)
+    public void testUnsupportedTypeIsRejected() throws Exception {
+        dataUpgradeService.upgrade(String.class, "<string/>", "5.5.0");
+    }
+
 //    private void assertXMLEquals(String expectedXML, String actualXML) throws Exception {
 //        XMLUnit.setIgnoreWhitespace(true);
 //        XMLUnit.setIgnoreAttributeOrder(true);
@@ -0,0 +1,79 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.reactions.Trigger;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class FreedomXStreamTest {
+
+    @Test
+    public void testStreamingMatchesBytes() throws Exception {
+        EnvObject thing = new EnvObject();
+        thing.setName("Kitchen Light");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FreedomXStream.toXML(thing, out);
+        assertArrayEquals(FreedomXStream.toXMLBytes(thing), out.toByteArray());
+        assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<object>"));
+    }
+
+    @Test
+    public void testEngineIsSharedAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> engines = new ArrayList<>();
+            List<Future<String>> names = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String name = "Trigger " + i;
+                engines.add(executor.submit(() -> FreedomXStream.getXstream()));
+                names.add(executor.submit(() -> {
+                    Trigger trigger = new Trigger();
+                    trigger.setName(name);
+                    byte[] xml = FreedomXStream.toXMLBytes(trigger);
+                    return ((Trigger) FreedomXStream.getXstream().fromXML(new String(xml, StandardCharsets.UTF_8))).getName();
+                }));
+            }
+            for (Future<Object> engine : engines) {
+                assertSame(FreedomXStream.getXstream(), engine.get());
+            }
+            for (int i = 0; i < names.size(); i++) {
+                assertEquals("Trigger " + i, names.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
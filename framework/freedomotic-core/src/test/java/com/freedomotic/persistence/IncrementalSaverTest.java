@@ -0,0 +1,118 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class IncrementalSaverTest {
+
+    private File folder;
+    private IncrementalSaver saver;
+    private Map<String, Object> entities;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("freedomotic-save").toFile();
+        saver = new IncrementalSaver("tests", ".xtst");
+        entities = new LinkedHashMap<>();
+        entities.put("first", "first value");
+        entities.put("second", "second value");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * Only the changed entities are written again.
+     */
+    @Test
+    public void testOnlyChangedFilesAreWritten() throws IOException {
+        assertTrue(saver.save(folder, entities));
+        assertEquals(2, saver.getFilesWritten());
+        long bytes = saver.getBytesWritten();
+        assertTrue(bytes > 0);
+
+        assertFalse(saver.save(folder, entities));
+        assertEquals(2, saver.getFilesWritten());
+        assertEquals(2, saver.getFilesUnchanged());
+        assertEquals(bytes, saver.getBytesWritten());
+
+        entities.put("second", "changed value");
+        assertTrue(saver.save(folder, entities));
+        assertEquals(3, saver.getFilesWritten());
+        String content = new String(Files.readAllBytes(new File(folder, "second.xtst").toPath()), "UTF-8");
+        assertTrue(content.contains("changed value"));
+    }
+
+    /**
+     * Files already on disk with the same content are not written again,
+     * like after a restart.
+     */
+    @Test
+    public void testUnchangedFilesOnDiskAreNotWritten() throws IOException {
+        saver.save(folder, entities);
+
+        IncrementalSaver restarted = new IncrementalSaver("tests", ".xtst");
+        assertFalse(restarted.save(folder, entities));
+        assertEquals(0, restarted.getFilesWritten());
+        assertEquals(2, restarted.getFilesUnchanged());
+    }
+
+    /**
+     * The files of the removed entities are deleted, other files are left
+     * untouched.
+     */
+    @Test
+    public void testRemovedEntitiesAreDeleted() throws IOException {
+        File other = new File(folder, "index.txt");
+        Files.write(other.toPath(), "index".getBytes("UTF-8"));
+        saver.save(folder, entities);
+
+        entities.remove("first");
+        assertTrue(saver.save(folder, entities));
+        assertEquals(1, saver.getFilesDeleted());
+        assertFalse(new File(folder, "first.xtst").exists());
+        assertTrue(new File(folder, "second.xtst").exists());
+        assertTrue(other.exists());
+        assertFalse(new File(folder, "second.xtst.tmp").exists());
+    }
+}
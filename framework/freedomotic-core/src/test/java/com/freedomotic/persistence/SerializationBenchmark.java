@@ -0,0 +1,130 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.model.environment.Environment;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.reactions.Trigger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the serialization of a thing, a trigger and an environment with
+ * the shared {@link FreedomXStream} engine, to memory and streamed, from one
+ * and from several threads. The trigger is read from the sample data, its
+ * folder can be changed with the freedomotic.trg system property.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private EnvObject thing;
+    private Trigger trigger;
+    private Environment environment;
+
+    @Setup
+    public void setUp() throws IOException {
+        thing = (EnvObject) read("thing-5.6.0.xml");
+        environment = (Environment) read("environment-5.6.0.xml");
+        File folder = new File(System.getProperty("freedomotic.trg", "../../data-example/trg"));
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".xtrg"));
+        if ((files == null) || (files.length == 0)) {
+            throw new IOException("No triggers found in " + folder.getAbsolutePath());
+        }
+        trigger = (Trigger) FreedomXStream.getXstream().fromXML(files[0]);
+    }
+
+    private Object read(String resource) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            return FreedomXStream.getXstream().fromXML(in);
+        }
+    }
+
+    @Benchmark
+    public byte[] thing() {
+        return FreedomXStream.toXMLBytes(thing);
+    }
+
+    @Benchmark
+    public byte[] trigger() {
+        return FreedomXStream.toXMLBytes(trigger);
+    }
+
+    @Benchmark
+    public byte[] environment() {
+        return FreedomXStream.toXMLBytes(environment);
+    }
+
+    /**
+     * Streamed through the buffered writer, nothing is kept in memory.
+     */
+    @Benchmark
+    public void thingStreamed() throws IOException {
+        FreedomXStream.toXML(thing, DISCARD);
+    }
+
+    /**
+     * The shared engine used by concurrent threads, like the REST handlers
+     * and the periodic save do.
+     */
+    @Benchmark
+    @Threads(4)
+    public byte[] thingConcurrent() {
+        return FreedomXStream.toXMLBytes(thing);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SerializationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
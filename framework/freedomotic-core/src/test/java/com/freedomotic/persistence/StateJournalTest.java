@@ -0,0 +1,218 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.reactions.TriggerRepository;
+import com.freedomotic.things.ThingRepository;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class StateJournalTest {
+
+    private static final long COMPACTION_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("freedomotic-state").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    private StateJournal open(int capacity) throws IOException {
+        StateJournal journal = new StateJournal(true, capacity, COMPACTION_INTERVAL);
+        journal.open(folder);
+        return journal;
+    }
+
+    /**
+     * The recorded state is replayed from the journal even if it was never
+     * closed.
+     */
+    @Test
+    public void testReplayAfterCrash() throws IOException {
+        StateJournal journal = open(64 * 1024);
+        Trigger trigger = new Trigger();
+        trigger.setNumberOfExecutions(7);
+        journal.recordBehavior("thing", "powered", "false");
+        journal.recordBehavior("thing", "powered", "true");
+        journal.recordBehavior("thing", "brightness", "42");
+        journal.recordTrigger(trigger);
+        assertEquals(4, journal.getRecordsAppended());
+        // unchanged values are not appended again
+        journal.recordBehavior("thing", "brightness", "42");
+        assertEquals(4, journal.getRecordsAppended());
+
+        StateJournal recovered = open(64 * 1024);
+        assertEquals("true", recovered.getBehaviorValue("thing", "powered"));
+        assertEquals("42", recovered.getBehaviorValue("thing", "brightness"));
+        assertEquals(7, recovered.getTriggerExecutions(trigger.getUUID()));
+        recovered.close();
+    }
+
+    /**
+     * A full journal is compacted into the snapshot without losing state.
+     */
+    @Test
+    public void testCompaction() throws IOException {
+        StateJournal journal = open(4096);
+        for (int i = 0; i < 500; i++) {
+            journal.recordBehavior("thing-" + (i % 50), "value", "value number " + i);
+        }
+        assertTrue(journal.getCompactions() > 0);
+        journal.close();
+
+        StateJournal recovered = open(4096);
+        for (int i = 0; i < 50; i++) {
+            assertEquals("value number " + (450 + i), recovered.getBehaviorValue("thing-" + i, "value"));
+        }
+        recovered.close();
+    }
+
+    /**
+     * The state of deleted things and triggers is not kept in the snapshot.
+     */
+    @Test
+    public void testDeletedStateIsForgotten() throws IOException {
+        StateJournal journal = open(64 * 1024);
+        Trigger trigger = new Trigger();
+        trigger.setNumberOfExecutions(3);
+        journal.recordBehavior("deleted", "powered", "true");
+        journal.recordBehavior("deleted", "brightness", "42");
+        journal.recordBehavior("kept", "powered", "false");
+        journal.recordTrigger(trigger);
+        journal.forgetThing("deleted");
+        journal.forgetTrigger(trigger.getUUID());
+        assertNull(journal.getBehaviorValue("deleted", "powered"));
+        journal.close();
+
+        StateJournal recovered = open(64 * 1024);
+        assertNull(recovered.getBehaviorValue("deleted", "powered"));
+        assertNull(recovered.getBehaviorValue("deleted", "brightness"));
+        assertEquals("false", recovered.getBehaviorValue("kept", "powered"));
+        assertEquals(-1, recovered.getTriggerExecutions(trigger.getUUID()));
+        recovered.close();
+    }
+
+    /**
+     * The counters of the triggers which don't exist anymore are dropped when
+     * the state is restored.
+     */
+    @Test
+    public void testUnknownTriggersAreForgottenOnRestore() throws IOException {
+        StateJournal journal = open(64 * 1024);
+        Trigger trigger = new Trigger();
+        trigger.setNumberOfExecutions(5);
+        journal.recordTrigger(trigger);
+        TriggerRepository empty = (TriggerRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TriggerRepository.class}, (proxy, method, args) -> null);
+
+        assertEquals(0, journal.restoreTriggers(empty));
+        assertEquals(-1, journal.getTriggerExecutions(trigger.getUUID()));
+        journal.close();
+    }
+
+    /**
+     * Only the restoring thread is muted, a sensor updated meanwhile by
+     * another thread is still recorded.
+     */
+    @Test
+    public void testOtherThreadsRecordWhileRestoring() throws Exception {
+        StateJournal journal = open(64 * 1024);
+        journal.recordBehavior("deleted", "powered", "true");
+        ThingRepository things = (ThingRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ThingRepository.class}, (proxy, method, args) -> {
+                    journal.recordBehavior("restored", "powered", "true");
+                    Thread sensor = new Thread(() -> journal.recordBehavior("sensor", "temperature", "21"));
+                    sensor.start();
+                    sensor.join();
+                    return null;
+                });
+
+        assertEquals(0, journal.restoreThings(things));
+        assertNull(journal.getBehaviorValue("restored", "powered"));
+        assertEquals("21", journal.getBehaviorValue("sensor", "temperature"));
+        journal.recordBehavior("restored", "powered", "false");
+        assertEquals("false", journal.getBehaviorValue("restored", "powered"));
+        journal.close();
+    }
+
+    /**
+     * The replay stops at a torn record, keeping the previous ones.
+     */
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        StateJournal journal = open(64 * 1024);
+        journal.recordBehavior("thing", "first", "complete");
+        journal.recordBehavior("thing", "second", "torn");
+
+        File journalFile = new File(folder, "journal.bin");
+        byte[] content = Files.readAllBytes(journalFile.toPath());
+        int position = indexOf(content, "torn".getBytes(StandardCharsets.UTF_8));
+        assertTrue(position > 0);
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.seek(position);
+            file.write('T');
+        }
+
+        StateJournal recovered = open(64 * 1024);
+        assertEquals("complete", recovered.getBehaviorValue("thing", "first"));
+        assertNull(recovered.getBehaviorValue("thing", "second"));
+        recovered.close();
+    }
+
+    private static int indexOf(byte[] content, byte[] pattern) {
+        for (int i = 0; i <= content.length - pattern.length; i++) {
+            int j = 0;
+            while ((j < pattern.length) && (content[i + j] == pattern[j])) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
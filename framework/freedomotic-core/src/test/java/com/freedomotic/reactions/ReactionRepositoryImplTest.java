@@ -0,0 +1,132 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.reactions;
+
+import com.freedomotic.mocks.MockBusService;
+import java.lang.reflect.Field;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class ReactionRepositoryImplTest {
+
+    private ReactionRepositoryImpl repository;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new ReactionRepositoryImpl(null);
+        Field bus = ReactionRepositoryImpl.class.getDeclaredField("busService");
+        bus.setAccessible(true);
+        bus.set(repository, new MockBusService());
+    }
+
+    @After
+    public void tearDown() {
+        repository.deleteAll();
+    }
+
+    private static Reaction reaction(Trigger trigger, String commandName) {
+        Command command = new Command();
+        command.setName(commandName);
+        return new Reaction(trigger, command);
+    }
+
+    private static Trigger trigger(String name) {
+        Trigger trigger = new Trigger();
+        trigger.setName(name);
+        return trigger;
+    }
+
+    @Test
+    public void testFindByTriggerMatchesNameIgnoringCase() {
+        Trigger motion = trigger("Motion detected");
+        Reaction first = reaction(motion, "Turn on light");
+        Reaction second = reaction(motion, "Send alert");
+        Reaction other = reaction(trigger("Door opened"), "Turn on light");
+        repository.create(first);
+        repository.create(second);
+        repository.create(other);
+
+        // resolved triggers are clones with a different uuid
+        List<Reaction> bound = repository.findByTrigger(trigger("motion DETECTED"));
+        assertEquals(2, bound.size());
+        assertSame(first, bound.get(0));
+        assertSame(second, bound.get(1));
+        assertTrue(repository.findByTrigger(trigger("Window opened")).isEmpty());
+    }
+
+    @Test
+    public void testIndexesFollowDeleteAndModify() {
+        Trigger motion = trigger("Motion detected");
+        Reaction first = reaction(motion, "Turn on light");
+        Reaction second = reaction(motion, "Send alert");
+        repository.create(first);
+        repository.create(second);
+
+        assertSame(first, repository.findOne(first.getUuid().toUpperCase()));
+        repository.delete(first.getUuid());
+        assertNull(repository.findOne(first.getUuid()));
+        assertEquals(1, repository.findByTrigger(motion).size());
+
+        Reaction replacement = reaction(trigger("Door opened"), "Send alert");
+        repository.modify(second.getUuid(), replacement);
+        assertSame(replacement, repository.findOne(second.getUuid()));
+        assertTrue(repository.findByTrigger(motion).isEmpty());
+        assertEquals(1, repository.findByTrigger(trigger("Door opened")).size());
+    }
+
+    @Test
+    public void testReindexAfterTriggerRename() {
+        Trigger motion = trigger("Kitchen motion detected");
+        Reaction reaction = reaction(motion, "Turn on light");
+        repository.create(reaction);
+
+        motion.setName("Dining room motion detected");
+        repository.reindexTriggers();
+        assertTrue(repository.findByTrigger(trigger("Kitchen motion detected")).isEmpty());
+        assertEquals(1, repository.findByTrigger(motion).size());
+
+        repository.delete(reaction);
+        assertTrue(repository.findByTrigger(motion).isEmpty());
+    }
+
+    @Test
+    public void testFindByTriggerKeepsTheOrderOfFindAll() {
+        Reaction lower = reaction(trigger("motion detected"), "Send alert");
+        Reaction upper = reaction(trigger("Motion detected"), "Turn on light");
+        Reaction later = reaction(trigger("motion detected"), "Turn on siren");
+        repository.create(lower);
+        repository.create(upper);
+        repository.create(later);
+
+        List<Reaction> bound = repository.findByTrigger(trigger("MOTION DETECTED"));
+        assertEquals(3, bound.size());
+        assertSame(upper, bound.get(0));
+        assertSame(lower, bound.get(1));
+        assertSame(later, bound.get(2));
+        assertEquals(repository.findAll(), bound);
+    }
+}
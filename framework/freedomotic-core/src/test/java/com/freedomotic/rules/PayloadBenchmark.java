@@ -0,0 +1,133 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the {@link Payload} operations on the hot path of an event: filling
+ * it, reading some properties and comparing it with a trigger. The list
+ * benchmarks reproduce the previous synchronized list implementation as a
+ * baseline.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    private static final String[] ATTRIBUTES = {
+        "date.day.name", "date.day", "date.month.name", "date.month", "date.year", "date.dow",
+        "time.hour", "time.minute", "time.second", "time", "date", "sender", "uuid", "type",
+        "protocol", "address", "object.name", "object.class", "behaviorValue", "isOn"};
+    private static final String[] LOOKUPS = {"protocol", "address", "behaviorValue"};
+    private Payload event;
+    private Payload trigger;
+    private List<Statement> list;
+
+    @Setup
+    public void setUp() {
+        event = new Payload();
+        list = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            event.addStatement(ATTRIBUTES[i], "value" + i);
+            list.add(new Statement().create(Statement.AND, ATTRIBUTES[i], Statement.EQUALS, "value" + i));
+        }
+        trigger = new Payload();
+        trigger.addStatement(Statement.AND, "protocol", Statement.EQUALS, "value14");
+        trigger.addStatement(Statement.AND, "address", Statement.REGEX, "value1.");
+        trigger.addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.isOn");
+    }
+
+    @Benchmark
+    public Payload add() {
+        Payload payload = new Payload();
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            payload.addStatement(ATTRIBUTES[i], "value");
+        }
+        return payload;
+    }
+
+    @Benchmark
+    public List<Statement> addToList() {
+        List<Statement> statements = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            Statement statement = new Statement().create(Statement.AND, ATTRIBUTES[i], Statement.EQUALS, "value");
+            if (!statements.contains(statement)) {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+
+    @Benchmark
+    public void lookup(Blackhole blackhole) {
+        for (String attribute : LOOKUPS) {
+            blackhole.consume(event.getStatementValue(attribute));
+        }
+    }
+
+    @Benchmark
+    public void lookupInList(Blackhole blackhole) {
+        for (String attribute : LOOKUPS) {
+            List<Statement> found = new ArrayList<>();
+            synchronized (list) {
+                for (Statement statement : list) {
+                    if (statement.getAttribute().equalsIgnoreCase(attribute)) {
+                        found.add(statement);
+                    }
+                }
+            }
+            blackhole.consume(found.isEmpty() ? "" : found.get(0).getValue());
+        }
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return trigger.equals(event);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PayloadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
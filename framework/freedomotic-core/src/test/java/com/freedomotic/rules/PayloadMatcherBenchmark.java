@@ -0,0 +1,144 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.rules;
+
+import com.freedomotic.persistence.FreedomXStream;
+import com.freedomotic.reactions.Trigger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link Payload#equals(java.lang.Object)} with {@link PayloadMatcher}
+ * on the sample triggers, every trigger is checked against every sample event.
+ * The triggers folder can be changed with the freedomotic.trg system property.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadMatcherBenchmark {
+
+    private final List<Payload> triggers = new ArrayList<>();
+    private final List<PayloadMatcher> matchers = new ArrayList<>();
+    private final List<Payload> events = new ArrayList<>();
+    private final List<PayloadIndex> indexes = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        File folder = new File(System.getProperty("freedomotic.trg", "../../data-example/trg"));
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".xtrg"));
+        if ((files == null) || (files.length == 0)) {
+            throw new IOException("No triggers found in " + folder.getAbsolutePath());
+        }
+        for (File file : files) {
+            try (InputStream in = new FileInputStream(file)) {
+                Trigger trigger = (Trigger) FreedomXStream.getXstream().fromXML(in);
+                triggers.add(trigger.getPayload());
+                matchers.add(PayloadMatcher.compile(trigger.getPayload()));
+            }
+        }
+        for (String status : new String[]{"FAILED", "RUNNING", "STOPPED"}) {
+            addEvent("plugin.status", status, "plugin.name", "Sample plugin");
+        }
+        addEvent("object.type", "EnvObject.Thermometer", "object.name", "Thermometer");
+        addEvent("object.type", "EnvObject.ElectricDevice.Light", "object.name", "Light");
+        addEvent("object.type", "EnvObject.Gate", "click", "SINGLE_CLICK");
+        addEvent("object.type", "EnvObject.ElectricDevice.Light", "click", "SINGLE_CLICK");
+        addEvent("account.action", "LOGIN", "account.subject", "admin");
+        for (Payload event : events) {
+            indexes.add(new PayloadIndex(event));
+        }
+    }
+
+    private void addEvent(String attribute, String value, String otherAttribute, String otherValue) {
+        Payload event = new Payload();
+        event.addStatement(attribute, value);
+        event.addStatement(otherAttribute, otherValue);
+        event.addStatement("date.hour", "10");
+        event.addStatement("time.hhmmss", "10:00:00");
+        events.add(event);
+    }
+
+    /**
+     * The current path, the payload is interpreted on every comparison.
+     */
+    @Benchmark
+    public void payloadEquals(Blackhole blackhole) {
+        for (Payload event : events) {
+            for (Payload trigger : triggers) {
+                blackhole.consume(trigger.equals(event));
+            }
+        }
+    }
+
+    /**
+     * Compiled matchers, the event is indexed once for all the triggers.
+     */
+    @Benchmark
+    public void compiledMatcher(Blackhole blackhole) {
+        for (Payload event : events) {
+            PayloadIndex index = new PayloadIndex(event);
+            for (PayloadMatcher matcher : matchers) {
+                blackhole.consume(matcher.matches(index));
+            }
+        }
+    }
+
+    /**
+     * Compiled matchers on already indexed events, only the matching cost.
+     */
+    @Benchmark
+    public void compiledMatcherPrebuiltIndex(Blackhole blackhole) {
+        for (PayloadIndex index : indexes) {
+            for (PayloadMatcher matcher : matchers) {
+                blackhole.consume(matcher.matches(index));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PayloadMatcherBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * The compiled matcher must always agree with {@link Payload#equals(java.lang.Object)}.
+ *
+ * @author Freedomotic Team
+ */
+public class PayloadMatcherTest {
+
+    private static boolean matches(Payload trigger, Payload event) {
+        boolean expected = trigger.equals(event);
+        boolean result = PayloadMatcher.compile(trigger).matches(new PayloadIndex(event));
+        assertEquals("Compiled matcher disagrees with Payload.equals()", expected, result);
+        return result;
+    }
+
+    @Test
+    public void testEquals() {
+        Payload event = new Payload();
+        event.addStatement(Statement.AND, "number", Statement.EQUALS, "1");
+        event.addStatement(Statement.AND, "text", Statement.EQUALS, "abc");
+        event.addStatement(Statement.AND, "testRegex", Statement.EQUALS, "EnvObject.ElectricDevice.Light");
+
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "NUMBER", Statement.EQUALS, "1");
+        trigger.addStatement(Statement.AND, "number", Statement.EQUALS, Statement.ANY);
+        trigger.addStatement(Statement.AND, "event.number", Statement.EQUALS, "123");
+        trigger.addStatement(Statement.SET, "defineANewProperty", Statement.EQUALS, "123");
+        trigger.addStatement(Statement.AND, "testRegex", Statement.REGEX, "^EnvObject.ElectricDevice\\.(.*)");
+        assertTrue(matches(trigger, event));
+
+        trigger.addStatement(Statement.AND, "text", Statement.EQUALS, "xyz");
+        assertFalse(matches(trigger, event));
+    }
+
+    @Test
+    public void testOr() {
+        Payload event = new Payload();
+        event.addStatement(Statement.AND, "object.type", Statement.EQUALS, "EnvObject.Thermostat");
+
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "object.type", Statement.EQUALS, "EnvObject.Thermometer");
+        trigger.addStatement(Statement.OR, "object.type", Statement.EQUALS, "EnvObject.Thermostat");
+        assertTrue(matches(trigger, event));
+    }
+
+    @Test
+    public void testGreaterLess() {
+        Payload event = new Payload();
+        event.addStatement(Statement.AND, "number", Statement.EQUALS, "1");
+        event.addStatement(Statement.AND, "text", Statement.EQUALS, "abc");
+
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "number", Statement.LESS_THAN, "2");
+        trigger.addStatement(Statement.AND, "number", Statement.GREATER_THAN, "0");
+        trigger.addStatement(Statement.AND, "number", Statement.LESS_EQUAL_THAN, "1");
+        assertTrue(matches(trigger, event));
+
+        trigger.addStatement(Statement.AND, "text", Statement.GREATER_EQUAL_THAN, "1");
+        assertFalse(matches(trigger, event));
+    }
+
+    @Test
+    public void testBetweenTime() {
+        Payload event = new Payload();
+        event.addStatement(Statement.AND, "morning", Statement.EQUALS, "10:00:00");
+        event.addStatement(Statement.AND, "evening", Statement.EQUALS, "23:00:00");
+        event.addStatement(Statement.AND, "midnight1", Statement.EQUALS, "00:00:00");
+        event.addStatement(Statement.AND, "midnight2", Statement.EQUALS, "24:00:00");
+
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "morning", Statement.BETWEEN_TIME, "9:00:0-11:00:00");
+        trigger.addStatement(Statement.AND, "evening", Statement.BETWEEN_TIME, "22:00:00-8:00:00");
+        trigger.addStatement(Statement.AND, "midnight1", Statement.BETWEEN_TIME, "23:30:00-0:30:00");
+        trigger.addStatement(Statement.AND, "midnight2", Statement.BETWEEN_TIME, "23:30:00-0:30:00");
+        assertTrue(matches(trigger, event));
+
+        trigger.addStatement(Statement.AND, "morning", Statement.BETWEEN_TIME, "11:00:00-12:00:00");
+        assertFalse(matches(trigger, event));
+    }
+
+    @Test
+    public void testTriggerHasUnexistentAttribute() {
+        Payload event = new Payload();
+        event.addStatement(Statement.AND, "number", Statement.EQUALS, "1");
+
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "unexistentPropertyTwo", Statement.EQUALS, "1");
+        trigger.addStatement(Statement.SET, "defineANewProperty", Statement.EQUALS, "123");
+        assertFalse(matches(trigger, event));
+    }
+
+    @Test
+    public void testEventReferencesAreNotStatic() {
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "number", Statement.EQUALS, "1");
+        trigger.addStatement(Statement.SET, "value", Statement.EQUALS, "@event.number");
+        assertTrue(PayloadMatcher.compile(trigger).isStatic());
+
+        trigger.addStatement(Statement.AND, "text", Statement.EQUALS, "@event.number");
+        assertFalse(PayloadMatcher.compile(trigger).isStatic());
+    }
+
+    @Test
+    public void testStatementsChangedInPlaceMakeTheMatcherStale() {
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "object.name", Statement.EQUALS, "Kitchen light");
+        PayloadMatcher matcher = PayloadMatcher.compile(trigger);
+        assertTrue(matcher.isCompiledFrom(trigger));
+
+        // as a thing rename does
+        trigger.getStatements().get(0).setValue("Dining room light");
+        assertFalse(matcher.isCompiledFrom(trigger));
+
+        Payload event = new Payload();
+        event.addStatement(Statement.AND, "object.name", Statement.EQUALS, "Dining room light");
+        assertTrue(PayloadMatcher.compile(trigger).matches(new PayloadIndex(event)));
+        assertEquals(1, trigger.getStatements("OBJECT.NAME").size());
+    }
+
+    @Test
+    public void testDateDependency() {
+        Payload trigger = new Payload();
+        trigger.addStatement(Statement.AND, "object.name", Statement.EQUALS, "Kitchen light");
+        trigger.addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.isOn");
+        assertFalse(PayloadMatcher.compile(trigger).isDateDependent());
+
+        Payload weekly = new Payload();
+        weekly.addStatement(Statement.AND, "DATE.day.name", Statement.EQUALS, "Monday");
+        assertTrue(PayloadMatcher.compile(weekly).isDateDependent());
+
+        Payload referencing = new Payload();
+        referencing.addStatement(Statement.SET, "hour", Statement.EQUALS, "@event.time.hour");
+        assertTrue(PayloadMatcher.compile(referencing).isDateDependent());
+
+        assertTrue(PayloadMatcher.isDateAttribute("time"));
+        assertFalse(PayloadMatcher.isDateAttribute("timeout"));
+    }
+}
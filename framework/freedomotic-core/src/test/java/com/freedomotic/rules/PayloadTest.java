@@ -20,6 +20,8 @@
 package com.freedomotic.rules;
 
 import com.freedomotic.events.MessageEvent;
+import java.util.Iterator;
+import java.util.List;
 import org.slf4j.LoggerFactory;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -219,4 +221,71 @@ public class PayloadTest {
         String value = "[{\"logical\":\"AND\",\"attribute\":\"no\",\"operand\":\"EQUALS\",\"value\":\"value1\"},{\"logical\":\"AND\",\"attribute\":\"yes\",\"operand\":\"EQUALS\",\"value\":\"value2\"},{\"logical\":\"AND\",\"attribute\":\"yes\",\"operand\":\"EQUALS\",\"value\":\"value3\"}]";
         assertEquals(value, payload.getStatementsAsJson());
     }
+
+    /**
+     * Attributes are searched ignoring case and the first statement wins.
+     */
+    @Test
+    public void testGetStatementValue() {
+        Payload payload = new Payload();
+        payload.addStatement("Protocol", "x10");
+        payload.addStatement("protocol", "zwave");
+        assertEquals("x10", payload.getStatementValue("PROTOCOL"));
+        assertEquals("", payload.getStatementValue("address"));
+        assertEquals(2, payload.getStatements("protocol").size());
+    }
+
+    /**
+     * A snapshot of the statements is not changed by later additions.
+     */
+    @Test
+    public void testStatementsSnapshot() {
+        Payload payload = new Payload();
+        payload.addStatement("one", "1");
+        List<Statement> statements = payload.getStatementsSnapshot();
+        payload.addStatement("two", "2");
+        assertEquals(1, statements.size());
+        assertEquals(2, payload.getStatementsSnapshot().size());
+        assertEquals("2", payload.getStatementValue("two"));
+
+        payload.clear();
+        assertEquals(0, payload.size());
+        assertEquals("", payload.getStatementValue("one"));
+    }
+
+    /**
+     * The list of statements is a live view, changing it changes the payload.
+     */
+    @Test
+    public void testStatementsAreLive() {
+        Payload payload = new Payload();
+        payload.addStatement("one", "1");
+        List<Statement> statements = payload.getStatements();
+        payload.addStatement("two", "2");
+        assertEquals(2, statements.size());
+
+        statements.add(new Statement().create(Statement.AND, "three", Statement.EQUALS, "3"));
+        assertEquals("3", payload.getStatementValue("three"));
+        Iterator<Statement> it = payload.iterator();
+        it.next();
+        it.remove();
+        assertEquals("", payload.getStatementValue("one"));
+        assertEquals(2, payload.size());
+    }
+
+    /**
+     * Merging keeps duplicated statements, as the trigger resolution expects.
+     */
+    @Test
+    public void testMerge() {
+        Payload payload = new Payload();
+        payload.addStatement("one", "1");
+        Payload other = new Payload();
+        other.addStatement("one", "1");
+        other.addStatement("two", "2");
+        payload.merge(other);
+        assertEquals(3, payload.size());
+        payload.addStatement("two", "2");
+        assertEquals(3, payload.size());
+    }
 }
@@ -0,0 +1,122 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.things.impl;
+
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.things.EnvObjectLogic;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link ThingIndex} lookups with the linear scans previously
+ * done by the thing repository, on a large installation.
+ *
+ * @author Freedomotic Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThingIndexBenchmark {
+
+    private static final int THINGS = 10000;
+    private final ThingIndex index = new ThingIndex();
+    private final List<EnvObjectLogic> things = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < THINGS; i++) {
+            EnvObject pojo = new EnvObject();
+            pojo.setName("Thing " + i);
+            pojo.setUUID("uuid-" + i);
+            pojo.setProtocol("protocol" + (i % 10));
+            pojo.setPhisicalAddress("address" + i);
+            pojo.setEnvironmentID("env");
+            pojo.initTags();
+            EnvObjectLogic thing = new BenchmarkThing(pojo);
+            things.add(thing);
+            index.add(thing);
+        }
+    }
+
+    @Benchmark
+    public List<EnvObjectLogic> findByAddress() {
+        return index.findByAddress("protocol7", "address" + (THINGS - 3));
+    }
+
+    @Benchmark
+    public List<EnvObjectLogic> scanByAddress() {
+        String address = "address" + (THINGS - 3);
+        List<EnvObjectLogic> found = new ArrayList<>();
+        for (EnvObjectLogic thing : things) {
+            if (thing.getPojo().getProtocol().equalsIgnoreCase("protocol7")
+                    && thing.getPojo().getPhisicalAddress().equalsIgnoreCase(address)) {
+                found.add(thing);
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<EnvObjectLogic> findByName() {
+        return index.findByName("thing " + (THINGS / 2));
+    }
+
+    @Benchmark
+    public List<EnvObjectLogic> scanByName() {
+        String name = "thing " + (THINGS / 2);
+        List<EnvObjectLogic> found = new ArrayList<>();
+        for (EnvObjectLogic thing : things) {
+            if (thing.getPojo().getName().equalsIgnoreCase(name)) {
+                found.add(thing);
+            }
+        }
+        return found;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ThingIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static class BenchmarkThing extends EnvObjectLogic {
+
+        BenchmarkThing(EnvObject pojo) {
+            setPojo(pojo);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.things.impl;
+
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.ThingRepository;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class ThingIndexTest {
+
+    private ThingIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ThingIndex();
+    }
+
+    private static TestThing createThing(String name, String protocol, String address) {
+        EnvObject pojo = new EnvObject();
+        pojo.setName(name);
+        pojo.setUUID(name + "-uuid");
+        pojo.setProtocol(protocol);
+        pojo.setPhisicalAddress(address);
+        pojo.setEnvironmentID("env");
+        pojo.setType("EnvObject.ElectricDevice.Light");
+        pojo.initTags();
+        return new TestThing(pojo);
+    }
+
+    /**
+     * Lookups are case insensitive and return only the matching things.
+     */
+    @Test
+    public void testFind() {
+        TestThing kitchen = createThing("Kitchen Light", "X10", "A01");
+        TestThing garden = createThing("Garden Light", "zwave", "12");
+        kitchen.getPojo().getTagsList().add("light");
+        index.add(kitchen);
+        index.add(garden);
+
+        assertSame(kitchen, index.findByName("kitchen light").get(0));
+        assertSame(garden, index.findByAddress("ZWAVE", "12").get(0));
+        assertTrue(index.findByAddress("x10", "12").isEmpty());
+        assertSame(kitchen, index.findByUuid("Kitchen Light-uuid").get(0));
+        assertSame(kitchen, index.findByProtocol("x10").get(0));
+        assertSame(kitchen, index.findByTag("light").get(0));
+        assertEquals(2, index.findByEnvironment("env").size());
+        assertEquals(2, index.findByType("envobject.electricdevice.light").size());
+    }
+
+    /**
+     * Updated things are found with the new values only, things changed
+     * without updating the index are filtered out anyway.
+     */
+    @Test
+    public void testUpdate() {
+        TestThing kitchen = createThing("Kitchen Light", "X10", "A01");
+        index.add(kitchen);
+
+        kitchen.getPojo().setName("Dining Light");
+        index.update(kitchen);
+        assertTrue(index.findByName("Kitchen Light").isEmpty());
+        assertSame(kitchen, index.findByName("Dining Light").get(0));
+
+        kitchen.getPojo().setPhisicalAddress("A02");
+        assertTrue(index.findByAddress("X10", "A01").isEmpty());
+        assertSame(kitchen, index.findByAddress("X10", "A02").get(0));
+    }
+
+    /**
+     * Things changed with their own methods are found with the new values.
+     */
+    @Test
+    public void testMutatorsUpdateTheIndex() throws Exception {
+        TestThing kitchen = createThing("Kitchen Light", "X10", "A01");
+        index.add(kitchen);
+        Field repository = EnvObjectLogic.class.getDeclaredField("thingRepository");
+        repository.setAccessible(true);
+        repository.set(kitchen, Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ThingRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("reindex")) {
+                        index.update((EnvObjectLogic) args[0]);
+                    }
+                    return null;
+                }));
+
+        kitchen.setAddress("zwave", "12");
+        assertSame(kitchen, index.findByAddress("ZWAVE", "12").get(0));
+        assertSame(kitchen, index.findByProtocol("zwave").get(0));
+        kitchen.addTags("light");
+        assertSame(kitchen, index.findByTag("light").get(0));
+    }
+
+    /**
+     * Removed things are not found anymore.
+     */
+    @Test
+    public void testRemove() {
+        TestThing kitchen = createThing("Kitchen Light", "X10", "A01");
+        index.add(kitchen);
+        index.remove(kitchen);
+
+        assertTrue(index.findByName("Kitchen Light").isEmpty());
+        assertTrue(index.findByAddress("X10", "A01").isEmpty());
+        assertTrue(index.findByProtocol("X10").isEmpty());
+    }
+
+    /**
+     * Things with the same name or the same known address are equal, the
+     * ignored thing is skipped.
+     */
+    @Test
+    public void testContainsEqual() {
+        TestThing kitchen = createThing("Kitchen Light", "X10", "A01");
+        index.add(kitchen);
+
+        assertTrue(index.containsEqual(createThing("KITCHEN LIGHT", "zwave", "12"), null));
+        assertTrue(index.containsEqual(createThing("Dining Light", "x10", "a01"), null));
+        assertFalse(index.containsEqual(createThing("Dining Light", "x10", "a01"), kitchen));
+        assertFalse(index.containsEqual(createThing("Dining Light", "X10", "A02"), null));
+        assertFalse(index.containsEqual(createThing("Garden Light", "unknown", "unknown"), null));
+    }
+
+    private static class TestThing extends EnvObjectLogic {
+
+        TestThing(EnvObject pojo) {
+            setPojo(pojo);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ * Copyright (c) 2009-2022 Freedomotic Team http://www.freedomotic-platform.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.things.impl;
+
+import com.freedomotic.core.SynchAction;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.things.EnvObjectLogic;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Freedomotic Team
+ */
+public class ThingRegistryTest {
+
+    private ThingRegistry registry;
+    private List<String> changes;
+
+    @Before
+    public void setUp() {
+        registry = new ThingRegistry();
+        changes = new ArrayList<>();
+        registry.addListener((action, thing) -> changes.add(action + " " + thing.getPojo().getName()));
+    }
+
+    private static TestThing createThing(String name) {
+        EnvObject pojo = new EnvObject();
+        pojo.setName(name);
+        pojo.setUUID(name + "-uuid");
+        return new TestThing(pojo);
+    }
+
+    /**
+     * The snapshot is shared until the registry changes and it is not affected
+     * by later changes.
+     */
+    @Test
+    public void testSnapshot() {
+        TestThing kitchen = createThing("kitchen");
+        registry.add("kitchen-uuid", kitchen);
+        List<EnvObjectLogic> first = registry.snapshot();
+        assertSame(first, registry.snapshot());
+
+        registry.add("garden-uuid", createThing("garden"));
+        List<EnvObjectLogic> second = registry.snapshot();
+        assertNotSame(first, second);
+        assertEquals(1, first.size());
+        assertEquals(2, second.size());
+        try {
+            second.add(kitchen);
+            fail("Snapshots must be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A thing is replaced only if it is still the expected instance.
+     */
+    @Test
+    public void testReplace() {
+        TestThing kitchen = createThing("kitchen");
+        TestThing first = createThing("kitchen");
+        TestThing second = createThing("kitchen");
+        assertTrue(registry.add("kitchen-uuid", kitchen));
+        assertFalse(registry.add("kitchen-uuid", first));
+
+        assertTrue(registry.replace("kitchen-uuid", kitchen, first));
+        assertFalse(registry.replace("kitchen-uuid", kitchen, second));
+        // an equal thing is not the same instance
+        assertFalse(registry.replace("kitchen-uuid", createThing("kitchen"), second));
+        assertFalse(registry.replace("garden-uuid", kitchen, second));
+        assertSame(first, registry.get("kitchen-uuid"));
+        assertEquals(2, changes.size());
+    }
+
+    /**
+     * Listeners are notified of every change, the version is incremented.
+     */
+    @Test
+    public void testNotifications() {
+        TestThing kitchen = createThing("kitchen");
+        long version = registry.getVersion();
+        registry.add("kitchen-uuid", kitchen);
+        registry.replace("kitchen-uuid", kitchen, kitchen);
+        assertSame(kitchen, registry.remove("kitchen-uuid"));
+        assertNull(registry.remove("kitchen-uuid"));
+
+        assertEquals(version + 3, registry.getVersion());
+        assertEquals(3, changes.size());
+        assertEquals(SynchAction.CREATED + " kitchen", changes.get(0));
+        assertEquals(SynchAction.UPDATED + " kitchen", changes.get(1));
+        assertEquals(SynchAction.DELETED + " kitchen", changes.get(2));
+    }
+
+    private static class TestThing extends EnvObjectLogic {
+
+        TestThing(EnvObject pojo) {
+            setPojo(pojo);
+        }
+    }
+}
@@ -71,9 +71,12 @@ public class UsageData implements Cloneable, Serializable {
      * @param source - source UsageData object to make a copy of
      */
     public UsageData(UsageData source) {
-        this.objname = source.objaddress;
-        this.objprotocol = source.objprotocol;
+        this.id = source.id;
         this.objname = source.objname;
+        this.objaddress = source.objaddress;
+        this.objprotocol = source.objprotocol;
+        this.objbehavior = source.objbehavior;
+        this.objvalue = source.objvalue;
         this.datetime = source.datetime;
         this.uuid = source.uuid;
     }
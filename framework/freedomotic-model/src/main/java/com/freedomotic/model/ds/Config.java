@@ -46,9 +46,28 @@ public class Config
     private static final Logger LOG = LoggerFactory.getLogger(Config.class.getName());
     private static final long serialVersionUID = 1380975976029008480L;
     @XmlElement(name = "props")
-    private final Properties properties = new Properties();
+    private final Properties properties;
     private String xmlFile = "";
-    private final Tuples tuples = new Tuples();
+    private final Tuples tuples;
+
+    /**
+     *
+     */
+    public Config() {
+        properties = new Properties();
+        tuples = new Tuples();
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the configuration to copy
+     */
+    public Config(Config source) {
+        properties = (Properties) source.properties.clone();
+        xmlFile = source.xmlFile;
+        tuples = new Tuples(source.tuples);
+    }
 
     /**
      *
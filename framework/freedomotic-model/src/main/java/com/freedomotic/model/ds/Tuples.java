@@ -43,6 +43,23 @@ public class Tuples
     private static final long serialVersionUID = 3113993714552615957L;
     private final ArrayList<HashMap<String, String>> tuples = new ArrayList<HashMap<String, String>>();
 
+    /**
+     *
+     */
+    public Tuples() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the tuples to copy
+     */
+    public Tuples(Tuples source) {
+        for (HashMap<String, String> tuple : source.tuples) {
+            tuples.add(new HashMap<String, String>(tuple));
+        }
+    }
+
     /**
      * Returns a tuple given its index.
      *
@@ -53,6 +53,29 @@ public class Environment
     public Environment() {
     }
 
+    /**
+     * Copy constructor, the zones are copied too.
+     *
+     * @param source the environment to copy
+     */
+    public Environment(Environment source) {
+        this.name = source.name;
+        this.width = source.width;
+        this.height = source.height;
+        this.renderer = source.renderer;
+        this.backgroundColor = (source.backgroundColor != null) ? new FreedomColor(source.backgroundColor) : null;
+        this.backgroundImage = source.backgroundImage;
+        if (source.zones != null) {
+            this.zones = new ArrayList<Zone>(source.zones.size());
+            for (Zone zone : source.zones) {
+                this.zones.add(new Zone(zone));
+            }
+        } else {
+            this.zones = null;
+        }
+        this.uuid = source.uuid;
+    }
+
     /**
      *
      * @return
@@ -49,6 +49,27 @@ public class Zone
         this.uuid = UUID.randomUUID().toString();
     }
 
+    /**
+     * Copy constructor, the shape and the objects in the zone are copied
+     * too.
+     *
+     * @param source the zone to copy
+     */
+    public Zone(Zone source) {
+        this.name = source.name;
+        this.description = source.description;
+        this.room = source.room;
+        this.shape = (source.shape != null) ? new FreedomPolygon(source.shape) : null;
+        if (source.objects != null) {
+            this.objects = new ArrayList<EnvObject>(source.objects.size());
+            for (EnvObject object : source.objects) {
+                this.objects.add(new EnvObject(object));
+            }
+        }
+        this.texture = source.texture;
+        this.uuid = source.uuid;
+    }
+
     /**
      * Returns the zone name.
      *
@@ -42,6 +42,18 @@ public class FreedomColor implements Serializable{
     public FreedomColor() {
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param source the color to copy
+     */
+    public FreedomColor(FreedomColor source) {
+        this.red = source.red;
+        this.green = source.green;
+        this.blue = source.blue;
+        this.alpha = source.alpha;
+    }
+
     /**
      *
      * @return
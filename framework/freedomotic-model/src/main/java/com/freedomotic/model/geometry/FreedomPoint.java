@@ -51,6 +51,16 @@ public class FreedomPoint implements Serializable {
         this.y = 0;
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param source the point to copy
+     */
+    public FreedomPoint(FreedomPoint source) {
+        this.x = source.x;
+        this.y = source.y;
+    }
+
     /**
      *
      * @return
@@ -36,7 +36,24 @@ public class FreedomPolygon
 
     private ArrayList<FreedomPoint> points = new ArrayList<>();
 
-  
+    /**
+     *
+     */
+    public FreedomPolygon() {
+    }
+
+    /**
+     * Copy constructor, the points are copied too.
+     *
+     * @param source the polygon to copy
+     */
+    public FreedomPolygon(FreedomPolygon source) {
+        points = new ArrayList<>(source.points.size());
+        for (FreedomPoint point : source.points) {
+            points.add(new FreedomPoint(point));
+        }
+    }
+
     /**
      *
      * @param point
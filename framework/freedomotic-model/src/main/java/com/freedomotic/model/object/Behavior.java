@@ -57,6 +57,33 @@ public abstract class Behavior
      */
     public static final String VALUE_PREVIOUS = "previous";
 
+    /**
+     *
+     */
+    public Behavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    protected Behavior(Behavior source) {
+        this.name = source.name;
+        this.description = source.description;
+        this.active = source.active;
+        this.priority = source.priority;
+        this.readOnly = source.readOnly;
+    }
+
+    /**
+     * Creates a deep copy of this behavior, the values of the copy can be
+     * changed without affecting the original.
+     *
+     * @return the copy
+     */
+    public abstract Behavior copy();
+
     /**
      *
      * @return
@@ -43,6 +43,30 @@ public class BooleanBehavior
      */
     public static final String VALUE_FALSE = "false";
 
+    /**
+     *
+     */
+    public BooleanBehavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    public BooleanBehavior(BooleanBehavior source) {
+        super(source);
+        this.value = source.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BooleanBehavior copy() {
+        return new BooleanBehavior(this);
+    }
+
     /**
      *
      * @return
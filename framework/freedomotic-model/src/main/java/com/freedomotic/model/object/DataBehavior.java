@@ -35,6 +35,35 @@ public class DataBehavior extends Behavior {
 
     private ArrayList<UsageData> data;
 
+    /**
+     *
+     */
+    public DataBehavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    public DataBehavior(DataBehavior source) {
+        super(source);
+        if (source.data != null) {
+            this.data = new ArrayList<>(source.data.size());
+            for (UsageData usage : source.data) {
+                this.data.add(new UsageData(usage));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataBehavior copy() {
+        return new DataBehavior(this);
+    }
+
     /**
      *
      * @param data
@@ -61,6 +61,42 @@ public class EnvObject implements Serializable {
     private int currentRepresentation;
     private String envUUID;
 
+    /**
+     *
+     */
+    public EnvObject() {
+    }
+
+    /**
+     * Copy constructor, creates a deep copy of the thing data. Only the
+     * shapes of the representations are shared with the copy.
+     *
+     * @param source the thing to copy
+     */
+    public EnvObject(EnvObject source) {
+        this.name = source.name;
+        this.description = source.description;
+        this.actAs = source.actAs;
+        this.type = source.type;
+        this.uuid = source.uuid;
+        this.hierarchy = source.hierarchy;
+        this.protocol = source.protocol;
+        this.phisicalAddress = source.phisicalAddress;
+        for (Behavior behavior : source.behaviors) {
+            this.behaviors.add(behavior.copy());
+        }
+        for (Representation view : source.representation) {
+            this.representation.add(new Representation(view));
+        }
+        this.tags = (source.tags != null) ? new HashSet<>(source.tags) : null;
+        for (Map.Entry<String, String> action : source.actions.entrySet()) {
+            this.actions.setProperty(action.getKey(), action.getValue());
+        }
+        this.triggers = (source.triggers != null) ? new Properties(source.triggers) : null;
+        this.currentRepresentation = source.currentRepresentation;
+        this.envUUID = source.envUUID;
+    }
+
     /**
      *
      * @return uuid
@@ -35,6 +35,31 @@ public class ListBehavior
     private int selected;
     private ArrayList<String> list = new ArrayList<>();
 
+    /**
+     *
+     */
+    public ListBehavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    public ListBehavior(ListBehavior source) {
+        super(source);
+        this.selected = source.selected;
+        this.list = new ArrayList<>(source.list);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListBehavior copy() {
+        return new ListBehavior(this);
+    }
+
     /**
      *
      * @param key
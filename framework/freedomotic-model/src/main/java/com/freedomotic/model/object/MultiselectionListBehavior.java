@@ -36,6 +36,31 @@ public class MultiselectionListBehavior
     private final ArrayList<String> list = new ArrayList<>();
     private final List<String> selected = new ArrayList<>();
 
+    /**
+     *
+     */
+    public MultiselectionListBehavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    public MultiselectionListBehavior(MultiselectionListBehavior source) {
+        super(source);
+        this.list.addAll(source.list);
+        this.selected.addAll(source.selected);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MultiselectionListBehavior copy() {
+        return new MultiselectionListBehavior(this);
+    }
+
     /**
      *
      * @param key
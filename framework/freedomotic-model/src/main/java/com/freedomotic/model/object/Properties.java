@@ -56,6 +56,15 @@ public class Properties implements Serializable {
         propertyList = new HashMap<>(prop);
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param source the properties to copy
+     */
+    public Properties(Properties source) {
+        propertyList = new HashMap<>(source.propertyList);
+    }
+
     /**
      *
      * @return
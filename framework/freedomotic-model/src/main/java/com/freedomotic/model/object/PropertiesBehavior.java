@@ -34,6 +34,30 @@ public class PropertiesBehavior
 
     private Properties properties = new Properties();
 
+    /**
+     *
+     */
+    public PropertiesBehavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    public PropertiesBehavior(PropertiesBehavior source) {
+        super(source);
+        this.properties = new Properties(source.properties);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PropertiesBehavior copy() {
+        return new PropertiesBehavior(this);
+    }
+
     /**
      *
      * @param key
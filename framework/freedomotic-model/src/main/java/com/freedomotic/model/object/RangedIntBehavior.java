@@ -37,6 +37,34 @@ public class RangedIntBehavior
     private int scale;
     private int step;
 
+    /**
+     *
+     */
+    public RangedIntBehavior() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param source the behavior to copy
+     */
+    public RangedIntBehavior(RangedIntBehavior source) {
+        super(source);
+        this.value = source.value;
+        this.max = source.max;
+        this.min = source.min;
+        this.scale = source.scale;
+        this.step = source.step;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RangedIntBehavior copy() {
+        return new RangedIntBehavior(this);
+    }
+
     /**
      *
      * @return
@@ -49,6 +49,33 @@ public class Representation
     private double scaleY;
     private FreedomShape shape;
 
+    /**
+     *
+     */
+    public Representation() {
+    }
+
+    /**
+     * Copy constructor. The shape is shared with the copy, shapes of the
+     * representations are replaced with {@link #setShape(FreedomShape)} and
+     * never changed in place.
+     *
+     * @param source the representation to copy
+     */
+    public Representation(Representation source) {
+        this.tangible = source.tangible;
+        this.intersecable = source.intersecable;
+        this.offset = (source.offset != null) ? new FreedomPoint(source.offset) : null;
+        this.rotation = source.rotation;
+        this.icon = source.icon;
+        this.fillColor = source.fillColor;
+        this.textColor = source.textColor;
+        this.borderColor = source.borderColor;
+        this.scaleX = source.scaleX;
+        this.scaleY = source.scaleY;
+        this.shape = source.shape;
+    }
+
     /**
      *
      * @return
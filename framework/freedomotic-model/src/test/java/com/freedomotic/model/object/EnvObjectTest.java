@@ -19,9 +19,13 @@
  */
 package com.freedomotic.model.object;
 
+import com.freedomotic.model.geometry.FreedomPolygon;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -58,6 +62,51 @@ public class EnvObjectTest {
     public void tearDown() {
     }
 
+    /**
+     * Test of the copy constructor, changes to the copy must not affect the
+     * original thing.
+     */
+    @Test
+    public void testCopyIsDeep() {
+        EnvObject original = new EnvObject();
+        original.setName("Light");
+        original.getActions().setProperty("turn on", "Turn on light");
+        original.initTags();
+        original.getTagsList().add("light");
+        BooleanBehavior powered = new BooleanBehavior();
+        powered.setName("powered");
+        powered.setValue(false);
+        original.getBehaviors().add(powered);
+        ListBehavior mode = new ListBehavior();
+        mode.setName("mode");
+        mode.add("eco");
+        mode.add("comfort");
+        original.getBehaviors().add(mode);
+        Representation view = new Representation();
+        view.setOffset(10, 20);
+        view.setShape(new FreedomPolygon());
+        original.getRepresentations().add(view);
+
+        EnvObject copy = new EnvObject(original);
+        ((BooleanBehavior) copy.getBehavior("powered")).setValue(true);
+        ((ListBehavior) copy.getBehavior("mode")).setSelected("comfort");
+        copy.getCurrentRepresentation().getOffset().setX(40);
+        copy.getActions().setProperty("turn off", "Turn off light");
+        copy.getTagsList().add("lamp");
+
+        assertEquals("Light", copy.getName());
+        assertEquals(false, powered.getValue());
+        assertEquals(true, ((BooleanBehavior) copy.getBehavior("powered")).getValue());
+        assertEquals("eco", mode.getSelected());
+        assertEquals(10, view.getOffset().getX());
+        assertEquals(1, original.getActions().size());
+        assertEquals(1, original.getTagsList().size());
+        assertTrue(copy.getTagsList().contains("light"));
+        assertNotSame(view, copy.getCurrentRepresentation());
+        // shapes are never changed in place, they are shared
+        assertSame(view.getShape(), copy.getCurrentRepresentation().getShape());
+    }
+
 //    /**
 //     * Test of getActions method, of class EnvObject.
 //     */
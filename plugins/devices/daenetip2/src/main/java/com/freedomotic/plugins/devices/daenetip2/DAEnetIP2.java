@@ -21,9 +21,10 @@ package com.freedomotic.plugins.devices.daenetip2;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.BoardPoller;
+import com.freedomotic.helpers.TCPHelper;
 import com.freedomotic.reactions.Command;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -49,6 +50,7 @@ public class DAEnetIP2 extends Protocol {
     private DataOutputStream outputStream = null;
     private BufferedReader inputStream = null;
     private String[] address = null;
+    private BoardPoller<Board> poller;
     private int SOCKET_TIMEOUT = configuration.getIntProperty("socket-timeout", 2000);
     private String ADDRESS_DELIMITER = configuration.getStringProperty("address-delimiter", ":");
     private String PROTOCOL_NAME = configuration.getStringProperty("protocol.name", "daenetip2");
@@ -96,8 +98,7 @@ public class DAEnetIP2 extends Protocol {
 
         LOG.info("Trying to connect to a DAEnetIP2 device on address " + address + ':' + port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            socket = TCPHelper.getSocket(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
@@ -124,15 +125,23 @@ public class DAEnetIP2 extends Protocol {
      */
     @Override
     public void onStart() {
-        POLLING_TIME = configuration.getIntProperty("polling-time", 1000);
         BOARD_NUMBER = configuration.getTuples().size();
-        setPollingWait(POLLING_TIME);
         loadBoards();
+        poller = BoardPoller.fromConfig(getName(), configuration, this::readStatus, this::statusChanged);
+        for (Board board : devices.values()) {
+            poller.add(board);
+        }
+        POLLING_TIME = poller.getMinInterval();
+        setPollingWait(POLLING_TIME);
     }
 
     @Override
     public void onStop() {
         //release resources
+        if (poller != null) {
+            poller.shutdown();
+            poller = null;
+        }
         devices.clear();
         devices = null;
         setPollingWait(-1); //disable polling
@@ -142,95 +151,61 @@ public class DAEnetIP2 extends Protocol {
 
     @Override
     protected void onRun() {
-        //for (Board board : boards) {
-        Set keys = devices.keySet();
-        Iterator keyIter = keys.iterator();
-        while (keyIter.hasNext()) {
-            String alias = (String) keyIter.next();
-            Board board = (Board) devices.get(alias);
-            SNMPRequest(board);
-            readP6Port(board);
-        }
-
-        try {
-            Thread.sleep(POLLING_TIME);
-        } catch (InterruptedException ex) {
-            LOG.error(ex.getLocalizedMessage());
-            Thread.currentThread().interrupt();
+        // reads the boards in parallel, only the changed ports are notified
+        BoardPoller<Board> current = poller;
+        if (current != null) {
+            current.poll();
         }
     }
 
     /**
+     * Reads the P3 and P5 relay ports and the eight P6 inputs of a board.
      *
      * @param board
+     * @return the port values by port name
+     * @throws IOException if the board doesn't reply
      */
-    public void SNMPRequest(Board board) {
+    private Map<String, String> readStatus(Board board) throws IOException {
         final MYSNMP snmpRequest = new MYSNMP();
-        String relayStatus = null;
-        String objectAddress = null;
-        String P3Status = null;
-        String P5Status = null;
-        Integer oldP5Status = 0;
-
-        P3Status = snmpRequest.SNMP_GET(board.getIpAddress(), board.getSnmpPort(), SNMP_OID + "." + P3_STATUS_OID, board.getReadWriteCommunity());
-        if (!(Integer.valueOf(P3Status) == board.getP3Status())) {
-            System.out.println("P3 status changed");
-            BigInteger P3StatusBi = new BigInteger(P3Status);
-            String behavior = null;
-            for (int i = 0; i < 8; i++) {
-                Boolean newStatusBit = P3StatusBi.testBit(i);
-                int j = i + 1;
-                if (newStatusBit == true) {
-                    relayStatus = "1";
-                } else {
-                    relayStatus = "0";
-                }
-                objectAddress = board.getAlias() + ADDRESS_DELIMITER + "P3." + j;
-                System.out.println(objectAddress + " has changed Status " + relayStatus + " Address " + objectAddress);
-                sendEvent(objectAddress, "relay.state", relayStatus);
-            }
-            board.setP3Status(Integer.valueOf(P3Status));
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("P3", snmpGet(snmpRequest, board, P3_STATUS_OID));
+        values.put("P5", snmpGet(snmpRequest, board, P5_STATUS_OID));
+        for (int i = 1; i <= 8; i++) {
+            values.put("P6." + i, snmpGet(snmpRequest, board, P6_OID + "." + i + ".0"));
         }
+        return values;
+    }
 
-        P5Status = snmpRequest.SNMP_GET(board.getIpAddress(), board.getSnmpPort(), SNMP_OID + "." + P5_STATUS_OID, board.getReadWriteCommunity());
-        if (!(Integer.valueOf(P5Status) == board.getP5Status())) {
-            System.out.println("P5 status changed");
-            BigInteger P5StatusBi = new BigInteger(P5Status);
-            String behavior = null;
-            for (int i = 0; i < 8; i++) {
-                Boolean newStatusBit = P5StatusBi.testBit(i);
-                int j = i + 1;
-                if (newStatusBit == true) {
-                    relayStatus = "1";
-                } else {
-                    relayStatus = "0";
-                }
-                objectAddress = board.getAlias() + ADDRESS_DELIMITER + "P5." + j;
-                System.out.println(objectAddress + " has changed Status " + relayStatus + " Address " + objectAddress);
-                sendEvent(objectAddress, "relay.state", relayStatus);
-            }
-            board.setP5Status(Integer.valueOf(P5Status));
-
+    private String snmpGet(MYSNMP snmpRequest, Board board, String oid) throws IOException {
+        String value = snmpRequest.SNMP_GET(board.getIpAddress(), board.getSnmpPort(), SNMP_OID + "." + oid, board.getReadWriteCommunity());
+        if (value == null || value.isEmpty()) {
+            throw new IOException("No SNMP reply from " + board.getIpAddress() + " for OID " + oid);
         }
-        //readP6Port(board);
-        System.out.println("P3 =" + P3Status);
-        System.out.println("P5 =" + P5Status);
-
+        return value;
     }
 
-    private void readP6Port(Board board) {
-        final MYSNMP snmpRequest = new MYSNMP();
-        String P6PinStatus = null;
-        String objectAddress = null;
-        for (int i = 1; i <= 8; i++) {
-            P6PinStatus = snmpRequest.SNMP_GET(board.getIpAddress(), board.getSnmpPort(), SNMP_OID + "." + P6_OID + "." + i + ".0", board.getReadWriteCommunity());
-            if (!(Integer.valueOf(P6PinStatus) == board.getP6Status(i - 1))) {
-                objectAddress = board.getAlias() + ADDRESS_DELIMITER + "P6." + i;
-                //System.out.println(objectAddress + " has changed Status " + relayStatus + " Address " + objectAddress);
-                sendEvent(objectAddress, "input.value", P6PinStatus);
-                System.out.println(objectAddress + " " + P6PinStatus);
-                board.setP6Status(i - 1, Integer.valueOf(P6PinStatus));
+    private void statusChanged(Board board, String port, String value) {
+        try {
+            if (port.equals("P3") || port.equals("P5")) {
+                LOG.debug("{} status changed to {}", port, value);
+                BigInteger portStatus = new BigInteger(value);
+                for (int i = 0; i < 8; i++) {
+                    String relayStatus = portStatus.testBit(i) ? "1" : "0";
+                    String objectAddress = board.getAlias() + ADDRESS_DELIMITER + port + "." + (i + 1);
+                    sendEvent(objectAddress, "relay.state", relayStatus);
+                }
+                if (port.equals("P3")) {
+                    board.setP3Status(Integer.valueOf(value));
+                } else {
+                    board.setP5Status(Integer.valueOf(value));
+                }
+            } else {
+                int pin = Integer.parseInt(port.substring("P6.".length()));
+                sendEvent(board.getAlias() + ADDRESS_DELIMITER + port, "input.value", value);
+                board.setP6Status(pin - 1, Integer.valueOf(value));
             }
+        } catch (NumberFormatException ex) {
+            LOG.error("Invalid value \"{}\" for port {} of board \"{}\"", value, port, board.getAlias());
         }
     }
 
@@ -265,6 +240,10 @@ public class DAEnetIP2 extends Protocol {
         }
         LOG.info("IP " + board.getIpAddress() + " OID " + SNMP_OID + "." + OID_REQUEST + " Status " + status + " pass " + board.getReadWriteCommunity());
         snmpRequest.SNMP_SET(board.getIpAddress(), board.getSnmpPort(), SNMP_OID + "." + OID_REQUEST, status, board.getReadWriteCommunity());
+        // read the new status at the next poll
+        if (poller != null) {
+            poller.wakeUp(board);
+        }
     }
 
     @Override
@@ -21,9 +21,11 @@ package com.freedomotic.plugins.devices.ethrly;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.BoardPoller;
+import com.freedomotic.helpers.StatusXmlReader;
+import com.freedomotic.helpers.TCPHelper;
 import com.freedomotic.reactions.Command;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -32,22 +34,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.ConnectException;
 import java.net.Socket;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
-import org.apache.commons.codec.binary.Base64;
 
 /**
  *
@@ -59,10 +51,12 @@ public class DevantechEthRly extends Protocol {
     Map<String, Board> devices = new HashMap<String, Board>();
     private static int BOARD_NUMBER = 1;
     private static int POLLING_TIME = 1000;
+    private static final String RELAY_TAG = "led";
     private Socket socket = null;
     private DataOutputStream outputStream = null;
     private BufferedReader inputStream = null;
     private String[] address = null;
+    private BoardPoller<Board> poller;
     private int SOCKET_TIMEOUT = configuration.getIntProperty("socket-timeout", 1000);
     private String GET_STATUS_URL = configuration.getStringProperty("get-status-url", "status.xml");
     private String CHANGE_STATE_RELAY_URL = configuration.getStringProperty("change-state-relay-url", "leds.cgi?led=");
@@ -121,8 +115,7 @@ public class DevantechEthRly extends Protocol {
 
         LOG.info("Trying to connect to Devantech Eth-Rly board on address {}", address + ':' + port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            socket = TCPHelper.getSocket(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
@@ -149,15 +142,39 @@ public class DevantechEthRly extends Protocol {
      */
     @Override
     public void onStart() {
-        POLLING_TIME = configuration.getIntProperty("polling-time", 1000);
         BOARD_NUMBER = configuration.getTuples().size();
-        setPollingWait(POLLING_TIME);
         loadBoards();
+        poller = BoardPoller.fromConfig(getName(), configuration, this::readStatus, new BoardPoller.Listener<Board>() {
+            @Override
+            public void changed(Board board, String name, String value) {
+                statusChanged(board, name, value);
+            }
+
+            @Override
+            public void failed(Board board, IOException ex) {
+                LOG.error("Unable to read the status of board \"{}\": {}", board.getAlias(), ex.getMessage());
+                stop();
+                if (ex instanceof ConnectException) {
+                    setDescription("Connection timed out, no reply from the board at " + board.getIpAddress());
+                } else {
+                    setDescription("Unable to connect to " + board.getIpAddress());
+                }
+            }
+        });
+        for (Board board : devices.values()) {
+            poller.add(board);
+        }
+        POLLING_TIME = poller.getMinInterval();
+        setPollingWait(POLLING_TIME);
     }
 
     @Override
     public void onStop() {
         //release resources
+        if (poller != null) {
+            poller.shutdown();
+            poller = null;
+        }
         devices.clear();
         devices = null;
         setPollingWait(-1); //disable polling
@@ -167,89 +184,33 @@ public class DevantechEthRly extends Protocol {
 
     @Override
     protected void onRun() {
-        // select all boards in the devices hashmap and evaluate the status
-        Set<String> keySet = devices.keySet();
-        for (String key : keySet) {
-            Board board = devices.get(key);
-            evaluateDiffs(getXMLStatusFile(board), board);
-        }
-        try {
-            Thread.sleep(POLLING_TIME);
-        } catch (InterruptedException ex) {
-            LOG.error(ex.getLocalizedMessage());
-            Thread.currentThread().interrupt();
-        }
-    }
-
-    private Document getXMLStatusFile(Board board) {
-        //get the xml file from the socket connection
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = null;
-        try {
-            dBuilder = dbFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            LOG.error(ex.getLocalizedMessage());
-        }
-        Document doc = null;
-        URL url = null;
-        try {
-            String authString = board.getUsername() + ":" + board.getPassword();
-            byte[] authEncBytes = Base64.encodeBase64(authString.getBytes());
-            String authStringEnc = new String(authEncBytes);
-            //Create a URL for the desired  page 
-            url = new URL("http://" + board.getIpAddress() + ":"
-                    + Integer.toString(board.getPort()) + "/" + GET_STATUS_URL);
-            URLConnection urlConnection = url.openConnection();
-            // if required set the authentication
-            if (board.getHttpAuthentication().equalsIgnoreCase("true")) {
-                urlConnection.setRequestProperty("Authorization", "Basic " + authStringEnc);
-            }
-            LOG.info("Devantech Eth-Rly gets relay status from file {}", url);
-            doc = dBuilder.parse(urlConnection.getInputStream());
-            doc.getDocumentElement().normalize();
-        } catch (ConnectException connEx) {
-            disconnect();
-            this.stop();
-            this.setDescription("Connection timed out, no reply from the board at " + url);
-        } catch (SAXException ex) {
-            disconnect();
-            this.stop();
-            LOG.error(Freedomotic.getStackTraceInfo(ex));
-        } catch (Exception ex) {
-            disconnect();
-            this.stop();
-            setDescription("Unable to connect to " + url);
-            LOG.error(Freedomotic.getStackTraceInfo(ex));
+        // reads the boards in parallel, only the changed relays are notified
+        BoardPoller<Board> current = poller;
+        if (current != null) {
+            current.poll();
         }
-        return doc;
     }
 
-    private void evaluateDiffs(Document doc, Board board) {
-        //parses xml
-        if (doc != null && board != null) {
-            Node n = doc.getFirstChild();
-            NodeList nl = n.getChildNodes();
-            valueTag(doc, board, board.getRelayNumber(), "led", 0);
+    private Map<String, String> readStatus(Board board) throws IOException {
+        String url = "http://" + board.getIpAddress() + ":"
+                + Integer.toString(board.getPort()) + "/" + GET_STATUS_URL;
+        // if required set the authentication
+        String username = board.getHttpAuthentication().equalsIgnoreCase("true") ? board.getUsername() : null;
+        LOG.debug("Devantech Eth-Rly gets relay status from file {}", url);
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < board.getRelayNumber(); i++) {
+            names.add(RELAY_TAG + i);
         }
+        return StatusXmlReader.fetch(url, username, board.getPassword(), SOCKET_TIMEOUT, names);
     }
 
-    private void valueTag(Document doc, Board board, Integer nl, String tag, int startingRelay) {
-        for (int i = startingRelay; i < nl; i++) {
-            try {
-                String tagName = tag + i;
-                // control for storing value
-                if (!(board.getRelayStatus(i) == Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                    sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent());
-                    board.setRelayStatus(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                    //System.out.println("led" + i + " status " + Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                }
-            } catch (DOMException dOMException) {
-                //do nothing
-            } catch (NumberFormatException numberFormatException) {
-                //do nothing
-            } catch (NullPointerException ex) {
-                //do nothing
-            }
+    private void statusChanged(Board board, String name, String value) {
+        try {
+            int line = Integer.parseInt(name.substring(RELAY_TAG.length()));
+            board.setRelayStatus(line, Integer.parseInt(value));
+            sendChanges(line, board, value);
+        } catch (NumberFormatException numberFormatException) {
+            LOG.error("Invalid value \"{}\" for \"{}\" of board \"{}\"", value, name, board.getAlias());
         }
     }
 
@@ -317,6 +278,10 @@ public class DevantechEthRly extends Protocol {
                 throw new UnableToExecuteException();
             } finally {
                 disconnect();
+                // read the new status at the next poll
+                if (poller != null) {
+                    poller.wakeUp(board);
+                }
             }
         } else {
             throw new UnableToExecuteException();
@@ -691,8 +691,7 @@ public class ObjectEditor
         if ((!txtProtocol.getSelectedItem().toString().equals(""))
                 && (!txtAddress.getText().equals(""))) {
             EnvObject pojo = object.getPojo();
-            pojo.setProtocol(txtProtocol.getSelectedItem().toString());
-            pojo.setPhisicalAddress(txtAddress.getText());
+            object.setAddress(txtProtocol.getSelectedItem().toString(), txtAddress.getText());
             pojo.setDescription(txtDescription.getText());
             pojo.getTagsList().clear();
             object.addTags(txtTags.getText());
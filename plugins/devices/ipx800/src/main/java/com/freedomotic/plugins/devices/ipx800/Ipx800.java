@@ -21,27 +21,21 @@ package com.freedomotic.plugins.devices.ipx800;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.BoardPoller;
+import com.freedomotic.helpers.StatusXmlReader;
 import com.freedomotic.reactions.Command;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 /**
  *
@@ -59,6 +53,7 @@ public class Ipx800 extends Protocol {
     private DataOutputStream outputStream = null;
     private BufferedReader inputStream = null;
     private String[] address = null;
+    private BoardPoller<Board> poller;
     private int SOCKET_TIMEOUT = configuration.getIntProperty("socket-timeout", 1000);
     private String GET_STATUS_URL = configuration.getStringProperty("get-status-url", "status.xml");
     private String CHANGE_STATE_RELAY_URL = configuration.getStringProperty("change-state-relay-url", "leds.cgi?led=");
@@ -128,16 +123,40 @@ public class Ipx800 extends Protocol {
      */
     @Override
     public void onStart() {
-        POLLING_TIME = configuration.getIntProperty("polling-time", 1000);
         BOARD_NUMBER = configuration.getTuples().size();
         DELIMITER = configuration.getProperty("address-delimiter");
-        setPollingWait(POLLING_TIME);
         loadBoards();
+        poller = BoardPoller.fromConfig(getName(), configuration, this::readStatus, new BoardPoller.Listener<Board>() {
+            @Override
+            public void changed(Board board, String name, String value) {
+                statusChanged(board, name, value);
+            }
+
+            @Override
+            public void failed(Board board, IOException ex) {
+                LOG.error("Unable to read the status of board \"{}\": {}", board.getAlias(), ex.getMessage());
+                if (ex instanceof ConnectException) {
+                    stop();
+                    setDescription("Connection timed out, no reply from the board at " + board.getIpAddress());
+                } else {
+                    setDescription("Unable to connect to " + board.getIpAddress());
+                }
+            }
+        });
+        for (Board board : boards) {
+            poller.add(board);
+        }
+        POLLING_TIME = poller.getMinInterval();
+        setPollingWait(POLLING_TIME);
     }
 
     @Override
     public void onStop() {
         //release resources
+        if (poller != null) {
+            poller.shutdown();
+            poller = null;
+        }
         boards.clear();
         boards = null;
         devices.clear();
@@ -149,97 +168,75 @@ public class Ipx800 extends Protocol {
 
     @Override
     protected void onRun() {
-        // select all boards in the devices hashmap and evaluate the status
-        if (isRunning()) {
-            Set<String> keySet = devices.keySet();
-            for (String key : keySet) {
-                Board board = devices.get(key);
-                evaluateDiffs(getXMLStatusFile(board), board);
-            }
+        // reads the boards in parallel, only the changed values are notified
+        BoardPoller<Board> current = poller;
+        if (isRunning() && current != null) {
+            current.poll();
         }
-
     }
 
-    private Document getXMLStatusFile(Board board) {
-        final Board b = board;
-        //get the xml file from the socket connection
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = null;
-        try {
-            dBuilder = dbFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            LOG.error(ex.getMessage());
+    private Map<String, String> readStatus(Board board) throws IOException {
+        String statusFileURL;
+        String username = null;
+        if (board.getAuthentication().equalsIgnoreCase("true")) {
+            username = board.getUsername();
+            statusFileURL = "http://" + board.getIpAddress() + ":"
+                    + Integer.toString(board.getPort()) + board.getPathAuthentication() + "/" + GET_STATUS_URL;
+        } else {
+            statusFileURL = "http://" + board.getIpAddress() + ":"
+                    + Integer.toString(board.getPort()) + "/" + GET_STATUS_URL;
         }
-        Document doc = null;
-        String statusFileURL = null;
-        try {
-            if (board.getAuthentication().equalsIgnoreCase("true")) {
-                Authenticator.setDefault(new Authenticator() {
+        LOG.debug("Ipx800 gets relay status from file {}", statusFileURL);
+        return StatusXmlReader.fetch(statusFileURL, username, board.getPassword(), SOCKET_TIMEOUT, statusNames(board));
+    }
 
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(b.getUsername(), b.getPassword().toCharArray());
-                    }
-                });
-                statusFileURL = "http://" + b.getIpAddress() + ":"
-                        + Integer.toString(b.getPort()) + b.getPathAuthentication() + "/" + GET_STATUS_URL;
-            } else {
-                statusFileURL = "http://" + board.getIpAddress() + ":"
-                        + Integer.toString(board.getPort()) + "/" + GET_STATUS_URL;
-            }
-            LOG.info("Ipx800 gets relay status from file {0}", statusFileURL);
-            doc = dBuilder.parse(new URL(statusFileURL).openStream());
-            doc.getDocumentElement().normalize();
-        } catch (ConnectException connEx) {
-            LOG.error(Freedomotic.getStackTraceInfo(connEx));
-            //disconnect();
-            this.stop();
-            this.setDescription("Connection timed out, no reply from the board at " + statusFileURL);
-        } catch (SAXException ex) {
-            //this.stop();
-            LOG.error(Freedomotic.getStackTraceInfo(ex));
-        } catch (Exception ex) {
-            //this.stop();
-            setDescription("Unable to connect to " + statusFileURL);
-            LOG.error(Freedomotic.getStackTraceInfo(ex));
+    private static Set<String> statusNames(Board board) {
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < board.getRelayNumber(); i++) {
+            names.add(board.getLedTag() + i);
+        }
+        for (int i = 0; i < board.getDigitalInputNumber(); i++) {
+            names.add(board.getDigitalInputTag() + i);
         }
-        return doc;
+        for (int i = 0; i < board.getAnalogInputNumber(); i++) {
+            names.add(board.getAnalogInputTag() + i);
+        }
+        return names;
     }
 
-    private void evaluateDiffs(Document doc, Board board) {
-        //parses xml
-        if (doc != null && board != null) {
-            Node n = doc.getFirstChild();
-            NodeList nl = n.getChildNodes();
-            valueTag(doc, board, board.getRelayNumber(), board.getLedTag(), 0);
-            valueTag(doc, board, board.getDigitalInputNumber(), board.getDigitalInputTag(), 0);
-            valueTag(doc, board, board.getAnalogInputNumber(), board.getAnalogInputTag(), 0);
+    private void statusChanged(Board board, String name, String value) {
+        try {
+            int line = lineOf(name, board.getLedTag(), board.getRelayNumber());
+            if (line >= 0) {
+                board.setRelayStatus(line, Integer.parseInt(value));
+                sendChanges(line, board, value, board.getLedTag());
+                return;
+            }
+            line = lineOf(name, board.getDigitalInputTag(), board.getDigitalInputNumber());
+            if (line >= 0) {
+                board.setDigitalInputValue(line, value);
+                sendChanges(line, board, value, board.getDigitalInputTag());
+                return;
+            }
+            line = lineOf(name, board.getAnalogInputTag(), board.getAnalogInputNumber());
+            if (line >= 0) {
+                board.setAnalogInputValue(line, Integer.parseInt(value));
+                sendChanges(line, board, value, board.getAnalogInputTag());
+            }
+        } catch (NumberFormatException ex) {
+            LOG.error("Invalid value \"{}\" for \"{}\" of board \"{}\"", value, name, board.getAlias());
         }
     }
 
-    private void valueTag(Document doc, Board board, Integer nl, String tag, int startingRelay) {
-        for (int i = startingRelay; i < nl; i++) {
-            try {
-                String tagName = tag + i;
-                // control for storing value
-                if (tag.equalsIgnoreCase("led")) {
-                    if (!(board.getRelayStatus(i) == Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setRelayStatus(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                    }
-                } else if (tag.equalsIgnoreCase("btn")) {
-                    if (!(board.getDigitalInputValue(i).equalsIgnoreCase(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setDigitalInputValue(i, doc.getElementsByTagName(tagName).item(0).getTextContent());
-                    }
-                } else if (tag.equalsIgnoreCase("an") || tag.equalsIgnoreCase("analog")) {
-                    if (!(board.getAnalogInputValue(i) == Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setAnalogInputValue(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                    }
-                }
-            } catch (DOMException domException) {
-                LOG.error("DOMException " + domException.getLocalizedMessage());
-            }
+    private static int lineOf(String name, String tag, int lines) {
+        if (!name.startsWith(tag)) {
+            return -1;
+        }
+        try {
+            int line = Integer.parseInt(name.substring(tag.length()));
+            return (line < lines) ? line : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
         }
     }
 
@@ -297,6 +294,10 @@ public class Ipx800 extends Protocol {
         Board board = (Board) devices.get(address[0]);
         try {
             sendToBoard(board, c);
+            // read the new status at the next poll
+            if (poller != null) {
+                poller.wakeUp(board);
+            }
         } catch (IOException ex) {
             LOG.error("Impossibile to send command " + ex.getLocalizedMessage());
         }
@@ -24,23 +24,22 @@ import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
 import com.freedomotic.events.GenericEvent;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.HttpClientService;
 import com.freedomotic.reactions.Command;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.logging.Level;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 
 public class Purl extends Protocol {
 
     private static final Logger LOG = Logger.getLogger(Purl.class.getName());
+    private static final int TIMEOUT = 30000;
 
     public Purl() {
         super("pURL", "/pURL/purl-manifest.xml");
@@ -61,12 +60,11 @@ public class Purl extends Protocol {
     protected void onRun() {
         //called in a loop while this plugin is running
         //loops waittime is specified using setPollingWait()
-        Authenticator.setDefault(new MyAuthenticator());
         String pageContent = "";
         String url = "";
         try {
             url = URLDecoder.decode(configuration.getStringProperty("url", ""), "UTF-8");
-            pageContent = readPage(new URL(url));
+            pageContent = readPage(url);
         } catch (Exception ex) {
             LOG.severe(ex.getLocalizedMessage());
         }
@@ -82,33 +80,15 @@ public class Purl extends Protocol {
         }
     }
 
-    private static String readPage(URL url) throws Exception {
-
-        DefaultHttpClient client = new DefaultHttpClient();
-        HttpGet request = new HttpGet(url.toURI());
-        HttpResponse response = client.execute(request);
-
-        Reader reader = null;
-        try {
-            reader = new InputStreamReader(response.getEntity().getContent());
-
-            StringBuilder sb = new StringBuilder();
-            int read;
-            char[] cbuf = new char[1024];
-            while ((read = reader.read(cbuf)) != -1) {
-                sb.append(cbuf, 0, read);
-            }
-            return sb.toString();
-
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    //do nothing
-                }
-            }
-        }
+    private String readPage(String url) throws IOException, URISyntaxException {
+        // the url is already decoded, HttpHelper would decode it again
+        HttpGet request = new HttpGet(new URL(url).toURI());
+        // the shared client keeps the connection open between two polls
+        return HttpClientService.getDefault().execute(request,
+                configuration.getStringProperty("url_username", ""),
+                configuration.getStringProperty("url_password", ""), TIMEOUT,
+                (HttpResponse response) -> (response.getEntity() == null) ? ""
+                : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
     }
 
     @Override
@@ -125,18 +105,4 @@ public class Purl extends Protocol {
     protected void onEvent(EventTemplate event) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
-
-    class MyAuthenticator extends Authenticator {
-
-        @Override
-        public PasswordAuthentication getPasswordAuthentication() {
-            String kuser, kpass;
-            // I haven't checked getRequestingScheme() here, since for NTLM
-            // and Negotiate, the usrname and password are all the same.
-            //System.err.println("Feeding username and password for " + getRequestingScheme());
-            kuser = configuration.getStringProperty("url_username", "");
-            kpass = configuration.getStringProperty("url_password", "");
-            return (new PasswordAuthentication(kuser, kpass.toCharArray()));
-        }
-    }
 }
@@ -21,38 +21,34 @@ package com.freedomotic.plugins.devices.phwswethv2;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.BoardPoller;
+import com.freedomotic.helpers.StatusXmlReader;
+import com.freedomotic.helpers.TCPHelper;
 import com.freedomotic.reactions.Command;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 public class ProgettiHwSwEthv2 extends Protocol {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProgettiHwSwEthv2.class.getName());
     private static List<Board> boards;
     private Map<String, Board> devices;
-    private Set<String> keySet = null;
     private Socket socket = null;
     private DataOutputStream outputStream = null;
     private BufferedReader inputStream = null;
     private String[] address = null;
+    private BoardPoller<Board> poller;
     private final int BOARD_NUMBER = configuration.getTuples().size();
     private final int POLLING_TIME = configuration.getIntProperty("polling-time", 1000);
     private final int SOCKET_TIMEOUT = configuration.getIntProperty("socket-timeout", 1000);
@@ -137,8 +133,7 @@ public class ProgettiHwSwEthv2 extends Protocol {
 
         LOG.info("Trying to connect to ProgettiHwSw board on address {}:{}", address, port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            socket = TCPHelper.getSocket(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
@@ -165,15 +160,37 @@ public class ProgettiHwSwEthv2 extends Protocol {
      */
     @Override
     public void onStart() {
-        setPollingWait(POLLING_TIME);
         loadBoards();
-        // select all boards in the devices hashmap to evaluate their status
-        keySet = devices.keySet();
+        poller = BoardPoller.fromConfig(getName(), configuration, this::readStatus, new BoardPoller.Listener<Board>() {
+            @Override
+            public void changed(Board board, String name, String value) {
+                statusChanged(board, name, value);
+            }
+
+            @Override
+            public void failed(Board board, IOException ex) {
+                LOG.error("Unable to read the status of board \"{}\": {}", board.getAlias(), ex.getMessage());
+                stop();
+                if (ex instanceof ConnectException) {
+                    setDescription("Connection timed out, no reply from the board at " + board.getIpAddress());
+                } else {
+                    setDescription("Unable to connect to " + board.getIpAddress());
+                }
+            }
+        });
+        for (Board board : boards) {
+            poller.add(board);
+        }
+        setPollingWait(poller.getMinInterval());
     }
 
     @Override
     public void onStop() {
         //release resources
+        if (poller != null) {
+            poller.shutdown();
+            poller = null;
+        }
         boards.clear();
         boards = null;
         devices.clear();
@@ -185,123 +202,87 @@ public class ProgettiHwSwEthv2 extends Protocol {
 
     @Override
     protected void onRun() {
-        for (String key : keySet) {
-            Board board = devices.get(key);
-            evaluateDiffs(getXMLStatusFile(board), board);
-        }
-        try {
-            Thread.sleep(POLLING_TIME);
-        } catch (InterruptedException ex) {
-            LOG.error(ex.getMessage());
-            Thread.currentThread().interrupt();
+        // reads the boards in parallel, only the changed values are notified
+        BoardPoller<Board> current = poller;
+        if (current != null) {
+            current.poll();
         }
     }
 
-    private Document getXMLStatusFile(Board board) {
-        final Board b = board;
-        //get the xml file from the socket connection
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = null;
-        try {
-            dBuilder = dbFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            LOG.error(ex.getMessage());
+    private Map<String, String> readStatus(Board board) throws IOException {
+        String statusFileURL;
+        String username = null;
+        if (board.getAuthentication().equalsIgnoreCase("true")) {
+            username = board.getUsername();
+            statusFileURL = "http://" + board.getIpAddress() + ":"
+                    + Integer.toString(board.getPort()) + "/protect/" + GET_STATUS_URL;
+        } else {
+            statusFileURL = "http://" + board.getIpAddress() + ":"
+                    + Integer.toString(board.getPort()) + "/" + GET_STATUS_URL;
         }
-        Document doc = null;
-        String statusFileURL = null;
-        try {
-            if (board.getAuthentication().equalsIgnoreCase("true")) {
-                Authenticator.setDefault(new Authenticator() {
-
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(b.getUsername(), b.getPassword().toCharArray());
-                    }
-                });
-                statusFileURL = "http://" + b.getIpAddress() + ":"
-                        + Integer.toString(b.getPort()) + "/protect/" + GET_STATUS_URL;
-            } else {
-                statusFileURL = "http://" + b.getIpAddress() + ":"
-                        + Integer.toString(b.getPort()) + "/" + GET_STATUS_URL;
-            }
+        LOG.debug("ProgettiHwSwEth gets relay status from file \"{}\"", statusFileURL);
+        return StatusXmlReader.fetch(statusFileURL, username, board.getPassword(), SOCKET_TIMEOUT, statusNames(board));
+    }
 
-            LOG.info("ProgettiHwSwEth gets relay status from file \"{}\"", statusFileURL);
-            doc = dBuilder.parse(new URL(statusFileURL).openStream());
-            doc.getDocumentElement().normalize();
-        } catch (ConnectException connEx) {
-            disconnect();
-            this.stop();
-            this.setDescription("Connection timed out, no reply from the board at " + statusFileURL);
-        } catch (SAXException ex) {
-            disconnect();
-            this.stop();
-            LOG.error(Freedomotic.getStackTraceInfo(ex));
-        } catch (Exception ex) {
-            disconnect();
-            this.stop();
-            setDescription("Unable to connect to " + statusFileURL);
-            LOG.error(Freedomotic.getStackTraceInfo(ex));
+    private static Set<String> statusNames(Board board) {
+        Set<String> names = new HashSet<>();
+        if (board.getMonitorRelay().equalsIgnoreCase("true")) {
+            addNames(names, board.getLedTag(), board.getRelayNumber());
+        }
+        if (board.getMonitorTemperature().equalsIgnoreCase("true")) {
+            addNames(names, board.getTempTag(), board.getTemperatureNumber());
         }
-        return doc;
+        if (board.getMonitorDigitalInput().equalsIgnoreCase("true")) {
+            addNames(names, board.getDigitalInputTag(), board.getDigitalInputNumber());
+        }
+        if (board.getMonitorAnalogInput().equalsIgnoreCase("true")) {
+            addNames(names, board.getAnalogInputTag(), board.getAnalogInputNumber());
+        }
+        return names;
+    }
 
+    private static void addNames(Set<String> names, String tag, int lines) {
+        for (int i = 0; i < lines; i++) {
+            names.add(tag + HexIntConverter.convert(i));
+        }
     }
 
-    private void evaluateDiffs(Document doc, Board board) {
-        //parses xml
-        if (doc != null && board != null) {
-            Node n = doc.getFirstChild();
-            if (board.getMonitorRelay().equalsIgnoreCase("true")) {
-                valueTag(doc, board, board.getRelayNumber(), board.getLedTag(), 0);
+    private void statusChanged(Board board, String name, String value) {
+        try {
+            int line = lineOf(name, board.getLedTag(), board.getRelayNumber());
+            if (line >= 0) {
+                board.setRelayStatus(line, Integer.parseInt(value));
+                sendChanges(line, board, value, board.getLedTag());
+                return;
             }
-            if (board.getMonitorTemperature().equalsIgnoreCase("true")) {
-                valueTag(doc, board, board.getTemperatureNumber(), board.getTempTag(), 0);
+            line = lineOf(name, board.getTempTag(), board.getTemperatureNumber());
+            if (line >= 0) {
+                board.setTemperatureStatus(line, Float.parseFloat(value));
+                sendChanges(line, board, value, board.getTempTag());
+                return;
             }
-            if (board.getMonitorDigitalInput().equalsIgnoreCase("true")) {
-                valueTag(doc, board, board.getDigitalInputNumber(), board.getDigitalInputTag(), 0);
+            line = lineOf(name, board.getAnalogInputTag(), board.getAnalogInputNumber());
+            if (line >= 0) {
+                board.setAnalogInputValue(line, Integer.parseInt(value));
+                sendChanges(line, board, value, board.getAnalogInputTag());
+                return;
             }
-            if (board.getMonitorAnalogInput().equalsIgnoreCase("true")) {
-                valueTag(doc, board, board.getAnalogInputNumber(), board.getAnalogInputTag(), 0);
+            line = lineOf(name, board.getDigitalInputTag(), board.getDigitalInputNumber());
+            if (line >= 0) {
+                board.setDigitalInputValue(line, value);
+                sendChanges(line, board, value, board.getDigitalInputTag());
             }
+        } catch (NumberFormatException ex) {
+            LOG.error("Invalid value \"{}\" for \"{}\" of board \"{}\"", value, name, board.getAlias());
         }
     }
 
-    private void valueTag(Document doc, Board board, Integer nl, String tag, int startingRelay) {
-        for (int i = startingRelay; i < nl; i++) {
-            try {
-                String tagName = tag + HexIntConverter.convert(i);
-                // check stored values
-
-                if (tag.equalsIgnoreCase(board.getLedTag())) {
-                    if (!(board.getRelayStatus(i) == Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setRelayStatus(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                    }
-                }
-                if (tag.equalsIgnoreCase(board.getTempTag())) {
-                    if (!(board.getTemperatureStatus(i) == Float.parseFloat(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setTemperatureStatus(i, Float.parseFloat(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                    }
-                }
-                if (tag.equalsIgnoreCase(board.getAnalogInputTag())) {
-                    if (!(board.getAnalogInputValue(i) == Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setAnalogInputValue(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
-                    }
-                }
-                if (tag.equalsIgnoreCase(board.getDigitalInputTag())) {
-                    if (!(board.getDigitalInputValue(i) == doc.getElementsByTagName(tagName).item(0).getTextContent())) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setDigitalInputValue(i, doc.getElementsByTagName(tagName).item(0).getTextContent());
-                    }
-                }
-            } catch (DOMException dOMException) {
-                //do nothing
-                LOG.error("DOMException " + dOMException);
-            } catch (NumberFormatException | NullPointerException numberFormatException) {
-                //do nothing
-            }
-            //do nothing
+    private static int lineOf(String name, String tag, int lines) {
+        if (!name.startsWith(tag)) {
+            return -1;
         }
+        int line = HexIntConverter.convert(name.substring(tag.length()));
+        return (line < lines) ? line : -1;
     }
 
     private void sendChanges(int relayLine, Board board, String status, String tag) {
@@ -368,6 +349,10 @@ public class ProgettiHwSwEthv2 extends Protocol {
         if (c.getProperty("command").equals("TOGGLE-RELAY")) {
             toggleRelay(board, c);
         }
+        // read the new status at the next poll
+        if (poller != null && board != null) {
+            poller.wakeUp(board);
+        }
     }
 
     private void changeRelayStatus(Board board, Command c) {
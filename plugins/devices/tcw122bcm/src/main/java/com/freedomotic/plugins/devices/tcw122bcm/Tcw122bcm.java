@@ -21,14 +21,13 @@ package com.freedomotic.plugins.devices.tcw122bcm;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.BoardPoller;
 import com.freedomotic.reactions.Command;
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.codec.binary.Base64;
 
@@ -42,6 +41,7 @@ public class Tcw122bcm extends Protocol {
     private DataOutputStream outputStream = null;
     private BufferedReader inputStream = null;
     private String[] address = null;
+    private BoardPoller<Board> poller;
     private int SOCKET_TIMEOUT = configuration.getIntProperty("socket-timeout", 1000);
     private int SNMP_PORT = configuration.getIntProperty("snmp-port", 161);
     private String SNMP_COMMUNITY = configuration.getStringProperty("snmp-community", "public");
@@ -99,16 +99,34 @@ public class Tcw122bcm extends Protocol {
      */
     @Override
     public void onStart() {
-        POLLING_TIME = configuration.getIntProperty("polling-time", 1000);
         // number of configured boards in manifest file
         BOARD_NUMBER = configuration.getTuples().size();
-        setPollingWait(POLLING_TIME);
         loadBoards();
+        poller = BoardPoller.fromConfig(getName(), configuration, this::readStatus, new BoardPoller.Listener<Board>() {
+            @Override
+            public void changed(Board board, String input, String value) {
+                statusChanged(board, input, value);
+            }
+
+            @Override
+            public void failed(Board board, IOException ex) {
+                LOG.warning("Unable to read the status of board " + board.getAlias() + ": " + ex.getMessage());
+            }
+        });
+        for (Board board : devices.values()) {
+            poller.add(board);
+        }
+        POLLING_TIME = poller.getMinInterval();
+        setPollingWait(POLLING_TIME);
     }
 
     @Override
     public void onStop() {
         //release resources
+        if (poller != null) {
+            poller.shutdown();
+            poller = null;
+        }
         devices.clear();
         devices = null;
         setPollingWait(-1); //disable polling
@@ -118,21 +136,12 @@ public class Tcw122bcm extends Protocol {
 
     @Override
     protected void onRun() {
-        Set keys = devices.keySet();
-        Iterator keyIter = keys.iterator();
-        while (keyIter.hasNext()) {
-            String alias = (String) keyIter.next();
-            Board board = (Board) devices.get(alias);
-            evaluateDiff(board);
-        }
-        try {
-            Thread.sleep(POLLING_TIME);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(Tcw122bcm.class.getName()).log(Level.SEVERE, null, ex);
-            Thread.currentThread().interrupt();
+        // reads the boards in parallel, only the changed values are notified
+        BoardPoller<Board> current = poller;
+        if (current != null) {
+            current.poll();
         }
     }
-    // }
 
     private void sendEvent(String objectAddress, String eventProperty, String eventValue, String objectTemplate) {
         ProtocolRead event = new ProtocolRead(this, "tcw122bcm", objectAddress);
@@ -141,75 +150,81 @@ public class Tcw122bcm extends Protocol {
         this.notifyEvent(event);
     }
 
-    // this method sends a Freedomotic event only if there is any change in input values or relays 
+    // reads all the inputs and relays of a board
     // @param board  
-    //        board object to evaluate
+    //        board object to read
     // @return
-    //        no value 
-    private void evaluateDiff(Board board) {
-        //String address = board.getIpAddress() + ":" + board.getPortNumber();
-        //String address = board.getAlias();
-        String value = null;
+    //        the values by input name (T1, T2, H1, H2, D1, D2, A1, A2, R1, R2)
+    private Map<String, String> readStatus(Board board) throws IOException {
         MYSNMP snmpRequest = new MYSNMP();
-        //temperature1
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + T1_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getTemperature1())) {
-            sendEvent(address + ":T1", "sensor.temperature", value, board.getTemperatureObjectTemplate());
-            board.setTemperature1(value);
-        }
-        //temperature2
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + T2_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getTemperature2())) {
-            sendEvent(address + ":T2", "sensor.temperature", value, board.getTemperatureObjectTemplate());
-            board.setTemperature2(value);
-        }
-        //humidity1
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + H1_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getHumidity1())) {
-            sendEvent(address + ":H1", "sensor.humidity", value, board.getHumidityObjectTemplate());
-            board.setHumidity1(value);
-        }
-        //humidity2
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + H2_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getHumidity2())) {
-            sendEvent(address + ":H2", "sensor.humidity", value, board.getHumidityObjectTemplate());
-            board.setHumidity2(value);
-        }
-        //digital input 1
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + D1_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getDigitalInput1())) {
-            sendEvent(address + ":D1", "digital.input.value", value, "default");
-            board.setDigitalInput1(value);
-        }
-        //digital input 2
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + D2_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getDigitalInput2())) {
-            sendEvent(address + ":D2", "digital.input.value", value, "default");
-            board.setDigitalInput2(value);
-        }
-        //analog input 1
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + A1_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getAnalogInput1())) {
-            sendEvent(address + ":A1", "analog.input.value", value, "default");
-            board.setAnalogInput1(value);
-        }
-        //analog input 2
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + A2_VALUE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getAnalogInput2())) {
-            sendEvent(address + ":A2", "analog.input.value", value, "default");
-            board.setAnalogInput2(value);
-        }
-        //relay1 state
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + R1_STATE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getRelay1())) {
-            sendEvent(address + ":R1", "relay.state", value, board.getRelayObjectTemplate());
-            board.setRelay1(value);
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("T1", snmpGet(snmpRequest, board, T1_VALUE));
+        values.put("T2", snmpGet(snmpRequest, board, T2_VALUE));
+        values.put("H1", snmpGet(snmpRequest, board, H1_VALUE));
+        values.put("H2", snmpGet(snmpRequest, board, H2_VALUE));
+        values.put("D1", snmpGet(snmpRequest, board, D1_VALUE));
+        values.put("D2", snmpGet(snmpRequest, board, D2_VALUE));
+        values.put("A1", snmpGet(snmpRequest, board, A1_VALUE));
+        values.put("A2", snmpGet(snmpRequest, board, A2_VALUE));
+        values.put("R1", snmpGet(snmpRequest, board, R1_STATE));
+        values.put("R2", snmpGet(snmpRequest, board, R2_STATE));
+        return values;
+    }
+
+    private String snmpGet(MYSNMP snmpRequest, Board board, String oid) throws IOException {
+        String value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + oid, SNMP_COMMUNITY);
+        if (value == null || value.isEmpty()) {
+            throw new IOException("No SNMP reply from " + board.getIpAddress() + " for OID " + oid);
         }
-        //relay2 state
-        value = snmpRequest.SNMP_GET(board.getIpAddress(), SNMP_PORT, SNMP_OID + "." + R2_STATE, SNMP_COMMUNITY);
-        if (!value.equalsIgnoreCase(board.getRelay2())) {
-            sendEvent(address + ":R2", "relay.state", value, board.getRelayObjectTemplate());
-            board.setRelay2(value);
+        return value;
+    }
+
+    // this method sends a Freedomotic event when an input value or a relay changes
+    private void statusChanged(Board board, String input, String value) {
+        String objectAddress = board.getAlias() + ":" + input;
+        switch (input) {
+            case "T1":
+                board.setTemperature1(value);
+                sendEvent(objectAddress, "sensor.temperature", value, board.getTemperatureObjectTemplate());
+                break;
+            case "T2":
+                board.setTemperature2(value);
+                sendEvent(objectAddress, "sensor.temperature", value, board.getTemperatureObjectTemplate());
+                break;
+            case "H1":
+                board.setHumidity1(value);
+                sendEvent(objectAddress, "sensor.humidity", value, board.getHumidityObjectTemplate());
+                break;
+            case "H2":
+                board.setHumidity2(value);
+                sendEvent(objectAddress, "sensor.humidity", value, board.getHumidityObjectTemplate());
+                break;
+            case "D1":
+                board.setDigitalInput1(value);
+                sendEvent(objectAddress, "digital.input.value", value, "default");
+                break;
+            case "D2":
+                board.setDigitalInput2(value);
+                sendEvent(objectAddress, "digital.input.value", value, "default");
+                break;
+            case "A1":
+                board.setAnalogInput1(value);
+                sendEvent(objectAddress, "analog.input.value", value, "default");
+                break;
+            case "A2":
+                board.setAnalogInput2(value);
+                sendEvent(objectAddress, "analog.input.value", value, "default");
+                break;
+            case "R1":
+                board.setRelay1(value);
+                sendEvent(objectAddress, "relay.state", value, board.getRelayObjectTemplate());
+                break;
+            case "R2":
+                board.setRelay2(value);
+                sendEvent(objectAddress, "relay.state", value, board.getRelayObjectTemplate());
+                break;
+            default:
+                break;
         }
     }
 
@@ -235,6 +250,10 @@ public class Tcw122bcm extends Protocol {
         }
         // call the method for changing relay status
         changeRelayStatus(hostname, hostport, relay, control);
+        // read the new status at the next poll
+        if (poller != null) {
+            poller.wakeUp(board);
+        }
     }
 
     // This method changes the relay status using http commands
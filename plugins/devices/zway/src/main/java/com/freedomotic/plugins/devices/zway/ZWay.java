@@ -24,6 +24,7 @@ import com.freedomotic.api.Protocol;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.TCPHelper;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.reactions.Command;
 import java.io.*;
@@ -89,8 +90,7 @@ public class ZWay extends Protocol {
 
         LOG.info("Trying to connect to ZWay board on address {}:{}", address, port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            socket = TCPHelper.getSocket(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);